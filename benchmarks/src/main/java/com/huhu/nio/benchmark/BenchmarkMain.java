@@ -0,0 +1,44 @@
+package com.huhu.nio.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口
+ *
+ * 默认同时以Throughput和SampleTime模式运行,输出吞吐量和延迟分布,开启GC分配profiler,结果写入jmh-result.json
+ * 命令行参数与JMH一致,会覆盖上述默认值,例如只跑文件复制: java -jar benchmarks.jar FileCopy -p fileSize=1048576
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(BenchmarkMain.class.getPackage().getName());
+        }
+        if (commandLine.getBenchModes().isEmpty()) {
+            //覆盖各基准类上的@BenchmarkMode,SampleTime给出延迟的百分位分布
+            builder.mode(Mode.Throughput);
+            builder.mode(Mode.SampleTime);
+        }
+        if (commandLine.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            builder.result("jmh-result.json");
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.huhu.nio.benchmark;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 堆内缓冲区/直接缓冲区/池化直接缓冲区对比(Test_01_Buffer)
+ *
+ * allocateFillDrain: 每次操作新申请一个缓冲区,写满再读出,对应测试代码中每次事件allocate(1024)的写法
+ * writeToFile: 通过缓冲区写文件,堆内缓冲区在写入前会被JDK额外拷贝到临时直接缓冲区
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+
+    @Param({"1024", "65536"})
+    public int bufferSize;
+
+    @Param({"heap", "direct", "pooled"})
+    public String allocator;
+
+    private byte[] payload;
+    private BufferPool pool;
+    private Path file;
+    private FileChannel channel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        payload = new byte[bufferSize];
+        pool = new BufferPool(512, 1024 * 1024, 4 * 1024 * 1024, false);
+        file = Files.createTempFile("buffer-benchmark", ".bin");
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private ByteBuffer acquire() {
+        switch (allocator) {
+            case "heap":
+                return ByteBuffer.allocate(bufferSize);
+            case "direct":
+                return ByteBuffer.allocateDirect(bufferSize);
+            default:
+                return pool.acquire(bufferSize);
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        if ("pooled".equals(allocator)) {
+            pool.release(buffer);
+        }
+    }
+
+    @Benchmark
+    public byte allocateFillDrain() {
+        ByteBuffer buffer = acquire();
+        buffer.put(payload, 0, bufferSize);
+        buffer.flip();
+        byte last = buffer.get(bufferSize - 1);
+        release(buffer);
+        return last;
+    }
+
+    @Benchmark
+    public int writeToFile() throws IOException {
+        ByteBuffer buffer = acquire();
+        buffer.put(payload, 0, bufferSize);
+        buffer.flip();
+        int written = channel.write(buffer, 0);
+        release(buffer);
+        return written;
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.huhu.nio.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP收发(Test_05_NonBlockingNio2),本机回环上一发一收
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatagramBenchmark {
+
+    @Param({"64", "1024", "8192"})
+    public int datagramSize;
+
+    @Param({"true", "false"})
+    public boolean direct;
+
+    private DatagramChannel sender;
+    private DatagramChannel receiver;
+    private ByteBuffer sendBuffer;
+    private ByteBuffer receiveBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        receiver = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        sender = DatagramChannel.open();
+        sender.connect(receiver.getLocalAddress());
+        sendBuffer = direct ? ByteBuffer.allocateDirect(datagramSize) : ByteBuffer.allocate(datagramSize);
+        receiveBuffer = direct ? ByteBuffer.allocateDirect(65536) : ByteBuffer.allocate(65536);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.close();
+        receiver.close();
+    }
+
+    @Benchmark
+    public int sendReceive() throws IOException {
+        sendBuffer.clear();
+        sender.write(sendBuffer);
+        receiveBuffer.clear();
+        receiver.receive(receiveBuffer);
+        return receiveBuffer.position();
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.huhu.nio.benchmark;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.file.FileCopier;
+import com.huhu.nio.file.MappedFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件复制策略对比(Test_02_Channel.test01 ~ test03及其改进)
+ *
+ * heapLoop-N: test01,N字节的堆内缓冲区循环读写,test01原本使用1KB
+ * directLoop-N: 同test01,换成直接缓冲区
+ * 缓冲区大小写在策略名中,只有两种循环按大小展开;缓冲区在setUp中分配,不计入测量
+ * mapped: test02,内存映射后直接在两块映射内存间拷贝
+ * transferTo: test03,一次transferTo
+ * parallel: 分块并行复制
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileCopyBenchmark {
+
+    @Param({"1048576", "67108864"})
+    public long fileSize;
+
+    @Param({"heapLoop-1024", "heapLoop-65536", "directLoop-1024", "directLoop-65536", "mapped", "transferTo",
+            "parallel"})
+    public String strategy;
+
+    private Path source;
+    private Path target;
+    private FileCopier copier;
+    /** 循环读写使用的缓冲区,其余策略为null */
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = Files.createTempFile("copy-source", ".bin");
+        target = Files.createTempFile("copy-target", ".bin");
+        Random random = new Random(1);
+        byte[] block = new byte[1024 * 1024];
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                random.nextBytes(block);
+                channel.write(ByteBuffer.wrap(block, 0, (int) Math.min(block.length, fileSize - written)));
+            }
+        }
+        copier = new FileCopier(ForkJoinPool.commonPool(), BufferPool.shared(), 8L * 1024 * 1024);
+        int dash = strategy.indexOf('-');
+        if (dash > 0) {
+            int bufferSize = Integer.parseInt(strategy.substring(dash + 1));
+            buffer = strategy.startsWith("heapLoop") ? ByteBuffer.allocate(bufferSize)
+                    : ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        if (buffer != null) {
+            return loop();
+        }
+        switch (strategy) {
+            case "mapped":
+                try (MappedFile in = MappedFile.openReadOnly(source, MappedFile.DEFAULT_WINDOW_SIZE, 2);
+                     MappedFile out = MappedFile.openReadWrite(target, fileSize, MappedFile.DEFAULT_WINDOW_SIZE, 2)) {
+                    in.copyTo(0, out, 0, fileSize);
+                }
+                return fileSize;
+            case "transferTo":
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long position = 0;
+                    while (position < fileSize) {
+                        position += in.transferTo(position, fileSize - position, out);
+                    }
+                    return position;
+                }
+            default:
+                return copier.copy(source, target);
+        }
+    }
+
+    private long loop() throws IOException {
+        buffer.clear();
+        long total = 0;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                total += out.write(buffer);
+                buffer.clear();
+            }
+        }
+        return total;
+    }
+
+}
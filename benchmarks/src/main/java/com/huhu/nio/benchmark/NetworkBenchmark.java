@@ -0,0 +1,182 @@
+package com.huhu.nio.benchmark;
+
+import com.huhu.nio.aio.AioServer;
+import com.huhu.nio.blocking.BlockingServer;
+import com.huhu.nio.reactor.ChannelHandler;
+import com.huhu.nio.reactor.Connection;
+import com.huhu.nio.reactor.ReactorServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 阻塞式(Test_03_BlockingNio,BlockingServer每连接一个线程,JDK21+为虚拟线程)
+ * 与选择器(Test_04_NonBlockingNio1,ReactorServer)、NIO.2异步通道(AioServer)网络通信对比
+ *
+ * 服务端回显收到的数据,每次操作在所有连接上各发送一条消息并等待全部回显,
+ * 因此一次操作包含connections次往返
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkBenchmark {
+
+    @Param({"blocking", "reactor", "aio"})
+    public String server;
+
+    @Param({"1", "16", "64"})
+    public int connections;
+
+    @Param({"128", "4096"})
+    public int messageSize;
+
+    private Closeable echoServer;
+    private SocketChannel[] clients;
+    private ByteBuffer message;
+    private ByteBuffer response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SocketAddress address;
+        if ("blocking".equals(server)) {
+            BlockingServer blocking = new BlockingServer(new InetSocketAddress("127.0.0.1", 0), socketChannel -> {
+                ByteBuffer byteBuffer = ByteBuffer.allocateDirect(64 * 1024);
+                while (socketChannel.read(byteBuffer) != -1) {
+                    byteBuffer.flip();
+                    while (byteBuffer.hasRemaining()) {
+                        socketChannel.write(byteBuffer);
+                    }
+                    byteBuffer.clear();
+                }
+            });
+            blocking.start();
+            address = blocking.localAddress();
+            echoServer = blocking;
+        } else if ("aio".equals(server)) {
+            AioServer aio = new AioServer(new InetSocketAddress("127.0.0.1", 0), (aioServer, channel) ->
+                    new AioEcho(channel, ByteBuffer.allocateDirect(64 * 1024)).read());
+            aio.start();
+            address = aio.localAddress();
+            echoServer = aio;
+        } else {
+            ReactorServer reactor = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), new ChannelHandler() {
+                @Override
+                public void onRead(Connection connection, ByteBuffer buffer) {
+                    ByteBuffer copy = connection.alloc().acquire(buffer.remaining());
+                    copy.put(buffer);
+                    copy.flip();
+                    connection.writeAndRelease(copy);
+                }
+            });
+            reactor.start();
+            address = reactor.localAddress();
+            echoServer = reactor;
+        }
+        clients = new SocketChannel[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = SocketChannel.open(address);
+        }
+        message = ByteBuffer.allocateDirect(messageSize);
+        response = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        echoServer.close();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        for (SocketChannel client : clients) {
+            message.clear();
+            while (message.hasRemaining()) {
+                client.write(message);
+            }
+        }
+        int total = 0;
+        for (SocketChannel client : clients) {
+            response.clear();
+            while (response.hasRemaining()) {
+                if (client.read(response) < 0) {
+                    throw new IOException("server closed connection");
+                }
+            }
+            total += response.position();
+        }
+        return total;
+    }
+
+    /** 异步回显: 读完成后写回,写完再发起下一次读 */
+    static final class AioEcho implements CompletionHandler<Integer, Boolean> {
+
+        private final AsynchronousSocketChannel channel;
+        private final ByteBuffer byteBuffer;
+
+        AioEcho(AsynchronousSocketChannel channel, ByteBuffer byteBuffer) {
+            this.channel = channel;
+            this.byteBuffer = byteBuffer;
+        }
+
+        void read() {
+            byteBuffer.clear();
+            channel.read(byteBuffer, Boolean.TRUE, this);
+        }
+
+        @Override
+        public void completed(Integer result, Boolean reading) {
+            if (reading && result < 0) {
+                close();
+                return;
+            }
+            if (reading) {
+                byteBuffer.flip();
+            }
+            if (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer, Boolean.FALSE, this);
+            } else {
+                read();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Boolean reading) {
+            close();
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.huhu.nio.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 管道读写(Test_06_Pipe),同一线程先写sink再读source
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipeBenchmark {
+
+    @Param({"16", "1024", "16384"})
+    public int messageSize;
+
+    @Param({"true", "false"})
+    public boolean direct;
+
+    private Pipe pipe;
+    private ByteBuffer writeBuffer;
+    private ByteBuffer readBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pipe = Pipe.open();
+        writeBuffer = direct ? ByteBuffer.allocateDirect(messageSize) : ByteBuffer.allocate(messageSize);
+        readBuffer = direct ? ByteBuffer.allocateDirect(messageSize) : ByteBuffer.allocate(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Benchmark
+    public int writeThenRead() throws IOException {
+        writeBuffer.clear();
+        while (writeBuffer.hasRemaining()) {
+            pipe.sink().write(writeBuffer);
+        }
+        readBuffer.clear();
+        while (readBuffer.hasRemaining()) {
+            pipe.source().read(readBuffer);
+        }
+        return readBuffer.position();
+    }
+
+}
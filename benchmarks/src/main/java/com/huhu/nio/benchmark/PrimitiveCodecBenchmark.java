@@ -0,0 +1,91 @@
+package com.huhu.nio.benchmark;
+
+import com.huhu.nio.codec.PrimitiveCodec;
+import com.huhu.nio.codec.PrimitiveReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * long[]时间序列的编解码对比
+ *
+ * stream: DataOutputStream逐个writeLong再逐个读回,对应按对象流写数组的常见写法
+ * RAW/DELTA: PrimitiveCodec写入直接缓冲区,PrimitiveReader在缓冲区上逐个解码求和,不产生数组
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveCodecBenchmark {
+
+    @Param({"1024", "65536"})
+    public int count;
+
+    @Param({"stream", "RAW", "DELTA"})
+    public String codec;
+
+    private long[] values;
+    private ByteBuffer buffer;
+    private ByteArrayOutputStream bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = new long[count];
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            timestamp += 1 + (i % 13);
+            values[i] = timestamp;
+        }
+        buffer = ByteBuffer.allocateDirect(PrimitiveCodec.maxEncodedLength(
+                PrimitiveCodec.Type.LONG, PrimitiveCodec.Encoding.DELTA, count));
+        bytes = new ByteArrayOutputStream(count * 8);
+    }
+
+    @Benchmark
+    public long roundTrip() throws IOException {
+        if ("stream".equals(codec)) {
+            bytes.reset();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(values.length);
+            for (long value : values) {
+                out.writeLong(value);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            long sum = 0;
+            for (int i = in.readInt(); i > 0; i--) {
+                sum += in.readLong();
+            }
+            return sum;
+        }
+        buffer.clear();
+        PrimitiveCodec.encode(values, PrimitiveCodec.Encoding.valueOf(codec), ByteOrder.nativeOrder(), buffer);
+        buffer.flip();
+        PrimitiveReader reader = new PrimitiveReader(buffer);
+        long sum = 0;
+        while (reader.hasNext()) {
+            sum += reader.nextLong();
+        }
+        return sum;
+    }
+
+}
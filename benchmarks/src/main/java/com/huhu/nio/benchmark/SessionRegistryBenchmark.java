@@ -0,0 +1,85 @@
+package com.huhu.nio.benchmark;
+
+import com.huhu.nio.session.SessionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量会话下按连接ID查找并累加计数
+ *
+ * map: ConcurrentHashMap<Long, long[]>,每个会话一个装箱的键、一个节点和一个数组
+ * registry: SessionRegistry,键在原始数组里,计数在堆外slab里,查找不分配对象
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionRegistryBenchmark {
+
+    private static final int BATCH = 1024;
+
+    @Param({"10000", "500000"})
+    public int sessions;
+
+    @Param({"map", "registry"})
+    public String index;
+
+    private ConcurrentHashMap<Long, long[]> map;
+    private SessionRegistry registry;
+    private long[] lookups;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (index.equals("map")) {
+            map = new ConcurrentHashMap<>();
+            for (long id = 1; id <= sessions; id++) {
+                map.put(id, new long[2]);
+            }
+        } else {
+            registry = new SessionRegistry(16);
+            for (long id = 1; id <= sessions; id++) {
+                registry.register(id);
+            }
+        }
+        lookups = new long[BATCH];
+        long seed = 42;
+        for (int i = 0; i < BATCH; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            lookups[i] = 1 + Math.floorMod(seed >>> 16, (long) sessions);
+        }
+    }
+
+    @Benchmark
+    public long lookupAndCount() {
+        long sum = 0;
+        if (map != null) {
+            for (long id : lookups) {
+                long[] counters = map.get(id);
+                sum += ++counters[0];
+            }
+        } else {
+            for (long id : lookups) {
+                int record = registry.get(id);
+                registry.putLong(record, 0, registry.getLong(record, 0) + 1);
+                sum += record;
+            }
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.huhu.nio.aio;
+
+import java.nio.channels.AsynchronousSocketChannel;
+
+/**
+ * 异步连接处理器
+ *
+ * accepted在通道组的线程中调用,不能阻塞;读写通过CompletionHandler链完成,
+ * 处理器负责在结束时关闭通道
+ */
+public interface AioHandler {
+
+    void accepted(AioServer server, AsynchronousSocketChannel channel);
+
+}
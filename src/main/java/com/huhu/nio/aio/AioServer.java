@@ -0,0 +1,188 @@
+package com.huhu.nio.aio;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于NIO.2异步通道的服务端(Proactor),用来和选择器模型(ReactorServer)做对比
+ *
+ * 所有连接共享一个固定大小的AsynchronousChannelGroup,默认线程数等于CPU核数
+ * 操作系统完成IO后在通道组线程中回调CompletionHandler,整个处理过程没有线程阻塞等待
+ *
+ * AsynchronousFileChannel在Linux上是用线程池模拟的异步,读写磁盘会占用线程,
+ * 所以文件通道使用单独的fileExecutor,不挤占网络回调的线程
+ */
+public class AioServer implements Closeable {
+
+    public static final int DEFAULT_BACKLOG = 1024;
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 5000;
+
+    /** accept失败(例如文件描述符耗尽)后延迟重试的毫秒数,避免空转 */
+    private static final long ACCEPT_BACKOFF = 100;
+
+    private final InetSocketAddress address;
+    private final int threads;
+    private final int backlog;
+    private final AioHandler handler;
+    private final BufferPool bufferPool;
+
+    private AsynchronousChannelGroup group;
+    private ExecutorService fileExecutor;
+    private AsynchronousServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+
+    public AioServer(InetSocketAddress address, AioHandler handler) {
+        this(address, Runtime.getRuntime().availableProcessors(), DEFAULT_BACKLOG, handler, BufferPool.shared());
+    }
+
+    public AioServer(InetSocketAddress address, int threads, int backlog, AioHandler handler, BufferPool bufferPool) {
+        if (threads <= 0 || backlog <= 0) {
+            throw new IllegalArgumentException("threads: " + threads + ", backlog: " + backlog);
+        }
+        this.address = address;
+        this.threads = threads;
+        this.backlog = backlog;
+        this.handler = handler;
+        this.bufferPool = bufferPool;
+    }
+
+    /** 优雅关闭时等待连接结束的最长时间(毫秒) */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("server already started");
+        }
+        group = AsynchronousChannelGroup.withFixedThreadPool(threads, threadFactory("aio-group-"));
+        fileExecutor = Executors.newFixedThreadPool(threads, threadFactory("aio-file-"));
+        try {
+            serverChannel = AsynchronousServerSocketChannel.open(group);
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(address, backlog);
+        } catch (IOException e) {
+            group.shutdownNow();
+            fileExecutor.shutdownNow();
+            throw e;
+        }
+        running = true;
+        accept();
+    }
+
+    /** 实际绑定的地址,端口为0时可以由此获取系统分配的端口 */
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /** 打开AsynchronousFileChannel时使用的线程池 */
+    public ExecutorService fileExecutor() {
+        return fileExecutor;
+    }
+
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    private void accept() {
+        try {
+            serverChannel.accept(null, acceptHandler);
+        } catch (ShutdownChannelGroupException e) {
+            //已经开始关闭
+        }
+    }
+
+    private final CompletionHandler<AsynchronousSocketChannel, Void> acceptHandler =
+            new CompletionHandler<AsynchronousSocketChannel, Void>() {
+
+        @Override
+        public void completed(AsynchronousSocketChannel channel, Void attachment) {
+            //先继续接收下一个连接,再处理当前连接
+            accept();
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                return;
+            }
+            try {
+                handler.accepted(AioServer.this, channel);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            if (!running || !serverChannel.isOpen() || exc instanceof AsynchronousCloseException
+                    || exc instanceof ClosedChannelException) {
+                return;
+            }
+            exc.printStackTrace();
+            //不占用通道组的线程等待
+            CompletableFuture.delayedExecutor(ACCEPT_BACKOFF, TimeUnit.MILLISECONDS).execute(AioServer.this::accept);
+        }
+
+    };
+
+    /** 停止接收新连接,等待已有连接关闭,超时后强制关闭 */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        closeQuietly(serverChannel);
+        //通道组在所有通道关闭后才会终止
+        group.shutdown();
+        try {
+            if (!group.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                group.shutdownNow();
+                group.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS);
+            }
+            fileExecutor.shutdown();
+            if (!fileExecutor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                fileExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger id = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + id.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.huhu.nio.aio;
+
+import com.huhu.nio.blocking.UploadHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Test_03_BlockingNio.server2上传协议的异步实现
+ *
+ * 读socket -> 按位置写文件 -> 写完再读socket,读到EOF后关闭文件并回复"接收成功"
+ * 每一步都在上一步的CompletionHandler中发起,连接只占用一个池化缓冲区,不占用线程
+ */
+public class AioUploadHandler implements AioHandler {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<StandardOpenOption> OPTIONS = EnumSet.of(StandardOpenOption.WRITE);
+
+    private final Path directory;
+
+    public AioUploadHandler(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void accepted(AioServer server, AsynchronousSocketChannel channel) {
+        Path target = null;
+        AsynchronousFileChannel fileChannel;
+        try {
+            //与UploadHandler一样用createTempFile生成新文件名,重启后不会覆盖之前的上传
+            target = Files.createTempFile(directory, "upload-", "");
+            fileChannel = AsynchronousFileChannel.open(target, OPTIONS, server.fileExecutor());
+        } catch (IOException e) {
+            e.printStackTrace();
+            AioServer.closeQuietly(channel);
+            if (target != null) {
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException ignored) {
+                    //ignore
+                }
+            }
+            return;
+        }
+        new Upload(server, channel, fileChannel, target).read();
+    }
+
+    /** 一次上传的状态,回调之间严格串行,不需要加锁 */
+    private static final class Upload {
+
+        private final AioServer server;
+        private final AsynchronousSocketChannel channel;
+        private final AsynchronousFileChannel fileChannel;
+        private final Path target;
+        private final ByteBuffer buffer;
+        private long position;
+        private boolean closed;
+
+        Upload(AioServer server, AsynchronousSocketChannel channel, AsynchronousFileChannel fileChannel, Path target) {
+            this.server = server;
+            this.channel = channel;
+            this.fileChannel = fileChannel;
+            this.target = target;
+            this.buffer = server.bufferPool().acquire(BUFFER_SIZE);
+        }
+
+        void read() {
+            channel.read(buffer, this, ON_READ);
+        }
+
+        void writeFile() {
+            fileChannel.write(buffer, position, this, ON_FILE_WRITE);
+        }
+
+        /** 文件写完,关闭文件后回复确认 */
+        void acknowledge() {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            buffer.clear();
+            buffer.put(UploadHandler.ACK).flip();
+            channel.write(buffer, this, ON_ACK);
+        }
+
+        void fail(Throwable exc) {
+            if (!(exc instanceof IOException)) {
+                exc.printStackTrace();
+            }
+            close();
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            server.bufferPool().release(buffer);
+            AioServer.closeQuietly(fileChannel);
+            AioServer.closeQuietly(channel);
+        }
+
+    }
+
+    private static final CompletionHandler<Integer, Upload> ON_READ = new CompletionHandler<Integer, Upload>() {
+
+        @Override
+        public void completed(Integer result, Upload upload) {
+            if (result < 0) {
+                upload.acknowledge();
+                return;
+            }
+            upload.buffer.flip();
+            upload.writeFile();
+        }
+
+        @Override
+        public void failed(Throwable exc, Upload upload) {
+            upload.fail(exc);
+        }
+
+    };
+
+    private static final CompletionHandler<Integer, Upload> ON_FILE_WRITE = new CompletionHandler<Integer, Upload>() {
+
+        @Override
+        public void completed(Integer result, Upload upload) {
+            upload.position += result;
+            if (upload.buffer.hasRemaining()) {
+                upload.writeFile();
+            } else {
+                upload.buffer.clear();
+                upload.read();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Upload upload) {
+            upload.fail(exc);
+        }
+
+    };
+
+    private static final CompletionHandler<Integer, Upload> ON_ACK = new CompletionHandler<Integer, Upload>() {
+
+        @Override
+        public void completed(Integer result, Upload upload) {
+            if (upload.buffer.hasRemaining()) {
+                upload.channel.write(upload.buffer, upload, this);
+            } else {
+                upload.close();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Upload upload) {
+            upload.close();
+        }
+
+    };
+
+}
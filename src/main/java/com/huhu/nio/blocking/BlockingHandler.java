@@ -0,0 +1,16 @@
+package com.huhu.nio.blocking;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 阻塞模式的连接处理器
+ *
+ * 每个连接独占一个线程(运行时支持时为虚拟线程),可以直接用阻塞的read/write编写协议
+ * handle返回后由服务端关闭连接
+ */
+public interface BlockingHandler {
+
+    void handle(SocketChannel socketChannel) throws IOException;
+
+}
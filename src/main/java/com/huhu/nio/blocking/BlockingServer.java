@@ -0,0 +1,199 @@
+package com.huhu.nio.blocking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每连接一个线程的阻塞服务端,用来和选择器模型(ReactorServer)做对比
+ *
+ * accept线程阻塞接收连接,每个连接交给一个新线程,用阻塞的SocketChannel完成读写
+ * JDK21+使用虚拟线程,阻塞IO时只挂起虚拟线程,不占用平台线程,可以同时处理数万连接;
+ * 更早的运行时退化为按需创建的平台线程
+ *
+ * 关闭时先停止接收新连接,等待进行中的连接在超时前处理完,超时后强制关闭剩余连接
+ */
+public class BlockingServer implements Closeable {
+
+    public static final int DEFAULT_BACKLOG = 1024;
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 5000;
+
+    /** accept失败(例如文件描述符耗尽)后暂停的毫秒数,避免空转 */
+    private static final long ACCEPT_BACKOFF = 100;
+
+    private final InetSocketAddress address;
+    private final int backlog;
+    private final BlockingHandler handler;
+    private final Set<SocketChannel> active = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadId = new AtomicInteger();
+
+    private ServerSocketChannel serverSocketChannel;
+    private ExecutorService executor;
+    private boolean virtualThreads;
+    private Thread acceptThread;
+    private volatile boolean running;
+    private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+
+    public BlockingServer(InetSocketAddress address, BlockingHandler handler) {
+        this(address, DEFAULT_BACKLOG, handler);
+    }
+
+    public BlockingServer(InetSocketAddress address, int backlog, BlockingHandler handler) {
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("backlog: " + backlog);
+        }
+        this.address = address;
+        this.backlog = backlog;
+        this.handler = handler;
+    }
+
+    /** 优雅关闭时等待进行中连接的最长时间(毫秒) */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("server already started");
+        }
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        try {
+            serverSocketChannel.bind(address, backlog);
+        } catch (IOException e) {
+            serverSocketChannel.close();
+            throw e;
+        }
+
+        executor = newVirtualThreadExecutor();
+        virtualThreads = executor != null;
+        if (!virtualThreads) {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "blocking-handler-" + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "blocking-acceptor");
+        acceptThread.start();
+    }
+
+    /** 实际绑定的地址,端口为0时可以由此获取系统分配的端口 */
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) serverSocketChannel.getLocalAddress();
+    }
+
+    /** 连接是否运行在虚拟线程上 */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** 正在处理的连接数 */
+    public int activeConnections() {
+        return active.size();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            SocketChannel socketChannel;
+            try {
+                socketChannel = serverSocketChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (!running || !serverSocketChannel.isOpen()) {
+                    break;
+                }
+                e.printStackTrace();
+                try {
+                    Thread.sleep(ACCEPT_BACKOFF);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                continue;
+            }
+            active.add(socketChannel);
+            try {
+                executor.execute(() -> serve(socketChannel));
+            } catch (RejectedExecutionException e) {
+                //已经开始关闭
+                active.remove(socketChannel);
+                closeQuietly(socketChannel);
+            }
+        }
+    }
+
+    private void serve(SocketChannel socketChannel) {
+        try {
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            handler.handle(socketChannel);
+        } catch (IOException e) {
+            //强制关闭时正在阻塞的读写会抛出AsynchronousCloseException,不算错误
+            if (running) {
+                e.printStackTrace();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            active.remove(socketChannel);
+            closeQuietly(socketChannel);
+        }
+    }
+
+    /** 停止接收新连接,等待进行中的连接处理完,超时后强制关闭 */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        //关闭通道会让阻塞在accept上的线程抛出AsynchronousCloseException
+        closeQuietly(serverSocketChannel);
+        try {
+            acceptThread.join(shutdownTimeout);
+            executor.shutdown();
+            if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                for (SocketChannel socketChannel : active) {
+                    closeQuietly(socketChannel);
+                }
+                executor.shutdownNow();
+                executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** JDK21+的Executors.newVirtualThreadPerTaskExecutor(),不支持时返回null */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+
+}
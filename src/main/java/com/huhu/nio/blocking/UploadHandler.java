@@ -0,0 +1,63 @@
+package com.huhu.nio.blocking;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Test_03_BlockingNio.server2的上传协议
+ *
+ * 客户端发送文件内容后shutdownOutput,服务端读到EOF时把内容写入目录下的新文件,再回复"接收成功"
+ * 文件名由Files.createTempFile生成,服务端重启后也不会覆盖之前的上传
+ */
+public class UploadHandler implements BlockingHandler {
+
+    public static final byte[] ACK = "接收成功".getBytes(StandardCharsets.UTF_8);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final BufferPool bufferPool;
+
+    public UploadHandler(Path directory) {
+        this(directory, BufferPool.shared());
+    }
+
+    public UploadHandler(Path directory, BufferPool bufferPool) {
+        this.directory = directory;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void handle(SocketChannel socketChannel) throws IOException {
+        Path target = Files.createTempFile(directory, "upload-", "");
+        ByteBuffer byteBuffer = bufferPool.acquire(BUFFER_SIZE);
+        try (FileChannel fileChannel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            while (socketChannel.read(byteBuffer) != -1) {
+                byteBuffer.flip();
+                while (byteBuffer.hasRemaining()) {
+                    fileChannel.write(byteBuffer);
+                }
+                byteBuffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        } finally {
+            bufferPool.release(byteBuffer);
+        }
+
+        ByteBuffer ack = ByteBuffer.wrap(ACK);
+        while (ack.hasRemaining()) {
+            socketChannel.write(ack);
+        }
+    }
+
+}
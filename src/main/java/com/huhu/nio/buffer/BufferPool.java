@@ -0,0 +1,285 @@
+package com.huhu.nio.buffer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 直接缓冲区池
+ *
+ * 按2的幂划分大小等级(默认512B ~ 1MB),每个等级从一整块堆外内存(slab)中切片分配
+ * 释放的缓冲区优先放回当前线程的本地缓存,本地缓存满了再放回全局的无锁空闲链表
+ * 超过最大等级的请求不进池,直接allocateDirect
+ * 虚拟线程数量多、生命周期短,不使用本地缓存,直接访问全局链表
+ *
+ * 调试模式下会记录每个未归还缓冲区的申请位置,用于排查泄漏和重复释放
+ *
+ * 取出的缓冲区处于写入模式,容量不小于申请的大小,字节序为大端
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_MIN_SIZE = 512;
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /** 每个线程每个等级最多缓存的缓冲区数量 */
+    private static final int THREAD_CACHE_SIZE = 64;
+
+    /** JDK21+的Thread.isVirtual(),更早的版本没有虚拟线程 */
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_SLAB_SIZE,
+            Boolean.getBoolean("com.huhu.nio.buffer.debug"));
+
+    private final int minShift;
+    private final int maxShift;
+    private final int slabSize;
+    private final boolean debug;
+    private final SizeClass[] classes;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder outstanding = new LongAdder();
+
+    /** 调试模式下记录未归还的缓冲区及其申请位置 */
+    private final Map<ByteBuffer, Throwable> tracked;
+
+    public BufferPool(int minSize, int maxSize, int slabSize, boolean debug) {
+        if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("minSize/maxSize must be powers of two: " + minSize + "/" + maxSize);
+        }
+        if (slabSize < maxSize) {
+            throw new IllegalArgumentException("slabSize < maxSize: " + slabSize);
+        }
+        this.minShift = Integer.numberOfTrailingZeros(minSize);
+        this.maxShift = Integer.numberOfTrailingZeros(maxSize);
+        this.slabSize = slabSize;
+        this.debug = debug;
+        this.classes = new SizeClass[maxShift - minShift + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(1 << (minShift + i));
+        }
+        final int classCount = classes.length;
+        this.threadCache = ThreadLocal.withInitial(() -> newCache(classCount));
+        this.tracked = debug ? new IdentityHashMap<>() : null;
+    }
+
+    /** 进程内共享的缓冲区池,-Dcom.huhu.nio.buffer.debug=true开启调试模式 */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /** 申请一个容量不小于size的直接缓冲区 */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        int index = classIndex(size);
+        ByteBuffer buffer;
+        if (index < 0) {
+            misses.increment();
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            buffer = useThreadCache() ? threadCache.get()[index].pollLast() : null;
+            if (buffer == null) {
+                buffer = classes[index].shared.poll();
+            }
+            if (buffer != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                buffer = classes[index].carve();
+            }
+        }
+        outstanding.increment();
+        if (debug) {
+            synchronized (tracked) {
+                tracked.put(buffer, new Throwable("buffer acquired here"));
+            }
+        }
+        return buffer;
+    }
+
+    /** 归还缓冲区,归还后调用方不能再使用它 */
+    public void release(ByteBuffer buffer) {
+        if (debug) {
+            synchronized (tracked) {
+                if (tracked.remove(buffer) == null) {
+                    throw new IllegalStateException("buffer not acquired from this pool or released twice");
+                }
+            }
+        }
+        outstanding.decrement();
+        int capacity = buffer.capacity();
+        int index = classIndex(capacity);
+        if (index < 0 || classes[index].size != capacity || !buffer.isDirect()) {
+            //超大缓冲区不回收,交给GC
+            return;
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (!useThreadCache()) {
+            classes[index].shared.offer(buffer);
+            return;
+        }
+        ArrayDeque<ByteBuffer> cache = threadCache.get()[index];
+        if (cache.size() >= THREAD_CACHE_SIZE) {
+            //本地缓存已满,把一半转移到全局链表,让其他线程可以复用
+            ConcurrentLinkedQueue<ByteBuffer> shared = classes[index].shared;
+            for (int i = THREAD_CACHE_SIZE / 2; i > 0; i--) {
+                shared.offer(cache.pollFirst());
+            }
+        }
+        cache.addLast(buffer);
+    }
+
+    /** 把当前线程缓存的缓冲区全部还给全局链表,线程退出前调用 */
+    public void trimThreadCache() {
+        ArrayDeque<ByteBuffer>[] cache = threadCache.get();
+        for (int i = 0; i < cache.length; i++) {
+            ByteBuffer buffer;
+            while ((buffer = cache[i].pollFirst()) != null) {
+                classes[i].shared.offer(buffer);
+            }
+        }
+    }
+
+    private static boolean useThreadCache() {
+        if (IS_VIRTUAL == null) {
+            return true;
+        }
+        try {
+            return !(boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return true;
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** 大小等级,size超过最大等级时返回-1 */
+    private int classIndex(int size) {
+        if (size <= (1 << minShift)) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > maxShift ? -1 : shift - minShift;
+    }
+
+    /** 不小于size的等级容量,超过最大等级时返回size本身 */
+    public int normalize(int size) {
+        int index = classIndex(size);
+        return index < 0 ? size : classes[index].size;
+    }
+
+    public int maxPooledSize() {
+        return 1 << maxShift;
+    }
+
+    /** 从本地缓存或全局链表中取到缓冲区的次数 */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** 需要新切片或直接分配的次数 */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** 已取出但尚未归还的缓冲区数量 */
+    public long outstanding() {
+        return outstanding.sum();
+    }
+
+    /** 已向操作系统申请的slab总字节数 */
+    public long slabBytes() {
+        long total = 0;
+        for (SizeClass sizeClass : classes) {
+            total += sizeClass.slabBytes();
+        }
+        return total;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * 调试模式下返回所有未归还缓冲区的申请位置
+     *
+     * 非调试模式返回空列表
+     */
+    public List<Throwable> leaks() {
+        if (!debug) {
+            return new ArrayList<>();
+        }
+        synchronized (tracked) {
+            return new ArrayList<>(tracked.values());
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<ByteBuffer>[] newCache(int classCount) {
+        ArrayDeque<ByteBuffer>[] cache = new ArrayDeque[classCount];
+        for (int i = 0; i < classCount; i++) {
+            cache[i] = new ArrayDeque<>(THREAD_CACHE_SIZE);
+        }
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[hits=" + hits() + ", misses=" + misses() + ", outstanding=" + outstanding()
+                + ", slabBytes=" + slabBytes() + "]";
+    }
+
+    /** 单个大小等级 */
+    private final class SizeClass {
+
+        final int size;
+        final ConcurrentLinkedQueue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+
+        /** 当前正在切分的slab,只在锁内访问 */
+        private ByteBuffer slab;
+        private long slabBytes;
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+
+        synchronized ByteBuffer carve() {
+            if (slab == null || slab.remaining() < size) {
+                slab = ByteBuffer.allocateDirect(slabSize);
+                slabBytes += slabSize;
+            }
+            int position = slab.position();
+            slab.limit(position + size);
+            ByteBuffer chunk = slab.slice();
+            slab.limit(slab.capacity());
+            slab.position(position + size);
+            return chunk;
+        }
+
+        synchronized long slabBytes() {
+            return slabBytes;
+        }
+
+    }
+
+}
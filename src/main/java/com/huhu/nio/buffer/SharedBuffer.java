@@ -0,0 +1,74 @@
+package com.huhu.nio.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带引用计数的只读消息,用于把同一份数据发给多个连接
+ *
+ * 数据只编码一次放在池化的直接缓冲区里,每个接收方通过{@link #view()}拿到独立position的只读视图,不拷贝内容
+ * 创建时引用计数为1,每个持有方retain一次、用完release一次,计数归零时缓冲区归还到池中
+ * 计数的增减是线程安全的,视图本身只能在一个线程中使用
+ */
+public final class SharedBuffer {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    /**
+     * @param buffer 从pool申请、已处于读取模式的缓冲区,之后归SharedBuffer所有,不能再修改
+     */
+    public SharedBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /** 独立position和limit的只读视图,直接缓冲区的视图写入通道时同样不经过拷贝 */
+    public ByteBuffer view() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /** 消息长度 */
+    public int length() {
+        return buffer.remaining();
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+
+    public SharedBuffer retain() {
+        return retain(1);
+    }
+
+    /** 一次增加多个引用,用于已知接收方数量的批量分发 */
+    public SharedBuffer retain(int increment) {
+        if (increment <= 0) {
+            throw new IllegalArgumentException("increment: " + increment);
+        }
+        int count;
+        do {
+            count = refCnt.get();
+            if (count == 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+        } while (!refCnt.compareAndSet(count, count + increment));
+        return this;
+    }
+
+    /** 释放一个引用,计数归零并归还缓冲区时返回true */
+    public boolean release() {
+        int count = refCnt.decrementAndGet();
+        if (count > 0) {
+            return false;
+        }
+        if (count < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("buffer released too many times");
+        }
+        pool.release(buffer);
+        return true;
+    }
+
+}
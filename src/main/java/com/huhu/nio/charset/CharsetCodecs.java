@@ -0,0 +1,80 @@
+package com.huhu.nio.charset;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按线程缓存的编解码器
+ *
+ * Charset.newEncoder()/newDecoder()每次都会创建新对象和内部表,高频调用时开销明显
+ * 编解码器有状态不能共享,这里每个线程按字符集保存一小组空闲实例,取出时已reset,用完归还
+ * 畸形输入和无法映射的字符默认替换而不是抛异常
+ */
+public final class CharsetCodecs {
+
+    private static final int MAX_CACHED = 4;
+
+    /** 单字节部分与ASCII完全一致,且多字节序列的首字节都不在ASCII范围内的字符集 */
+    private static final Set<String> ASCII_COMPATIBLE = new HashSet<>(Arrays.asList(
+            "UTF-8", "US-ASCII", "ISO-8859-1", "GBK", "GB2312", "GB18030", "x-EUC-TW", "EUC-KR", "EUC-JP",
+            "windows-1250", "windows-1251", "windows-1252", "windows-1253", "windows-1254"));
+
+    private static final ThreadLocal<Map<Charset, ArrayDeque<CharsetDecoder>>> DECODERS =
+            ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<Charset, ArrayDeque<CharsetEncoder>>> ENCODERS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    private CharsetCodecs() {
+    }
+
+    public static CharsetDecoder acquireDecoder(Charset charset) {
+        ArrayDeque<CharsetDecoder> cache = DECODERS.get().get(charset);
+        CharsetDecoder decoder = cache == null ? null : cache.pollLast();
+        if (decoder == null) {
+            return charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        return decoder.reset();
+    }
+
+    public static void releaseDecoder(CharsetDecoder decoder) {
+        ArrayDeque<CharsetDecoder> cache = DECODERS.get().computeIfAbsent(decoder.charset(), c -> new ArrayDeque<>());
+        if (cache.size() < MAX_CACHED) {
+            cache.addLast(decoder);
+        }
+    }
+
+    public static CharsetEncoder acquireEncoder(Charset charset) {
+        ArrayDeque<CharsetEncoder> cache = ENCODERS.get().get(charset);
+        CharsetEncoder encoder = cache == null ? null : cache.pollLast();
+        if (encoder == null) {
+            return charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        return encoder.reset();
+    }
+
+    public static void releaseEncoder(CharsetEncoder encoder) {
+        ArrayDeque<CharsetEncoder> cache = ENCODERS.get().computeIfAbsent(encoder.charset(), c -> new ArrayDeque<>());
+        if (cache.size() < MAX_CACHED) {
+            cache.addLast(encoder);
+        }
+    }
+
+    /** ASCII字节在该字符集中是否总是表示同一个ASCII字符 */
+    public static boolean isAsciiCompatible(Charset charset) {
+        return charset == StandardCharsets.UTF_8 || ASCII_COMPATIBLE.contains(charset.name());
+    }
+
+}
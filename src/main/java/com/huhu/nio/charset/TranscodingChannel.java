@@ -0,0 +1,256 @@
+package com.huhu.nio.charset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * 流式转码通道,从source读取from编码的字节,读出to编码的字节,例如GBK转UTF-8
+ *
+ * 一个多字节字符被拆在两次read中时,前半部分留在输入缓冲区里等下一次读取再一起解码,不会出现乱码
+ * 编解码器从{@link CharsetCodecs}的线程缓存中获取,关闭时归还;
+ * 三个中间缓冲区在整个生命周期内复用,读取过程中不再分配内存
+ *
+ * 两个字符集都兼容ASCII时,连续的ASCII字节直接拷贝到输出,跳过解码和编码
+ * 非ASCII部分每次只解码一小段,之后重新回到快速路径,适合以ASCII为主夹杂中文的日志
+ */
+public class TranscodingChannel implements ReadableByteChannel {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** 慢速路径每次解码的最大字节数 */
+    private static final int SLOW_PATH_WINDOW = 256;
+
+    private final ReadableByteChannel source;
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    private final boolean asciiFastPath;
+
+    /** 待解码的输入,读取模式 */
+    private final ByteBuffer in;
+    /** 已解码待编码的字符,写入模式 */
+    private final CharBuffer chars;
+    /** 已编码待读出的输出,读取模式 */
+    private final ByteBuffer out;
+
+    private boolean eof;
+    private boolean decoderDone;
+    private boolean flushed;
+    private boolean closed;
+
+    public TranscodingChannel(ReadableByteChannel source, Charset from, Charset to) {
+        this(source, from, to, DEFAULT_BUFFER_SIZE);
+    }
+
+    public TranscodingChannel(ReadableByteChannel source, Charset from, Charset to, int bufferSize) {
+        this.source = source;
+        this.decoder = CharsetCodecs.acquireDecoder(from);
+        this.encoder = CharsetCodecs.acquireEncoder(to);
+        this.asciiFastPath = CharsetCodecs.isAsciiCompatible(from) && CharsetCodecs.isAsciiCompatible(to);
+        this.in = ByteBuffer.allocate(bufferSize);
+        this.in.flip();
+        this.chars = CharBuffer.allocate(bufferSize);
+        this.out = ByteBuffer.allocate(Math.max(bufferSize, (int) Math.ceil(encoder.maxBytesPerChar()) * 2));
+        this.out.flip();
+    }
+
+    /**
+     * 把source全部转码后写入target,返回写出的字节数
+     *
+     * source和target都必须是阻塞模式,一直读到source返回-1为止;非阻塞的通道应直接使用read配合选择器
+     *
+     * @throws IllegalArgumentException source是非阻塞模式的SelectableChannel
+     */
+    public static long transcode(ReadableByteChannel source, Charset from, WritableByteChannel target, Charset to)
+            throws IOException {
+        if (source instanceof SelectableChannel && !((SelectableChannel) source).isBlocking()) {
+            throw new IllegalArgumentException("source must be in blocking mode");
+        }
+        long total = 0;
+        try (TranscodingChannel channel = new TranscodingChannel(source, from, to)) {
+            //读到0个字节不代表结束,直到输出全部生成完毕
+            while (!channel.flushed) {
+                channel.fill(true);
+                while (channel.out.hasRemaining()) {
+                    total += target.write(channel.out);
+                }
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        int total = 0;
+        while (dst.hasRemaining()) {
+            if (out.hasRemaining()) {
+                total += transfer(out, dst);
+                continue;
+            }
+            //已经有输出时不再读source,阻塞的source上不会为了填满dst而等待更多输入
+            if (flushed || !fill(total == 0)) {
+                break;
+            }
+        }
+        if (total == 0 && flushed && !out.hasRemaining()) {
+            return -1;
+        }
+        return total;
+    }
+
+    /**
+     * 生成下一批输出
+     *
+     * @param readSource 已缓存的输入不足以产生输出时是否从source读取
+     * @return 输出已全部生成完毕,非阻塞的source暂时没有数据,或不允许读取source且没有产生输出时返回false
+     */
+    private boolean fill(boolean readSource) throws IOException {
+        if (flushed) {
+            return false;
+        }
+        out.clear();
+        try {
+            if (!eof) {
+                transcode();
+                if (out.position() == 0) {
+                    if (!readSource) {
+                        return false;
+                    }
+                    //输入已耗尽或只剩半个字符,继续从source读取
+                    in.compact();
+                    int n;
+                    try {
+                        n = source.read(in);
+                    } finally {
+                        in.flip();
+                    }
+                    if (n < 0) {
+                        eof = true;
+                    } else if (n == 0) {
+                        return false;
+                    } else {
+                        transcode();
+                    }
+                }
+            }
+            if (eof) {
+                finish();
+            }
+            return true;
+        } finally {
+            out.flip();
+        }
+    }
+
+    /** 在不知道输入是否结束的情况下尽量把in转码到out */
+    private void transcode() {
+        while (out.hasRemaining()) {
+            if (chars.position() > 0 && !encodeChars()) {
+                return;
+            }
+            if (!in.hasRemaining()) {
+                return;
+            }
+            if (asciiFastPath && chars.position() == 0 && copyAscii()) {
+                continue;
+            }
+            int start = in.position();
+            int limit = in.limit();
+            in.limit(Math.min(limit, start + SLOW_PATH_WINDOW));
+            decoder.decode(in, chars, false);
+            in.limit(limit);
+            if (in.position() == start && chars.position() == 0) {
+                //剩余字节不足一个字符
+                return;
+            }
+        }
+    }
+
+    /** 输入结束后处理剩余字节并冲刷编解码器的内部状态 */
+    private void finish() {
+        if (!decoderDone) {
+            while (decoder.decode(in, chars, true).isOverflow()) {
+                if (!encodeChars()) {
+                    return;
+                }
+            }
+            while (decoder.flush(chars).isOverflow()) {
+                if (!encodeChars()) {
+                    return;
+                }
+            }
+            decoderDone = true;
+        }
+        chars.flip();
+        CoderResult result = encoder.encode(chars, out, true);
+        chars.compact();
+        if (result.isOverflow() || encoder.flush(out).isOverflow()) {
+            return;
+        }
+        flushed = true;
+    }
+
+    /** 把chars编码到out,out写满返回false */
+    private boolean encodeChars() {
+        chars.flip();
+        CoderResult result = encoder.encode(chars, out, false);
+        chars.compact();
+        return !result.isOverflow();
+    }
+
+    /** 直接拷贝in开头的连续ASCII字节 */
+    private boolean copyAscii() {
+        byte[] src = in.array();
+        int from = in.arrayOffset() + in.position();
+        int end = from + Math.min(in.remaining(), out.remaining());
+        int i = from;
+        while (i < end && src[i] >= 0) {
+            i++;
+        }
+        int n = i - from;
+        if (n == 0) {
+            return false;
+        }
+        System.arraycopy(src, from, out.array(), out.arrayOffset() + out.position(), n);
+        in.position(in.position() + n);
+        out.position(out.position() + n);
+        return true;
+    }
+
+    private static int transfer(ByteBuffer src, ByteBuffer dst) {
+        int n = Math.min(src.remaining(), dst.remaining());
+        int limit = src.limit();
+        src.limit(src.position() + n);
+        dst.put(src);
+        src.limit(limit);
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        CharsetCodecs.releaseDecoder(decoder);
+        CharsetCodecs.releaseEncoder(encoder);
+        source.close();
+    }
+
+}
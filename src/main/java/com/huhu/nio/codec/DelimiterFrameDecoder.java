@@ -0,0 +1,75 @@
+package com.huhu.nio.codec;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 分隔符帧解码器,例如按"\n"或"\r\n"切分的文本协议
+ *
+ * 记录当前帧已经扫描过的长度,数据分多次到达时不会重复扫描
+ * 交给handler的帧不包含分隔符
+ */
+public class DelimiterFrameDecoder extends FrameDecoder {
+
+    private final byte[] delimiter;
+
+    /** 当前未完成的帧已扫描过的字节数 */
+    private int scanned;
+
+    public DelimiterFrameDecoder(byte[] delimiter, int maxFrameLength) {
+        this(delimiter, maxFrameLength, BufferPool.shared());
+    }
+
+    public DelimiterFrameDecoder(byte[] delimiter, int maxFrameLength, BufferPool bufferPool) {
+        super(maxFrameLength, bufferPool);
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("empty delimiter");
+        }
+        this.delimiter = delimiter.clone();
+    }
+
+    @Override
+    protected boolean decodeFrame(ByteBuffer in, FrameHandler handler) throws IOException {
+        int start = in.position();
+        int limit = in.limit();
+        byte first = delimiter[0];
+        for (int i = start + scanned; i <= limit - delimiter.length; i++) {
+            if (i - start > maxFrameLength) {
+                break;
+            }
+            if (in.get(i) == first && matches(in, i)) {
+                scanned = 0;
+                emit(in, start, i, i + delimiter.length, handler);
+                return true;
+            }
+        }
+        //保留末尾可能是分隔符前缀的部分,下次从这里继续扫描
+        scanned = Math.max(scanned, limit - start - delimiter.length + 1);
+        if (scanned > maxFrameLength) {
+            throw new TooLongFrameException("frame exceeds " + maxFrameLength + " bytes without delimiter");
+        }
+        return false;
+    }
+
+    private boolean matches(ByteBuffer in, int index) {
+        for (int j = 1; j < delimiter.length; j++) {
+            if (in.get(index + j) != delimiter[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected int maxCumulation() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) maxFrameLength + delimiter.length);
+    }
+
+    @Override
+    protected void reset() {
+        scanned = 0;
+    }
+
+}
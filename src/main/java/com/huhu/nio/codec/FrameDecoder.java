@@ -0,0 +1,125 @@
+package com.huhu.nio.codec;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 增量帧解码器,每个连接一个实例,非线程安全
+ *
+ * 读到的数据可能只有半帧,也可能包含多帧,解码器负责把它们切分成完整的帧
+ * 累积缓冲区为空时直接在输入缓冲区上解码,只把末尾不完整的部分拷贝进累积缓冲区
+ * 累积缓冲区每次解码后compact,只有单帧超过当前容量时才扩容,容量上限由最大帧长决定
+ * 解码过程不创建任何对象,帧通过调整缓冲区的position/limit交给{@link FrameHandler}
+ */
+public abstract class FrameDecoder {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    protected final int maxFrameLength;
+    private final BufferPool bufferPool;
+
+    /** 累积缓冲区,始终处于写入模式,[0, position)是尚未解码的数据 */
+    private ByteBuffer cumulation;
+
+    protected FrameDecoder(int maxFrameLength, BufferPool bufferPool) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+        this.bufferPool = bufferPool;
+    }
+
+    /** 消费in中的全部数据,每解码出一帧回调一次handler */
+    public final void decode(ByteBuffer in, FrameHandler handler) throws IOException {
+        if (cumulation == null || cumulation.position() == 0) {
+            decodeFrames(in, handler);
+            if (!in.hasRemaining()) {
+                return;
+            }
+        }
+        while (in.hasRemaining()) {
+            ensureWritable();
+            int n = Math.min(in.remaining(), cumulation.remaining());
+            int limit = in.limit();
+            in.limit(in.position() + n);
+            cumulation.put(in);
+            in.limit(limit);
+
+            cumulation.flip();
+            decodeFrames(cumulation, handler);
+            cumulation.compact();
+        }
+    }
+
+    /** 累积缓冲区中尚未解码的字节数 */
+    public int buffered() {
+        return cumulation == null ? 0 : cumulation.position();
+    }
+
+    /** 归还累积缓冲区,连接关闭时调用 */
+    public void release() {
+        if (cumulation != null) {
+            bufferPool.release(cumulation);
+            cumulation = null;
+        }
+        reset();
+    }
+
+    private void decodeFrames(ByteBuffer in, FrameHandler handler) throws IOException {
+        while (in.hasRemaining() && decodeFrame(in, handler)) {
+        }
+    }
+
+    private void ensureWritable() throws TooLongFrameException {
+        if (cumulation == null) {
+            cumulation = bufferPool.acquire(Math.min(INITIAL_CAPACITY, maxCumulation()));
+            return;
+        }
+        if (cumulation.hasRemaining()) {
+            return;
+        }
+        //缓冲区已满且无法解出一帧,说明单帧超过了当前容量
+        int capacity = cumulation.capacity();
+        if (capacity >= maxCumulation()) {
+            throw new TooLongFrameException("frame exceeds " + maxFrameLength + " bytes");
+        }
+        ByteBuffer larger = bufferPool.acquire((int) Math.min((long) capacity * 2, maxCumulation()));
+        cumulation.flip();
+        larger.put(cumulation);
+        bufferPool.release(cumulation);
+        cumulation = larger;
+    }
+
+    /**
+     * 以in的position和limit为边界把[start, end)作为帧交给handler,
+     * 回调后position移动到next
+     */
+    protected final void emit(ByteBuffer in, int start, int end, int next, FrameHandler handler) throws IOException {
+        int limit = in.limit();
+        in.limit(end);
+        in.position(start);
+        try {
+            handler.onFrame(in);
+        } finally {
+            in.limit(limit);
+            in.position(next);
+        }
+    }
+
+    /**
+     * 尝试从in的position处解码一帧
+     *
+     * @return 解码出一帧返回true,数据不足返回false且不移动position
+     */
+    protected abstract boolean decodeFrame(ByteBuffer in, FrameHandler handler) throws IOException;
+
+    /** 一帧在累积缓冲区中最多占用的字节数,包括长度头或分隔符 */
+    protected abstract int maxCumulation();
+
+    /** 清除跨调用保存的解码状态 */
+    protected void reset() {
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.huhu.nio.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** 解码出完整帧时的回调 */
+public interface FrameHandler {
+
+    /**
+     * frame是解码器内部缓冲区上的视图,position到limit之间为帧内容(不含长度头/分隔符)
+     * 回调返回后内容即失效,需要保留时必须自行拷贝
+     */
+    void onFrame(ByteBuffer frame) throws IOException;
+
+}
@@ -0,0 +1,86 @@
+package com.huhu.nio.codec;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 长度前缀帧解码器
+ *
+ * 长度字段可以是1/2/4字节的大端无符号整数,也可以是变长整数({@link #VARINT})
+ * 长度字段的值只表示帧内容的长度,不包括长度字段本身
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder {
+
+    /** 使用变长整数作为长度字段 */
+    public static final int VARINT = 0;
+
+    private final int lengthFieldLength;
+
+    public LengthFieldFrameDecoder(int lengthFieldLength, int maxFrameLength) {
+        this(lengthFieldLength, maxFrameLength, BufferPool.shared());
+    }
+
+    public LengthFieldFrameDecoder(int lengthFieldLength, int maxFrameLength, BufferPool bufferPool) {
+        super(maxFrameLength, bufferPool);
+        if (lengthFieldLength != VARINT && lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 4) {
+            throw new IllegalArgumentException("lengthFieldLength must be 0(varint), 1, 2 or 4: " + lengthFieldLength);
+        }
+        this.lengthFieldLength = lengthFieldLength;
+    }
+
+    @Override
+    protected boolean decodeFrame(ByteBuffer in, FrameHandler handler) throws IOException {
+        int start = in.position();
+        int available = in.remaining();
+        int headerLength;
+        int frameLength;
+        if (lengthFieldLength == VARINT) {
+            try {
+                frameLength = Varints.peekInt(in, start);
+            } catch (IllegalArgumentException e) {
+                throw new TooLongFrameException(e.getMessage());
+            }
+            if (frameLength == Varints.INCOMPLETE) {
+                return false;
+            }
+            //按实际读到的字节数跳过长度字段,非最短编码的前缀也不会让后续帧错位
+            headerLength = Varints.peekIntLength(in, start);
+        } else {
+            if (available < lengthFieldLength) {
+                return false;
+            }
+            headerLength = lengthFieldLength;
+            frameLength = readLength(in, start);
+        }
+        if (frameLength < 0 || frameLength > maxFrameLength) {
+            throw new TooLongFrameException("frame length " + (frameLength & 0xFFFFFFFFL)
+                    + " exceeds " + maxFrameLength);
+        }
+        if (available - headerLength < frameLength) {
+            return false;
+        }
+        int end = start + headerLength + frameLength;
+        emit(in, start + headerLength, end, end, handler);
+        return true;
+    }
+
+    private int readLength(ByteBuffer in, int index) {
+        switch (lengthFieldLength) {
+            case 1:
+                return in.get(index) & 0xFF;
+            case 2:
+                return in.getShort(index) & 0xFFFF;
+            default:
+                return in.getInt(index);
+        }
+    }
+
+    @Override
+    protected int maxCumulation() {
+        int headerLength = lengthFieldLength == VARINT ? Varints.MAX_INT_LENGTH : lengthFieldLength;
+        return (int) Math.min(Integer.MAX_VALUE, (long) maxFrameLength + headerLength);
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.huhu.nio.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * 长度前缀帧编码器,与{@link LengthFieldFrameDecoder}对应,非线程安全
+ *
+ * 帧内容不做拷贝,只为每帧生成一个长度头,
+ * 积攒的多帧在{@link #flush}时以[头,内容,头,内容...]的形式一次聚集写入
+ * 长度头所在的缓冲区和聚集写用的数组在多次flush之间复用
+ */
+public class LengthFieldFrameEncoder {
+
+    private static final int INITIAL_FRAMES = 16;
+
+    private final int lengthFieldLength;
+    private final int headerCapacity;
+
+    /** [头,内容,头,内容...] */
+    private ByteBuffer[] vector;
+    private int frames;
+    /** 聚集写时第一个未写完的缓冲区下标 */
+    private int offset;
+    private long pendingBytes;
+
+    public LengthFieldFrameEncoder(int lengthFieldLength) {
+        if (lengthFieldLength != LengthFieldFrameDecoder.VARINT && lengthFieldLength != 1
+                && lengthFieldLength != 2 && lengthFieldLength != 4) {
+            throw new IllegalArgumentException("lengthFieldLength must be 0(varint), 1, 2 or 4: " + lengthFieldLength);
+        }
+        this.lengthFieldLength = lengthFieldLength;
+        this.headerCapacity = lengthFieldLength == LengthFieldFrameDecoder.VARINT
+                ? Varints.MAX_INT_LENGTH : lengthFieldLength;
+        this.vector = newVector(INITIAL_FRAMES, 0, null);
+    }
+
+    /** 追加一帧,payload在flush完成前不能被修改 */
+    public void add(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (lengthFieldLength == 1 && length > 0xFF || lengthFieldLength == 2 && length > 0xFFFF) {
+            throw new IllegalArgumentException("frame too long for " + lengthFieldLength + "-byte length field: " + length);
+        }
+        if (frames * 2 == vector.length) {
+            vector = newVector(frames * 2, frames, vector);
+        }
+        ByteBuffer header = vector[frames * 2];
+        header.clear();
+        switch (lengthFieldLength) {
+            case LengthFieldFrameDecoder.VARINT:
+                Varints.writeInt(header, length);
+                break;
+            case 1:
+                header.put((byte) length);
+                break;
+            case 2:
+                header.putShort((short) length);
+                break;
+            default:
+                header.putInt(length);
+        }
+        header.flip();
+        vector[frames * 2 + 1] = payload;
+        frames++;
+        pendingBytes += header.remaining() + length;
+    }
+
+    /**
+     * 把积攒的帧聚集写入通道
+     *
+     * @return 全部写完返回true,非阻塞通道写满时返回false,可写后再次调用
+     */
+    public boolean flush(GatheringByteChannel channel) throws IOException {
+        int end = frames * 2;
+        while (offset < end) {
+            long n = channel.write(vector, offset, end - offset);
+            pendingBytes -= n;
+            while (offset < end && !vector[offset].hasRemaining()) {
+                offset++;
+            }
+            if (n == 0 && offset < end) {
+                return false;
+            }
+        }
+        clear();
+        return true;
+    }
+
+    /** 待写出的帧数 */
+    public int pendingFrames() {
+        return frames;
+    }
+
+    /** 待写出的字节数,包括长度头 */
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /** 丢弃所有待写出的帧 */
+    public void clear() {
+        for (int i = 1; i < frames * 2; i += 2) {
+            vector[i] = null;
+        }
+        frames = 0;
+        offset = 0;
+        pendingBytes = 0;
+    }
+
+    private ByteBuffer[] newVector(int frameSlots, int used, ByteBuffer[] old) {
+        ByteBuffer[] newVector = new ByteBuffer[frameSlots * 2];
+        if (old != null) {
+            System.arraycopy(old, 0, newVector, 0, used * 2);
+        }
+        //为新增的槽位分配长度头,所有头共用一块直接内存
+        int fresh = frameSlots - used;
+        ByteBuffer area = ByteBuffer.allocateDirect(fresh * headerCapacity);
+        for (int i = used; i < frameSlots; i++) {
+            int position = (i - used) * headerCapacity;
+            area.limit(position + headerCapacity);
+            area.position(position);
+            newVector[i * 2] = area.slice();
+        }
+        return newVector;
+    }
+
+}
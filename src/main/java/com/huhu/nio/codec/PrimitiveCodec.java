@@ -0,0 +1,193 @@
+package com.huhu.nio.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * int[]/long[]/double[]的批量编解码
+ *
+ * 格式: byte 编码方式, byte 元素类型, byte 字节序, varint 元素个数, 数据
+ * RAW: 原样写出,通过asLongBuffer()这样的视图批量拷贝,字节序由调用方指定,与本机一致时就是一次内存拷贝
+ * ZIGZAG: 每个值zigzag后按varint写出,适合绝对值较小的数据,double不支持
+ * DELTA: 写出与前一个值的差(zigzag + varint),适合时间戳、递增id这类有序数据;
+ *        double写出与前一个值的位模式异或的结果: 1个字节的末尾0个数 + 去掉末尾0后的varint,
+ *        相邻值接近时异或结果高位全为0,整数值这类尾数很短的数据末尾全为0,两种情况都很短
+ *
+ * 读取端见PrimitiveReader,可以直接在映射文件或收到的缓冲区上逐个解码,不需要中间数组
+ */
+public final class PrimitiveCodec {
+
+    public enum Encoding {
+        RAW, ZIGZAG, DELTA
+    }
+
+    public enum Type {
+
+        INT(4), LONG(8), DOUBLE(8);
+
+        final int size;
+
+        Type(int size) {
+            this.size = size;
+        }
+
+    }
+
+    /** 头部最大长度: 3个字节 + varint个数 */
+    static final int MAX_HEADER_LENGTH = 3 + Varints.MAX_INT_LENGTH;
+
+    private PrimitiveCodec() {
+    }
+
+    /** 编码count个元素最多需要的字节数,可以据此申请目标缓冲区 */
+    public static int maxEncodedLength(Type type, Encoding encoding, int count) {
+        long body;
+        if (encoding == Encoding.RAW) {
+            body = (long) count * type.size;
+        } else {
+            int max = type == Type.INT ? Varints.MAX_INT_LENGTH : Varints.MAX_LONG_LENGTH;
+            //double额外有1个字节的末尾0个数
+            body = (long) count * (type == Type.DOUBLE ? max + 1 : max);
+        }
+        long total = MAX_HEADER_LENGTH + body;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many elements: " + count);
+        }
+        return (int) total;
+    }
+
+    public static void encode(int[] values, Encoding encoding, ByteOrder order, ByteBuffer dst) {
+        encode(values, 0, values.length, encoding, order, dst);
+    }
+
+    public static void encode(int[] values, int offset, int length, Encoding encoding, ByteOrder order,
+                              ByteBuffer dst) {
+        writeHeader(dst, encoding, Type.INT, order, length);
+        int end = offset + length;
+        switch (encoding) {
+            case RAW:
+                dst.duplicate().order(order).asIntBuffer().put(values, offset, length);
+                dst.position(dst.position() + length * 4);
+                break;
+            case ZIGZAG:
+                for (int i = offset; i < end; i++) {
+                    Varints.writeInt(dst, Varints.zigZag(values[i]));
+                }
+                break;
+            default:
+                int previous = 0;
+                for (int i = offset; i < end; i++) {
+                    //溢出回绕,解码时同样回绕回来
+                    Varints.writeInt(dst, Varints.zigZag(values[i] - previous));
+                    previous = values[i];
+                }
+                break;
+        }
+    }
+
+    public static void encode(long[] values, Encoding encoding, ByteOrder order, ByteBuffer dst) {
+        encode(values, 0, values.length, encoding, order, dst);
+    }
+
+    public static void encode(long[] values, int offset, int length, Encoding encoding, ByteOrder order,
+                              ByteBuffer dst) {
+        writeHeader(dst, encoding, Type.LONG, order, length);
+        int end = offset + length;
+        switch (encoding) {
+            case RAW:
+                dst.duplicate().order(order).asLongBuffer().put(values, offset, length);
+                dst.position(dst.position() + length * 8);
+                break;
+            case ZIGZAG:
+                for (int i = offset; i < end; i++) {
+                    Varints.writeLong(dst, Varints.zigZag(values[i]));
+                }
+                break;
+            default:
+                long previous = 0;
+                for (int i = offset; i < end; i++) {
+                    Varints.writeLong(dst, Varints.zigZag(values[i] - previous));
+                    previous = values[i];
+                }
+                break;
+        }
+    }
+
+    public static void encode(double[] values, Encoding encoding, ByteOrder order, ByteBuffer dst) {
+        encode(values, 0, values.length, encoding, order, dst);
+    }
+
+    public static void encode(double[] values, int offset, int length, Encoding encoding, ByteOrder order,
+                              ByteBuffer dst) {
+        if (encoding == Encoding.ZIGZAG) {
+            throw new IllegalArgumentException("ZIGZAG is not supported for double");
+        }
+        writeHeader(dst, encoding, Type.DOUBLE, order, length);
+        if (encoding == Encoding.RAW) {
+            dst.duplicate().order(order).asDoubleBuffer().put(values, offset, length);
+            dst.position(dst.position() + length * 8);
+            return;
+        }
+        long previous = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previous;
+            int trailingZeros = Long.numberOfTrailingZeros(xor);
+            dst.put((byte) trailingZeros);
+            if (xor != 0) {
+                Varints.writeLong(dst, xor >>> trailingZeros);
+            }
+            previous = bits;
+        }
+    }
+
+    public static int[] decodeInts(ByteBuffer src) {
+        PrimitiveReader reader = new PrimitiveReader(src);
+        reader.expect(Type.INT);
+        int[] values = new int[reader.count()];
+        if (reader.encoding() == Encoding.RAW) {
+            reader.intView().get(values);
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = reader.nextInt();
+            }
+        }
+        return values;
+    }
+
+    public static long[] decodeLongs(ByteBuffer src) {
+        PrimitiveReader reader = new PrimitiveReader(src);
+        reader.expect(Type.LONG);
+        long[] values = new long[reader.count()];
+        if (reader.encoding() == Encoding.RAW) {
+            reader.longView().get(values);
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = reader.nextLong();
+            }
+        }
+        return values;
+    }
+
+    public static double[] decodeDoubles(ByteBuffer src) {
+        PrimitiveReader reader = new PrimitiveReader(src);
+        reader.expect(Type.DOUBLE);
+        double[] values = new double[reader.count()];
+        if (reader.encoding() == Encoding.RAW) {
+            reader.doubleView().get(values);
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = reader.nextDouble();
+            }
+        }
+        return values;
+    }
+
+    private static void writeHeader(ByteBuffer dst, Encoding encoding, Type type, ByteOrder order, int count) {
+        dst.put((byte) encoding.ordinal());
+        dst.put((byte) type.ordinal());
+        dst.put((byte) (order == ByteOrder.BIG_ENDIAN ? 0 : 1));
+        Varints.writeInt(dst, count);
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.huhu.nio.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * 逐个读取PrimitiveCodec编码的数组,直接在源缓冲区上解码,不产生中间数组
+ *
+ * 构造时读取头部;RAW格式的数据区立即整体跳过,之后通过带字节序的视图读取,
+ * 也可以用intView()/longView()/doubleView()直接拿到视图;
+ * 变长格式边读边移动源缓冲区的position,全部读完后position正好位于数组末尾
+ */
+public final class PrimitiveReader {
+
+    private final ByteBuffer src;
+    private final PrimitiveCodec.Encoding encoding;
+    private final PrimitiveCodec.Type type;
+    private final ByteOrder order;
+    private final int count;
+
+    /** RAW格式的数据区,变长格式为null */
+    private final ByteBuffer raw;
+    private int index;
+    private long previous;
+
+    /**
+     * @throws IllegalArgumentException 头部不合法
+     * @throws BufferUnderflowException 数据不完整
+     */
+    public PrimitiveReader(ByteBuffer src) {
+        this.src = src;
+        int encodingOrdinal = src.get();
+        int typeOrdinal = src.get();
+        int orderFlag = src.get();
+        if (encodingOrdinal < 0 || encodingOrdinal >= PrimitiveCodec.Encoding.values().length
+                || typeOrdinal < 0 || typeOrdinal >= PrimitiveCodec.Type.values().length
+                || (orderFlag & ~1) != 0) {
+            throw new IllegalArgumentException("bad header: " + encodingOrdinal + "/" + typeOrdinal + "/" + orderFlag);
+        }
+        this.encoding = PrimitiveCodec.Encoding.values()[encodingOrdinal];
+        this.type = PrimitiveCodec.Type.values()[typeOrdinal];
+        this.order = orderFlag == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        this.count = Varints.readInt(src);
+        if (count < 0) {
+            throw new IllegalArgumentException("bad count: " + count);
+        }
+        if (encoding == PrimitiveCodec.Encoding.RAW) {
+            int bytes = count * type.size;
+            if (count > src.remaining() / type.size) {
+                throw new BufferUnderflowException();
+            }
+            ByteBuffer slice = src.slice();
+            slice.limit(bytes);
+            this.raw = slice.order(order);
+            src.position(src.position() + bytes);
+        } else {
+            this.raw = null;
+        }
+    }
+
+    public PrimitiveCodec.Encoding encoding() {
+        return encoding;
+    }
+
+    public PrimitiveCodec.Type type() {
+        return type;
+    }
+
+    public ByteOrder order() {
+        return order;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean hasNext() {
+        return index < count;
+    }
+
+    public int nextInt() {
+        check(PrimitiveCodec.Type.INT);
+        int i = index++;
+        switch (encoding) {
+            case RAW:
+                return raw.getInt(i * 4);
+            case ZIGZAG:
+                return Varints.unZigZag(Varints.readInt(src));
+            default:
+                int value = (int) previous + Varints.unZigZag(Varints.readInt(src));
+                previous = value;
+                return value;
+        }
+    }
+
+    public long nextLong() {
+        check(PrimitiveCodec.Type.LONG);
+        int i = index++;
+        switch (encoding) {
+            case RAW:
+                return raw.getLong(i * 8);
+            case ZIGZAG:
+                return Varints.unZigZag(Varints.readLong(src));
+            default:
+                long value = previous + Varints.unZigZag(Varints.readLong(src));
+                previous = value;
+                return value;
+        }
+    }
+
+    public double nextDouble() {
+        check(PrimitiveCodec.Type.DOUBLE);
+        int i = index++;
+        if (raw != null) {
+            return raw.getDouble(i * 8);
+        }
+        int trailingZeros = src.get();
+        if (trailingZeros < 0 || trailingZeros > 64) {
+            throw new IllegalArgumentException("bad double delta: " + trailingZeros);
+        }
+        long xor = trailingZeros == 64 ? 0 : Varints.readLong(src) << trailingZeros;
+        long bits = previous ^ xor;
+        previous = bits;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /** RAW格式的int视图,共享源缓冲区的内存 */
+    public IntBuffer intView() {
+        checkView(PrimitiveCodec.Type.INT);
+        return raw.duplicate().order(order).asIntBuffer();
+    }
+
+    public LongBuffer longView() {
+        checkView(PrimitiveCodec.Type.LONG);
+        return raw.duplicate().order(order).asLongBuffer();
+    }
+
+    public DoubleBuffer doubleView() {
+        checkView(PrimitiveCodec.Type.DOUBLE);
+        return raw.duplicate().order(order).asDoubleBuffer();
+    }
+
+    void expect(PrimitiveCodec.Type expected) {
+        if (type != expected) {
+            throw new IllegalArgumentException("expected " + expected + " but was " + type);
+        }
+    }
+
+    private void check(PrimitiveCodec.Type expected) {
+        expect(expected);
+        if (index >= count) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    private void checkView(PrimitiveCodec.Type expected) {
+        expect(expected);
+        if (raw == null) {
+            throw new IllegalStateException("views are only available for RAW encoding, was " + encoding);
+        }
+    }
+
+}
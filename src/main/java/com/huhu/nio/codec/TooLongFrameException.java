@@ -0,0 +1,14 @@
+package com.huhu.nio.codec;
+
+import java.io.IOException;
+
+/** 帧长度超过上限,通常意味着对端协议错误或恶意数据,应当关闭连接 */
+public class TooLongFrameException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TooLongFrameException(String message) {
+        super(message);
+    }
+
+}
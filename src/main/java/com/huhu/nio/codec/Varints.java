@@ -0,0 +1,159 @@
+package com.huhu.nio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 无符号变长整数(LEB128)
+ *
+ * 每个字节低7位存数据,最高位表示后面是否还有字节,小数值只占1个字节
+ * 有符号数先做zigzag变换(0,-1,1,-2 -> 0,1,2,3),绝对值小的负数也只占很少的字节
+ */
+public final class Varints {
+
+    /** int最多占用的字节数 */
+    public static final int MAX_INT_LENGTH = 5;
+
+    /** long最多占用的字节数 */
+    public static final int MAX_LONG_LENGTH = 10;
+
+    /** 读取结果表示数据不完整 */
+    public static final int INCOMPLETE = -1;
+
+    private Varints() {
+    }
+
+    public static int intLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    public static void writeInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * 从index处读取一个非负int,不移动position
+     *
+     * @return 读到的值,数据不完整时返回{@link #INCOMPLETE}
+     * @throws IllegalArgumentException 超过5个字节或者值为负
+     */
+    public static int peekInt(ByteBuffer buffer, int index) {
+        int limit = buffer.limit();
+        int value = 0;
+        for (int shift = 0, i = index; shift < 35; shift += 7, i++) {
+            if (i >= limit) {
+                return INCOMPLETE;
+            }
+            byte b = buffer.get(i);
+            //第5个字节只有低3位落在非负int内,更高的位移位后会被丢掉,不能当作合法长度
+            if (shift == 28 && (b & 0x78) != 0) {
+                throw new IllegalArgumentException("varint overflow");
+            }
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than " + MAX_INT_LENGTH + " bytes");
+    }
+
+    /**
+     * index处变长整数实际占用的字节数,不移动position
+     *
+     * 与{@link #intLength}不同,非最短编码(例如0x80 0x00表示0)按实际字节数计算
+     *
+     * @return 字节数,数据不完整时返回{@link #INCOMPLETE}
+     * @throws IllegalArgumentException 超过5个字节
+     */
+    public static int peekIntLength(ByteBuffer buffer, int index) {
+        int limit = buffer.limit();
+        for (int length = 1, i = index; length <= MAX_INT_LENGTH; length++, i++) {
+            if (i >= limit) {
+                return INCOMPLETE;
+            }
+            if (buffer.get(i) >= 0) {
+                return length;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than " + MAX_INT_LENGTH + " bytes");
+    }
+
+    public static int longLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /** 按无符号数写入,负数占10个字节,有符号数应先zigZag */
+    public static void writeLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * 从position处读取一个无符号int并移动position,高位溢出的部分丢弃
+     *
+     * @throws java.nio.BufferUnderflowException 数据不完整
+     * @throws IllegalArgumentException 超过5个字节
+     */
+    public static int readInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than " + MAX_INT_LENGTH + " bytes");
+    }
+
+    /**
+     * 从position处读取一个无符号long并移动position
+     *
+     * @throws java.nio.BufferUnderflowException 数据不完整
+     * @throws IllegalArgumentException 超过10个字节
+     */
+    public static long readLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than " + MAX_LONG_LENGTH + " bytes");
+    }
+
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
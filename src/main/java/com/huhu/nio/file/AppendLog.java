@@ -0,0 +1,464 @@
+package com.huhu.nio.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 基于内存映射的分段追加日志,用作网络服务的持久化层
+ *
+ * 每个段是预分配后整体映射的文件,文件名为段内第一条记录的序号;当前段写满后封段并创建下一个段
+ * 多个线程可以并发append: 在当前段上用CAS预留序号和位置,之后各自把记录拷贝进映射,不需要加锁
+ * 刷盘采用组提交: 后台线程按flushInterval或有线程等待sync时,扫描出连续写完的记录,
+ * 每批只调用一次MappedByteBuffer.force(),而不是每条记录一次fsync;sync(sequence)等待包含该记录的那一批
+ * 刷盘线程扫描时顺带建立稀疏索引,按序号读取时二分查找索引后逐条向后跳
+ * LogReader顺序读取记录,或用transferTo把一段连续的记录原样零拷贝发送到socket
+ * 打开已有的日志时逐条校验最后一段的CRC,丢弃崩溃时没有写完的记录
+ */
+public final class AppendLog implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+    public static final int DEFAULT_INDEX_INTERVAL = 4096;
+    public static final long DEFAULT_FLUSH_INTERVAL = 10;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final long flushIntervalMillis;
+
+    /** 按序号排列的所有段,只在封段时整体替换 */
+    private volatile LogSegment[] segments;
+    private volatile LogSegment active;
+    private final Object rollLock = new Object();
+
+    /** 刷盘由后台线程和flush()共用,同一时刻只有一个在执行 */
+    private final Object flushLock = new Object();
+    /** 刷盘线程正在扫描的段在segments中的下标 */
+    private int flushCursor;
+    /** 序号小于该值的记录都已落盘 */
+    private volatile long durableSequence;
+    private long flushes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushRequested = lock.newCondition();
+    private final Condition durableChanged = lock.newCondition();
+    private boolean syncPending;
+    private IOException flushError;
+
+    private final Thread flusher;
+    private volatile boolean closed;
+    /** 正在执行的append数,关闭时等它们写完再解除映射 */
+    private final AtomicInteger appending = new AtomicInteger();
+
+    private AppendLog(Path directory, int segmentSize, int indexInterval, long flushIntervalMillis,
+                      LogSegment[] segments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.segments = segments;
+        this.active = segments[segments.length - 1];
+        this.flushCursor = segments.length - 1;
+        this.durableSequence = active.baseSequence + active.scannedCount;
+        this.flusher = new Thread(this::flushLoop, "append-log-flusher-" + directory.getFileName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public static AppendLog open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_INDEX_INTERVAL, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * 打开或新建日志目录
+     *
+     * @param segmentSize         段文件大小,已有的段必须使用相同的大小
+     * @param indexInterval       每隔多少字节建一个索引条目
+     * @param flushIntervalMillis 后台刷盘的间隔,0表示只在sync或flush时刷盘
+     */
+    public static AppendLog open(Path directory, int segmentSize, int indexInterval, long flushIntervalMillis)
+            throws IOException {
+        if (segmentSize < LogSegment.HEADER * 2 || segmentSize % LogSegment.ALIGNMENT != 0) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+        if (indexInterval <= 0 || indexInterval > segmentSize) {
+            throw new IllegalArgumentException("indexInterval: " + indexInterval);
+        }
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("flushIntervalMillis: " + flushIntervalMillis);
+        }
+        Files.createDirectories(directory);
+        List<LogSegment> segments = new ArrayList<>();
+        try {
+            long[] bases = listSegments(directory);
+            for (int i = 0; i < bases.length; i++) {
+                long size = Files.size(directory.resolve(LogSegment.fileName(bases[i], ".log")));
+                if (size != segmentSize) {
+                    throw new IOException("segment size " + size + " != " + segmentSize + ": " + bases[i]);
+                }
+                LogSegment segment = LogSegment.recover(directory, bases[i], segmentSize, indexInterval);
+                segments.add(segment);
+                if (i + 1 < bases.length && segment.baseSequence + segment.scannedCount != bases[i + 1]) {
+                    //中间的段不完整,崩溃前还没刷盘,之后的段全部丢弃
+                    for (int j = i + 1; j < bases.length; j++) {
+                        Files.deleteIfExists(directory.resolve(LogSegment.fileName(bases[j], ".log")));
+                        Files.deleteIfExists(directory.resolve(LogSegment.fileName(bases[j], ".idx")));
+                    }
+                    break;
+                }
+            }
+            for (int i = 0; i < segments.size() - 1; i++) {
+                segments.get(i).seal();
+            }
+            if (segments.isEmpty()) {
+                segments.add(LogSegment.create(directory, 0, segmentSize, indexInterval));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (LogSegment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return new AppendLog(directory, segmentSize, indexInterval, flushIntervalMillis,
+                segments.toArray(new LogSegment[0]));
+    }
+
+    private static long[] listSegments(Path directory) throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    //不是段文件
+                }
+            }
+        }
+        long[] result = new long[bases.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bases.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 追加一条记录,返回它的序号;返回时记录已对读取方可见,但不一定已经落盘
+     *
+     * payload的position不变
+     */
+    public long append(ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        if (length > segmentSize - LogSegment.HEADER) {
+            throw new IllegalArgumentException("record too large: " + length);
+        }
+        int recordSize = LogSegment.recordSize(length);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        appending.incrementAndGet();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new IOException("log closed");
+                }
+                LogSegment segment = active;
+                long reserved = segment.reserve(recordSize);
+                if (reserved >= 0) {
+                    segment.write((int) reserved, payload, (int) crc.getValue());
+                    return segment.baseSequence + (reserved >>> 32);
+                }
+                roll(segment);
+            }
+        } finally {
+            appending.decrementAndGet();
+        }
+    }
+
+    /** 当前段已满,由第一个发现的线程创建下一个段,其他线程等它完成后重试 */
+    private void roll(LogSegment full) throws IOException {
+        synchronized (rollLock) {
+            if (active != full || closed) {
+                return;
+            }
+            //此时full已封段,记录数不再变化
+            LogSegment next = LogSegment.create(directory, full.baseSequence + full.count(), segmentSize,
+                    indexInterval);
+            LogSegment[] current = segments;
+            LogSegment[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = next;
+            segments = grown;
+            active = next;
+        }
+    }
+
+    /** 追加并等待记录落盘 */
+    public long appendAndSync(ByteBuffer payload) throws IOException, InterruptedException {
+        long sequence = append(payload);
+        sync(sequence);
+        return sequence;
+    }
+
+    /** 等待sequence及之前的记录全部落盘,期间append的其他记录在同一批中一起刷盘 */
+    public void sync(long sequence) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (durableSequence <= sequence) {
+                checkFlushError();
+                if (closed) {
+                    throw new IOException("log closed");
+                }
+                syncPending = true;
+                flushRequested.signal();
+                durableChanged.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 带超时的sync
+     *
+     * @throws TimeoutException 超时时记录仍未落盘
+     */
+    public void sync(long sequence, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException, TimeoutException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (durableSequence <= sequence) {
+                checkFlushError();
+                if (closed) {
+                    throw new IOException("log closed");
+                }
+                if (nanos <= 0) {
+                    throw new TimeoutException("sequence " + sequence + " not durable");
+                }
+                syncPending = true;
+                flushRequested.signal();
+                nanos = durableChanged.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFlushError() throws IOException {
+        if (flushError != null) {
+            throw new IOException("flush failed", flushError);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                if (!syncPending && !closed) {
+                    if (flushIntervalMillis > 0) {
+                        flushRequested.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    } else {
+                        flushRequested.await();
+                    }
+                }
+                //等待期间到达的sync请求都由这一次刷盘满足
+                syncPending = false;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                lock.lock();
+                try {
+                    flushError = e;
+                    durableChanged.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    /** 立即把所有连续写完的记录刷盘,返回刷盘后的durableSequence */
+    public long flush() throws IOException {
+        synchronized (flushLock) {
+            LogSegment[] current = segments;
+            long durable = durableSequence;
+            while (flushCursor < current.length) {
+                LogSegment segment = current[flushCursor];
+                segment.scan();
+                segment.force();
+                durable = segment.baseSequence + segment.scannedCount;
+                //段的中间有没写完的记录时不能越过它去刷后面的段
+                if (!segment.isComplete() || flushCursor + 1 == current.length) {
+                    break;
+                }
+                flushCursor++;
+            }
+            flushes++;
+            if (durable != durableSequence) {
+                lock.lock();
+                try {
+                    durableSequence = durable;
+                    durableChanged.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return durable;
+        }
+    }
+
+    /** 序号小于该值的记录都已落盘 */
+    public long durableSequence() {
+        return durableSequence;
+    }
+
+    /** 下一条append的记录的序号,并发append时只是一个估计 */
+    public long nextSequence() {
+        LogSegment segment = active;
+        return segment.baseSequence + segment.count();
+    }
+
+    /** 日志中第一条记录的序号 */
+    public long firstSequence() {
+        return segments[0].baseSequence;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /** 调用force的次数,即组提交的批数 */
+    public long flushes() {
+        synchronized (flushLock) {
+            return flushes;
+        }
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * 读取一条记录的载荷,只读视图直接指向映射内存,日志关闭后不能再访问
+     *
+     * @return 记录不存在或还没写完时返回null
+     */
+    public ByteBuffer read(long sequence) {
+        LogSegment segment = segmentOf(sequence);
+        if (segment == null) {
+            return null;
+        }
+        int position = segment.position((int) (sequence - segment.baseSequence));
+        return position < 0 ? null : segment.payload(position);
+    }
+
+    /** 从sequence开始顺序读取的游标 */
+    public LogReader reader(long sequence) {
+        if (sequence < firstSequence()) {
+            throw new IllegalArgumentException("sequence " + sequence + " < " + firstSequence());
+        }
+        return new LogReader(this, sequence);
+    }
+
+    /** 包含sequence的段,sequence在所有段之前时返回null */
+    LogSegment segmentOf(long sequence) {
+        LogSegment[] current = segments;
+        int low = 0;
+        int high = current.length - 1;
+        LogSegment found = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (current[mid].baseSequence <= sequence) {
+                found = current[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /** segment之后的段,没有时返回null */
+    LogSegment nextSegment(LogSegment segment) {
+        LogSegment[] current = segments;
+        for (int i = current.length - 1; i > 0; i--) {
+            if (current[i - 1] == segment) {
+                return current[i];
+            }
+        }
+        return null;
+    }
+
+    /** 刷盘后关闭,之后的append和sync抛出IOException */
+    @Override
+    public void close() throws IOException {
+        synchronized (rollLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        lock.lock();
+        try {
+            flushRequested.signal();
+            durableChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        while (appending.get() > 0) {
+            Thread.yield();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException error = null;
+        try {
+            flush();
+        } catch (IOException e) {
+            error = e;
+        }
+        for (LogSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.huhu.nio.file;
+
+/**
+ * 文件复制进度回调
+ *
+ * 多个分块并行复制时会在不同线程中回调,实现需要线程安全
+ */
+public interface CopyListener {
+
+    CopyListener NONE = (copied, total) -> {
+    };
+
+    void onProgress(long copied, long total);
+
+}
@@ -0,0 +1,409 @@
+package com.huhu.nio.file;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并行目录扫描,生成带内容哈希的FileIndex
+ *
+ * 每个目录是一个ForkJoin任务,子目录拆成子任务并行扫描;目录内用maxDepth为1的walkFileTree列出子项,
+ * 属性随列目录一起取得(Windows上不需要再单独stat),不跟随符号链接
+ * 大小和修改时间都与上次索引相同的文件直接沿用上次的哈希,不读内容;
+ * 需要计算哈希的大文件拆成单独的任务,小文件通过池化的直接缓冲区读取,超过MAP_THRESHOLD的文件按窗口映射后计算
+ * 列目录和计算哈希都是阻塞I/O,放在ForkJoinPool.managedBlock中执行,池在任务阻塞期间补充线程,
+ * 使用commonPool时也不会占满其他任务的并行度
+ */
+public class DirectoryScanner {
+
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+
+    /** 超过该大小的文件拆成单独的哈希任务 */
+    private static final long FORK_THRESHOLD = 1024 * 1024;
+
+    /** 超过该大小的文件通过内存映射计算哈希 */
+    private static final long MAP_THRESHOLD = 8L * 1024 * 1024;
+
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool;
+    private final BufferPool bufferPool;
+    private final String algorithm;
+    /** MessageDigest有状态,每个线程一个 */
+    private final ThreadLocal<MessageDigest> digests;
+
+    public DirectoryScanner() {
+        this(ForkJoinPool.commonPool(), BufferPool.shared(), DEFAULT_ALGORITHM);
+    }
+
+    public DirectoryScanner(ForkJoinPool pool, BufferPool bufferPool, String algorithm) {
+        try {
+            MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("unknown digest algorithm: " + algorithm, e);
+        }
+        this.pool = pool;
+        this.bufferPool = bufferPool;
+        this.algorithm = algorithm;
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * 扫描root下的所有普通文件
+     *
+     * @param previous 上次的索引,可以为null;算法必须相同
+     */
+    public ScanResult scan(Path root, FileIndex previous) throws IOException {
+        if (previous != null && !previous.algorithm().equals(algorithm)) {
+            throw new IllegalArgumentException("index algorithm " + previous.algorithm() + " != " + algorithm);
+        }
+        Path start = root.toAbsolutePath().normalize();
+        if (!Files.isDirectory(start)) {
+            throw new IOException("not a directory: " + root);
+        }
+        ScanResult result = new ScanResult(start, previous);
+        pool.invoke(new DirectoryTask(result, start));
+        result.finish();
+        return result;
+    }
+
+    /**
+     * 增量扫描并更新索引文件,返回本次的结果
+     *
+     * 索引文件不存在时全量扫描
+     */
+    public ScanResult scan(Path root, Path indexFile) throws IOException {
+        ScanResult result = scan(root, FileIndex.load(indexFile, algorithm));
+        result.index().save(indexFile);
+        return result;
+    }
+
+    /** 计算整个文件的哈希 */
+    byte[] hash(Path file, long size) throws IOException {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (size >= MAP_THRESHOLD) {
+                //文件在列目录之后被截断时,访问超出末尾的映射会导致进程崩溃
+                long length = Math.min(size, channel.size());
+                for (long position = 0; position < length; position += MAP_WINDOW) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW, length - position));
+                    try {
+                        digest.update(window);
+                    } finally {
+                        MappedFile.Unmapper.unmap(window);
+                    }
+                }
+            } else {
+                ByteBuffer buffer = bufferPool.acquire(READ_BUFFER_SIZE);
+                try {
+                    while (channel.read(buffer) >= 0) {
+                        buffer.flip();
+                        digest.update(buffer);
+                        buffer.clear();
+                    }
+                } finally {
+                    bufferPool.release(buffer);
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private final class DirectoryTask extends RecursiveAction implements ForkJoinPool.ManagedBlocker {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ScanResult result;
+        private final Path directory;
+        /** managedBlock中列目录的结果 */
+        private final List<ForkJoinTask<?>> subtasks = new ArrayList<>();
+        private boolean listed;
+
+        DirectoryTask(ScanResult result, Path directory) {
+            this.result = result;
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.errors.put(directory, new InterruptedIOException("scan of " + directory + " interrupted"));
+                return;
+            }
+            result.directories.increment();
+            invokeAll(subtasks);
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        //maxDepth为1时子目录也通过visitFile返回
+                        if (attributes.isDirectory()) {
+                            subtasks.add(new DirectoryTask(result, file));
+                        } else if (attributes.isRegularFile()) {
+                            visitRegularFile(file, attributes);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        result.errors.put(file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                result.errors.put(directory, e);
+            }
+            listed = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return listed;
+        }
+
+        private void visitRegularFile(Path file, BasicFileAttributes attributes) {
+            String path = result.relativize(file);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            result.files.increment();
+            result.bytes.add(size);
+            FileIndex.Entry old = result.previous == null ? null : result.previous.get(path);
+            if (old != null && old.size() == size && old.lastModified() == lastModified) {
+                result.index.put(old);
+                result.reusedFiles.increment();
+                return;
+            }
+            HashTask task = new HashTask(result, file, path, size, lastModified);
+            if (size >= FORK_THRESHOLD) {
+                subtasks.add(task);
+            } else {
+                //已经在列目录的managedBlock中,直接计算
+                task.block();
+                task.record();
+            }
+        }
+
+    }
+
+    private final class HashTask extends RecursiveAction implements ForkJoinPool.ManagedBlocker {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ScanResult result;
+        private final Path file;
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        /** managedBlock中计算的结果 */
+        private byte[] hash;
+        private IOException failure;
+
+        HashTask(ScanResult result, Path file, String path, long size, long lastModified) {
+            this.result = result;
+            this.file = file;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new InterruptedIOException("hash of " + file + " interrupted");
+            }
+            record();
+        }
+
+        void record() {
+            if (failure != null) {
+                result.errors.put(file, failure);
+                return;
+            }
+            result.index.put(new FileIndex.Entry(path, size, lastModified, hash));
+            result.changed.add(path);
+            result.hashedFiles.increment();
+            result.hashedBytes.add(size);
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                hash = hash(file, size);
+            } catch (IOException e) {
+                failure = e;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return hash != null || failure != null;
+        }
+
+    }
+
+    /** 一次扫描的结果,scan返回后各项数据不再变化 */
+    public final class ScanResult {
+
+        private final Path root;
+        private final FileIndex previous;
+        private final FileIndex index = FileIndex.concurrent(algorithm);
+
+        private final LongAdder files = new LongAdder();
+        private final LongAdder directories = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder hashedFiles = new LongAdder();
+        private final LongAdder hashedBytes = new LongAdder();
+        private final LongAdder reusedFiles = new LongAdder();
+        private final ConcurrentLinkedQueue<String> changed = new ConcurrentLinkedQueue<>();
+        private final Map<Path, IOException> errors = new ConcurrentHashMap<>();
+        private List<String> removed = Collections.emptyList();
+
+        ScanResult(Path root, FileIndex previous) {
+            this.root = root;
+            this.previous = previous;
+        }
+
+        /** 相对root的路径,统一以"/"分隔,索引在不同平台之间通用 */
+        String relativize(Path file) {
+            String path = root.relativize(file).toString();
+            return file.getFileSystem().getSeparator().equals("/") ? path : path.replace('\\', '/');
+        }
+
+        void finish() {
+            if (previous == null) {
+                return;
+            }
+            List<String> gone = new ArrayList<>();
+            for (FileIndex.Entry entry : previous.entries()) {
+                if (index.get(entry.path()) != null) {
+                    continue;
+                }
+                if (underFailed(entry.path())) {
+                    //读取失败的目录下的文件不算删除,保留上次的索引
+                    index.put(entry);
+                } else {
+                    gone.add(entry.path());
+                }
+            }
+            removed = gone;
+        }
+
+        private boolean underFailed(String path) {
+            if (errors.isEmpty()) {
+                return false;
+            }
+            Path file = root.resolve(path);
+            for (Path failed : errors.keySet()) {
+                if (file.startsWith(failed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Path root() {
+            return root;
+        }
+
+        /** 本次扫描的完整索引 */
+        public FileIndex index() {
+            return index;
+        }
+
+        public long files() {
+            return files.sum();
+        }
+
+        public long directories() {
+            return directories.sum();
+        }
+
+        /** 所有文件的总大小 */
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        /** 新增或修改、重新计算了哈希的文件数 */
+        public long hashedFiles() {
+            return hashedFiles.sum();
+        }
+
+        public long hashedBytes() {
+            return hashedBytes.sum();
+        }
+
+        /** 大小和修改时间未变、沿用上次哈希的文件数 */
+        public long reusedFiles() {
+            return reusedFiles.sum();
+        }
+
+        /** 新增或修改的文件的相对路径,顺序不确定 */
+        public List<String> changed() {
+            return new ArrayList<>(changed);
+        }
+
+        /** 上次索引中存在、本次已不存在的文件 */
+        public List<String> removed() {
+            return removed;
+        }
+
+        /** 无法读取的文件和目录 */
+        public Map<Path, IOException> errors() {
+            return Collections.unmodifiableMap(errors);
+        }
+
+    }
+
+}
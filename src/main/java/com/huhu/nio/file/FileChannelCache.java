@@ -0,0 +1,323 @@
+package com.huhu.nio.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 打开的只读FileChannel缓存,线程安全
+ *
+ * 同一个文件的多次读取共享一个FileChannel,省去每次open/close的系统调用
+ * 缓存的文件数有上限,超出时按最近最少使用淘汰;每次acquire增加一次引用,
+ * 被淘汰或失效的文件要等所有引用都close后才真正关闭,正在发送的文件不会被关掉
+ *
+ * 文件所在目录注册到WatchService,文件被修改、删除或替换时后台线程把它移出缓存,
+ * 之后的acquire重新打开;失效前已经拿到的引用仍然读取旧的文件
+ */
+public final class FileChannelCache implements Closeable {
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 1024;
+
+    private final int maxOpenFiles;
+    /** 按访问顺序排列,队首最久未使用 */
+    private final LinkedHashMap<Path, Handle> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final WatchService watchService;
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private final Thread watcher;
+    private volatile boolean closed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public FileChannelCache() throws IOException {
+        this(DEFAULT_MAX_OPEN_FILES);
+    }
+
+    public FileChannelCache(int maxOpenFiles) throws IOException {
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException("maxOpenFiles: " + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.watcher = new Thread(this::watchLoop, "file-channel-cache-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * 取得文件的一个引用,用完后必须close一次
+     *
+     * @throws NoSuchFileException 文件不存在或不是普通文件
+     */
+    public Handle acquire(Path path) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("cache closed");
+        }
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (entries) {
+            Handle handle = entries.get(key);
+            if (handle != null) {
+                handle.references++;
+                hits.increment();
+                return handle;
+            }
+        }
+        misses.increment();
+        //先注册目录再打开文件,打开之后的修改一定能收到通知
+        watch(key.getParent());
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+            throw new NoSuchFileException(key.toString());
+        }
+        FileChannel channel = FileChannel.open(key, StandardOpenOption.READ);
+        Handle opened = new Handle(key, channel, channel.size(), attributes.lastModifiedTime().toMillis());
+        List<Handle> evicted = new ArrayList<>();
+        Handle result;
+        synchronized (entries) {
+            Handle existing = entries.get(key);
+            if (existing != null) {
+                //其他线程同时打开了同一个文件
+                existing.references++;
+                result = existing;
+                evicted.add(opened);
+            } else {
+                opened.references = 1;
+                entries.put(key, opened);
+                result = opened;
+                Iterator<Handle> iterator = entries.values().iterator();
+                while (entries.size() > maxOpenFiles) {
+                    Handle eldest = iterator.next();
+                    iterator.remove();
+                    if (detach(eldest)) {
+                        evicted.add(eldest);
+                    }
+                }
+            }
+        }
+        closeAll(evicted);
+        return result;
+    }
+
+    /** 把文件移出缓存,通常由WatchService触发,也可以手动调用 */
+    public void invalidate(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        boolean closeNow;
+        Handle handle;
+        synchronized (entries) {
+            handle = entries.remove(key);
+            if (handle == null) {
+                return;
+            }
+            closeNow = detach(handle);
+        }
+        invalidations.increment();
+        if (closeNow) {
+            closeQuietly(handle.channel);
+        }
+    }
+
+    public void invalidateAll() {
+        List<Handle> detached = new ArrayList<>();
+        synchronized (entries) {
+            for (Handle handle : entries.values()) {
+                if (detach(handle)) {
+                    detached.add(handle);
+                }
+            }
+            invalidations.add(entries.size());
+            entries.clear();
+        }
+        closeAll(detached);
+    }
+
+    /** 缓存中的文件数,不包括已淘汰但仍被引用的 */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    /** 停止监听并关闭所有未被引用的文件,仍被引用的文件在最后一次close时关闭 */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        watchService.close();
+        invalidateAll();
+    }
+
+    /** 标记为已移出缓存,返回是否可以立即关闭,调用方需持有锁 */
+    private static boolean detach(Handle handle) {
+        handle.detached = true;
+        return handle.references == 0;
+    }
+
+    private void release(Handle handle) {
+        synchronized (entries) {
+            if (handle.references <= 0) {
+                throw new IllegalStateException("handle already released: " + handle.path);
+            }
+            if (--handle.references > 0 || !handle.detached) {
+                return;
+            }
+        }
+        closeQuietly(handle.channel);
+    }
+
+    private void watch(Path directory) throws IOException {
+        if (directory == null || watchedDirectories.contains(directory)) {
+            return;
+        }
+        try {
+            //文件被重命名覆盖时只会收到ENTRY_CREATE
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.add(directory);
+        } catch (ClosedWatchServiceException e) {
+            throw new IllegalStateException("cache closed");
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        //丢失了事件,无法知道哪些文件变了
+                        invalidateDirectory(directory);
+                    } else {
+                        invalidate(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    //目录本身被删除
+                    watchedDirectories.remove(directory);
+                    invalidateDirectory(directory);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            //cache已关闭
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void invalidateDirectory(Path directory) {
+        List<Handle> detached = new ArrayList<>();
+        synchronized (entries) {
+            Iterator<Map.Entry<Path, Handle>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Path, Handle> entry = iterator.next();
+                if (directory.equals(entry.getKey().getParent())) {
+                    iterator.remove();
+                    invalidations.increment();
+                    if (detach(entry.getValue())) {
+                        detached.add(entry.getValue());
+                    }
+                }
+            }
+        }
+        closeAll(detached);
+    }
+
+    private static void closeAll(List<Handle> handles) {
+        for (Handle handle : handles) {
+            closeQuietly(handle.channel);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 缓存中文件的一个引用,多次acquire返回同一个对象,每次acquire对应一次close
+     *
+     * size和lastModified是打开时的值,同一个引用上的读取结果是一致的
+     */
+    public final class Handle implements Closeable {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final long size;
+        private final long lastModified;
+
+        /** 以下字段由entries的锁保护 */
+        private int references;
+        private boolean detached;
+
+        private Handle(Path path, FileChannel channel, long size, long lastModified) {
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        /** 共享的通道,只能使用按位置读取的方法,不能修改position或关闭 */
+        public FileChannel channel() {
+            return channel;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /** 打开时文件的最后修改时间(毫秒) */
+        public long lastModified() {
+            return lastModified;
+        }
+
+        /** 释放一次引用 */
+        @Override
+        public void close() {
+            release(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,396 @@
+package com.huhu.nio.file;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并行分块文件复制
+ *
+ * 大文件按chunkSize切成若干块,在ForkJoinPool中并行复制,每块使用带位置参数的读写,互不影响
+ * 小文件直接在调用线程中一次transferTo,不值得拆分
+ * 每块的读写是阻塞I/O,放在ForkJoinPool.managedBlock中执行,池在块阻塞期间补充线程,不会因此耗尽并行度
+ * 任何一块失败时其余块在下一个切片处停止,所有块都结束后才关闭源文件并删除目标文件
+ *
+ * 复制策略
+ * TRANSFER: 每块一次transferTo,数据不经过用户态
+ * POSITIONAL: 每块通过池化的直接缓冲区read(buf, pos)/write(buf, pos),
+ * 用于网络文件系统等transferTo内部依赖内存映射、不够可靠的场景
+ * AUTO: 根据文件系统类型在两者之间选择
+ */
+public class FileCopier {
+
+    public enum Strategy {
+        AUTO, TRANSFER, POSITIONAL
+    }
+
+    public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    /** 小于该大小的文件不拆分 */
+    private static final long PARALLEL_THRESHOLD = 8L * 1024 * 1024;
+
+    /** 每复制这么多字节检查一次取消并汇报进度 */
+    private static final int SLICE_SIZE = 1024 * 1024;
+
+    private static final Set<String> NETWORK_FILE_STORES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "fuse.sshfs", "9p"));
+
+    private final ForkJoinPool pool;
+    private final BufferPool bufferPool;
+    private final long chunkSize;
+
+    public FileCopier() {
+        this(ForkJoinPool.commonPool(), BufferPool.shared(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public FileCopier(ForkJoinPool pool, BufferPool bufferPool, long chunkSize) {
+        if (chunkSize < SLICE_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be at least " + SLICE_SIZE + ": " + chunkSize);
+        }
+        this.pool = pool;
+        this.bufferPool = bufferPool;
+        this.chunkSize = chunkSize;
+    }
+
+    /** 阻塞复制,返回复制的字节数 */
+    public long copy(Path source, Path target) throws IOException {
+        CopyTask task = copyAsync(source, target, Strategy.AUTO, CopyListener.NONE);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("copy interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 异步复制,target已存在时会被覆盖
+     *
+     * 小于PARALLEL_THRESHOLD的文件在调用线程中同步复制,返回时任务已经完成
+     * 取消或失败时删除不完整的目标文件
+     */
+    public CopyTask copyAsync(Path source, Path target, Strategy strategy, CopyListener listener) throws IOException {
+        FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+        long size;
+        try {
+            size = in.size();
+            if (strategy == Strategy.AUTO) {
+                strategy = chooseStrategy(source, target);
+            }
+            //先确定目标文件大小,各分块按位置写入互不依赖
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (size > 0) {
+                    out.write(ByteBuffer.allocate(1), size - 1);
+                }
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        CopyTask task = new CopyTask(in, target, size, strategy, listener);
+        if (size < PARALLEL_THRESHOLD) {
+            //异常记录在任务中,由get()抛出
+            task.chunk.quietlyInvoke();
+        } else {
+            pool.execute(task.chunk);
+        }
+        return task;
+    }
+
+    /** 网络文件系统上transferTo会退化为内存映射,改用位置读写 */
+    Strategy chooseStrategy(Path source, Path target) {
+        try {
+            FileStore sourceStore = Files.getFileStore(source);
+            FileStore targetStore = Files.getFileStore(target.toAbsolutePath().getParent());
+            if (NETWORK_FILE_STORES.contains(sourceStore.type()) || NETWORK_FILE_STORES.contains(targetStore.type())) {
+                return Strategy.POSITIONAL;
+            }
+        } catch (IOException e) {
+            return Strategy.POSITIONAL;
+        }
+        return Strategy.TRANSFER;
+    }
+
+    /** 一次复制任务,可用于等待结果和取消 */
+    public final class CopyTask implements Future<Long> {
+
+        private final FileChannel in;
+        private final Path target;
+        private final long size;
+        private final Strategy strategy;
+        private final CopyListener listener;
+        private final LongAdder copied = new LongAdder();
+        private final Chunk chunk;
+        /** 根分块结束或任务被取消时完成 */
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private volatile boolean cancelled;
+        /** 某一块失败,其余块不再继续 */
+        private volatile boolean aborted;
+
+        CopyTask(FileChannel in, Path target, long size, Strategy strategy, CopyListener listener) {
+            this.in = in;
+            this.target = target;
+            this.size = size;
+            this.strategy = strategy;
+            this.listener = listener;
+            this.chunk = new Chunk(this, 0, size, true);
+        }
+
+        public Strategy strategy() {
+            return strategy;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long copied() {
+            return copied.sum();
+        }
+
+        /**
+         * 取消后任务立即完成,get()抛出CancellationException,
+         * 正在复制的分块在下一个切片处停下,之后才删除目标文件
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            return result.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return result.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return result.isDone();
+        }
+
+        @Override
+        public Long get() throws InterruptedException, ExecutionException {
+            return result.get();
+        }
+
+        @Override
+        public Long get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return result.get(timeout, unit);
+        }
+
+        void checkCancelled() {
+            if (cancelled || aborted) {
+                throw new CancellationException("copy of " + target + " cancelled");
+            }
+        }
+
+        void progress(long n) {
+            copied.add(n);
+            listener.onProgress(copied.sum(), size);
+        }
+
+        /** 所有分块结束后由根分块调用,failure为null表示成功 */
+        void finish(Throwable failure) {
+            try {
+                in.close();
+                if (failure != null) {
+                    Files.deleteIfExists(target);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            //已取消时不再改变结果
+            if (failure == null) {
+                result.complete(size);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }
+
+    }
+
+    /** 复制[from, to)区间,超过chunkSize时二分后并行执行 */
+    private final class Chunk extends RecursiveAction implements ForkJoinPool.ManagedBlocker {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CopyTask task;
+        private final long from;
+        private final long to;
+        private final boolean root;
+        /** managedBlock中复制的结果 */
+        private boolean copied;
+        private IOException failure;
+
+        Chunk(CopyTask task, long from, long to, boolean root) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            Throwable error = null;
+            try {
+                if (to - from <= chunkSize || to - from < PARALLEL_THRESHOLD && root) {
+                    ForkJoinPool.managedBlock(this);
+                    if (failure != null) {
+                        throw failure;
+                    }
+                } else {
+                    long middle = from + (to - from) / 2 / chunkSize * chunkSize;
+                    if (middle == from) {
+                        middle = from + chunkSize;
+                    }
+                    invokeBoth(new Chunk(task, from, middle, false), new Chunk(task, middle, to, false));
+                }
+            } catch (IOException e) {
+                task.aborted = true;
+                error = e;
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                task.aborted = true;
+                Thread.currentThread().interrupt();
+                InterruptedIOException interrupted = new InterruptedIOException("copy of " + task.target + " interrupted");
+                error = interrupted;
+                throw new UncheckedIOException(interrupted);
+            } catch (RuntimeException | Error e) {
+                task.aborted = true;
+                //子分块的IOException包装在UncheckedIOException中传上来
+                error = e instanceof UncheckedIOException ? e.getCause() : e;
+                throw e;
+            } finally {
+                if (root) {
+                    task.finish(error);
+                }
+            }
+        }
+
+        /**
+         * 并行执行两半,与invokeAll不同,一半失败时仍等另一半结束,
+         * 保证根任务删除目标文件时没有分块还在写入
+         */
+        private void invokeBoth(Chunk left, Chunk right) {
+            right.fork();
+            left.quietlyInvoke();
+            if (left.isCompletedAbnormally()) {
+                task.aborted = true;
+            }
+            right.quietlyJoin();
+            Throwable cause = left.getException();
+            Throwable other = right.getException();
+            //因为aborted停下的一半抛出的是CancellationException,优先报告真正的失败原因
+            if (cause == null || cause instanceof CancellationException && other != null) {
+                cause = other;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                copyRange();
+            } catch (IOException e) {
+                failure = e;
+            }
+            copied = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return copied;
+        }
+
+        private void copyRange() throws IOException {
+            //每块单独打开目标通道,transferTo写入的是目标通道的当前位置
+            try (FileChannel out = FileChannel.open(task.target, StandardOpenOption.WRITE)) {
+                if (task.strategy == Strategy.POSITIONAL) {
+                    copyPositional(out);
+                } else {
+                    copyTransfer(out);
+                }
+            }
+        }
+
+        private void copyTransfer(FileChannel out) throws IOException {
+            out.position(from);
+            long position = from;
+            while (position < to) {
+                task.checkCancelled();
+                long n = task.in.transferTo(position, Math.min(SLICE_SIZE, to - position), out);
+                if (n <= 0) {
+                    throw new IOException("source truncated at " + position);
+                }
+                position += n;
+                task.progress(n);
+            }
+        }
+
+        private void copyPositional(FileChannel out) throws IOException {
+            ByteBuffer buffer = bufferPool.acquire(SLICE_SIZE);
+            try {
+                long position = from;
+                while (position < to) {
+                    task.checkCancelled();
+                    buffer.clear();
+                    if (to - position < buffer.capacity()) {
+                        buffer.limit((int) (to - position));
+                    }
+                    long readPosition = position;
+                    while (buffer.hasRemaining()) {
+                        int n = task.in.read(buffer, readPosition);
+                        if (n < 0) {
+                            throw new IOException("source truncated at " + readPosition);
+                        }
+                        readPosition += n;
+                    }
+                    buffer.flip();
+                    int n = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        position += out.write(buffer, position);
+                    }
+                    task.progress(n);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+
+    }
+
+}
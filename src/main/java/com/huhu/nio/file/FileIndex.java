@@ -0,0 +1,234 @@
+package com.huhu.nio.file;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.codec.Varints;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 目录树的文件索引: 相对路径 → 大小、修改时间、内容哈希,由DirectoryScanner生成
+ *
+ * 文件格式: int 魔数, byte 版本, byte 算法名长度, 算法名, varint 条目数,
+ * 之后每个条目为 varint 路径长度, UTF-8路径, varlong 大小, varlong 修改时间(纳秒), byte 哈希长度, 哈希
+ * 保存时先写临时文件再原子改名,加载时整体映射后直接解析,不经过流
+ */
+public final class FileIndex {
+
+    private static final int MAGIC = 0x46494458;
+    private static final byte VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final String algorithm;
+    private final Map<String, Entry> entries;
+
+    public FileIndex(String algorithm) {
+        this(algorithm, new HashMap<>());
+    }
+
+    FileIndex(String algorithm, Map<String, Entry> entries) {
+        this.algorithm = algorithm;
+        this.entries = entries;
+    }
+
+    /**
+     * 加载索引,文件不存在或哈希算法不同时返回空索引
+     *
+     * @throws IOException 文件损坏
+     */
+    public static FileIndex load(Path file, String algorithm) throws IOException {
+        if (!Files.exists(file)) {
+            return new FileIndex(algorithm);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("index too large: " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                return parse(buffer, algorithm, file);
+            } finally {
+                MappedFile.Unmapper.unmap(buffer);
+            }
+        }
+    }
+
+    private static FileIndex parse(ByteBuffer buffer, String algorithm, Path file) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                throw new IOException("not an index file: " + file);
+            }
+            String stored = readString(buffer, buffer.get() & 0xFF);
+            if (!stored.equals(algorithm)) {
+                return new FileIndex(algorithm);
+            }
+            int count = Varints.readInt(buffer);
+            if (count < 0) {
+                throw new IOException("corrupt index: " + file);
+            }
+            Map<String, Entry> entries = new HashMap<>(Math.max(16, (int) (count / 0.75f) + 1));
+            for (int i = 0; i < count; i++) {
+                String path = readString(buffer, Varints.readInt(buffer));
+                long size = Varints.readLong(buffer);
+                long lastModified = Varints.readLong(buffer);
+                byte[] hash = new byte[buffer.get() & 0xFF];
+                buffer.get(hash);
+                entries.put(path, new Entry(path, size, lastModified, hash));
+            }
+            return new FileIndex(algorithm, entries);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("corrupt index: " + file, e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** 写入临时文件后原子替换file,写入过程中崩溃不会破坏旧索引 */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        BufferPool bufferPool = BufferPool.shared();
+        ByteBuffer buffer = bufferPool.acquire(WRITE_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] name = algorithm.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(MAGIC).put(VERSION).put((byte) name.length).put(name);
+            Varints.writeInt(buffer, entries.size());
+            for (Entry entry : entries.values()) {
+                byte[] path = entry.path.getBytes(StandardCharsets.UTF_8);
+                int length = Varints.MAX_INT_LENGTH + path.length + Varints.MAX_LONG_LENGTH * 2 + 1
+                        + entry.hash.length;
+                if (length > buffer.capacity()) {
+                    throw new IOException("path too long: " + entry.path);
+                }
+                if (length > buffer.remaining()) {
+                    flush(channel, buffer);
+                }
+                Varints.writeInt(buffer, path.length);
+                buffer.put(path);
+                Varints.writeLong(buffer, entry.size);
+                Varints.writeLong(buffer, entry.lastModified);
+                buffer.put((byte) entry.hash.length).put(entry.hash);
+            }
+            flush(channel, buffer);
+            channel.force(false);
+        } finally {
+            bufferPool.release(buffer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /** path为以"/"分隔的相对路径 */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /** 内容相同的文件分组,只返回包含两个以上文件的组 */
+    public List<List<Entry>> duplicates() {
+        Map<String, List<Entry>> groups = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            //大小不同的文件哈希不可能相同,带上大小减少误判
+            groups.computeIfAbsent(entry.size + ":" + entry.hashHex(), k -> new ArrayList<>(2)).add(entry);
+        }
+        List<List<Entry>> duplicates = new ArrayList<>();
+        for (List<Entry> group : groups.values()) {
+            if (group.size() > 1) {
+                duplicates.add(group);
+            }
+        }
+        return duplicates;
+    }
+
+    static FileIndex concurrent(String algorithm) {
+        return new FileIndex(algorithm, new ConcurrentHashMap<>());
+    }
+
+    void put(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    /** 一个文件的索引信息 */
+    public static final class Entry {
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+
+        Entry(String path, long size, long lastModified, byte[] hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        public String path() {
+            return path;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /** 最后修改时间,纳秒 */
+        public long lastModified() {
+            return lastModified;
+        }
+
+        public byte[] hash() {
+            return hash.clone();
+        }
+
+        public String hashHex() {
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+
+    }
+
+}
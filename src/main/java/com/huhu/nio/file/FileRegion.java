@@ -0,0 +1,198 @@
+package com.huhu.nio.file;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件中待发送的一段区域
+ *
+ * 优先使用{@link FileChannel#transferTo}把数据直接从页缓存发送到目标通道,不经过用户态拷贝
+ * 目标不是socket或文件通道,或者transferTo报错时,改为通过池化的直接缓冲区拷贝
+ *
+ * {@link #transferTo(WritableByteChannel)}每次调用只尽力发送,
+ * 非阻塞通道写满时返回,下次可写时再次调用即可从上次的位置继续
+ */
+public final class FileRegion implements Closeable {
+
+    /** -Dcom.huhu.nio.file.zeroCopy=false可以全局关闭零拷贝 */
+    private static final boolean ZERO_COPY = !"false".equals(System.getProperty("com.huhu.nio.file.zeroCopy"));
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel file;
+    private final long position;
+    private final long count;
+    /** close时一并关闭,可以是文件本身,也可以是缓存中文件的引用 */
+    private final Closeable owner;
+    private final BufferPool bufferPool;
+
+    /** 已写到目标通道的字节数 */
+    private long transferred;
+    /** 拷贝模式下已从文件读出的字节数 */
+    private long read;
+    private ByteBuffer copyBuffer;
+    private boolean copyMode;
+    private boolean closed;
+
+    public FileRegion(FileChannel file, long position, long count) {
+        this(file, position, count, false, BufferPool.shared());
+    }
+
+    public FileRegion(FileChannel file, long position, long count, boolean closeFile, BufferPool bufferPool) {
+        this(file, position, count, closeFile ? file : null, bufferPool);
+    }
+
+    /**
+     * @param owner 发送完成或丢弃时关闭,为null时不关闭任何东西
+     */
+    public FileRegion(FileChannel file, long position, long count, Closeable owner, BufferPool bufferPool) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position: " + position + ", count: " + count);
+        }
+        this.file = file;
+        this.position = position;
+        this.count = count;
+        this.owner = owner;
+        this.bufferPool = bufferPool;
+        this.copyMode = !ZERO_COPY;
+    }
+
+    /** 打开整个文件,发送完成后由{@link #close()}关闭文件 */
+    public static FileRegion open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new FileRegion(channel, 0, channel.size(), true, BufferPool.shared());
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long transferred() {
+        return transferred;
+    }
+
+    public boolean isDone() {
+        return transferred >= count;
+    }
+
+    /** 是否已退化为缓冲区拷贝 */
+    public boolean isCopyMode() {
+        return copyMode;
+    }
+
+    /**
+     * 向目标通道发送尽可能多的数据
+     *
+     * @return 本次写出的字节数,非阻塞通道写满时可能为0
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        long written = 0;
+        while (!isDone()) {
+            long n;
+            if (!copyMode && (target instanceof SelectableChannel || target instanceof FileChannel)) {
+                n = zeroCopy(target);
+            } else {
+                copyMode = true;
+                n = copy(target);
+            }
+            if (n <= 0) {
+                break;
+            }
+            written += n;
+        }
+        if (isDone()) {
+            releaseBuffer();
+        }
+        return written;
+    }
+
+    /** 阻塞地把剩余数据全部写出,目标通道必须是阻塞模式 */
+    public long transferFully(WritableByteChannel target) throws IOException {
+        long written = 0;
+        while (!isDone()) {
+            written += transferTo(target);
+        }
+        return written;
+    }
+
+    private long zeroCopy(WritableByteChannel target) throws IOException {
+        try {
+            long n = file.transferTo(position + transferred, count - transferred, target);
+            if (n == 0 && position + transferred >= file.size()) {
+                throw new IOException("file truncated: " + file.size() + " < " + (position + count));
+            }
+            transferred += n;
+            return n;
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            if (transferred > 0 || !target.isOpen()) {
+                throw e;
+            }
+            //平台不支持零拷贝,退化为缓冲区拷贝,真正的I/O错误会在拷贝时再次抛出
+            copyMode = true;
+            read = transferred;
+            return copy(target);
+        }
+    }
+
+    private long copy(WritableByteChannel target) throws IOException {
+        if (copyBuffer == null) {
+            copyBuffer = bufferPool.acquire(COPY_BUFFER_SIZE);
+            copyBuffer.flip();
+            read = transferred;
+        }
+        if (!copyBuffer.hasRemaining()) {
+            copyBuffer.clear();
+            long remaining = count - read;
+            if (remaining < copyBuffer.capacity()) {
+                copyBuffer.limit((int) remaining);
+            }
+            int n = file.read(copyBuffer, position + read);
+            if (n < 0) {
+                throw new IOException("file truncated: " + file.size() + " < " + (position + count));
+            }
+            read += n;
+            copyBuffer.flip();
+        }
+        int n = target.write(copyBuffer);
+        transferred += n;
+        return n;
+    }
+
+    private void releaseBuffer() {
+        if (copyBuffer != null) {
+            bufferPool.release(copyBuffer);
+            copyBuffer = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseBuffer();
+        if (owner != null) {
+            owner.close();
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.huhu.nio.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * AppendLog的顺序读取游标,不是线程安全的
+ *
+ * 记录append返回后即可读到,不等待落盘;只需要已落盘的记录时用AppendLog.durableSequence()限定范围
+ * 游标缓存当前记录在段内的位置,顺序读取时不再查索引;读到段尾时自动切换到下一个段
+ * region和transferTo返回的是段文件中连续的原始记录(含头和对齐填充),对端按记录格式解析
+ */
+public final class LogReader {
+
+    private final AppendLog log;
+    private LogSegment segment;
+    private long sequence;
+    /** sequence在段内的位置,-1表示还没有定位 */
+    private int position = -1;
+
+    LogReader(AppendLog log, long sequence) {
+        this.log = log;
+        this.sequence = sequence;
+        this.segment = log.segmentOf(sequence);
+    }
+
+    /** 下一条要读取的记录的序号 */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * 读取下一条记录的载荷,只读视图直接指向映射内存
+     *
+     * @return 还没有新记录时返回null,之后可以再次调用
+     */
+    public ByteBuffer next() {
+        if (!locate()) {
+            return null;
+        }
+        ByteBuffer payload = segment.payload(position);
+        position = segment.recordEnd(position);
+        sequence++;
+        return payload;
+    }
+
+    /**
+     * 把从当前记录开始、同一个段内连续写完的记录包装成FileRegion,游标移到这些记录之后
+     *
+     * 交给Connection.sendFile即可零拷贝发送,FileRegion关闭时不关闭段文件
+     *
+     * @param maxBytes 最多包含的字节数,第一条记录超过maxBytes时仍然只包含它一条
+     * @return 还没有新记录时返回null
+     */
+    public FileRegion region(long maxBytes) {
+        if (!locate()) {
+            return null;
+        }
+        int start = position;
+        int end = segment.recordEnd(start);
+        long records = 1;
+        while (true) {
+            int next = segment.recordEnd(end);
+            if (next < 0 || next - start > maxBytes) {
+                break;
+            }
+            end = next;
+            records++;
+        }
+        position = end;
+        sequence += records;
+        return new FileRegion(segment.channel, start, end - start);
+    }
+
+    /**
+     * 阻塞地把最多maxBytes字节的连续记录通过transferTo发送到target,非阻塞的socket应使用region
+     *
+     * @return 发送的字节数,还没有新记录时返回0
+     */
+    public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+        FileRegion region = region(maxBytes);
+        if (region == null) {
+            return 0;
+        }
+        return region.transferFully(target);
+    }
+
+    /** 定位到sequence所在的段和位置,记录还没写完时返回false */
+    private boolean locate() {
+        while (true) {
+            if (position < 0) {
+                if (segment == null) {
+                    return false;
+                }
+                position = segment.position((int) (sequence - segment.baseSequence));
+                if (position < 0) {
+                    return advance();
+                }
+            }
+            if (segment.recordEnd(position) >= 0) {
+                return true;
+            }
+            if (!advance()) {
+                return false;
+            }
+        }
+    }
+
+    /** 当前段的记录已经读完时切换到下一个段 */
+    private boolean advance() {
+        if (!segment.isSealed() || sequence - segment.baseSequence < segment.count()) {
+            //还有预留了但没写完的记录,保留位置,下次从这里继续
+            return false;
+        }
+        LogSegment next = log.nextSegment(segment);
+        if (next == null) {
+            return false;
+        }
+        segment = next;
+        position = -1;
+        return true;
+    }
+
+}
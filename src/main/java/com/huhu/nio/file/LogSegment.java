@@ -0,0 +1,360 @@
+package com.huhu.nio.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * AppendLog的一个段: 预分配并整体映射的数据文件,加一个同样映射的稀疏索引文件
+ *
+ * 记录格式: int 头, int 载荷的CRC32C, 载荷, 补齐到8字节;头的最高位为1表示记录已写完,低31位为载荷长度
+ * 写入方先写CRC和载荷,最后以release语义写头,读取方以acquire语义读到非0的头后即可读取整条记录;
+ * 文件预分配后全为0,读到0表示后面的记录还没有写完
+ * 索引条目: int 段内序号, int 位置|1,最低位为1表示条目有效(位置总是8字节对齐)
+ */
+final class LogSegment implements Closeable {
+
+    static final int HEADER = 8;
+    static final int ALIGNMENT = 8;
+    private static final int COMMITTED = 0x80000000;
+    private static final int INDEX_ENTRY = 8;
+
+    /** 封段后的位置,任何记录都放不下 */
+    private static final int SEALED = Integer.MAX_VALUE;
+
+    /** 直接缓冲区上的acquire/release访问要求地址对齐,头总是位于8字节对齐的位置 */
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /** JDK13+的MappedByteBuffer.force(int, int)只刷指定范围,不可用时整段刷盘 */
+    private static final MethodHandle FORCE_RANGE = findForceRange();
+
+    final long baseSequence;
+    final Path file;
+    final Path indexFile;
+    final int size;
+    private final int indexInterval;
+    final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer index;
+
+    /** 高32位为已预留的记录数,低32位为下一条记录的位置 */
+    private final AtomicLong state = new AtomicLong();
+    private volatile int indexEntries;
+
+    /** 以下字段只在刷盘线程(持有AppendLog的刷盘锁)中访问 */
+    int scannedCount;
+    int scannedPosition;
+    private int flushedPosition;
+    private int flushedIndexEntries;
+    private int nextIndexPosition;
+
+    private LogSegment(Path directory, long baseSequence, int size, int indexInterval) throws IOException {
+        this.baseSequence = baseSequence;
+        this.file = directory.resolve(fileName(baseSequence, ".log"));
+        this.indexFile = directory.resolve(fileName(baseSequence, ".idx"));
+        this.size = size;
+        this.indexInterval = indexInterval;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileChannel indexChannel = null;
+        try {
+            //映射超出文件末尾的范围时文件被扩展,新扩展的部分全为0
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    (long) (size / indexInterval + 1) * INDEX_ENTRY);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            throw e;
+        }
+        this.channel = channel;
+        this.indexChannel = indexChannel;
+    }
+
+    static String fileName(long baseSequence, String suffix) {
+        return String.format("%020d%s", baseSequence, suffix);
+    }
+
+    /** 新建一个空段 */
+    static LogSegment create(Path directory, long baseSequence, int size, int indexInterval) throws IOException {
+        return new LogSegment(directory, baseSequence, size, indexInterval);
+    }
+
+    /**
+     * 打开已有的段,从最后一个索引条目开始逐条校验,定位到第一条未写完或校验失败的记录
+     *
+     * 恢复后段处于未封段状态,调用方确认它不是最后一个段时再调用seal
+     */
+    static LogSegment recover(Path directory, long baseSequence, int size, int indexInterval) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseSequence, size, indexInterval);
+        try {
+            segment.recover();
+        } catch (RuntimeException e) {
+            segment.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    private void recover() {
+        int entries = 0;
+        int count = 0;
+        int position = 0;
+        int capacity = index.capacity() / INDEX_ENTRY;
+        while (entries < capacity) {
+            int relative = index.getInt(entries * INDEX_ENTRY);
+            int marked = index.getInt(entries * INDEX_ENTRY + 4);
+            if ((marked & 1) == 0 || relative < count || (marked & ~1) < position || (marked & ~1) >= size) {
+                break;
+            }
+            count = relative;
+            position = marked & ~1;
+            entries++;
+        }
+        //索引可能比数据先落盘,从最后一个条目往前退,直到条目指向一条完整的记录
+        while (entries > 0 && recordEnd(position) < 0) {
+            entries--;
+            count = entries == 0 ? 0 : index.getInt((entries - 1) * INDEX_ENTRY);
+            position = entries == 0 ? 0 : index.getInt((entries - 1) * INDEX_ENTRY + 4) & ~1;
+        }
+        CRC32C crc = new CRC32C();
+        while (true) {
+            int end = recordEnd(position);
+            if (end < 0) {
+                break;
+            }
+            ByteBuffer payload = payload(position);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            count++;
+            position = end;
+        }
+        truncate(entries, count, position);
+    }
+
+    /** 丢弃position之后的数据和索引,非0的部分清零,避免之后的写入与残留数据拼成看似合法的记录 */
+    private void truncate(int entries, int count, int position) {
+        for (int i = position; i + 8 <= size; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                buffer.putLong(i, 0);
+            }
+        }
+        while (entries > 0 && (index.getInt((entries - 1) * INDEX_ENTRY + 4) & ~1) >= position) {
+            entries--;
+        }
+        for (int i = entries * INDEX_ENTRY; i < index.capacity(); i += 8) {
+            if (index.getLong(i) != 0) {
+                index.putLong(i, 0);
+            }
+        }
+        indexEntries = entries;
+        flushedIndexEntries = entries;
+        nextIndexPosition = entries == 0 ? 0 : (index.getInt((entries - 1) * INDEX_ENTRY + 4) & ~1) + indexInterval;
+        scannedCount = count;
+        scannedPosition = position;
+        flushedPosition = position;
+        state.set((long) count << 32 | position);
+    }
+
+    /**
+     * 为一条recordSize字节的记录预留位置,无锁
+     *
+     * @return 高32位为段内序号,低32位为位置;段已满时封段并返回-1
+     */
+    long reserve(int recordSize) {
+        while (true) {
+            long current = state.get();
+            int position = (int) current;
+            if ((long) position + recordSize > size) {
+                seal();
+                return -1;
+            }
+            if (state.compareAndSet(current, current + (1L << 32) + recordSize)) {
+                return current;
+            }
+        }
+    }
+
+    /** 封段,之后不再接受预留,记录数不再变化 */
+    void seal() {
+        while (true) {
+            long current = state.get();
+            if ((int) current == SEALED || state.compareAndSet(current, (current & 0xFFFFFFFF00000000L) | SEALED)) {
+                return;
+            }
+        }
+    }
+
+    boolean isSealed() {
+        return (int) state.get() == SEALED;
+    }
+
+    /** 已预留的记录数,封段后即段内的记录总数 */
+    int count() {
+        return (int) (state.get() >>> 32);
+    }
+
+    static int recordSize(int length) {
+        return (HEADER + length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /** 写入一条已预留位置的记录,payload的position不变 */
+    void write(int position, ByteBuffer payload, int crc) {
+        int length = payload.remaining();
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + HEADER);
+        target.put(payload.duplicate());
+        target.putInt(position + 4, crc);
+        INT.setRelease(buffer, position, COMMITTED | length);
+    }
+
+    /** position处完整记录的结束位置,记录还没写完或超出段尾时返回-1 */
+    int recordEnd(int position) {
+        if (position + HEADER > size) {
+            return -1;
+        }
+        int header = (int) INT.getAcquire(buffer, position);
+        if ((header & COMMITTED) == 0) {
+            return -1;
+        }
+        int length = header & ~COMMITTED;
+        if (length > size - position - HEADER) {
+            return -1;
+        }
+        return position + recordSize(length);
+    }
+
+    /** position处记录的载荷,只读视图 */
+    ByteBuffer payload(int position) {
+        int length = (int) INT.getAcquire(buffer, position) & ~COMMITTED;
+        ByteBuffer view = buffer.duplicate();
+        view.limit(position + HEADER + length).position(position + HEADER);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * 段内第relative条记录的位置,先在稀疏索引中二分查找,再从索引位置逐条向后跳
+     *
+     * @return 记录还没写完时返回-1
+     */
+    int position(int relative) {
+        int low = 0;
+        int high = indexEntries - 1;
+        int count = 0;
+        int position = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = index.getInt(mid * INDEX_ENTRY);
+            if (entry <= relative) {
+                count = entry;
+                position = index.getInt(mid * INDEX_ENTRY + 4) & ~1;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        while (count < relative) {
+            position = recordEnd(position);
+            if (position < 0) {
+                return -1;
+            }
+            count++;
+        }
+        return recordEnd(position) < 0 ? -1 : position;
+    }
+
+    /**
+     * 从上次扫描的位置向后扫描连续写完的记录,同时每隔indexInterval字节追加一个索引条目
+     *
+     * 只在刷盘线程中调用
+     */
+    void scan() {
+        while (true) {
+            int end = recordEnd(scannedPosition);
+            if (end < 0) {
+                return;
+            }
+            if (scannedPosition >= nextIndexPosition) {
+                int entry = indexEntries;
+                index.putInt(entry * INDEX_ENTRY, scannedCount);
+                index.putInt(entry * INDEX_ENTRY + 4, scannedPosition | 1);
+                indexEntries = entry + 1;
+                nextIndexPosition = scannedPosition + indexInterval;
+            }
+            scannedCount++;
+            scannedPosition = end;
+        }
+    }
+
+    /** 封段且所有预留的记录都已扫描 */
+    boolean isComplete() {
+        return isSealed() && scannedCount == count();
+    }
+
+    /** 把上次刷盘之后扫描到的数据和索引写到磁盘,数据先于索引 */
+    void force() throws IOException {
+        if (scannedPosition > flushedPosition) {
+            force(buffer, flushedPosition, scannedPosition - flushedPosition);
+            flushedPosition = scannedPosition;
+        }
+        if (indexEntries > flushedIndexEntries) {
+            force(index, flushedIndexEntries * INDEX_ENTRY, (indexEntries - flushedIndexEntries) * INDEX_ENTRY);
+            flushedIndexEntries = indexEntries;
+        }
+    }
+
+    private static void force(MappedByteBuffer buffer, int offset, int length) throws IOException {
+        if (FORCE_RANGE == null) {
+            buffer.force();
+            return;
+        }
+        try {
+            MappedByteBuffer ignored = (MappedByteBuffer) FORCE_RANGE.invokeExact(buffer, offset, length);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static MethodHandle findForceRange() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(MappedByteBuffer.class, "force",
+                    MethodType.methodType(MappedByteBuffer.class, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** 解除映射后关闭文件,不刷盘 */
+    @Override
+    public void close() throws IOException {
+        MappedFile.Unmapper.unmap(buffer);
+        MappedFile.Unmapper.unmap(index);
+        try {
+            channel.close();
+        } finally {
+            indexChannel.close();
+        }
+    }
+
+}
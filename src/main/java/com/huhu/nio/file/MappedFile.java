@@ -0,0 +1,347 @@
+package com.huhu.nio.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 分窗口的内存映射文件,非线程安全
+ *
+ * 单个MappedByteBuffer最大只能映射Integer.MAX_VALUE字节,这里把文件切成固定大小的窗口按需映射,
+ * 对外提供long地址的读写,同时映射的窗口数有上限,超出时按最近最少使用淘汰并立即解除映射,
+ * 处理任意大小的文件时常驻内存都是有界的
+ *
+ * 窗口之间的批量拷贝直接在两块映射内存之间进行,不经过堆内数组
+ */
+public class MappedFile implements Closeable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_WINDOWS = 4;
+
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+    private final long size;
+    private final int windowShift;
+    private final long windowMask;
+
+    /** 已映射的窗口,下标与lastUsed对应 */
+    private final MappedByteBuffer[] windows;
+    private final long[] windowIndexes;
+    private final long[] lastUsed;
+    private long clock;
+
+    /** 最近一次访问的窗口,连续访问同一窗口时不用查表 */
+    private long currentIndex = -1;
+    private MappedByteBuffer current;
+
+    private MappedFile(FileChannel channel, FileChannel.MapMode mode, long size, int windowSize, int maxWindows) {
+        if (Integer.bitCount(windowSize) != 1) {
+            throw new IllegalArgumentException("windowSize must be a power of two: " + windowSize);
+        }
+        if (maxWindows <= 0) {
+            throw new IllegalArgumentException("maxWindows: " + maxWindows);
+        }
+        this.channel = channel;
+        this.mode = mode;
+        this.size = size;
+        this.windowShift = Integer.numberOfTrailingZeros(windowSize);
+        this.windowMask = windowSize - 1;
+        this.windows = new MappedByteBuffer[maxWindows];
+        this.windowIndexes = new long[maxWindows];
+        this.lastUsed = new long[maxWindows];
+    }
+
+    /** 只读打开已有文件 */
+    public static MappedFile openReadOnly(Path path, int windowSize, int maxWindows) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new MappedFile(channel, FileChannel.MapMode.READ_ONLY, channel.size(), windowSize, maxWindows);
+    }
+
+    /** 读写打开文件,文件不存在时创建,不足size时扩展到size */
+    public static MappedFile openReadWrite(Path path, long size, int windowSize, int maxWindows) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        try {
+            if (channel.size() < size) {
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new MappedFile(channel, FileChannel.MapMode.READ_WRITE, size, windowSize, maxWindows);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int windowSize() {
+        return (int) windowMask + 1;
+    }
+
+    public byte getByte(long position) throws IOException {
+        return window(position, 1).get(offset(position));
+    }
+
+    public void putByte(long position, byte value) throws IOException {
+        window(position, 1).put(offset(position), value);
+    }
+
+    public int getInt(long position) throws IOException {
+        if (offset(position) <= windowMask - 3) {
+            return window(position, 4).getInt(offset(position));
+        }
+        //跨越窗口边界,按字节拼接
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | getByte(position + i) & 0xFF;
+        }
+        return value;
+    }
+
+    public void putInt(long position, int value) throws IOException {
+        if (offset(position) <= windowMask - 3) {
+            window(position, 4).putInt(offset(position), value);
+            return;
+        }
+        for (int i = 3; i >= 0; i--) {
+            putByte(position + i, (byte) value);
+            value >>>= 8;
+        }
+    }
+
+    public long getLong(long position) throws IOException {
+        if (offset(position) <= windowMask - 7) {
+            return window(position, 8).getLong(offset(position));
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | getByte(position + i) & 0xFF;
+        }
+        return value;
+    }
+
+    public void putLong(long position, long value) throws IOException {
+        if (offset(position) <= windowMask - 7) {
+            window(position, 8).putLong(offset(position), value);
+            return;
+        }
+        for (int i = 7; i >= 0; i--) {
+            putByte(position + i, (byte) value);
+            value >>>= 8;
+        }
+    }
+
+    /** 从position开始读取dst.remaining()个字节 */
+    public void read(long position, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            ByteBuffer src = slice(position, dst.remaining());
+            position += src.remaining();
+            dst.put(src);
+        }
+    }
+
+    /** 把src的剩余内容写入position处 */
+    public void write(long position, ByteBuffer src) throws IOException {
+        int limit = src.limit();
+        while (src.hasRemaining()) {
+            ByteBuffer dst = slice(position, src.remaining());
+            src.limit(src.position() + dst.remaining());
+            position += dst.remaining();
+            dst.put(src);
+            src.limit(limit);
+        }
+    }
+
+    /**
+     * 把[position, position + length)拷贝到目标文件的targetPosition处,两侧都是映射内存,不经过堆
+     *
+     * 同一文件内拷贝时源和目标窗口需要同时映射,因此至少要允许2个窗口
+     */
+    public void copyTo(long position, MappedFile target, long targetPosition, long length) throws IOException {
+        if (target == this && windows.length < 2) {
+            throw new IllegalStateException("copy within one file needs at least 2 windows");
+        }
+        while (length > 0) {
+            int n = (int) Math.min(length, windowSize());
+            ByteBuffer src = slice(position, n);
+            ByteBuffer dst = target.slice(targetPosition, src.remaining());
+            src.limit(src.position() + dst.remaining());
+            int copied = src.remaining();
+            dst.put(src);
+            position += copied;
+            targetPosition += copied;
+            length -= copied;
+        }
+    }
+
+    /** 把[position, position + length)写到通道中 */
+    public long transferTo(long position, long length, WritableByteChannel target) throws IOException {
+        long written = 0;
+        while (written < length) {
+            ByteBuffer src = slice(position + written, (int) Math.min(length - written, windowSize()));
+            int n = target.write(src);
+            written += n;
+            if (src.hasRemaining()) {
+                break;
+            }
+        }
+        return written;
+    }
+
+    /** 把所有已映射窗口的修改刷到磁盘 */
+    public void force() {
+        for (MappedByteBuffer window : windows) {
+            if (window != null && mode == FileChannel.MapMode.READ_WRITE) {
+                window.force();
+            }
+        }
+    }
+
+    /** 当前已映射的窗口数 */
+    public int mappedWindows() {
+        int count = 0;
+        for (MappedByteBuffer window : windows) {
+            if (window != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 返回从position开始、不超过length且不跨窗口的视图
+     */
+    private ByteBuffer slice(long position, int length) throws IOException {
+        MappedByteBuffer window = window(position, 1);
+        ByteBuffer view = window.duplicate();
+        int offset = offset(position);
+        view.position(offset);
+        view.limit((int) Math.min(window.capacity(), (long) offset + length));
+        return view;
+    }
+
+    private int offset(long position) {
+        return (int) (position & windowMask);
+    }
+
+    private MappedByteBuffer window(long position, int length) throws IOException {
+        if (position < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("position " + position + " out of [0, " + size + ")");
+        }
+        long index = position >>> windowShift;
+        if (index == currentIndex) {
+            return current;
+        }
+        int slot = -1;
+        int victim = 0;
+        for (int i = 0; i < windows.length; i++) {
+            if (windows[i] != null && windowIndexes[i] == index) {
+                slot = i;
+                break;
+            }
+            if (windows[i] == null || windows[victim] != null && lastUsed[i] < lastUsed[victim]) {
+                victim = i;
+            }
+        }
+        if (slot < 0) {
+            slot = victim;
+            unmap(slot);
+            long base = index << windowShift;
+            long windowLength = Math.min(windowSize(), size - base);
+            windows[slot] = channel.map(mode, base, windowLength);
+            windowIndexes[slot] = index;
+        }
+        lastUsed[slot] = ++clock;
+        currentIndex = index;
+        current = windows[slot];
+        return current;
+    }
+
+    private void unmap(int slot) {
+        MappedByteBuffer window = windows[slot];
+        if (window == null) {
+            return;
+        }
+        windows[slot] = null;
+        if (current == window) {
+            current = null;
+            currentIndex = -1;
+        }
+        if (mode == FileChannel.MapMode.READ_WRITE) {
+            window.force();
+        }
+        Unmapper.unmap(window);
+    }
+
+    /** 刷盘并解除所有映射后关闭文件 */
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < windows.length; i++) {
+            unmap(i);
+        }
+        channel.close();
+    }
+
+    /**
+     * 立即释放映射内存,而不是等GC回收MappedByteBuffer
+     *
+     * JDK没有公开的解除映射API,JDK9+通过Unsafe.invokeCleaner,JDK8通过DirectBuffer的cleaner,
+     * 都不可用时退回到等待GC
+     */
+    static final class Unmapper {
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                unsafe = null;
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        private Unmapper() {
+        }
+
+        static void unmap(ByteBuffer buffer) {
+            if (!buffer.isDirect()) {
+                return;
+            }
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                //无法主动释放,交给GC
+            }
+        }
+
+    }
+
+}
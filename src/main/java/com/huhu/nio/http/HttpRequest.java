@@ -0,0 +1,94 @@
+package com.huhu.nio.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 解析后的HTTP/1.x请求头,只包含静态文件服务需要的部分
+ *
+ * 头部名统一转为小写,同名头部只保留最后一个
+ */
+final class HttpRequest {
+
+    final String method;
+    final String target;
+    /** 1.0为0,1.1为1,其他版本为-1 */
+    final int minorVersion;
+    private final Map<String, String> headers;
+
+    private HttpRequest(String method, String target, int minorVersion, Map<String, String> headers) {
+        this.method = method;
+        this.target = target;
+        this.minorVersion = minorVersion;
+        this.headers = headers;
+    }
+
+    /**
+     * 解析不含结尾空行的请求头
+     *
+     * @return 格式错误返回null
+     */
+    static HttpRequest parse(ByteBuffer frame) {
+        String text = StandardCharsets.ISO_8859_1.decode(frame).toString();
+        String[] lines = text.split("\r\n", -1);
+        String[] requestLine = lines[0].split(" ", -1);
+        if (requestLine.length != 3 || requestLine[0].isEmpty() || requestLine[1].isEmpty()) {
+            return null;
+        }
+        int minorVersion;
+        if ("HTTP/1.1".equals(requestLine[2])) {
+            minorVersion = 1;
+        } else if ("HTTP/1.0".equals(requestLine[2])) {
+            minorVersion = 0;
+        } else if (requestLine[2].startsWith("HTTP/")) {
+            minorVersion = -1;
+        } else {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                return null;
+            }
+            headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                    lines[i].substring(colon + 1).trim());
+        }
+        return new HttpRequest(requestLine[0], requestLine[1], minorVersion, headers);
+    }
+
+    String header(String name) {
+        return headers.get(name);
+    }
+
+    /** HTTP/1.1默认保持连接,HTTP/1.0需要显式的keep-alive */
+    boolean isKeepAlive() {
+        String connection = headers.get("connection");
+        if (minorVersion == 1) {
+            return connection == null || !hasToken(connection, "close");
+        }
+        return connection != null && hasToken(connection, "keep-alive");
+    }
+
+    /** 是否带有请求体,静态文件服务不接受请求体 */
+    boolean hasBody() {
+        if (headers.containsKey("transfer-encoding")) {
+            return true;
+        }
+        String length = headers.get("content-length");
+        return length != null && !"0".equals(length);
+    }
+
+    private static boolean hasToken(String value, String token) {
+        for (String part : value.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,367 @@
+package com.huhu.nio.http;
+
+import com.huhu.nio.codec.DelimiterFrameDecoder;
+import com.huhu.nio.codec.TooLongFrameException;
+import com.huhu.nio.file.FileChannelCache;
+import com.huhu.nio.file.FileRegion;
+import com.huhu.nio.reactor.ChannelHandler;
+import com.huhu.nio.reactor.Connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于ReactorServer的HTTP/1.1静态文件服务,支持GET、HEAD和单个区间的Range请求
+ *
+ * 文件通过FileChannelCache共享打开的FileChannel,响应体以FileRegion加入连接的发送队列,
+ * 由transferTo零拷贝发送,发送完成后才释放缓存引用
+ * 请求头按"\r\n\r\n"切分,一次读到的多个请求依次处理,响应在发送队列中天然保持请求的顺序,
+ * 所以keep-alive和pipelining不需要额外的状态
+ * 不接受请求体,带请求体的请求返回400并关闭连接
+ */
+public class StaticFileHandler implements ChannelHandler {
+
+    public static final int MAX_HEADER_SIZE = 8192;
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "application/javascript; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("xml", "application/xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("jar", "application/java-archive");
+        CONTENT_TYPES.put("zip", "application/zip");
+        CONTENT_TYPES.put("gz", "application/gzip");
+        CONTENT_TYPES.put("tgz", "application/gzip");
+        CONTENT_TYPES.put("pom", "application/xml");
+    }
+
+    private final Path root;
+    private final FileChannelCache cache;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+
+    /**
+     * @param root 只提供该目录下的文件
+     * @param cache 可以被多个handler共享,由调用方负责关闭
+     */
+    public StaticFileHandler(Path root, FileChannelCache cache) {
+        this.root = root.toAbsolutePath().normalize();
+        this.cache = cache;
+    }
+
+    @Override
+    public void onOpen(Connection connection) {
+        connection.attach(new State(new DelimiterFrameDecoder(HEADER_END, MAX_HEADER_SIZE, connection.alloc())));
+    }
+
+    @Override
+    public void onRead(Connection connection, ByteBuffer buffer) throws IOException {
+        State state = (State) connection.attachment();
+        if (state.closing) {
+            return;
+        }
+        try {
+            state.decoder.decode(buffer, frame -> {
+                //已经决定关闭的连接上后续的请求不再处理
+                if (!state.closing) {
+                    handle(connection, frame);
+                }
+            });
+        } catch (TooLongFrameException e) {
+            sendError(connection, 431, "Request Header Fields Too Large", false);
+        }
+    }
+
+    @Override
+    public void onClose(Connection connection) {
+        ((State) connection.attachment()).decoder.release();
+    }
+
+    /** 处理过的请求数 */
+    public long requests() {
+        return requests.sum();
+    }
+
+    /** 响应体的总字节数 */
+    public long bytesServed() {
+        return bytesServed.sum();
+    }
+
+    private void handle(Connection connection, ByteBuffer frame) throws IOException {
+        requests.increment();
+        HttpRequest request = HttpRequest.parse(frame);
+        if (request == null) {
+            sendError(connection, 400, "Bad Request", false);
+            return;
+        }
+        if (request.minorVersion < 0) {
+            sendError(connection, 505, "HTTP Version Not Supported", false);
+            return;
+        }
+        if (request.hasBody()) {
+            sendError(connection, 400, "Bad Request", false);
+            return;
+        }
+        boolean keepAlive = request.isKeepAlive();
+        boolean head = "HEAD".equals(request.method);
+        if (!head && !"GET".equals(request.method)) {
+            sendError(connection, 405, "Method Not Allowed", keepAlive);
+            return;
+        }
+        Path path = resolve(request.target);
+        if (path == null) {
+            sendError(connection, 404, "Not Found", keepAlive);
+            return;
+        }
+
+        FileChannelCache.Handle file;
+        try {
+            file = cache.acquire(path);
+        } catch (NoSuchFileException e) {
+            sendError(connection, 404, "Not Found", keepAlive);
+            return;
+        } catch (AccessDeniedException e) {
+            sendError(connection, 403, "Forbidden", keepAlive);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            sendError(connection, 500, "Internal Server Error", keepAlive);
+            return;
+        }
+
+        long size = file.size();
+        long start = 0;
+        long end = size;
+        int status = 200;
+        String range = request.header("range");
+        if (range != null) {
+            long[] parsed = parseRange(range, size);
+            if (parsed != null && parsed.length == 0) {
+                file.close();
+                StringBuilder header = statusLine(request, 416, "Range Not Satisfiable");
+                header.append("Content-Range: bytes */").append(size).append("\r\n");
+                header.append("Content-Length: 0\r\n");
+                finish(connection, header, keepAlive);
+                return;
+            }
+            if (parsed != null) {
+                start = parsed[0];
+                end = parsed[1];
+                status = 206;
+            }
+        }
+
+        StringBuilder header = statusLine(request, status, status == 206 ? "Partial Content" : "OK");
+        header.append("Content-Type: ").append(contentType(path)).append("\r\n");
+        header.append("Content-Length: ").append(end - start).append("\r\n");
+        header.append("Last-Modified: ").append(HTTP_DATE.format(Instant.ofEpochMilli(file.lastModified())))
+                .append("\r\n");
+        header.append("Accept-Ranges: bytes\r\n");
+        if (status == 206) {
+            header.append("Content-Range: bytes ").append(start).append('-').append(end - 1)
+                    .append('/').append(size).append("\r\n");
+        }
+        if (head || end == start) {
+            file.close();
+            finish(connection, header, keepAlive);
+            return;
+        }
+        writeHeader(connection, header, keepAlive);
+        //FileRegion关闭时归还缓存引用
+        connection.sendFile(new FileRegion(file.channel(), start, end - start, file, connection.alloc()));
+        bytesServed.add(end - start);
+        if (!keepAlive) {
+            closeAfterResponse(connection);
+        }
+    }
+
+    /**
+     * 把请求路径映射到root下的文件,以"/"结尾时取目录下的index.html
+     *
+     * @return 路径非法或越出root时返回null
+     */
+    Path resolve(String target) {
+        int end = target.length();
+        int query = target.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = target.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        if (end == 0 || target.charAt(0) != '/') {
+            return null;
+        }
+        String decoded = percentDecode(target.substring(1, end));
+        if (decoded == null || decoded.indexOf('\0') >= 0 || decoded.indexOf('\\') >= 0) {
+            return null;
+        }
+        if (decoded.isEmpty() || decoded.endsWith("/")) {
+            decoded += "index.html";
+        }
+        try {
+            Path path = root.resolve(decoded).normalize();
+            return path.startsWith(root) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析Range头,只支持单个区间
+     *
+     * @return 区间[start, end);无法满足时返回空数组;格式不支持时返回null,按完整文件响应
+     */
+    static long[] parseRange(String value, long size) {
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                //最后n个字节
+                long suffix = Long.parseLong(last);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || size == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, size - suffix), size};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= size) {
+                return new long[0];
+            }
+            return new long[]{start, Math.min(end, size - 1) + 1};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String contentType(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type == null ? "application/octet-stream" : type;
+    }
+
+    private static StringBuilder statusLine(HttpRequest request, int status, String reason) {
+        StringBuilder header = new StringBuilder(256);
+        header.append(request != null && request.minorVersion == 0 ? "HTTP/1.0 " : "HTTP/1.1 ")
+                .append(status).append(' ').append(reason).append("\r\n");
+        return header;
+    }
+
+    private void sendError(Connection connection, int status, String reason, boolean keepAlive) {
+        StringBuilder header = statusLine(null, status, reason);
+        header.append("Content-Type: text/plain; charset=utf-8\r\n");
+        header.append("Content-Length: ").append(reason.length() + 1).append("\r\n");
+        writeHeader(connection, header, keepAlive);
+        connection.write(ByteBuffer.wrap((reason + "\n").getBytes(StandardCharsets.US_ASCII)));
+        if (!keepAlive) {
+            closeAfterResponse(connection);
+        }
+    }
+
+    /** 发送只有头部的响应 */
+    private void finish(Connection connection, StringBuilder header, boolean keepAlive) {
+        writeHeader(connection, header, keepAlive);
+        if (!keepAlive) {
+            closeAfterResponse(connection);
+        }
+    }
+
+    private static void writeHeader(Connection connection, StringBuilder header, boolean keepAlive) {
+        header.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        ByteBuffer buffer = connection.alloc().acquire(header.length());
+        for (int i = 0; i < header.length(); i++) {
+            buffer.put((byte) header.charAt(i));
+        }
+        buffer.flip();
+        connection.writeAndRelease(buffer);
+    }
+
+    /** 响应发送完后关闭,同一次读取中剩下的请求不再处理 */
+    private static void closeAfterResponse(Connection connection) {
+        ((State) connection.attachment()).closing = true;
+        connection.closeAfterFlush();
+    }
+
+    private static String percentDecode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '%') {
+                out.write(c);
+                continue;
+            }
+            if (i + 2 >= value.length()) {
+                return null;
+            }
+            int high = Character.digit(value.charAt(i + 1), 16);
+            int low = Character.digit(value.charAt(i + 2), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            out.write(high << 4 | low);
+            i += 2;
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** 连接上的解析状态 */
+    private static final class State {
+
+        final DelimiterFrameDecoder decoder;
+        boolean closing;
+
+        State(DelimiterFrameDecoder decoder) {
+            this.decoder = decoder;
+        }
+
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.huhu.nio.metrics;
+
+import com.huhu.nio.buffer.BufferPool;
+
+/**
+ * 把BufferPool已有的计数器暴露为MXBean,不在分配路径上增加任何开销
+ */
+public final class BufferPoolStats implements BufferPoolStatsMXBean {
+
+    private final BufferPool bufferPool;
+
+    public BufferPoolStats(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public long getHits() {
+        return bufferPool.hits();
+    }
+
+    @Override
+    public long getMisses() {
+        return bufferPool.misses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = bufferPool.hits();
+        long total = hits + bufferPool.misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getOutstanding() {
+        return bufferPool.outstanding();
+    }
+
+    @Override
+    public long getSlabBytes() {
+        return bufferPool.slabBytes();
+    }
+
+    @Override
+    public String toString() {
+        return bufferPool.toString();
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.huhu.nio.metrics;
+
+/**
+ * BufferPool的JMX视图
+ */
+public interface BufferPoolStatsMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    /** 命中率,命中指从本地缓存或全局链表中取到缓冲区 */
+    double getHitRatio();
+
+    long getOutstanding();
+
+    long getSlabBytes();
+
+}
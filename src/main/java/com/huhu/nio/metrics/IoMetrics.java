@@ -0,0 +1,227 @@
+package com.huhu.nio.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 通道读写和选择器的运行指标
+ *
+ * 计数器使用LongAdder,多个线程同时累加时落在不同的槽上,不会争用同一个缓存行
+ * 分布类指标使用LatencyHistogram,记录一次只是一次原子自增,计数按线程分组,多个worker不会互相争用
+ * 热路径上只有累加,汇总计算都在读取指标时进行,可以在生产环境常开
+ *
+ * 可以注册为JMX MBean(com.huhu.nio:type=IoMetrics,name=...),也可以交给MetricsReporter定期打印
+ */
+public final class IoMetrics implements IoMetricsMXBean {
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder emptyReads = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder readCapacity = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder selects = new LongAdder();
+    private final LongAdder emptySelects = new LongAdder();
+    private final LongAdder selectedKeys = new LongAdder();
+
+    private final LatencyHistogram bytesPerRead = new LatencyHistogram();
+    private final LatencyHistogram readsPerEvent = new LatencyHistogram();
+    /** 数据进入发送队列到全部写出的时间(纳秒) */
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+    /**
+     * 一次通道读
+     *
+     * @param bytes    读到的字节数,0表示空读
+     * @param capacity 本次读取时缓冲区的剩余空间
+     */
+    public void recordRead(int bytes, int capacity) {
+        reads.increment();
+        if (bytes <= 0) {
+            emptyReads.increment();
+            return;
+        }
+        bytesRead.add(bytes);
+        readCapacity.add(capacity);
+        bytesPerRead.record(bytes);
+    }
+
+    /** 一次可读事件中连续读取的次数 */
+    public void recordReadsPerEvent(int count) {
+        readsPerEvent.record(count);
+    }
+
+    /** 一次通道写,bytes为实际写出的字节数 */
+    public void recordWrite(long bytes) {
+        writes.increment();
+        bytesWritten.add(bytes);
+    }
+
+    /** 一次select返回,selected为就绪键数量 */
+    public void recordSelect(int selected) {
+        selects.increment();
+        if (selected == 0) {
+            emptySelects.increment();
+        } else {
+            selectedKeys.add(selected);
+        }
+    }
+
+    /** 从数据写入(flip后交给通道)到写完成经过的纳秒数 */
+    public void recordFlushLatency(long nanos) {
+        flushLatency.record(nanos);
+    }
+
+    public LatencyHistogram bytesPerRead() {
+        return bytesPerRead;
+    }
+
+    public LatencyHistogram readsPerEvent() {
+        return readsPerEvent;
+    }
+
+    public LatencyHistogram flushLatency() {
+        return flushLatency;
+    }
+
+    @Override
+    public long getReads() {
+        return reads.sum();
+    }
+
+    @Override
+    public long getEmptyReads() {
+        return emptyReads.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public double getReadFillRatio() {
+        long capacity = readCapacity.sum();
+        return capacity == 0 ? 0 : (double) bytesRead.sum() / capacity;
+    }
+
+    @Override
+    public long getBytesPerReadP50() {
+        return bytesPerRead.percentile(0.5);
+    }
+
+    @Override
+    public long getBytesPerReadP99() {
+        return bytesPerRead.percentile(0.99);
+    }
+
+    @Override
+    public long getReadsPerEventP99() {
+        return readsPerEvent.percentile(0.99);
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getSelects() {
+        return selects.sum();
+    }
+
+    @Override
+    public long getEmptySelects() {
+        return emptySelects.sum();
+    }
+
+    @Override
+    public long getSelectedKeys() {
+        return selectedKeys.sum();
+    }
+
+    @Override
+    public long getFlushLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(flushLatency.percentile(0.5));
+    }
+
+    @Override
+    public long getFlushLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(flushLatency.percentile(0.99));
+    }
+
+    @Override
+    public long getFlushLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(flushLatency.max());
+    }
+
+    @Override
+    public void reset() {
+        reads.reset();
+        emptyReads.reset();
+        bytesRead.reset();
+        readCapacity.reset();
+        writes.reset();
+        bytesWritten.reset();
+        selects.reset();
+        emptySelects.reset();
+        selectedKeys.reset();
+        bytesPerRead.reset();
+        readsPerEvent.reset();
+        flushLatency.reset();
+    }
+
+    /**
+     * 注册到平台MBeanServer,返回注册使用的名字
+     *
+     * 同名的MBean已存在时先注销旧的
+     */
+    public static ObjectName register(String type, String name, Object mbean) {
+        try {
+            ObjectName objectName = new ObjectName("com.huhu.nio:type=" + type + ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.registerMBean(mbean, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(mbean, objectName);
+            }
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("failed to register " + type + " " + name, e);
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            //已经注销
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "reads=" + getReads() + " (empty " + getEmptyReads() + ")"
+                + ", bytesRead=" + getBytesRead()
+                + ", fill=" + String.format("%.2f", getReadFillRatio())
+                + ", bytesPerRead[" + bytesPerRead + "]"
+                + ", readsPerEvent[" + readsPerEvent + "]"
+                + ", writes=" + getWrites()
+                + ", bytesWritten=" + getBytesWritten()
+                + ", selects=" + getSelects() + " (empty " + getEmptySelects() + ")"
+                + ", flushLatencyUs[p50=" + getFlushLatencyP50Micros() + ", p99=" + getFlushLatencyP99Micros()
+                + ", max=" + getFlushLatencyMaxMicros() + "]";
+    }
+
+}
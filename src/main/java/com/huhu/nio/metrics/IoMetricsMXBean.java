@@ -0,0 +1,42 @@
+package com.huhu.nio.metrics;
+
+/**
+ * IoMetrics的JMX视图
+ */
+public interface IoMetricsMXBean {
+
+    long getReads();
+
+    long getEmptyReads();
+
+    long getBytesRead();
+
+    /** 读取字节数占读缓冲区容量的比例 */
+    double getReadFillRatio();
+
+    long getBytesPerReadP50();
+
+    long getBytesPerReadP99();
+
+    long getReadsPerEventP99();
+
+    long getWrites();
+
+    long getBytesWritten();
+
+    long getSelects();
+
+    /** select返回0个就绪键的次数,包括超时、wakeup和任务唤醒 */
+    long getEmptySelects();
+
+    long getSelectedKeys();
+
+    long getFlushLatencyP50Micros();
+
+    long getFlushLatencyP99Micros();
+
+    long getFlushLatencyMaxMicros();
+
+    void reset();
+
+}
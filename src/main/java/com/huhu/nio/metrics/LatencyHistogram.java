@@ -0,0 +1,157 @@
+package com.huhu.nio.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数-线性分桶的直方图(HdrHistogram的简化版)
+ *
+ * 小于64的值每个值一个桶;更大的值按最高位分组,每组32个子桶,相对误差不超过1/32
+ * 覆盖整个long范围只需要1888个桶,记录一次是一次数组下标计算加一次原子自增,可以常开
+ *
+ * 计数按线程分成多组(不超过CPU数的2的幂),多个worker同时记录时落在不同的数组上,不会争用同一个缓存行;
+ * 读取时把各组合并,记录和读取可以并发,读取到的分位数是近似值
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+    private static final int BUCKETS = SUB_COUNT + (63 - SUB_BITS) * HALF_COUNT;
+
+    private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    /** 只在出现更大的值时写入,平时各线程只读 */
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        stripe().getAndIncrement(index(value));
+        long current = max.get();
+        //只有出现更大的值时才需要CAS
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /** 当前线程使用的一组计数,线程id打散后取模 */
+    private AtomicLongArray stripe() {
+        long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (id >>> 32) & (STRIPES - 1)];
+    }
+
+    /** 合并后的一个桶 */
+    private long bucket(int index) {
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            count += stripe.get(index);
+        }
+        return count;
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += bucket(i);
+        }
+        return total;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /** 平均值,按每个桶的中点估算 */
+    public double mean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = bucket(i);
+            if (count != 0) {
+                total += count;
+                sum += count * ((double) lowerBound(i) + upperBound(i)) / 2;
+            }
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * 分位数,quantile取值0~1,例如0.99
+     *
+     * 返回所在桶的上界(不超过最大值),没有数据时返回0
+     */
+    public long percentile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile: " + quantile);
+        }
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = bucket(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        max.set(0);
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+        int top = (int) (value >>> shift);
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + top - HALF_COUNT;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_COUNT;
+        int shift = offset / HALF_COUNT + 1;
+        long top = offset % HALF_COUNT + HALF_COUNT;
+        return top << shift;
+    }
+
+    static long upperBound(int index) {
+        if (index == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowerBound(index + 1) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count() + ", p50=" + percentile(0.5) + ", p99=" + percentile(0.99) + ", max=" + max();
+    }
+
+}
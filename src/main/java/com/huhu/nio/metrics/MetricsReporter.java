@@ -0,0 +1,67 @@
+package com.huhu.nio.metrics;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期把指标快照打印到输出流
+ *
+ * 每个指标源按名字打印一行,内容为其toString(),IoMetrics、BufferPoolStats、BufferPool都可以直接加入
+ */
+public class MetricsReporter implements Closeable {
+
+    private final PrintStream out;
+    private final Map<String, Object> sources = new LinkedHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public MetricsReporter() {
+        this(System.out);
+    }
+
+    public MetricsReporter(PrintStream out) {
+        this.out = out;
+    }
+
+    public synchronized MetricsReporter add(String name, Object source) {
+        sources.put(name, source);
+        return this;
+    }
+
+    /** 每隔periodMillis打印一次 */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("reporter already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** 立即打印一次 */
+    public synchronized void report() {
+        String time = new SimpleDateFormat("HH:mm:ss.SSS").format(new Date());
+        for (Map.Entry<String, Object> entry : sources.entrySet()) {
+            out.println(time + " " + entry.getKey() + ": " + entry.getValue());
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+}
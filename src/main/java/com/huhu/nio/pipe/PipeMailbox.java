@@ -0,0 +1,122 @@
+package com.huhu.nio.pipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 基于Pipe的跨线程信箱,用于I/O线程和业务线程之间互相投递消息
+ *
+ * 消息本身放在无锁的多生产者单消费者环形队列中,Pipe只用来唤醒消费者所在的选择器:
+ * 只有消费者处于"未通知"状态时生产者才往sink写1个字节,一批消息只产生一次系统调用
+ * 消费者在source可读时先读掉通知字节、清除通知状态,再一次性取空队列,全程不阻塞
+ *
+ * 之后投递的消息要么在本次取空时被看到,要么会重新写入通知字节,不会丢失唤醒
+ */
+public final class PipeMailbox<T> implements Closeable {
+
+    private final MpscRing<T> ring;
+    private final Pipe pipe;
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private final ByteBuffer signal = ByteBuffer.allocateDirect(1);
+    /** 消费者读取通知字节用,只在消费者线程使用 */
+    private final ByteBuffer drainBuffer = ByteBuffer.allocateDirect(64);
+    private final LongAdder signals = new LongAdder();
+
+    public PipeMailbox(int capacity) throws IOException {
+        this.ring = new MpscRing<>(capacity);
+        this.pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        pipe.source().configureBlocking(false);
+    }
+
+    /**
+     * 投递消息,可以在任意线程调用
+     *
+     * @return 信箱已满返回false,由调用方决定重试或丢弃
+     */
+    public boolean offer(T message) {
+        if (!ring.offer(message)) {
+            return false;
+        }
+        if (signalled.compareAndSet(false, true)) {
+            signal();
+        }
+        return true;
+    }
+
+    private void signal() {
+        //sink被多个生产者共用,但同一时刻只有CAS成功的那个会写
+        synchronized (signal) {
+            signal.clear();
+            try {
+                pipe.sink().write(signal);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        signals.increment();
+    }
+
+    /** 把source注册到消费者的选择器上,可读时调用{@link #drain} */
+    public SelectionKey register(Selector selector, Object attachment) throws IOException {
+        return pipe.source().register(selector, SelectionKey.OP_READ, attachment);
+    }
+
+    /** 取出全部消息,只能在消费者线程调用 */
+    public int drain(Consumer<? super T> consumer) throws IOException {
+        return drain(consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 最多取出max条消息,只能在消费者线程调用
+     *
+     * 没取完时重新置为已通知状态,保证选择器下次仍能被唤醒
+     */
+    public int drain(Consumer<? super T> consumer, int max) throws IOException {
+        drainBuffer.clear();
+        while (pipe.source().read(drainBuffer) > 0) {
+            drainBuffer.clear();
+        }
+        signalled.set(false);
+
+        int count = 0;
+        T message;
+        while (count < max && (message = ring.poll()) != null) {
+            consumer.accept(message);
+            count++;
+        }
+        if (count == max && ring.size() > 0 && signalled.compareAndSet(false, true)) {
+            signal();
+        }
+        return count;
+    }
+
+    /** 当前待处理的消息数,只是近似值 */
+    public int size() {
+        return ring.size();
+    }
+
+    public int capacity() {
+        return ring.capacity();
+    }
+
+    /** 累计写入通知字节的次数 */
+    public long signals() {
+        return signals.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+}
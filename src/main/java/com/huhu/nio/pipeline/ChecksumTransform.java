@@ -0,0 +1,35 @@
+package com.huhu.nio.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * 计算流经数据的校验和,数据原样交给下一阶段,不做拷贝
+ */
+public class ChecksumTransform implements Transform {
+
+    private final Checksum checksum;
+
+    public ChecksumTransform() {
+        this(new CRC32C());
+    }
+
+    public ChecksumTransform(Checksum checksum) {
+        this.checksum = checksum;
+    }
+
+    @Override
+    public void process(ByteBuffer buffer, Sink next) throws IOException {
+        //直接缓冲区也不需要拷贝到堆内
+        checksum.update(buffer.duplicate());
+        next.write(buffer);
+    }
+
+    /** 已处理数据的校验和,流水线完成后读取 */
+    public long value() {
+        return checksum.getValue();
+    }
+
+}
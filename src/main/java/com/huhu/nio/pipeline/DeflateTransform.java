@@ -0,0 +1,99 @@
+package com.huhu.nio.pipeline;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * zlib格式压缩,可以用InflaterInputStream解压
+ *
+ * Deflater直接读取输入缓冲区,压缩结果写入一个复用的池化缓冲区,写满一次交给下一阶段一次
+ */
+public class DeflateTransform implements Transform {
+
+    private static final int OUTPUT_SIZE = 64 * 1024;
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final Deflater deflater;
+    private final BufferPool bufferPool;
+    private ByteBuffer output;
+    private long bytesIn;
+    private long bytesOut;
+    private boolean closed;
+
+    public DeflateTransform(int level, BufferPool bufferPool) {
+        this.deflater = new Deflater(level);
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void process(ByteBuffer buffer, Sink next) throws IOException {
+        if (output == null) {
+            output = bufferPool.acquire(OUTPUT_SIZE);
+        }
+        deflater.setInput(buffer);
+        while (!deflater.needsInput()) {
+            deflate(next);
+        }
+        //Deflater持有输入缓冲区的引用,而它返回后会被归还并clear,之后再压缩会读到脏数据
+        deflater.setInput(NO_INPUT);
+    }
+
+    @Override
+    public void finish(Sink next) throws IOException {
+        if (output == null) {
+            output = bufferPool.acquire(OUTPUT_SIZE);
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(next);
+        }
+        emit(next);
+    }
+
+    /** 结束Deflater的本地内存并归还输出缓冲区 */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        bytesIn = deflater.getBytesRead();
+        bytesOut = deflater.getBytesWritten();
+        deflater.end();
+        if (output != null) {
+            bufferPool.release(output);
+            output = null;
+        }
+    }
+
+    /** 压缩到output,output写满时交给下一阶段 */
+    private void deflate(Sink next) throws IOException {
+        deflater.deflate(output);
+        if (!output.hasRemaining()) {
+            emit(next);
+        }
+    }
+
+    private void emit(Sink next) throws IOException {
+        output.flip();
+        if (output.hasRemaining()) {
+            next.write(output);
+        }
+        output.clear();
+    }
+
+    /** 压缩前的字节数,close之后可用 */
+    public long bytesIn() {
+        return bytesIn;
+    }
+
+    /** 压缩后的字节数,close之后可用 */
+    public long bytesOut() {
+        return bytesOut;
+    }
+
+}
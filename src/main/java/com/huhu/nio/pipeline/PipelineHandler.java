@@ -0,0 +1,65 @@
+package com.huhu.nio.pipeline;
+
+import com.huhu.nio.reactor.ChannelHandler;
+import com.huhu.nio.reactor.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 把每个连接收到的数据流式写入各自的流水线,例如接收上传写入文件
+ *
+ * worker读到的数据拷贝到池化缓冲区后放入流水线,磁盘写入在流水线的executor中进行,
+ * 慢速磁盘不会阻塞worker上的其他连接
+ * 流水线越过高水位时暂停该连接的读取,回落到低水位后恢复,内存占用由水位限定,
+ * 暂停期间对端由TCP流控自然减速
+ * 连接关闭时结束流水线,流水线出错时关闭连接
+ */
+public class PipelineHandler implements ChannelHandler {
+
+    /** 为每个新连接创建流水线,在worker线程中调用,流水线应使用connection.alloc()作为缓冲区池 */
+    public interface PipelineFactory {
+
+        StreamingPipeline create(Connection connection) throws IOException;
+
+    }
+
+    private final PipelineFactory factory;
+
+    public PipelineHandler(PipelineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public void onOpen(Connection connection) throws IOException {
+        StreamingPipeline pipeline = factory.create(connection);
+        pipeline.setWritabilityListener(() -> connection.setAutoRead(true));
+        pipeline.completion().whenComplete((bytes, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+                connection.close();
+            }
+        });
+        connection.attach(pipeline);
+    }
+
+    @Override
+    public void onRead(Connection connection, ByteBuffer buffer) {
+        StreamingPipeline pipeline = (StreamingPipeline) connection.attachment();
+        //读缓冲区在回调返回后会被复用,拷贝一次后交给写线程
+        ByteBuffer copy = connection.alloc().acquire(buffer.remaining());
+        copy.put(buffer).flip();
+        if (!pipeline.offer(copy)) {
+            connection.setAutoRead(false);
+        }
+    }
+
+    @Override
+    public void onClose(Connection connection) {
+        StreamingPipeline pipeline = (StreamingPipeline) connection.attachment();
+        if (pipeline != null) {
+            pipeline.finish();
+        }
+    }
+
+}
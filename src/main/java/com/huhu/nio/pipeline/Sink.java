@@ -0,0 +1,41 @@
+package com.huhu.nio.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 流水线的下游,可以是最终的文件,也可以是下一个变换阶段
+ */
+public interface Sink extends Closeable {
+
+    /**
+     * 消费buffer中的全部剩余数据
+     *
+     * 返回后buffer即归还给上游,需要保留数据时必须自行拷贝
+     */
+    void write(ByteBuffer buffer) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /** 写入通道的sink,关闭时关闭通道,例如以写模式打开的FileChannel */
+    static Sink of(final WritableByteChannel channel) {
+        return new Sink() {
+            @Override
+            public void write(ByteBuffer buffer) throws IOException {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+}
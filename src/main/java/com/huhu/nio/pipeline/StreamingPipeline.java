@@ -0,0 +1,224 @@
+package com.huhu.nio.pipeline;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 生产者(通常是网络读取) → 变换阶段 → sink(通常是文件)的流水线
+ *
+ * 生产者把池化的缓冲区放入队列后立即返回,由executor中的写线程依次经过各个变换阶段写入sink,
+ * 网络读取和磁盘写入互不阻塞;同一个流水线同一时刻最多只有一个写任务在执行,多个流水线可以共享executor
+ * 队列中的字节数超过高水位时offer返回false,生产者应暂停生产;
+ * 写线程把队列消费到低水位以下时回调writabilityListener,生产者据此恢复
+ */
+public final class StreamingPipeline {
+
+    public static final int DEFAULT_LOW_WATERMARK = 256 * 1024;
+    public static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+
+    private final Executor executor;
+    private final BufferPool bufferPool;
+    private final Transform[] transforms;
+    /** stages[i]把数据交给第i个变换阶段,最后一个是sink本身 */
+    private final Sink[] stages;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final CompletableFuture<Long> completion = new CompletableFuture<>();
+
+    private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile Runnable writabilityListener;
+    private volatile boolean finishing;
+    private final AtomicLong pauses = new AtomicLong();
+
+    /** 以下字段只在写任务中访问 */
+    private long bytesWritten;
+    private boolean done;
+
+    public StreamingPipeline(Executor executor, BufferPool bufferPool, List<Transform> transforms, Sink sink) {
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.transforms = transforms.toArray(new Transform[0]);
+        this.stages = new Sink[this.transforms.length + 1];
+        stages[this.transforms.length] = sink;
+        for (int i = this.transforms.length - 1; i >= 0; i--) {
+            Transform transform = this.transforms[i];
+            Sink next = stages[i + 1];
+            stages[i] = buffer -> transform.process(buffer, next);
+        }
+    }
+
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("lowWatermark: " + lowWatermark + ", highWatermark: " + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /** 从不可写恢复为可写时在写线程中回调 */
+    public void setWritabilityListener(Runnable listener) {
+        this.writabilityListener = listener;
+    }
+
+    /**
+     * 放入一个从bufferPool申请的缓冲区,之后归流水线所有,写完后归还
+     *
+     * @return 队列是否仍低于高水位,返回false时生产者应暂停,直到writabilityListener回调
+     */
+    public boolean offer(ByteBuffer buffer) {
+        if (finishing || completion.isDone()) {
+            //已经结束或写入失败,直接丢弃
+            bufferPool.release(buffer);
+            return true;
+        }
+        long queued = queuedBytes.addAndGet(buffer.remaining());
+        queue.offer(buffer);
+        schedule();
+        if (queued > highWatermark && writable.compareAndSet(true, false)) {
+            pauses.incrementAndGet();
+            //写线程可能已经在置为不可写之前把队列消费完了
+            if (queuedBytes.get() <= lowWatermark && writable.compareAndSet(false, true)) {
+                return true;
+            }
+            return false;
+        }
+        return writable.get();
+    }
+
+    /** 输入结束,队列中的数据全部写完后依次结束各个变换阶段,关闭sink并释放各阶段的资源 */
+    public void finish() {
+        finishing = true;
+        schedule();
+    }
+
+    /** 全部写完时完成,值为流入第一个阶段的字节数;任一阶段出错时异常完成,之后的数据被丢弃,各阶段同样会被close */
+    public CompletableFuture<Long> completion() {
+        return completion;
+    }
+
+    public boolean isWritable() {
+        return writable.get();
+    }
+
+    public long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /** 因越过高水位而暂停的次数 */
+    public long pauses() {
+        return pauses.get();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                ByteBuffer buffer = queue.poll();
+                if (buffer == null) {
+                    //finishing之前放入的数据此时一定可见
+                    if (finishing && queue.isEmpty()) {
+                        complete();
+                    }
+                    break;
+                }
+                int n = buffer.remaining();
+                try {
+                    if (!completion.isDone()) {
+                        stages[0].write(buffer);
+                        bytesWritten += n;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                } finally {
+                    bufferPool.release(buffer);
+                }
+                long queued = queuedBytes.addAndGet(-n);
+                if (queued <= lowWatermark && !writable.get() && writable.compareAndSet(false, true)) {
+                    Runnable listener = writabilityListener;
+                    if (listener != null) {
+                        listener.run();
+                    }
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            if ((!queue.isEmpty() || (finishing && !done)) && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+    }
+
+    private void complete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        if (completion.isDone()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < transforms.length; i++) {
+                transforms[i].finish(stages[i + 1]);
+            }
+            stages[transforms.length].close();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+            return;
+        }
+        RuntimeException error = closeTransforms();
+        if (error != null) {
+            completion.completeExceptionally(error);
+        } else {
+            completion.complete(bytesWritten);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        done = true;
+        try {
+            stages[transforms.length].close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+        RuntimeException error = closeTransforms();
+        if (error != null) {
+            cause.addSuppressed(error);
+        }
+        completion.completeExceptionally(cause);
+    }
+
+    /** 释放所有变换阶段的资源,某个阶段出错时其余阶段照常释放,返回第一个错误 */
+    private RuntimeException closeTransforms() {
+        RuntimeException error = null;
+        for (Transform transform : transforms) {
+            try {
+                transform.close();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        return error;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.huhu.nio.pipeline;
+
+import com.huhu.nio.charset.CharsetCodecs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * 字符集转码,例如GBK转UTF-8,写入方向的TranscodingChannel
+ *
+ * 解码器直接读取输入缓冲区,字符和输出缓冲区在整个生命周期内复用
+ * 被拆在两个输入缓冲区之间的多字节字符,前半部分暂存在一个很小的缓冲区里,下一个缓冲区到来时逐字节补齐
+ */
+public class TranscodeTransform implements Transform {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    /** 已解码待编码的字符,写入模式 */
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    /** 已编码待交给下一阶段的字节,写入模式 */
+    private final ByteBuffer out;
+    /** 上一个输入缓冲区末尾不完整的字符,写入模式 */
+    private final ByteBuffer pending = ByteBuffer.allocate(16);
+    private boolean closed;
+
+    public TranscodeTransform(Charset from, Charset to) {
+        this.decoder = CharsetCodecs.acquireDecoder(from);
+        this.encoder = CharsetCodecs.acquireEncoder(to);
+        this.out = ByteBuffer.allocate(Math.max(BUFFER_SIZE, (int) Math.ceil(encoder.maxBytesPerChar()) * 2));
+    }
+
+    @Override
+    public void process(ByteBuffer buffer, Sink next) throws IOException {
+        if (pending.position() > 0) {
+            //逐字节补齐上次剩下的半个字符
+            while (buffer.hasRemaining()) {
+                pending.put(buffer.get());
+                pending.flip();
+                decode(pending, false, next);
+                boolean consumed = !pending.hasRemaining();
+                pending.compact();
+                if (consumed) {
+                    break;
+                }
+            }
+        }
+        decode(buffer, false, next);
+        if (buffer.hasRemaining()) {
+            pending.put(buffer);
+        }
+        encode(false, next);
+    }
+
+    @Override
+    public void finish(Sink next) throws IOException {
+        pending.flip();
+        decode(pending, true, next);
+        while (decoder.flush(chars).isOverflow()) {
+            encode(false, next);
+        }
+        encode(true, next);
+        while (encoder.flush(out).isOverflow()) {
+            emit(next);
+        }
+        emit(next);
+    }
+
+    /** 把编解码器还给CharsetCodecs,之后不能再使用 */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        CharsetCodecs.releaseDecoder(decoder);
+        CharsetCodecs.releaseEncoder(encoder);
+    }
+
+    /** 把in尽量解码到chars,chars满时先编码输出 */
+    private void decode(ByteBuffer in, boolean endOfInput, Sink next) throws IOException {
+        while (true) {
+            CoderResult result = decoder.decode(in, chars, endOfInput);
+            if (!result.isOverflow()) {
+                return;
+            }
+            encode(false, next);
+        }
+    }
+
+    /** 把chars全部编码,out满时交给下一阶段 */
+    private void encode(boolean endOfInput, Sink next) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, out, endOfInput).isOverflow()) {
+            emit(next);
+        }
+        chars.compact();
+        if (!endOfInput) {
+            emit(next);
+        }
+    }
+
+    private void emit(Sink next) throws IOException {
+        out.flip();
+        if (out.hasRemaining()) {
+            next.write(out);
+        }
+        out.clear();
+    }
+
+}
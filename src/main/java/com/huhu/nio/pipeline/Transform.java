@@ -0,0 +1,25 @@
+package com.huhu.nio.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 流水线中的变换阶段,每个流水线一个实例,只会被一个线程同时调用
+ *
+ * 不改变数据的阶段(例如校验和)应当把输入缓冲区原样交给next,不做拷贝;
+ * 改变数据的阶段把结果写入自己复用的输出缓冲区再交给next
+ */
+public interface Transform {
+
+    /** 处理buffer中的全部剩余数据,结果交给next */
+    void process(ByteBuffer buffer, Sink next) throws IOException;
+
+    /** 输入结束,把缓存的数据全部交给next */
+    default void finish(Sink next) throws IOException {
+    }
+
+    /** 释放资源,流水线正常完成或失败后对每个阶段都调用一次,失败时可能没有调用过finish */
+    default void close() {
+    }
+
+}
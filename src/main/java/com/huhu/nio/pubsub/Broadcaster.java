@@ -0,0 +1,404 @@
+package com.huhu.nio.pubsub;
+
+import com.huhu.nio.buffer.SharedBuffer;
+import com.huhu.nio.reactor.Connection;
+import com.huhu.nio.session.SessionRegistry;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把一条消息扇出给一个主题的所有订阅连接
+ *
+ * 消息只编码一次,每个订阅者的发送队列里放的是{@link SharedBuffer}的只读视图,靠引用计数回收,不逐个拷贝
+ * 订阅者按所属worker分组,一次发布对每个worker只提交一个任务,由该worker依次写入组内的连接,
+ * 这些写入和本轮其他数据一起在worker的flush阶段发出
+ * 订阅者发送队列越过高水位时按{@link SlowSubscriberPolicy}处理新消息
+ *
+ * 每个订阅连接在SessionRegistry中有一条记录,保存投递/丢弃/合并计数,附件是订阅状态
+ * 主题的订阅者列表写时复制,订阅和退订加锁,发布不加锁
+ */
+public class Broadcaster {
+
+    private static final int DELIVERED = 0;
+    private static final int DROPPED = 8;
+    private static final int COALESCED = 16;
+    private static final int FIELD_BYTES = 24;
+
+    private static final Group[] NO_GROUPS = new Group[0];
+
+    private final SlowSubscriberPolicy policy;
+    private final SessionRegistry sessions = new SessionRegistry(FIELD_BYTES);
+    private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    public Broadcaster(SlowSubscriberPolicy policy) {
+        this.policy = policy;
+    }
+
+    public SlowSubscriberPolicy policy() {
+        return policy;
+    }
+
+    /** 订阅主题,重复订阅没有效果;在连接所属worker线程中调用,避免与onClose中的remove交错 */
+    public synchronized void subscribe(Connection connection, String topic) {
+        if (!connection.isOpen()) {
+            return;
+        }
+        int record = sessions.register(connection.id());
+        Subscriber subscriber = (Subscriber) sessions.attachment(record);
+        if (subscriber == null) {
+            subscriber = new Subscriber(connection, record);
+            sessions.attach(record, subscriber);
+        }
+        if (subscriber.topics.add(topic)) {
+            topics.computeIfAbsent(topic, name -> new Topic()).add(subscriber);
+        }
+    }
+
+    /** 退订主题,已经合并待发的该主题消息仍会发出 */
+    public synchronized boolean unsubscribe(Connection connection, String topic) {
+        Subscriber subscriber = subscriber(connection);
+        if (subscriber == null || !subscriber.topics.remove(topic)) {
+            return false;
+        }
+        removeFromTopic(subscriber, topic);
+        return true;
+    }
+
+    /** 移除连接的所有订阅,在连接所属worker线程中调用,例如onClose */
+    public void remove(Connection connection) {
+        Subscriber subscriber;
+        synchronized (this) {
+            subscriber = subscriber(connection);
+            if (subscriber == null) {
+                return;
+            }
+            for (String topic : subscriber.topics) {
+                removeFromTopic(subscriber, topic);
+            }
+            subscriber.topics.clear();
+            sessions.remove(connection.id());
+        }
+        //已经提交的投递任务里可能还有这个订阅者,由removed标记跳过
+        subscriber.removed = true;
+        subscriber.releasePending();
+    }
+
+    private Subscriber subscriber(Connection connection) {
+        int record = sessions.get(connection.id());
+        return record < 0 ? null : (Subscriber) sessions.attachment(record);
+    }
+
+    private void removeFromTopic(Subscriber subscriber, String topic) {
+        Topic entry = topics.get(topic);
+        if (entry != null && entry.remove(subscriber)) {
+            topics.remove(topic);
+        }
+    }
+
+    /**
+     * 发布一条消息,可以在任意线程调用,调用方持有的一个引用交给本方法
+     *
+     * message是完整编码好的帧,原样发给每个订阅者
+     *
+     * @return 提交投递的订阅者数量
+     */
+    public int publish(String topic, SharedBuffer message) {
+        Topic entry = topics.get(topic);
+        Group[] groups = entry == null ? NO_GROUPS : entry.groups;
+        int subscribers = 0;
+        for (final Group group : groups) {
+            message.retain();
+            try {
+                group.eventLoop.execute(() -> deliver(group, topic, message));
+            } catch (RejectedExecutionException e) {
+                //worker已经结束,组内的连接都已关闭
+                message.release();
+                continue;
+            }
+            subscribers += group.subscribers.length;
+        }
+        published.increment();
+        batches.add(groups.length);
+        message.release();
+        return subscribers;
+    }
+
+    /** 在group所属的worker线程中依次写入组内的订阅者,持有message的一个引用 */
+    private void deliver(Group group, String topic, SharedBuffer message) {
+        try {
+            for (Subscriber subscriber : group.subscribers) {
+                Connection connection = subscriber.connection;
+                if (subscriber.removed || !connection.isOpen()) {
+                    continue;
+                }
+                if (connection.isWritable()) {
+                    connection.write(message.retain());
+                    increment(subscriber, DELIVERED);
+                    continue;
+                }
+                switch (policy) {
+                    case DROP:
+                        increment(subscriber, DROPPED);
+                        break;
+                    case COALESCE:
+                        subscriber.coalesce(topic, message);
+                        break;
+                    case DISCONNECT:
+                        disconnected.increment();
+                        connection.close();
+                        break;
+                }
+            }
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * 连接的可写状态发生变化,在ChannelHandler#onWritabilityChanged中调用
+     *
+     * COALESCE策略下恢复可写时补发各主题合并后的最新消息
+     */
+    public void writabilityChanged(Connection connection) {
+        if (!connection.isWritable()) {
+            return;
+        }
+        int record = sessions.get(connection.id());
+        if (record < 0) {
+            return;
+        }
+        Subscriber subscriber = (Subscriber) sessions.attachment(record);
+        if (subscriber != null && !subscriber.removed) {
+            subscriber.drainPending();
+        }
+    }
+
+    /** 计数只由订阅者所属的worker线程修改 */
+    private void increment(Subscriber subscriber, int field) {
+        sessions.putLong(subscriber.record, field, sessions.getLong(subscriber.record, field) + 1);
+    }
+
+    /** 主题当前的订阅者数量 */
+    public int subscribers(String topic) {
+        Topic entry = topics.get(topic);
+        if (entry == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Group group : entry.groups) {
+            count += group.subscribers.length;
+        }
+        return count;
+    }
+
+    /** 订阅连接的数量 */
+    public int sessions() {
+        return sessions.size();
+    }
+
+    /** 已投递给connection的消息数,连接不是订阅者时返回0 */
+    public long delivered(Connection connection) {
+        return counter(connection, DELIVERED);
+    }
+
+    /** DROP策略下丢弃的消息数 */
+    public long dropped(Connection connection) {
+        return counter(connection, DROPPED);
+    }
+
+    /** COALESCE策略下被同主题更新的消息替换掉的消息数 */
+    public long coalesced(Connection connection) {
+        return counter(connection, COALESCED);
+    }
+
+    private long counter(Connection connection, int field) {
+        int record = sessions.get(connection.id());
+        return record < 0 ? 0 : sessions.getLong(record, field);
+    }
+
+    /** 当前所有订阅连接的丢弃数之和,直接遍历注册表中的记录 */
+    public long dropped() {
+        return sum(DROPPED);
+    }
+
+    /** 当前所有订阅连接的合并数之和 */
+    public long coalesced() {
+        return sum(COALESCED);
+    }
+
+    private long sum(int field) {
+        long[] total = new long[1];
+        sessions.forEach((id, record) -> total[0] += sessions.getLong(record, field));
+        return total[0];
+    }
+
+    /** 已发布的消息数 */
+    public long published() {
+        return published.sum();
+    }
+
+    /** 提交给worker的投递任务数,每条消息最多为每个worker提交一个 */
+    public long batches() {
+        return batches.sum();
+    }
+
+    /** DISCONNECT策略下关闭的连接数 */
+    public long disconnected() {
+        return disconnected.sum();
+    }
+
+    /** 一个主题的订阅者,按worker分组,数组只整体替换 */
+    private static final class Topic {
+
+        volatile Group[] groups = NO_GROUPS;
+
+        void add(Subscriber subscriber) {
+            Executor eventLoop = subscriber.connection.eventLoop();
+            Group[] current = groups;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].eventLoop == eventLoop) {
+                    Group[] updated = current.clone();
+                    updated[i] = current[i].with(subscriber);
+                    groups = updated;
+                    return;
+                }
+            }
+            Group[] updated = new Group[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = new Group(eventLoop, new Subscriber[]{subscriber});
+            groups = updated;
+        }
+
+        /** 返回主题是否已没有订阅者 */
+        boolean remove(Subscriber subscriber) {
+            Group[] current = groups;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].eventLoop != subscriber.connection.eventLoop()) {
+                    continue;
+                }
+                Group group = current[i].without(subscriber);
+                if (group != null) {
+                    Group[] updated = current.clone();
+                    updated[i] = group;
+                    groups = updated;
+                } else {
+                    Group[] updated = new Group[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    groups = updated;
+                }
+                break;
+            }
+            return groups.length == 0;
+        }
+
+    }
+
+    /** 同一个worker上的订阅者,不可变 */
+    private static final class Group {
+
+        final Executor eventLoop;
+        final Subscriber[] subscribers;
+
+        Group(Executor eventLoop, Subscriber[] subscribers) {
+            this.eventLoop = eventLoop;
+            this.subscribers = subscribers;
+        }
+
+        Group with(Subscriber subscriber) {
+            Subscriber[] updated = new Subscriber[subscribers.length + 1];
+            System.arraycopy(subscribers, 0, updated, 0, subscribers.length);
+            updated[subscribers.length] = subscriber;
+            return new Group(eventLoop, updated);
+        }
+
+        /** 移除后为空时返回null */
+        Group without(Subscriber subscriber) {
+            int index = -1;
+            for (int i = 0; i < subscribers.length; i++) {
+                if (subscribers[i] == subscriber) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return this;
+            }
+            if (subscribers.length == 1) {
+                return null;
+            }
+            Subscriber[] updated = new Subscriber[subscribers.length - 1];
+            System.arraycopy(subscribers, 0, updated, 0, index);
+            System.arraycopy(subscribers, index + 1, updated, index, subscribers.length - index - 1);
+            return new Group(eventLoop, updated);
+        }
+
+    }
+
+    /** 一个订阅连接的状态 */
+    private final class Subscriber {
+
+        final Connection connection;
+        final int record;
+        /** 已订阅的主题,由Broadcaster的锁保护 */
+        final Set<String> topics = new HashSet<>();
+        /** COALESCE策略下等待补发的消息,每个主题一条,只在worker线程中访问 */
+        private Map<String, SharedBuffer> pending;
+        /** 只在worker线程中访问 */
+        boolean removed;
+
+        Subscriber(Connection connection, int record) {
+            this.connection = connection;
+            this.record = record;
+        }
+
+        void coalesce(String topic, SharedBuffer message) {
+            if (pending == null) {
+                pending = new LinkedHashMap<>();
+            }
+            SharedBuffer previous = pending.put(topic, message.retain());
+            if (previous != null) {
+                previous.release();
+                increment(this, COALESCED);
+            }
+        }
+
+        /** 按主题首次积压的顺序补发,再次越过高水位时停下 */
+        void drainPending() {
+            if (pending == null) {
+                return;
+            }
+            Iterator<SharedBuffer> iterator = pending.values().iterator();
+            while (iterator.hasNext() && connection.isWritable()) {
+                SharedBuffer message = iterator.next();
+                iterator.remove();
+                connection.write(message);
+                increment(this, DELIVERED);
+            }
+        }
+
+        void releasePending() {
+            if (pending == null) {
+                return;
+            }
+            for (SharedBuffer message : pending.values()) {
+                message.release();
+            }
+            pending = null;
+        }
+
+    }
+
+}
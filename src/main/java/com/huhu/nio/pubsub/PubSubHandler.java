@@ -0,0 +1,133 @@
+package com.huhu.nio.pubsub;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.buffer.SharedBuffer;
+import com.huhu.nio.codec.FrameHandler;
+import com.huhu.nio.codec.LengthFieldFrameDecoder;
+import com.huhu.nio.reactor.ChannelHandler;
+import com.huhu.nio.reactor.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 发布订阅服务端,挂在ReactorServer上使用,协议见PubSubProtocol
+ *
+ * 任何连接都可以订阅主题和发布消息,收到PUBLISH时把整帧拷贝一次到池化缓冲区,改写类型后交给Broadcaster扇出
+ */
+public class PubSubHandler implements ChannelHandler {
+
+    private final Broadcaster broadcaster;
+    private final int maxFrameLength;
+
+    private int lowWatermark;
+    private int highWatermark;
+
+    public PubSubHandler(Broadcaster broadcaster) {
+        this(broadcaster, PubSubProtocol.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public PubSubHandler(Broadcaster broadcaster, int maxFrameLength) {
+        this.broadcaster = broadcaster;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 订阅连接发送队列的高低水位,决定多慢的订阅者会触发SlowSubscriberPolicy,需要在服务端start之前调用
+     */
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("lowWatermark: " + lowWatermark + ", highWatermark: " + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public Broadcaster broadcaster() {
+        return broadcaster;
+    }
+
+    /** 由服务端自己发布一条消息,payload在调用期间被拷贝,返回提交投递的订阅者数量 */
+    public int publish(String topic, ByteBuffer payload) {
+        byte[] name = PubSubProtocol.topic(topic);
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer frame = pool.acquire(PubSubProtocol.frameLength(name, payload.remaining()));
+        PubSubProtocol.encode(frame, PubSubProtocol.MESSAGE, name, payload);
+        frame.flip();
+        return broadcaster.publish(topic, new SharedBuffer(pool, frame));
+    }
+
+    @Override
+    public void onOpen(Connection connection) {
+        if (highWatermark > 0) {
+            connection.setWatermarks(lowWatermark, highWatermark);
+        }
+        connection.attach(new PubSubChannel(connection,
+                new LengthFieldFrameDecoder(PubSubProtocol.LENGTH_FIELD, maxFrameLength, connection.alloc())));
+    }
+
+    @Override
+    public void onRead(Connection connection, ByteBuffer buffer) throws IOException {
+        PubSubChannel channel = (PubSubChannel) connection.attachment();
+        channel.decoder.decode(buffer, channel);
+    }
+
+    @Override
+    public void onWritabilityChanged(Connection connection) {
+        broadcaster.writabilityChanged(connection);
+    }
+
+    @Override
+    public void onClose(Connection connection) {
+        broadcaster.remove(connection);
+        PubSubChannel channel = (PubSubChannel) connection.attachment();
+        if (channel != null) {
+            channel.decoder.release();
+        }
+    }
+
+    private final class PubSubChannel implements FrameHandler {
+
+        private final Connection connection;
+        private final LengthFieldFrameDecoder decoder;
+
+        PubSubChannel(Connection connection, LengthFieldFrameDecoder decoder) {
+            this.connection = connection;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void onFrame(ByteBuffer frame) throws IOException {
+            if (!frame.hasRemaining()) {
+                throw new IOException("empty frame");
+            }
+            int start = frame.position();
+            byte type = frame.get();
+            String topic = PubSubProtocol.readTopic(frame);
+            switch (type) {
+                case PubSubProtocol.SUBSCRIBE:
+                    broadcaster.subscribe(connection, topic);
+                    break;
+                case PubSubProtocol.UNSUBSCRIBE:
+                    broadcaster.unsubscribe(connection, topic);
+                    break;
+                case PubSubProtocol.PUBLISH:
+                    broadcaster.publish(topic, message(frame, start));
+                    break;
+                default:
+                    throw new IOException("unknown frame type: " + type);
+            }
+        }
+
+        /** 把收到的PUBLISH帧连同长度字段拷贝出来,改写为MESSAGE */
+        private SharedBuffer message(ByteBuffer frame, int start) {
+            int length = frame.limit() - start;
+            ByteBuffer message = connection.alloc().acquire(PubSubProtocol.LENGTH_FIELD + length);
+            frame.position(start + 1);
+            message.putInt(length).put(PubSubProtocol.MESSAGE).put(frame).flip();
+            return new SharedBuffer(connection.alloc(), message);
+        }
+
+    }
+
+}
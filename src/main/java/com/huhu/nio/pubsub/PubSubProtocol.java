@@ -0,0 +1,65 @@
+package com.huhu.nio.pubsub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 发布订阅协议,所有整数均为大端
+ *
+ * 每帧: int 长度(不含自身), byte 类型, short 主题长度, 主题(UTF-8), 载荷
+ * 客户端 -> 服务端: SUBSCRIBE / UNSUBSCRIBE 没有载荷; PUBLISH 携带要广播的载荷
+ * 服务端 -> 订阅者: MESSAGE,除类型外与收到的PUBLISH帧逐字节相同,所以服务端只需把帧拷贝一次
+ */
+final class PubSubProtocol {
+
+    static final int LENGTH_FIELD = 4;
+
+    static final byte SUBSCRIBE = 1;
+    static final byte UNSUBSCRIBE = 2;
+    static final byte PUBLISH = 3;
+    static final byte MESSAGE = 4;
+
+    static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+    static final int MAX_TOPIC_LENGTH = 255;
+
+    private PubSubProtocol() {
+    }
+
+    /** 帧的总长度,包括长度字段 */
+    static int frameLength(byte[] topic, int payloadLength) {
+        return LENGTH_FIELD + 1 + 2 + topic.length + payloadLength;
+    }
+
+    /** 把一帧写入out,payload的position不变 */
+    static void encode(ByteBuffer out, byte type, byte[] topic, ByteBuffer payload) {
+        if (topic.length == 0 || topic.length > MAX_TOPIC_LENGTH) {
+            throw new IllegalArgumentException("topic length: " + topic.length);
+        }
+        int payloadLength = payload == null ? 0 : payload.remaining();
+        out.putInt(frameLength(topic, payloadLength) - LENGTH_FIELD).put(type).putShort((short) topic.length)
+                .put(topic);
+        if (payload != null) {
+            out.put(payload.duplicate());
+        }
+    }
+
+    static byte[] topic(String topic) {
+        return topic.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** 从帧内容(不含长度字段)中读出主题,读完后frame的position位于载荷开头 */
+    static String readTopic(ByteBuffer frame) throws IOException {
+        if (frame.remaining() < 2) {
+            throw new IOException("frame too short: " + frame.remaining());
+        }
+        int length = frame.getShort() & 0xFFFF;
+        if (length == 0 || length > MAX_TOPIC_LENGTH || length > frame.remaining()) {
+            throw new IOException("bad topic length: " + length);
+        }
+        String topic = StandardCharsets.UTF_8.decode(frame.slice().limit(length)).toString();
+        frame.position(frame.position() + length);
+        return topic;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.huhu.nio.pubsub;
+
+/**
+ * 订阅者跟不上发布速度(发送队列越过高水位)时如何处理新消息
+ */
+public enum SlowSubscriberPolicy {
+
+    /** 丢弃新消息,订阅者恢复可写后从之后的消息继续接收 */
+    DROP,
+
+    /** 每个主题只保留最新的一条,恢复可写后补发,适合行情这类只关心最新值的场景 */
+    COALESCE,
+
+    /** 关闭连接,由客户端重连后重新订阅 */
+    DISCONNECT
+
+}
@@ -0,0 +1,47 @@
+package com.huhu.nio.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 连接事件回调
+ *
+ * 所有回调都在连接所属的worker线程中执行,同一个连接的回调不会并发
+ * 回调中不要做阻塞操作,否则会拖慢同一个worker上的其他连接
+ */
+public interface ChannelHandler {
+
+    /** 连接已注册到worker的选择器上 */
+    default void onOpen(Connection connection) throws IOException {
+    }
+
+    /**
+     * 读取到数据
+     *
+     * buffer已经处于读取模式,且是worker复用的缓冲区,回调返回后内容即失效
+     * 如需保留数据必须自行拷贝
+     */
+    void onRead(Connection connection, ByteBuffer buffer) throws IOException;
+
+    /**
+     * 发送队列越过高水位或回落到低水位,通过{@link Connection#isWritable()}获取当前状态
+     *
+     * 可以借此暂停和恢复向该连接生产数据
+     */
+    default void onWritabilityChanged(Connection connection) {
+    }
+
+    /**
+     * 连接超时,超时时间通过{@link Connection#setTimeouts}或{@link ReactorServer#setTimeouts}设置
+     *
+     * 默认直接关闭连接;不关闭时从本次回调开始重新计时
+     */
+    default void onTimeout(Connection connection, TimeoutType type) {
+        connection.close();
+    }
+
+    /** 连接已关闭,只会回调一次 */
+    default void onClose(Connection connection) {
+    }
+
+}
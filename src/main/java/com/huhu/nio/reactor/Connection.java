@@ -0,0 +1,467 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.buffer.SharedBuffer;
+import com.huhu.nio.file.FileRegion;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个连接的状态,作为附件挂在SelectionKey上
+ *
+ * 写操作可以在任意线程调用,非worker线程的调用会被转交给所属worker执行
+ * 写入的数据先进入发送队列,worker在本轮事件处理完后统一flush,
+ * 一轮中的多次写入合并为一次聚集写;写不完的数据留在队列中并注册OP_WRITE,全部写完后取消OP_WRITE
+ *
+ * 超时检测: 读写时只记录时间,不操作时间轮;每个连接只在时间轮上挂一个任务,
+ * 到期时检查各项超时,再按最早的截止时间重新挂上
+ */
+public final class Connection {
+
+    /** 连接ID从1开始,0留给需要空值的数据结构,例如SessionRegistry */
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final Worker worker;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final OutboundQueue outbound;
+    private final RecvBufferPredictor recvPredictor;
+    /** 当前的SO_RCVBUF,0表示还没有读取过 */
+    private int receiveBufferSize;
+
+    private Object attachment;
+    private boolean closed;
+    /** 已加入worker的待flush列表 */
+    private boolean flushScheduled;
+    /** 发送队列写完后关闭,之后的写入被丢弃 */
+    private boolean closeAfterFlush;
+    /** 为false时不关注OP_READ,用于下游处理不过来时的反压 */
+    private boolean autoRead = true;
+
+    private final TimingWheel.Timeout timeoutTask = new TimingWheel.Timeout(this::checkTimeouts);
+    private long readTimeout;
+    private long writeTimeout;
+    private long idleTimeout;
+    /** 各项超时的计时起点 */
+    private long readMark;
+    private long writeMark;
+    private long idleMark;
+    /** 发送队列变为非空的时间(纳秒),用于统计flush延迟 */
+    private long flushStart;
+
+    Connection(Worker worker, SocketChannel channel, SelectionKey key) {
+        this.worker = worker;
+        this.channel = channel;
+        this.key = key;
+        this.outbound = new OutboundQueue(worker.bufferPool());
+        this.recvPredictor = worker.newRecvPredictor();
+        this.readMark = this.writeMark = this.idleMark = worker.now();
+    }
+
+    /** 进程内唯一的连接ID */
+    public long id() {
+        return id;
+    }
+
+    public SocketChannel channel() {
+        return channel;
+    }
+
+    /** 连接上的业务状态 */
+    public Object attachment() {
+        return attachment;
+    }
+
+    public void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    /** 所属worker使用的缓冲区池 */
+    public BufferPool alloc() {
+        return worker.bufferPool();
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * 待发送数据是否低于高水位
+     *
+     * 不可写时应暂停生产数据,恢复可写时会回调{@link ChannelHandler#onWritabilityChanged}
+     */
+    public boolean isWritable() {
+        return outbound.isWritable();
+    }
+
+    /** 设置发送队列的高低水位,只能在worker线程中调用,例如onOpen */
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        outbound.setWatermarks(lowWatermark, highWatermark);
+    }
+
+    /**
+     * 暂停或恢复读取,可以在任意线程调用
+     *
+     * 暂停时取消OP_READ,对端的数据留在内核缓冲区中,缓冲区满后由TCP流控让对端停止发送;
+     * 暂停期间不检测读超时和空闲超时,恢复时重新计时
+     */
+    public void setAutoRead(final boolean autoRead) {
+        if (worker.inEventLoop()) {
+            doSetAutoRead(autoRead);
+        } else {
+            //worker已经结束时连接也已关闭,忽略
+            worker.offer(() -> doSetAutoRead(autoRead));
+        }
+    }
+
+    /** 只能在worker线程中调用 */
+    public boolean isAutoRead() {
+        return autoRead;
+    }
+
+    private void doSetAutoRead(boolean autoRead) {
+        if (closed || this.autoRead == autoRead) {
+            return;
+        }
+        this.autoRead = autoRead;
+        setInterest(SelectionKey.OP_READ, autoRead);
+        if (autoRead) {
+            readMark = idleMark = worker.now();
+            armTimeouts();
+        }
+    }
+
+    /**
+     * 设置读、写、空闲超时(毫秒),0表示不检测,只能在worker线程中调用,例如onOpen
+     *
+     * 超时后回调{@link ChannelHandler#onTimeout},时间轮的精度为{@link TimingWheel#DEFAULT_TICK_MILLIS}
+     */
+    public void setTimeouts(long readTimeout, long writeTimeout, long idleTimeout) {
+        if (readTimeout < 0 || writeTimeout < 0 || idleTimeout < 0) {
+            throw new IllegalArgumentException("readTimeout: " + readTimeout + ", writeTimeout: " + writeTimeout
+                    + ", idleTimeout: " + idleTimeout);
+        }
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.idleTimeout = idleTimeout;
+        armTimeouts();
+    }
+
+    /**
+     * 连接所属的worker,同一个worker上的连接返回同一个对象
+     *
+     * 用于按worker分组,向一组连接发送数据时只提交一个任务
+     */
+    public Executor eventLoop() {
+        return worker;
+    }
+
+    /** 当前线程是否是连接所属的worker线程 */
+    public boolean inEventLoop() {
+        return worker.inEventLoop();
+    }
+
+    /**
+     * 在连接所属的worker线程中执行task,已在worker线程中时直接执行
+     *
+     * @throws java.util.concurrent.RejectedExecutionException worker已经结束,task不会执行
+     */
+    public void execute(Runnable task) {
+        if (worker.inEventLoop()) {
+            task.run();
+        } else {
+            worker.execute(task);
+        }
+    }
+
+    /**
+     * 把timeout挂到worker的时间轮上,delayMillis后在worker线程中执行,只能在worker线程中调用
+     *
+     * 用于请求超时这类与连接相关的定时任务,精度为{@link TimingWheel#DEFAULT_TICK_MILLIS}
+     */
+    public void schedule(TimingWheel.Timeout timeout, long delayMillis) {
+        worker.timer().schedule(timeout, delayMillis, worker.now());
+    }
+
+    /** 取消schedule挂上的timeout,只能在worker线程中调用 */
+    public void cancel(TimingWheel.Timeout timeout) {
+        worker.timer().cancel(timeout);
+    }
+
+    /** 发送数据,调用后buffer归连接所有,调用方不能再修改 */
+    public void write(ByteBuffer buffer) {
+        write(buffer, false);
+    }
+
+    /** 发送从{@link #alloc()}申请的缓冲区,写完或连接关闭后自动归还到池中 */
+    public void writeAndRelease(ByteBuffer buffer) {
+        write(buffer, true);
+    }
+
+    /**
+     * 发送共享消息的一个只读视图,连接接管调用方持有的一个引用
+     *
+     * 视图写完或连接关闭后释放该引用;多个连接发送同一条消息时需要各自retain
+     */
+    public void write(final SharedBuffer message) {
+        if (worker.inEventLoop()) {
+            doWrite(message);
+        } else {
+            if (!worker.offer(() -> doWrite(message))) {
+                message.release();
+            }
+        }
+    }
+
+    /**
+     * 发送文件区域,优先使用零拷贝
+     *
+     * 与普通写入按调用顺序排队,发送完成或连接关闭后关闭region
+     */
+    public void sendFile(final FileRegion region) {
+        if (worker.inEventLoop()) {
+            doSendFile(region);
+        } else {
+            if (!worker.offer(() -> doSendFile(region))) {
+                closeRegion(region);
+            }
+        }
+    }
+
+    private void write(final ByteBuffer buffer, final boolean release) {
+        if (worker.inEventLoop()) {
+            doWrite(buffer, release);
+        } else {
+            if (!worker.offer(() -> doWrite(buffer, release)) && release) {
+                alloc().release(buffer);
+            }
+        }
+    }
+
+    /** 关闭连接 */
+    public void close() {
+        if (worker.inEventLoop()) {
+            doClose();
+        } else {
+            worker.offer(this::doClose);
+        }
+    }
+
+    /** 已发送的数据全部写出后再关闭连接,之后的写入会被丢弃 */
+    public void closeAfterFlush() {
+        if (worker.inEventLoop()) {
+            doCloseAfterFlush();
+        } else {
+            worker.offer(this::doCloseAfterFlush);
+        }
+    }
+
+    private void doCloseAfterFlush() {
+        if (closed) {
+            return;
+        }
+        closeAfterFlush = true;
+        if (outbound.isEmpty()) {
+            doClose();
+        }
+    }
+
+    private void doWrite(ByteBuffer buffer, boolean release) {
+        if (closed || closeAfterFlush) {
+            if (release) {
+                alloc().release(buffer);
+            }
+            return;
+        }
+        if (outbound.isEmpty()) {
+            //写超时从队列变为非空时开始计算
+            writeMark = worker.now();
+            flushStart = System.nanoTime();
+        }
+        if (outbound.add(buffer, release)) {
+            worker.handler().onWritabilityChanged(this);
+        }
+        scheduleFlush();
+    }
+
+    private void doWrite(SharedBuffer message) {
+        if (closed || closeAfterFlush) {
+            message.release();
+            return;
+        }
+        if (outbound.isEmpty()) {
+            writeMark = worker.now();
+            flushStart = System.nanoTime();
+        }
+        if (outbound.add(message)) {
+            worker.handler().onWritabilityChanged(this);
+        }
+        scheduleFlush();
+    }
+
+    private void doSendFile(FileRegion region) {
+        if (closed || closeAfterFlush) {
+            closeRegion(region);
+            return;
+        }
+        if (outbound.isEmpty()) {
+            writeMark = worker.now();
+            flushStart = System.nanoTime();
+        }
+        if (outbound.add(region)) {
+            worker.handler().onWritabilityChanged(this);
+        }
+        scheduleFlush();
+    }
+
+    private static void closeRegion(FileRegion region) {
+        try {
+            region.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void scheduleFlush() {
+        //正在等待OP_WRITE时由可写事件负责flush
+        if (!flushScheduled && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            flushScheduled = true;
+            worker.scheduleFlush(this);
+        }
+    }
+
+    /** 由worker在本轮事件处理完后调用 */
+    void flushScheduled() {
+        flushScheduled = false;
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            doClose();
+        } catch (RuntimeException e) {
+            //onWritabilityChanged回调抛出的异常
+            e.printStackTrace();
+            doClose();
+        }
+    }
+
+    /** 尽可能多地写出队列中的数据 */
+    void flush() throws IOException {
+        long pending = outbound.pendingBytes();
+        boolean empty = outbound.flush(channel);
+        long written = pending - outbound.pendingBytes();
+        if (written != 0) {
+            writeMark = idleMark = worker.now();
+            worker.metrics().recordWrite(written);
+        }
+        if (empty && written != 0) {
+            worker.metrics().recordFlushLatency(System.nanoTime() - flushStart);
+        }
+        if (empty && closeAfterFlush) {
+            doClose();
+            return;
+        }
+        //socket发送缓冲区已满时等待可写事件
+        setInterest(SelectionKey.OP_WRITE, !empty);
+        if (outbound.updateWritability()) {
+            worker.handler().onWritabilityChanged(this);
+        }
+    }
+
+    RecvBufferPredictor recvPredictor() {
+        return recvPredictor;
+    }
+
+    int receiveBufferSize() throws IOException {
+        if (receiveBufferSize == 0) {
+            receiveBufferSize = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        }
+        return receiveBufferSize;
+    }
+
+    void receiveBufferSize(int size) {
+        this.receiveBufferSize = size;
+    }
+
+    void markRead() {
+        readMark = idleMark = worker.now();
+    }
+
+    private void checkTimeouts() {
+        long now = worker.now();
+        if (!closed && readTimeout > 0 && autoRead && now - readMark >= readTimeout) {
+            readMark = now;
+            worker.handler().onTimeout(this, TimeoutType.READ);
+        }
+        if (!closed && writeTimeout > 0 && !outbound.isEmpty() && now - writeMark >= writeTimeout) {
+            writeMark = now;
+            worker.handler().onTimeout(this, TimeoutType.WRITE);
+        }
+        if (!closed && idleTimeout > 0 && autoRead && now - idleMark >= idleTimeout) {
+            idleMark = now;
+            worker.handler().onTimeout(this, TimeoutType.IDLE);
+        }
+        armTimeouts();
+    }
+
+    /** 按最早的截止时间把超时任务挂到时间轮上 */
+    private void armTimeouts() {
+        if (closed) {
+            return;
+        }
+        long deadline = Long.MAX_VALUE;
+        if (readTimeout > 0 && autoRead) {
+            deadline = Math.min(deadline, readMark + readTimeout);
+        }
+        if (writeTimeout > 0) {
+            //队列为空时也按写超时检查一次,避免在每次写入时操作时间轮
+            deadline = Math.min(deadline, (outbound.isEmpty() ? worker.now() : writeMark) + writeTimeout);
+        }
+        if (idleTimeout > 0 && autoRead) {
+            deadline = Math.min(deadline, idleMark + idleTimeout);
+        }
+        if (deadline == Long.MAX_VALUE) {
+            worker.timer().cancel(timeoutTask);
+        } else {
+            long now = worker.now();
+            worker.timer().schedule(timeoutTask, deadline - now, now);
+        }
+    }
+
+    void setInterest(int op, boolean on) {
+        if (!key.isValid()) {
+            return;
+        }
+        int ops = key.interestOps();
+        int newOps = on ? ops | op : ops & ~op;
+        if (newOps != ops) {
+            key.interestOps(newOps);
+        }
+    }
+
+    void doClose() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        worker.timer().cancel(timeoutTask);
+        outbound.clear();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        worker.handler().onClose(this);
+    }
+
+}
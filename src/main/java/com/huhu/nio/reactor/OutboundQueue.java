@@ -0,0 +1,240 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.buffer.SharedBuffer;
+import com.huhu.nio.file.FileRegion;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * 连接的发送队列,非线程安全,只在所属worker线程中使用
+ *
+ * 以环形数组保存待发送的缓冲区和文件区域,入队不创建对象
+ * 共享消息以只读视图入队,视图写完或丢弃时释放对消息的引用
+ * 发送时把队首连续的缓冲区收集起来一次聚集写入,遇到文件区域则单独transferTo
+ * 待发送字节数超过高水位时变为不可写,回落到低水位以下时恢复可写,用于反压
+ */
+public final class OutboundQueue {
+
+    /** 单次聚集写最多携带的缓冲区数量,与Linux的IOV_MAX一致 */
+    static final int MAX_GATHER = 1024;
+
+    public static final int DEFAULT_LOW_WATERMARK = 32 * 1024;
+    public static final int DEFAULT_HIGH_WATERMARK = 64 * 1024;
+
+    private final BufferPool bufferPool;
+
+    private Object[] entries = new Object[16];
+    private boolean[] release = new boolean[16];
+    /** 视图所属的共享消息,普通缓冲区为null */
+    private SharedBuffer[] owners = new SharedBuffer[16];
+    private int head;
+    private int size;
+
+    /** 聚集写用的数组,多次flush之间复用 */
+    private ByteBuffer[] vector = new ByteBuffer[16];
+
+    private long pendingBytes;
+    private int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private boolean writable = true;
+
+    public OutboundQueue(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("lowWatermark: " + lowWatermark + ", highWatermark: " + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * 追加一个缓冲区
+     *
+     * @param releaseAfterWrite 写完或丢弃后是否归还到池中
+     * @return 可写状态是否因此发生变化
+     */
+    public boolean add(ByteBuffer buffer, boolean releaseAfterWrite) {
+        push(buffer, releaseAfterWrite, null);
+        return addPending(buffer.remaining());
+    }
+
+    /**
+     * 追加共享消息的一个视图,队列接管调用方持有的一个引用
+     *
+     * @return 可写状态是否因此发生变化
+     */
+    public boolean add(SharedBuffer message) {
+        ByteBuffer view = message.view();
+        push(view, false, message);
+        return addPending(view.remaining());
+    }
+
+    /** 追加一个文件区域,写完或丢弃后关闭它 */
+    public boolean add(FileRegion region) {
+        push(region, false, null);
+        return addPending(region.count() - region.transferred());
+    }
+
+    /**
+     * 尽可能多地写出数据
+     *
+     * @return 队列已清空返回true,通道写满返回false
+     */
+    public boolean flush(GatheringByteChannel channel) throws IOException {
+        while (size > 0) {
+            Object first = entries[head];
+            if (first instanceof FileRegion) {
+                FileRegion region = (FileRegion) first;
+                long n = region.transferTo(channel);
+                pendingBytes -= n;
+                if (!region.isDone()) {
+                    return false;
+                }
+                pop();
+                continue;
+            }
+
+            int count = gather();
+            long n = channel.write(vector, 0, count);
+            pendingBytes -= n;
+            for (int i = 0; i < count; i++) {
+                if (vector[i].hasRemaining()) {
+                    clearVector(count);
+                    return false;
+                }
+                pop();
+            }
+            clearVector(count);
+        }
+        return true;
+    }
+
+    /** 丢弃所有待发送的数据,连接关闭时调用 */
+    public void clear() {
+        while (size > 0) {
+            pop();
+        }
+        pendingBytes = 0;
+        writable = true;
+    }
+
+    /** 写出后更新可写状态,返回可写状态是否发生变化 */
+    public boolean updateWritability() {
+        if (!writable && pendingBytes <= lowWatermark) {
+            writable = true;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean addPending(long bytes) {
+        pendingBytes += bytes;
+        if (writable && pendingBytes > highWatermark) {
+            writable = false;
+            return true;
+        }
+        return false;
+    }
+
+    /** 把队首连续的缓冲区放入vector,返回数量 */
+    private int gather() {
+        int count = 0;
+        int mask = entries.length - 1;
+        while (count < size && count < MAX_GATHER) {
+            Object entry = entries[(head + count) & mask];
+            if (!(entry instanceof ByteBuffer)) {
+                break;
+            }
+            if (count == vector.length) {
+                ByteBuffer[] larger = new ByteBuffer[vector.length * 2];
+                System.arraycopy(vector, 0, larger, 0, count);
+                vector = larger;
+            }
+            vector[count++] = (ByteBuffer) entry;
+        }
+        return count;
+    }
+
+    private void clearVector(int count) {
+        for (int i = 0; i < count; i++) {
+            vector[i] = null;
+        }
+    }
+
+    private void push(Object entry, boolean releaseAfterWrite, SharedBuffer owner) {
+        if (size == entries.length) {
+            grow();
+        }
+        int index = (head + size) & (entries.length - 1);
+        entries[index] = entry;
+        release[index] = releaseAfterWrite;
+        owners[index] = owner;
+        size++;
+    }
+
+    private void pop() {
+        Object entry = entries[head];
+        boolean releaseAfterWrite = release[head];
+        SharedBuffer owner = owners[head];
+        entries[head] = null;
+        owners[head] = null;
+        head = (head + 1) & (entries.length - 1);
+        size--;
+        if (entry instanceof FileRegion) {
+            FileRegion region = (FileRegion) entry;
+            pendingBytes -= region.count() - region.transferred();
+            try {
+                region.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            ByteBuffer buffer = (ByteBuffer) entry;
+            pendingBytes -= buffer.remaining();
+            if (releaseAfterWrite) {
+                bufferPool.release(buffer);
+            } else if (owner != null) {
+                owner.release();
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = entries.length;
+        Object[] newEntries = new Object[capacity * 2];
+        boolean[] newRelease = new boolean[capacity * 2];
+        SharedBuffer[] newOwners = new SharedBuffer[capacity * 2];
+        for (int i = 0; i < size; i++) {
+            newEntries[i] = entries[(head + i) & (capacity - 1)];
+            newRelease[i] = release[(head + i) & (capacity - 1)];
+            newOwners[i] = owners[(head + i) & (capacity - 1)];
+        }
+        entries = newEntries;
+        release = newRelease;
+        owners = newOwners;
+        head = 0;
+    }
+
+}
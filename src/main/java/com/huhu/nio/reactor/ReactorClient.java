@@ -0,0 +1,144 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.metrics.IoMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端的Reactor,与ReactorServer共用worker和Connection
+ *
+ * connect在任意线程调用,非阻塞连接按轮询交给各个worker,OP_CONNECT完成后回调handler.onOpen,
+ * 之后的读写、超时与服务端的连接完全相同
+ * 连接超时由worker的时间轮检测,超时后future以ConnectException失败
+ */
+public class ReactorClient implements Closeable {
+
+    public static final long DEFAULT_CONNECT_TIMEOUT = 3000;
+
+    private final ChannelHandler handler;
+    private final BufferPool bufferPool;
+    private final Worker[] workers;
+    private final IoMetrics metrics = new IoMetrics();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile boolean running;
+    private long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long readTimeout;
+    private long writeTimeout;
+    private long idleTimeout;
+
+    public ReactorClient(ChannelHandler handler) {
+        this(Math.min(2, Runtime.getRuntime().availableProcessors()), handler, BufferPool.shared());
+    }
+
+    public ReactorClient(int workerCount, ChannelHandler handler, BufferPool bufferPool) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount: " + workerCount);
+        }
+        this.handler = handler;
+        this.bufferPool = bufferPool;
+        this.workers = new Worker[workerCount];
+    }
+
+    /** 连接超时(毫秒),0表示不限,需要在start之前调用 */
+    public void setConnectTimeout(long connectTimeout) {
+        if (connectTimeout < 0) {
+            throw new IllegalArgumentException("connectTimeout: " + connectTimeout);
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    /** 新连接默认的读、写、空闲超时(毫秒),0表示不检测,需要在start之前调用 */
+    public void setTimeouts(long readTimeout, long writeTimeout, long idleTimeout) {
+        if (readTimeout < 0 || writeTimeout < 0 || idleTimeout < 0) {
+            throw new IllegalArgumentException("readTimeout: " + readTimeout + ", writeTimeout: " + writeTimeout
+                    + ", idleTimeout: " + idleTimeout);
+        }
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /** 启动所有worker线程 */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("client already started");
+        }
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker("reactor-client-worker-" + i, handler, bufferPool, metrics);
+            workers[i].setTimeouts(readTimeout, writeTimeout, idleTimeout);
+        }
+        running = true;
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * 发起非阻塞连接
+     *
+     * future在worker线程中完成,此时onOpen已经回调;连接失败或超时时以IOException失败
+     */
+    public CompletableFuture<Connection> connect(InetSocketAddress address) {
+        CompletableFuture<Connection> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("client not started"));
+            return future;
+        }
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            if (channel != null) {
+                Worker.closeQuietly(channel);
+            }
+            future.completeExceptionally(e);
+            return future;
+        }
+        Worker worker = workers[Math.floorMod(next.getAndIncrement(), workers.length)];
+        worker.connect(channel, address, connectTimeout, future);
+        return future;
+    }
+
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /** 所有worker的读写和select统计 */
+    public IoMetrics metrics() {
+        return metrics;
+    }
+
+    public int workerCount() {
+        return workers.length;
+    }
+
+    /** 关闭所有worker及其上的连接,正在建立的连接以ClosedChannelException失败 */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Worker worker : workers) {
+            worker.shutdown();
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.awaitTermination(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.metrics.IoMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主从Reactor服务端
+ *
+ * 主Reactor(boss)只负责OP_ACCEPT,接入的连接按轮询的方式交给从Reactor(worker)
+ * 每个worker独占一个线程和一个选择器,默认worker数量等于CPU核数
+ * 连接的读写都在所属worker中完成,连接之间互不加锁
+ * 可以通过setTimeouts为所有连接开启读、写、空闲超时,由worker内的时间轮检测
+ * 所有worker的读写和select统计汇总在metrics()中
+ * 每个连接的读缓冲区大小按流量自适应,见RecvBufferPredictor
+ */
+public class ReactorServer implements Closeable {
+
+    /** accept失败(例如文件描述符耗尽)后暂停接收的毫秒数,避免空转 */
+    private static final long ACCEPT_BACKOFF = 100;
+
+    private final InetSocketAddress address;
+    private final ChannelHandler handler;
+    private final BufferPool bufferPool;
+    private final Worker[] workers;
+    private final IoMetrics metrics = new IoMetrics();
+
+    private ServerSocketChannel serverSocketChannel;
+    private Selector bossSelector;
+    private Thread bossThread;
+    private volatile boolean running;
+    private int next;
+    /** accept失败后暂停OP_ACCEPT,到acceptResumeAt(纳秒)时恢复,只在boss线程中访问 */
+    private boolean acceptPaused;
+    private long acceptResumeAt;
+
+    private long readTimeout;
+    private long writeTimeout;
+    private long idleTimeout;
+
+    private int recvMinimum = RecvBufferPredictor.DEFAULT_MINIMUM;
+    private int recvInitial = RecvBufferPredictor.DEFAULT_INITIAL;
+    private int recvMaximum = RecvBufferPredictor.DEFAULT_MAXIMUM;
+    private boolean tuneReceiveBuffer;
+
+    public ReactorServer(InetSocketAddress address, ChannelHandler handler) {
+        this(address, Runtime.getRuntime().availableProcessors(), handler);
+    }
+
+    public ReactorServer(InetSocketAddress address, int workerCount, ChannelHandler handler) {
+        this(address, workerCount, handler, BufferPool.shared());
+    }
+
+    public ReactorServer(InetSocketAddress address, int workerCount, ChannelHandler handler, BufferPool bufferPool) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount: " + workerCount);
+        }
+        this.address = address;
+        this.handler = handler;
+        this.bufferPool = bufferPool;
+        this.workers = new Worker[workerCount];
+    }
+
+    /**
+     * 新连接默认的读、写、空闲超时(毫秒),0表示不检测,需要在start之前调用
+     *
+     * 超时默认关闭连接,可以在{@link ChannelHandler#onTimeout}中改变处理方式,
+     * 或在onOpen中用{@link Connection#setTimeouts}单独设置
+     */
+    public void setTimeouts(long readTimeout, long writeTimeout, long idleTimeout) {
+        if (readTimeout < 0 || writeTimeout < 0 || idleTimeout < 0) {
+            throw new IllegalArgumentException("readTimeout: " + readTimeout + ", writeTimeout: " + writeTimeout
+                    + ", idleTimeout: " + idleTimeout);
+        }
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * 每个连接读缓冲区的自适应范围,需要在start之前调用
+     *
+     * 读取大小在minimum和maximum之间随流量变化,取值都会向上取整到缓冲区池的大小等级
+     * tuneReceiveBuffer默认关闭,需要时显式开启:开启后读取大小增长时同步调大连接的SO_RCVBUF,
+     * 但在已经建立的连接上设置SO_RCVBUF会关闭Linux对该连接接收窗口的自动调整,通常不如内核自己调得好
+     */
+    public void setReceiveBufferSizes(int minimum, int initial, int maximum, boolean tuneReceiveBuffer) {
+        //提前校验参数
+        new RecvBufferPredictor(bufferPool, minimum, initial, maximum);
+        this.recvMinimum = minimum;
+        this.recvInitial = initial;
+        this.recvMaximum = maximum;
+        this.tuneReceiveBuffer = tuneReceiveBuffer;
+    }
+
+    /** 绑定端口并启动boss和所有worker线程 */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("server already started");
+        }
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker("reactor-worker-" + i, handler, bufferPool, metrics);
+            workers[i].setTimeouts(readTimeout, writeTimeout, idleTimeout);
+            workers[i].setReceiveBufferSizes(recvMinimum, recvInitial, recvMaximum, tuneReceiveBuffer);
+        }
+
+        serverSocketChannel = ServerSocketChannel.open();
+        try {
+            serverSocketChannel.configureBlocking(false);
+            serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverSocketChannel.bind(address, 1024);
+
+            bossSelector = Selector.open();
+            serverSocketChannel.register(bossSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            Worker.closeQuietly(serverSocketChannel);
+            if (bossSelector != null) {
+                Worker.closeQuietly(bossSelector);
+            }
+            throw e;
+        }
+
+        running = true;
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        bossThread = new Thread(this::acceptLoop, "reactor-boss");
+        bossThread.start();
+    }
+
+    /** 实际绑定的地址,端口为0时可以由此获取系统分配的端口 */
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) serverSocketChannel.getLocalAddress();
+    }
+
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /** 读写、select和flush延迟统计,可以用IoMetrics.register注册到JMX */
+    public IoMetrics metrics() {
+        return metrics;
+    }
+
+    public int workerCount() {
+        return workers.length;
+    }
+
+    private void acceptLoop() {
+        try {
+            SelectionKey acceptKey = serverSocketChannel.keyFor(bossSelector);
+            while (running) {
+                if (acceptPaused) {
+                    long wait = TimeUnit.NANOSECONDS.toMillis(acceptResumeAt - System.nanoTime());
+                    if (wait > 0) {
+                        bossSelector.select(wait);
+                    }
+                    if (System.nanoTime() - acceptResumeAt >= 0 && acceptKey.isValid()) {
+                        acceptPaused = false;
+                        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                    continue;
+                }
+                bossSelector.select();
+                Iterator<SelectionKey> iterator = bossSelector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept(SelectionKey key) {
+        //一次就绪事件中把积压的连接全部取走
+        while (true) {
+            SocketChannel socketChannel;
+            try {
+                socketChannel = serverSocketChannel.accept();
+            } catch (IOException e) {
+                if (!running || !serverSocketChannel.isOpen()) {
+                    return;
+                }
+                //例如EMFILE,积压的连接还在,暂停OP_ACCEPT一段时间再试,boss线程继续运行
+                e.printStackTrace();
+                key.interestOps(0);
+                acceptPaused = true;
+                acceptResumeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_BACKOFF);
+                return;
+            }
+            if (socketChannel == null) {
+                return;
+            }
+            try {
+                socketChannel.configureBlocking(false);
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                Worker.closeQuietly(socketChannel);
+                continue;
+            }
+            nextWorker().register(socketChannel);
+        }
+    }
+
+    private Worker nextWorker() {
+        Worker worker = workers[next];
+        next = next + 1 == workers.length ? 0 : next + 1;
+        return worker;
+    }
+
+    /** 停止接收新连接,关闭所有worker及其上的连接 */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        bossSelector.wakeup();
+        try {
+            bossThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Worker.closeQuietly(bossSelector);
+        Worker.closeQuietly(serverSocketChannel);
+        for (Worker worker : workers) {
+            worker.shutdown();
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.awaitTermination(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
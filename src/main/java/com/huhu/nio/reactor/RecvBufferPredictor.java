@@ -0,0 +1,72 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+
+/**
+ * 按连接的流量自适应调整每次读取的缓冲区大小
+ *
+ * 候选大小就是缓冲区池的大小等级(2的幂),读满一次说明内核中还有更多数据,下次加倍;
+ * 连续两次读到的数据都不超过当前大小的四分之一时才减半,避免在临界值上来回抖动
+ * 大流量上传用大缓冲区减少系统调用,频繁的小消息只占用小缓冲区
+ *
+ * 每个连接一个实例,只在worker线程中使用
+ */
+public final class RecvBufferPredictor {
+
+    public static final int DEFAULT_MINIMUM = 512;
+    public static final int DEFAULT_INITIAL = 2048;
+    public static final int DEFAULT_MAXIMUM = 64 * 1024;
+
+    private final int minimum;
+    private final int maximum;
+    private int next;
+    private boolean decreaseNow;
+
+    /**
+     * 三个大小都会向上取整到池的大小等级,maximum不超过池的最大等级
+     */
+    public RecvBufferPredictor(BufferPool bufferPool, int minimum, int initial, int maximum) {
+        if (minimum <= 0 || initial < minimum || maximum < initial) {
+            throw new IllegalArgumentException("minimum: " + minimum + ", initial: " + initial
+                    + ", maximum: " + maximum);
+        }
+        int limit = bufferPool.maxPooledSize();
+        this.minimum = bufferPool.normalize(Math.min(minimum, limit));
+        this.maximum = bufferPool.normalize(Math.min(maximum, limit));
+        this.next = bufferPool.normalize(Math.min(initial, limit));
+    }
+
+    /** 下一次读取使用的缓冲区大小 */
+    public int nextReadSize() {
+        return next;
+    }
+
+    /** 记录一次读取实际读到的字节数 */
+    public void record(int bytesRead) {
+        if (bytesRead >= next) {
+            decreaseNow = false;
+            if (next < maximum) {
+                next = Math.min(maximum, next << 1);
+            }
+        } else if (bytesRead <= next >>> 2 && next > minimum) {
+            //连续两次都只用到四分之一以内才缩小
+            if (decreaseNow) {
+                next = Math.max(minimum, next >>> 1);
+                decreaseNow = false;
+            } else {
+                decreaseNow = true;
+            }
+        } else {
+            decreaseNow = false;
+        }
+    }
+
+    public int minimum() {
+        return minimum;
+    }
+
+    public int maximum() {
+        return maximum;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.huhu.nio.reactor;
+
+/**
+ * 连接超时的类型
+ */
+public enum TimeoutType {
+
+    /** 超过读超时没有读到任何数据 */
+    READ,
+
+    /** 发送队列中有数据,但超过写超时没有写出任何字节,通常是对端不再读取 */
+    WRITE,
+
+    /** 超过空闲超时既没有读也没有写 */
+    IDLE
+
+}
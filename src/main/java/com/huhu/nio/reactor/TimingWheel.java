@@ -0,0 +1,169 @@
+package com.huhu.nio.reactor;
+
+/**
+ * 哈希时间轮
+ *
+ * wheelSize个槽组成一圈,每tickMillis前进一格;定时任务按到期的格数挂到对应槽的双向链表上,
+ * 超过一圈的任务记录剩余圈数,每次转到该槽时减一
+ * 添加、取消都是O(1)的链表操作,推进时只检查当前槽,与任务总数无关
+ *
+ * 非线程安全,只能在所属线程(worker)中使用
+ * 精度为一个tick,任务可能最多晚一个tick执行,适合空闲检测这类对精度不敏感的超时
+ */
+public final class TimingWheel {
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final int mask;
+    private final Timeout[] heads;
+    private final long startTime;
+
+    /** 下一个要处理的tick */
+    private long tick;
+    private int size;
+
+    public TimingWheel(long tickMillis, int wheelSize, long now) {
+        if (tickMillis <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("tickMillis: " + tickMillis + ", wheelSize must be a power of two: "
+                    + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.heads = new Timeout[wheelSize];
+        this.startTime = now;
+    }
+
+    /**
+     * 在delayMillis之后执行timeout
+     *
+     * timeout已在轮上时先取消再重新挂上,所以同一个Timeout对象可以反复使用
+     */
+    public void schedule(Timeout timeout, long delayMillis, long now) {
+        if (timeout.isScheduled()) {
+            cancel(timeout);
+        }
+        long deadline = now + Math.max(0, delayMillis);
+        //向上取整,保证不会提前执行
+        long ticks = Math.max(tick, (deadline - startTime + tickMillis - 1) / tickMillis);
+        timeout.deadline = deadline;
+        timeout.rounds = (ticks - tick) / heads.length;
+        int index = (int) (ticks & mask);
+        timeout.bucket = index;
+        timeout.prev = null;
+        timeout.next = heads[index];
+        if (heads[index] != null) {
+            heads[index].prev = timeout;
+        }
+        heads[index] = timeout;
+        size++;
+    }
+
+    /** 取消尚未执行的timeout,已执行或未添加时什么也不做 */
+    public void cancel(Timeout timeout) {
+        if (!timeout.isScheduled()) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            heads[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+
+    /**
+     * 推进到now,执行所有到期的任务,返回执行的数量
+     *
+     * 同一批到期的任务先全部从轮上摘下再依次执行,任务中可以重新调度自己或取消其他任务
+     */
+    public int advance(long now) {
+        long target = (now - startTime) / tickMillis;
+        Timeout expired = null;
+        int count = 0;
+        while (tick <= target) {
+            int index = (int) (tick & mask);
+            Timeout timeout = heads[index];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    cancel(timeout);
+                    timeout.nextExpired = expired;
+                    expired = timeout;
+                    count++;
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+            tick++;
+        }
+        //摘下时是逆序的,执行顺序不做保证
+        while (expired != null) {
+            Timeout timeout = expired;
+            expired = timeout.nextExpired;
+            timeout.nextExpired = null;
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return count;
+    }
+
+    /** 距离下一个tick的毫秒数,轮上没有任务时返回-1 */
+    public long millisToNextTick(long now) {
+        if (size == 0) {
+            return -1;
+        }
+        return Math.max(0, startTime + tick * tickMillis - now);
+    }
+
+    /** 轮上等待执行的任务数 */
+    public int size() {
+        return size;
+    }
+
+    public long tickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * 时间轮上的一个定时任务
+     *
+     * 链表指针直接放在节点里,添加和取消不产生额外对象
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+        private Timeout nextExpired;
+        private int bucket = -1;
+        private long rounds;
+        private long deadline;
+
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        public boolean isScheduled() {
+            return bucket >= 0;
+        }
+
+        /** 最近一次调度的到期时间 */
+        public long deadline() {
+            return deadline;
+        }
+
+    }
+
+}
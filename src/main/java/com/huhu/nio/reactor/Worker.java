@@ -0,0 +1,442 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.metrics.IoMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 从Reactor,一个线程一个选择器
+ *
+ * 负责已建立连接的读写,其他线程提交的任务放入任务队列,由本线程在select间隙执行
+ * 客户端发起的连接也注册在这里,OP_CONNECT完成后转为普通连接
+ * 只有任务队列从空变为非空时才会唤醒选择器,避免频繁wakeup
+ * 连接的读写空闲超时由时间轮驱动,有定时任务时select最多阻塞到下一个tick,每轮结束时批量处理到期的连接
+ */
+final class Worker implements Runnable, Executor {
+
+    /** 每次可读事件最多连续读取的次数,防止单个连接饿死其他连接 */
+    private static final int MAX_READS_PER_EVENT = 16;
+
+    private final String name;
+    private final ChannelHandler handler;
+    private final BufferPool bufferPool;
+    private final IoMetrics metrics;
+    private final Selector selector;
+    private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    /** 本轮有数据写入、等待统一flush的连接 */
+    private final ArrayList<Connection> flushList = new ArrayList<>();
+
+    private final TimingWheel timer;
+
+    /** 本轮循环开始时的单调时间(毫秒),避免每次读写都调用nanoTime */
+    private long now;
+
+    /** 新连接默认的超时时间,0表示不检测 */
+    private long readTimeout;
+    private long writeTimeout;
+    private long idleTimeout;
+
+    /** 新连接自适应读缓冲区的范围 */
+    private int recvMinimum = RecvBufferPredictor.DEFAULT_MINIMUM;
+    private int recvInitial = RecvBufferPredictor.DEFAULT_INITIAL;
+    private int recvMaximum = RecvBufferPredictor.DEFAULT_MAXIMUM;
+    private boolean tuneReceiveBuffer;
+
+    private volatile boolean running = true;
+    /** 线程退出前最后一次执行任务时置为true,之后提交的任务不会再执行 */
+    private volatile boolean terminated;
+    private volatile Thread thread;
+
+    Worker(String name, ChannelHandler handler, BufferPool bufferPool, IoMetrics metrics) throws IOException {
+        this.name = name;
+        this.handler = handler;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.selector = Selector.open();
+        this.now = currentMillis();
+        this.timer = new TimingWheel(TimingWheel.DEFAULT_TICK_MILLIS, TimingWheel.DEFAULT_WHEEL_SIZE, now);
+    }
+
+    ChannelHandler handler() {
+        return handler;
+    }
+
+    BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    IoMetrics metrics() {
+        return metrics;
+    }
+
+    TimingWheel timer() {
+        return timer;
+    }
+
+    long now() {
+        return now;
+    }
+
+    void setTimeouts(long readTimeout, long writeTimeout, long idleTimeout) {
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+
+    void setReceiveBufferSizes(int minimum, int initial, int maximum, boolean tuneReceiveBuffer) {
+        this.recvMinimum = minimum;
+        this.recvInitial = initial;
+        this.recvMaximum = maximum;
+        this.tuneReceiveBuffer = tuneReceiveBuffer;
+    }
+
+    RecvBufferPredictor newRecvPredictor() {
+        return new RecvBufferPredictor(bufferPool, recvMinimum, recvInitial, recvMaximum);
+    }
+
+    void start() {
+        Thread t = new Thread(this, name);
+        thread = t;
+        t.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 提交任务到本worker线程执行
+     *
+     * @throws RejectedExecutionException worker已经结束
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (!offer(task)) {
+            throw new RejectedExecutionException(name + " terminated");
+        }
+    }
+
+    /**
+     * 提交任务到本worker线程执行
+     *
+     * @return worker已经结束、任务不会再执行时返回false
+     */
+    boolean offer(Runnable task) {
+        taskQueue.offer(task);
+        //没能从队列中移除说明已被最后一次runTasks取走,仍会执行
+        if (terminated && taskQueue.remove(task)) {
+            return false;
+        }
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        return true;
+    }
+
+    /** 将新接入的连接转交给本worker,worker已经结束时关闭连接 */
+    void register(final SocketChannel channel) {
+        boolean accepted = offer(() -> {
+            try {
+                open(channel, channel.register(selector, SelectionKey.OP_READ));
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeQuietly(channel);
+            }
+        });
+        if (!accepted) {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * 在本worker上发起非阻塞连接,连接建立后回调onOpen再完成future
+     *
+     * timeoutMillis大于0时由时间轮检测连接超时,精度为一个tick
+     */
+    void connect(final SocketChannel channel, final InetSocketAddress address, final long timeoutMillis,
+                 final CompletableFuture<Connection> future) {
+        boolean accepted = offer(() -> {
+            try {
+                if (channel.connect(address)) {
+                    future.complete(open(channel, channel.register(selector, SelectionKey.OP_READ)));
+                    return;
+                }
+                SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+                PendingConnect pending = new PendingConnect(channel, key, address, future);
+                key.attach(pending);
+                if (timeoutMillis > 0) {
+                    timer.schedule(pending.timeout, timeoutMillis, now);
+                }
+            } catch (IOException e) {
+                closeQuietly(channel);
+                future.completeExceptionally(e);
+            }
+        });
+        if (!accepted) {
+            closeQuietly(channel);
+            future.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    /** onOpen抛出异常时关闭连接,以IOException抛给调用方 */
+    private Connection open(SocketChannel channel, SelectionKey key) throws IOException {
+        Connection connection = new Connection(this, channel, key);
+        key.attach(connection);
+        connection.setTimeouts(readTimeout, writeTimeout, idleTimeout);
+        try {
+            handler.onOpen(connection);
+        } catch (IOException | RuntimeException e) {
+            connection.doClose();
+            throw e instanceof IOException ? (IOException) e : new IOException("onOpen failed", e);
+        }
+        return connection;
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    void awaitTermination(long millis) throws InterruptedException {
+        Thread t = thread;
+        if (t != null) {
+            t.join(millis);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                wakenUp.set(false);
+                long timeout = timer.millisToNextTick(currentMillis());
+                int selected;
+                if (!taskQueue.isEmpty() || timeout == 0) {
+                    selected = selector.selectNow();
+                } else if (timeout < 0) {
+                    selected = selector.select();
+                } else {
+                    selected = selector.select(timeout);
+                }
+                metrics.recordSelect(selected);
+                now = currentMillis();
+                processSelectedKeys();
+                runTasks();
+                //到期的连接在这里批量关闭
+                timer.advance(now);
+                flushConnections();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (key.attachment() instanceof PendingConnect) {
+                ((PendingConnect) key.attachment()).finish();
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (!key.isValid()) {
+                connection.doClose();
+                continue;
+            }
+            try {
+                if (key.isReadable()) {
+                    metrics.recordReadsPerEvent(read(connection));
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                connection.doClose();
+            } catch (RuntimeException e) {
+                //回调中的异常只关闭出错的连接,不影响同一个worker上的其他连接
+                e.printStackTrace();
+                connection.doClose();
+            }
+        }
+    }
+
+    /**
+     * 返回本次事件中调用read的次数
+     *
+     * 每次读取按连接的预测大小从池中取缓冲区,回调结束后立即归还,空闲连接不占用读缓冲区
+     */
+    private int read(Connection connection) throws IOException {
+        SocketChannel channel = connection.channel();
+        RecvBufferPredictor predictor = connection.recvPredictor();
+        int reads = 0;
+        //onRead中可能暂停了读取
+        while (reads < MAX_READS_PER_EVENT && connection.isOpen() && connection.isAutoRead()) {
+            int size = predictor.nextReadSize();
+            ByteBuffer readBuffer = bufferPool.acquire(size);
+            int len;
+            try {
+                //池返回的缓冲区可能比预测的大,按预测大小读取
+                readBuffer.limit(size);
+                len = channel.read(readBuffer);
+                reads++;
+                if (len < 0) {
+                    //对端关闭,取消选择键并关闭通道
+                    connection.doClose();
+                    break;
+                }
+                metrics.recordRead(len, size);
+                if (len == 0) {
+                    break;
+                }
+                predictor.record(len);
+                connection.markRead();
+                readBuffer.flip();
+                handler.onRead(connection, readBuffer);
+            } finally {
+                bufferPool.release(readBuffer);
+            }
+            if (predictor.nextReadSize() > size && tuneReceiveBuffer) {
+                tuneReceiveBuffer(connection, predictor.nextReadSize());
+            }
+            if (len < size) {
+                //没有读满说明内核缓冲区已经读空
+                break;
+            }
+        }
+        return reads;
+    }
+
+    /** 读缓冲区变大后,把SO_RCVBUF调到至少两次读取的大小,只增不减 */
+    private void tuneReceiveBuffer(Connection connection, int readSize) throws IOException {
+        int wanted = readSize * 2;
+        if (wanted > connection.receiveBufferSize()) {
+            SocketChannel channel = connection.channel();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, wanted);
+            //内核可能会调整实际值
+            connection.receiveBufferSize(channel.getOption(StandardSocketOptions.SO_RCVBUF));
+        }
+    }
+
+    /** 连接在本轮中有新数据写入,本轮结束时统一flush */
+    void scheduleFlush(Connection connection) {
+        flushList.add(connection);
+    }
+
+    private void flushConnections() {
+        for (int i = 0; i < flushList.size(); i++) {
+            flushList.get(i).flushScheduled();
+        }
+        flushList.clear();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void closeAll() {
+        terminated = true;
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).doClose();
+            } else if (attachment instanceof PendingConnect) {
+                ((PendingConnect) attachment).fail(new ClosedChannelException());
+            } else {
+                closeQuietly(key.channel());
+            }
+        }
+        closeQuietly(selector);
+    }
+
+    /** 正在建立中的连接,作为附件挂在OP_CONNECT的选择键上 */
+    private final class PendingConnect {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final InetSocketAddress address;
+        private final CompletableFuture<Connection> future;
+        private final TimingWheel.Timeout timeout = new TimingWheel.Timeout(this::expire);
+
+        PendingConnect(SocketChannel channel, SelectionKey key, InetSocketAddress address,
+                       CompletableFuture<Connection> future) {
+            this.channel = channel;
+            this.key = key;
+            this.address = address;
+            this.future = future;
+        }
+
+        void finish() {
+            if (!key.isValid()) {
+                fail(new ClosedChannelException());
+                return;
+            }
+            try {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                timer.cancel(timeout);
+                key.interestOps(SelectionKey.OP_READ);
+                future.complete(open(channel, key));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void expire() {
+            fail(new ConnectException("connect timed out: " + address));
+        }
+
+        void fail(IOException e) {
+            timer.cancel(timeout);
+            key.cancel();
+            closeQuietly(channel);
+            future.completeExceptionally(e);
+        }
+
+    }
+
+    private static long currentMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
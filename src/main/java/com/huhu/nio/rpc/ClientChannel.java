@@ -0,0 +1,170 @@
+package com.huhu.nio.rpc;
+
+import com.huhu.nio.codec.FrameHandler;
+import com.huhu.nio.codec.LengthFieldFrameDecoder;
+import com.huhu.nio.reactor.Connection;
+import com.huhu.nio.reactor.TimingWheel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端的一个连接,作为Connection的附件
+ *
+ * 请求可以在任意线程提交,分配关联ID、登记和写出都转交到连接所属的worker线程,
+ * 所以等待响应的请求表只在worker线程中访问,不需要加锁
+ * 请求超时挂在worker的时间轮上,响应到达时取消
+ */
+final class ClientChannel implements FrameHandler {
+
+    final Endpoint endpoint;
+    final Connection connection;
+    final LengthFieldFrameDecoder decoder;
+    private final long requestTimeout;
+
+    /** 已提交还没有结束的请求数,负载均衡时在任意线程读取 */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /** 以下字段只在worker线程中访问 */
+    private final Map<Long, Call> calls = new HashMap<>();
+    private long nextId;
+    private boolean closed;
+
+    ClientChannel(Endpoint endpoint, Connection connection, int maxFrameLength, long requestTimeout) {
+        this.endpoint = endpoint;
+        this.connection = connection;
+        this.decoder = new LengthFieldFrameDecoder(RpcProtocol.LENGTH_FIELD, maxFrameLength, connection.alloc());
+        this.requestTimeout = requestTimeout;
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    /** 在任意线程提交请求,worker已经结束时请求直接以ClosedChannelException失败 */
+    void send(Call call) {
+        outstanding.incrementAndGet();
+        try {
+            connection.execute(() -> doSend(call));
+        } catch (RejectedExecutionException e) {
+            outstanding.decrementAndGet();
+            call.fail(new ClosedChannelException());
+        }
+    }
+
+    private void doSend(Call call) {
+        if (closed) {
+            outstanding.decrementAndGet();
+            call.fail(new ClosedChannelException());
+            return;
+        }
+        long id = nextId++;
+        call.id = id;
+        calls.put(id, call);
+        if (requestTimeout > 0) {
+            call.timeout = new TimingWheel.Timeout(() -> expire(call));
+            connection.schedule(call.timeout, requestTimeout);
+        }
+        RpcProtocol.setId(call.request, id);
+        connection.writeAndRelease(call.takeRequest());
+    }
+
+    private void expire(Call call) {
+        if (calls.remove(call.id) == call) {
+            outstanding.decrementAndGet();
+            call.fail(new TimeoutException("no response in " + requestTimeout + " ms from " + endpoint.address));
+        }
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame) throws IOException {
+        if (frame.remaining() < RpcProtocol.ID_LENGTH) {
+            throw new IOException("frame too short: " + frame.remaining());
+        }
+        Call call = calls.remove(frame.getLong());
+        if (call == null) {
+            //已经超时的请求
+            return;
+        }
+        outstanding.decrementAndGet();
+        if (call.timeout != null) {
+            connection.cancel(call.timeout);
+        }
+        //帧是解码器内部缓冲区上的视图,回调返回后失效
+        ByteBuffer response = ByteBuffer.allocate(frame.remaining());
+        response.put(frame).flip();
+        call.complete(response);
+    }
+
+    /** 连接关闭,所有等待中的请求以ClosedChannelException失败 */
+    void closed() {
+        closed = true;
+        decoder.release();
+        endpoint.remove(this);
+        for (Call call : new ArrayList<>(calls.values())) {
+            if (call.timeout != null) {
+                connection.cancel(call.timeout);
+            }
+            call.fail(new ClosedChannelException());
+        }
+        outstanding.addAndGet(-calls.size());
+        calls.clear();
+    }
+
+    /** 一次请求,结束时归还请求缓冲区并更新端点的计数 */
+    static final class Call {
+
+        private final Endpoint endpoint;
+        private final CompletableFuture<ByteBuffer> future;
+        /** 调用方取消future时也只计数一次 */
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private ByteBuffer request;
+        long id;
+        TimingWheel.Timeout timeout;
+
+        Call(Endpoint endpoint, ByteBuffer request, CompletableFuture<ByteBuffer> future) {
+            this.endpoint = endpoint;
+            this.request = request;
+            this.future = future;
+        }
+
+        /** 请求缓冲区交给连接发送,之后由连接负责归还 */
+        ByteBuffer takeRequest() {
+            ByteBuffer taken = request;
+            request = null;
+            return taken;
+        }
+
+        void complete(ByteBuffer response) {
+            if (finished.compareAndSet(false, true)) {
+                endpoint.finished();
+                future.complete(response);
+            }
+        }
+
+        void fail(Throwable cause) {
+            if (request != null) {
+                endpoint.bufferPool().release(takeRequest());
+            }
+            if (finished.compareAndSet(false, true)) {
+                endpoint.finished();
+                future.completeExceptionally(cause);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.huhu.nio.rpc;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个服务端地址及其连接池
+ *
+ * 请求优先放到在途请求最少的连接上,这个连接的在途请求达到maxPipelined且连接数未满时,
+ * 在后台新建一个连接,当前请求仍然走已有的连接,不等待握手
+ * 连接失败后在backoff时间内不再被负载均衡选中,除非所有端点都不可用
+ */
+final class Endpoint {
+
+    final InetSocketAddress address;
+    private final RpcClient client;
+    private final CopyOnWriteArrayList<ClientChannel> channels = new CopyOnWriteArrayList<>();
+    /** 本端点上已提交还没有结束的请求数 */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /** 正在建立的连接,同一时刻最多一个,由this保护 */
+    private CompletableFuture<ClientChannel> connecting;
+    /** 连接失败后重新参与负载均衡的时间(nanoTime) */
+    private volatile long retryAt;
+    private volatile boolean failed;
+
+    Endpoint(InetSocketAddress address, RpcClient client) {
+        this.address = address;
+        this.client = client;
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    int connections() {
+        return channels.size();
+    }
+
+    BufferPool bufferPool() {
+        return client.bufferPool();
+    }
+
+    boolean isBackingOff(long now) {
+        return failed && now - retryAt < 0;
+    }
+
+    void started() {
+        outstanding.incrementAndGet();
+    }
+
+    void finished() {
+        outstanding.decrementAndGet();
+    }
+
+    /** 在途请求最少的连接,需要时在后台扩充连接池;池为空时返回null,调用方等待connect */
+    ClientChannel select() {
+        ClientChannel best = null;
+        int connections = 0;
+        for (ClientChannel channel : channels) {
+            if (!channel.isOpen()) {
+                continue;
+            }
+            connections++;
+            if (best == null || channel.outstanding() < best.outstanding()) {
+                best = channel;
+            }
+        }
+        if (best == null || best.outstanding() >= client.maxPipelined() && connections < client.maxConnections()) {
+            grow();
+        }
+        return best;
+    }
+
+    /**
+     * 连接数未满时在后台新建连接
+     *
+     * 上面的计数没有加锁,另一个线程的连接可能刚刚建立,这里在锁内重新检查;
+     * 新连接先加入channels再清空connecting,所以两者不会同时漏掉
+     */
+    private synchronized void grow() {
+        if (connecting != null) {
+            return;
+        }
+        int connections = 0;
+        for (ClientChannel channel : channels) {
+            if (channel.isOpen()) {
+                connections++;
+            }
+        }
+        if (connections < client.maxConnections()) {
+            connect();
+        }
+    }
+
+    /** 新建一个连接,已有连接正在建立时返回同一个future */
+    synchronized CompletableFuture<ClientChannel> connect() {
+        if (connecting != null) {
+            return connecting;
+        }
+        CompletableFuture<ClientChannel> future = new CompletableFuture<>();
+        connecting = future;
+        client.reactor().connect(address).whenComplete((connection, e) -> {
+            if (e != null) {
+                connectFailed(future, e);
+                return;
+            }
+            //在worker线程中挂上附件,之后的读写回调都能看到
+            try {
+                connection.execute(() -> {
+                    if (!connection.isOpen()) {
+                        connectFailed(future, new ClosedChannelException());
+                        return;
+                    }
+                    ClientChannel channel = new ClientChannel(this, connection, client.maxFrameLength(),
+                            client.requestTimeout());
+                    connection.attach(channel);
+                    channels.add(channel);
+                    failed = false;
+                    synchronized (this) {
+                        connecting = null;
+                    }
+                    future.complete(channel);
+                });
+            } catch (RejectedExecutionException rejected) {
+                //worker已经结束,连接也已关闭
+                connectFailed(future, new ClosedChannelException());
+            }
+        });
+        return future;
+    }
+
+    private void connectFailed(CompletableFuture<ClientChannel> future, Throwable cause) {
+        retryAt = System.nanoTime() + client.connectBackoffNanos();
+        failed = true;
+        synchronized (this) {
+            connecting = null;
+        }
+        future.completeExceptionally(cause);
+    }
+
+    void remove(ClientChannel channel) {
+        channels.remove(channel);
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.huhu.nio.rpc;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.reactor.ChannelHandler;
+import com.huhu.nio.reactor.Connection;
+import com.huhu.nio.reactor.ReactorClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于ReactorClient的异步请求-响应客户端,协议见RpcProtocol,服务端见RpcServerHandler
+ *
+ * 每个服务端地址维护一个非阻塞的连接池,连接建立后一直复用,省去每个请求的握手和慢启动
+ * 同一个连接上的请求以流水线方式连续发出,响应按关联ID对应回请求,不要求按顺序返回
+ * 多个地址之间按在途请求数做最少负载均衡,数量相同时轮流选择
+ * 连接超时和请求超时都由worker的时间轮检测;future在worker线程中完成,回调中不能阻塞
+ */
+public class RpcClient implements Closeable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final int DEFAULT_MAX_PIPELINED = 64;
+    public static final long DEFAULT_REQUEST_TIMEOUT = 5000;
+    public static final long DEFAULT_CONNECT_BACKOFF = 1000;
+
+    private final Endpoint[] endpoints;
+    private final ReactorClient reactor;
+    private final BufferPool bufferPool;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxPipelined = DEFAULT_MAX_PIPELINED;
+    private int maxFrameLength = RpcProtocol.DEFAULT_MAX_FRAME_LENGTH;
+    private long requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private long connectBackoff = DEFAULT_CONNECT_BACKOFF;
+
+    public RpcClient(List<InetSocketAddress> addresses) {
+        this(addresses, Math.min(2, Runtime.getRuntime().availableProcessors()), BufferPool.shared());
+    }
+
+    public RpcClient(List<InetSocketAddress> addresses, int workerCount, BufferPool bufferPool) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("no endpoints");
+        }
+        this.endpoints = new Endpoint[addresses.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new Endpoint(addresses.get(i), this);
+        }
+        this.bufferPool = bufferPool;
+        this.reactor = new ReactorClient(workerCount, new ClientHandler(), bufferPool);
+    }
+
+    /**
+     * 每个地址的最大连接数,以及单个连接上在途请求达到多少时开始新建连接,需要在start之前调用
+     *
+     * 连接数已满时请求继续在已有连接上排队,不会被拒绝
+     */
+    public void setPoolSize(int maxConnections, int maxPipelined) {
+        if (maxConnections <= 0 || maxPipelined <= 0) {
+            throw new IllegalArgumentException("maxConnections: " + maxConnections
+                    + ", maxPipelined: " + maxPipelined);
+        }
+        this.maxConnections = maxConnections;
+        this.maxPipelined = maxPipelined;
+    }
+
+    /**
+     * 连接超时和请求超时(毫秒),0表示不限,需要在start之前调用
+     *
+     * 请求超时从请求交给连接时开始计算,超时后future以TimeoutException失败,之后到达的响应被丢弃
+     */
+    public void setTimeouts(long connectTimeout, long requestTimeout) {
+        if (requestTimeout < 0) {
+            throw new IllegalArgumentException("requestTimeout: " + requestTimeout);
+        }
+        reactor.setConnectTimeout(connectTimeout);
+        this.requestTimeout = requestTimeout;
+    }
+
+    /** 连接失败后多久不再选择该地址(毫秒),需要在start之前调用 */
+    public void setConnectBackoff(long connectBackoff) {
+        if (connectBackoff < 0) {
+            throw new IllegalArgumentException("connectBackoff: " + connectBackoff);
+        }
+        this.connectBackoff = connectBackoff;
+    }
+
+    /** 响应的最大长度,需要在start之前调用 */
+    public void setMaxFrameLength(int maxFrameLength) {
+        if (maxFrameLength <= RpcProtocol.ID_LENGTH) {
+            throw new IllegalArgumentException("maxFrameLength: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public void start() throws IOException {
+        reactor.start();
+    }
+
+    /**
+     * 发送一个请求
+     *
+     * request在调用期间被拷贝进池化缓冲区,返回后即可复用;future的值是响应载荷,位于堆内存
+     */
+    public CompletableFuture<ByteBuffer> call(ByteBuffer request) {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        if (request.remaining() > maxFrameLength - RpcProtocol.ID_LENGTH) {
+            future.completeExceptionally(new IllegalArgumentException("request too large: " + request.remaining()));
+            return future;
+        }
+        Endpoint endpoint = select();
+        endpoint.started();
+        //关联ID在worker线程中分配后再填入
+        ClientChannel.Call call = new ClientChannel.Call(endpoint, RpcProtocol.encode(bufferPool, 0, request),
+                future);
+        ClientChannel channel = endpoint.select();
+        if (channel != null) {
+            channel.send(call);
+        } else {
+            endpoint.connect().whenComplete((connected, e) -> {
+                if (e != null) {
+                    call.fail(e);
+                } else {
+                    connected.send(call);
+                }
+            });
+        }
+        return future;
+    }
+
+    /** 在途请求最少的端点,跳过连接失败后仍在退避期内的端点 */
+    private Endpoint select() {
+        int start = Math.floorMod(next.getAndIncrement(), endpoints.length);
+        long now = System.nanoTime();
+        Endpoint best = null;
+        for (int i = 0; i < endpoints.length; i++) {
+            Endpoint endpoint = endpoints[(start + i) % endpoints.length];
+            if (endpoint.isBackingOff(now)) {
+                continue;
+            }
+            if (best == null || endpoint.outstanding() < best.outstanding()) {
+                best = endpoint;
+            }
+        }
+        //全部不可用时仍然尝试,由连接失败让调用方知道
+        return best != null ? best : endpoints[start];
+    }
+
+    /** 发往address的在途请求数 */
+    public int outstanding(InetSocketAddress address) {
+        return endpoint(address).outstanding();
+    }
+
+    /** 到address的已建立连接数 */
+    public int connections(InetSocketAddress address) {
+        return endpoint(address).connections();
+    }
+
+    private Endpoint endpoint(InetSocketAddress address) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.address.equals(address)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("unknown endpoint: " + address);
+    }
+
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    ReactorClient reactor() {
+        return reactor;
+    }
+
+    int maxConnections() {
+        return maxConnections;
+    }
+
+    int maxPipelined() {
+        return maxPipelined;
+    }
+
+    int maxFrameLength() {
+        return maxFrameLength;
+    }
+
+    long requestTimeout() {
+        return requestTimeout;
+    }
+
+    long connectBackoffNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(connectBackoff);
+    }
+
+    /** 关闭所有连接,在途请求以ClosedChannelException失败 */
+    @Override
+    public void close() throws IOException {
+        reactor.close();
+    }
+
+    private static final class ClientHandler implements ChannelHandler {
+
+        @Override
+        public void onRead(Connection connection, ByteBuffer buffer) throws IOException {
+            ClientChannel channel = (ClientChannel) connection.attachment();
+            if (channel == null) {
+                //附件挂上之前服务端不应发送任何数据
+                throw new IOException("unexpected data before pool registration");
+            }
+            channel.decoder.decode(buffer, channel);
+        }
+
+        @Override
+        public void onClose(Connection connection) {
+            ClientChannel channel = (ClientChannel) connection.attachment();
+            if (channel != null) {
+                channel.closed();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.huhu.nio.rpc;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 请求-响应协议,所有整数均为大端
+ *
+ * 每帧: int 长度(不含自身), long 关联ID, 载荷
+ * 请求和响应格式相同,响应带回请求的关联ID;同一个连接上可以连续发送多个请求而不等待响应(流水线),
+ * 服务端可以按任意顺序响应,客户端按关联ID把响应对应回请求
+ */
+final class RpcProtocol {
+
+    static final int LENGTH_FIELD = 4;
+    static final int ID_LENGTH = 8;
+    static final int HEADER = LENGTH_FIELD + ID_LENGTH;
+
+    static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private RpcProtocol() {
+    }
+
+    /** 把载荷编码为一帧放入从pool申请的缓冲区,payload的position不变 */
+    static ByteBuffer encode(BufferPool pool, long id, ByteBuffer payload) {
+        int length = payload.remaining();
+        ByteBuffer frame = pool.acquire(HEADER + length);
+        frame.putInt(ID_LENGTH + length).putLong(id).put(payload.duplicate()).flip();
+        return frame;
+    }
+
+    /** 改写已编码帧中的关联ID */
+    static void setId(ByteBuffer frame, long id) {
+        frame.putLong(frame.position() + LENGTH_FIELD, id);
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.huhu.nio.rpc;
+
+import com.huhu.nio.codec.FrameHandler;
+import com.huhu.nio.codec.LengthFieldFrameDecoder;
+import com.huhu.nio.reactor.ChannelHandler;
+import com.huhu.nio.reactor.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * RpcClient对应的服务端,挂在ReactorServer上使用
+ *
+ * 每个连接一个帧解码器,解出的每个请求同步交给service处理,响应带上请求的关联ID写回;
+ * 一次读取中解出的多个请求的响应在本轮结束时合并为一次聚集写
+ */
+public class RpcServerHandler implements ChannelHandler {
+
+    /** 请求处理,在worker线程中调用,不能阻塞 */
+    public interface Service {
+
+        /**
+         * request只在调用期间有效;返回的缓冲区在写出前不能被修改,返回null时不响应
+         */
+        ByteBuffer handle(ByteBuffer request) throws IOException;
+
+    }
+
+    private final Service service;
+    private final int maxFrameLength;
+
+    public RpcServerHandler(Service service) {
+        this(service, RpcProtocol.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public RpcServerHandler(Service service, int maxFrameLength) {
+        this.service = service;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public void onOpen(Connection connection) {
+        connection.attach(new ServerChannel(connection,
+                new LengthFieldFrameDecoder(RpcProtocol.LENGTH_FIELD, maxFrameLength, connection.alloc())));
+    }
+
+    @Override
+    public void onRead(Connection connection, ByteBuffer buffer) throws IOException {
+        ServerChannel channel = (ServerChannel) connection.attachment();
+        channel.decoder.decode(buffer, channel);
+    }
+
+    @Override
+    public void onClose(Connection connection) {
+        ServerChannel channel = (ServerChannel) connection.attachment();
+        if (channel != null) {
+            channel.decoder.release();
+        }
+    }
+
+    private final class ServerChannel implements FrameHandler {
+
+        private final Connection connection;
+        private final LengthFieldFrameDecoder decoder;
+
+        ServerChannel(Connection connection, LengthFieldFrameDecoder decoder) {
+            this.connection = connection;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void onFrame(ByteBuffer frame) throws IOException {
+            if (frame.remaining() < RpcProtocol.ID_LENGTH) {
+                throw new IOException("frame too short: " + frame.remaining());
+            }
+            long id = frame.getLong();
+            ByteBuffer response = service.handle(frame);
+            if (response != null) {
+                connection.writeAndRelease(RpcProtocol.encode(connection.alloc(), id, response));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,413 @@
+package com.huhu.nio.session;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 连接ID(long) → 会话记录的注册表,面向几十万连接的规模
+ *
+ * 索引: 开放寻址、线性探测的long[]/int[]哈希表,按哈希高位分成多个分段,每段一把StampedLock;
+ * 查找先走乐观读,不加锁也不产生对象,只有与写入冲突时才退回读锁;删除用后移法,不留墓碑
+ * 记录: 每个会话一条定长记录,放在堆外的直接缓冲区分片(slab)中,以int下标引用,
+ * 删除后下标进入空闲栈复用;记录头是连接ID,为0表示空闲
+ * 遍历直接扫描分片中的记录头,不加锁、不分配对象,遍历期间可以注册和删除,结果是弱一致的
+ * 每条记录还可以挂一个堆上的附件(通常是Connection),附件数组按分片分配,不为每个会话创建包装对象
+ *
+ * ID 0保留为空值;记录字段的读写不加锁,需要原子更新的计数使用addLong
+ */
+public final class SessionRegistry {
+
+    public static final int DEFAULT_STRIPES = 64;
+    public static final int DEFAULT_SLAB_RECORDS = 4096;
+
+    /** 记录头: long 连接ID */
+    private static final int HEADER = 8;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+    private static final VarHandle ATTACHMENT = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    /** 遍历时的回调,record只在回调期间可以安全访问 */
+    public interface Visitor {
+
+        void visit(long id, int record);
+
+    }
+
+    private final int fieldBytes;
+    private final int recordSize;
+    private final int slabShift;
+    private final int slabMask;
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    /** 以下字段由allocLock保护,slabs、attachments和allocated另外以volatile发布给无锁的读取方 */
+    private final Object allocLock = new Object();
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private volatile Object[][] attachments = new Object[0][];
+    /** 曾经分配过的最大下标+1 */
+    private volatile int allocated;
+    private int[] free = new int[64];
+    private int freeCount;
+
+    public SessionRegistry(int fieldBytes) {
+        this(fieldBytes, DEFAULT_STRIPES, DEFAULT_SLAB_RECORDS);
+    }
+
+    /**
+     * @param fieldBytes  每条记录中业务字段的字节数,向上取整到8
+     * @param stripes     分段数,2的幂,决定写入的并发度
+     * @param slabRecords 每个堆外分片的记录数,2的幂
+     */
+    public SessionRegistry(int fieldBytes, int stripes, int slabRecords) {
+        if (fieldBytes < 0 || Integer.bitCount(stripes) != 1 || Integer.bitCount(slabRecords) != 1) {
+            throw new IllegalArgumentException("fieldBytes: " + fieldBytes + ", stripes and slabRecords must be "
+                    + "powers of two: " + stripes + "/" + slabRecords);
+        }
+        this.fieldBytes = (fieldBytes + 7) & -8;
+        this.recordSize = HEADER + this.fieldBytes;
+        if ((long) recordSize * slabRecords > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slab too large: " + slabRecords + " * " + recordSize);
+        }
+        this.slabShift = Integer.numberOfTrailingZeros(slabRecords);
+        this.slabMask = slabRecords - 1;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        //分段用哈希的高位,段内槽位用低位,两者互不相关
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripes);
+    }
+
+    /**
+     * 注册一个会话,分配一条全0的记录
+     *
+     * @return 记录下标;id已注册时返回已有的记录
+     */
+    public int register(long id) {
+        checkId(id);
+        long hash = mix(id);
+        Stripe stripe = stripe(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            int record = stripe.find(id, hash);
+            if (record >= 0) {
+                return record;
+            }
+            record = allocate(id);
+            stripe.insert(id, hash, record);
+            return record;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /** id对应的记录下标,未注册时返回-1 */
+    public int get(long id) {
+        checkId(id);
+        long hash = mix(id);
+        Stripe stripe = stripe(hash);
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int record = stripe.find(id, hash);
+            if (stripe.lock.validate(stamp)) {
+                return record;
+            }
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return stripe.find(id, hash);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean contains(long id) {
+        return get(id) >= 0;
+    }
+
+    /** 删除会话并回收记录,之后不能再通过原来的下标访问 */
+    public boolean remove(long id) {
+        checkId(id);
+        long hash = mix(id);
+        Stripe stripe = stripe(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            int record = stripe.delete(id, hash);
+            if (record < 0) {
+                return false;
+            }
+            release(record);
+            return true;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /** 已注册的会话数,并发修改时只是一个近似值 */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /** 堆外分片占用的字节数 */
+    public long offHeapBytes() {
+        return (long) slabs.length * (slabMask + 1) * recordSize;
+    }
+
+    /** 每条记录中业务字段的字节数 */
+    public int fieldBytes() {
+        return fieldBytes;
+    }
+
+    /**
+     * 遍历所有会话,不加锁,不分配对象
+     *
+     * 遍历开始前已注册且期间没有删除的会话一定会被访问到;期间注册或删除的会话可能访问到也可能访问不到
+     */
+    public void forEach(Visitor visitor) {
+        //先读allocated: 分片总是在allocated增长之前发布,之后读到的slabs一定覆盖[0, end)
+        int end = allocated;
+        ByteBuffer[] current = slabs;
+        for (int record = 0; record < end; record++) {
+            ByteBuffer slab = current[record >>> slabShift];
+            long id = (long) LONG.getAcquire(slab, (record & slabMask) * recordSize);
+            if (id != 0) {
+                visitor.visit(id, record);
+            }
+        }
+    }
+
+    /** 记录当前所属的连接ID,记录空闲时为0 */
+    public long id(int record) {
+        return (long) LONG.getAcquire(slab(record), (record & slabMask) * recordSize);
+    }
+
+    public long getLong(int record, int offset) {
+        return slab(record).getLong(fieldIndex(record, offset, 8));
+    }
+
+    public void putLong(int record, int offset, long value) {
+        slab(record).putLong(fieldIndex(record, offset, 8), value);
+    }
+
+    public int getInt(int record, int offset) {
+        return slab(record).getInt(fieldIndex(record, offset, 4));
+    }
+
+    public void putInt(int record, int offset, int value) {
+        slab(record).putInt(fieldIndex(record, offset, 4), value);
+    }
+
+    /** 原子地给字段加上delta,返回新值,offset必须是8的倍数 */
+    public long addLong(int record, int offset, long delta) {
+        if ((offset & 7) != 0) {
+            throw new IllegalArgumentException("unaligned offset: " + offset);
+        }
+        return (long) LONG.getAndAdd(slab(record), fieldIndex(record, offset, 8), delta) + delta;
+    }
+
+    public void attach(int record, Object attachment) {
+        ATTACHMENT.setRelease(attachments[record >>> slabShift], record & slabMask, attachment);
+    }
+
+    public Object attachment(int record) {
+        return ATTACHMENT.getAcquire(attachments[record >>> slabShift], record & slabMask);
+    }
+
+    private ByteBuffer slab(int record) {
+        return slabs[record >>> slabShift];
+    }
+
+    private int fieldIndex(int record, int offset, int width) {
+        if (offset < 0 || offset > fieldBytes - width) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", fieldBytes: " + fieldBytes);
+        }
+        return (record & slabMask) * recordSize + HEADER + offset;
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    private static void checkId(long id) {
+        if (id == 0) {
+            throw new IllegalArgumentException("id 0 is reserved");
+        }
+    }
+
+    /** MurmurHash3的fmix64,连续的连接ID也能均匀分布 */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private int allocate(long id) {
+        synchronized (allocLock) {
+            int record;
+            if (freeCount > 0) {
+                record = free[--freeCount];
+            } else {
+                record = allocated;
+                if ((record >>> slabShift) == slabs.length) {
+                    addSlab();
+                }
+                allocated = record + 1;
+            }
+            ByteBuffer slab = slab(record);
+            int base = (record & slabMask) * recordSize;
+            for (int i = HEADER; i < recordSize; i += 8) {
+                slab.putLong(base + i, 0);
+            }
+            //字段清零之后再发布ID,遍历看到ID时字段一定已经清零
+            LONG.setRelease(slab, base, id);
+            return record;
+        }
+    }
+
+    private void addSlab() {
+        int count = slabs.length;
+        if ((long) (count + 1) << slabShift > Integer.MAX_VALUE) {
+            throw new IllegalStateException("too many sessions");
+        }
+        ByteBuffer[] grownSlabs = Arrays.copyOf(slabs, count + 1);
+        //原子访问要求8字节对齐的地址
+        grownSlabs[count] = ByteBuffer.allocateDirect((slabMask + 1) * recordSize + 7).alignedSlice(8)
+                .order(ByteOrder.nativeOrder());
+        Object[][] grownAttachments = Arrays.copyOf(attachments, count + 1);
+        grownAttachments[count] = new Object[slabMask + 1];
+        //先发布附件数组,拿到新下标的线程一定能看到对应的分片
+        attachments = grownAttachments;
+        slabs = grownSlabs;
+    }
+
+    private void release(int record) {
+        synchronized (allocLock) {
+            LONG.setRelease(slab(record), (record & slabMask) * recordSize, 0L);
+            attach(record, null);
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = record;
+        }
+    }
+
+    /** 一个分段的开放寻址表,写入在写锁下进行,查找可以是乐观读 */
+    private static final class Stripe {
+
+        final StampedLock lock = new StampedLock();
+        /** keys和records一起替换,乐观读时不会拿到长度不一致的两个数组 */
+        Table table = new Table(INITIAL_STRIPE_CAPACITY);
+        volatile int size;
+
+        /** 乐观读时表可能正在被修改,探测次数以容量为上限,结果由调用方校验 */
+        int find(long id, long hash) {
+            Table t = table;
+            long[] keys = t.keys;
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long key = keys[index];
+                if (key == id) {
+                    return t.records[index];
+                }
+                if (key == 0) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        void insert(long id, long hash, int record) {
+            //负载因子超过1/2时扩容,线性探测在低负载下探测链很短
+            if ((size + 1) * 2 > table.keys.length) {
+                resize();
+            }
+            put(table, id, hash, record);
+            size = size + 1;
+        }
+
+        private static void put(Table t, long id, long hash, int record) {
+            int mask = t.keys.length - 1;
+            int index = (int) hash & mask;
+            while (t.keys[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            t.keys[index] = id;
+            t.records[index] = record;
+        }
+
+        private void resize() {
+            Table old = table;
+            Table grown = new Table(old.keys.length * 2);
+            for (int i = 0; i < old.keys.length; i++) {
+                if (old.keys[i] != 0) {
+                    put(grown, old.keys[i], mix(old.keys[i]), old.records[i]);
+                }
+            }
+            table = grown;
+        }
+
+        /** 删除id,返回它的记录下标,不存在时返回-1 */
+        int delete(long id, long hash) {
+            long[] keys = table.keys;
+            int[] records = table.records;
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            while (keys[index] != id) {
+                if (keys[index] == 0) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+            int record = records[index];
+            //后移法: 把后面探测链上的键往前挪,填补空出来的槽
+            int hole = index;
+            int i = index;
+            while (true) {
+                i = (i + 1) & mask;
+                long key = keys[i];
+                if (key == 0) {
+                    break;
+                }
+                int ideal = (int) mix(key) & mask;
+                if (((i - ideal) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = key;
+                    records[hole] = records[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+            records[hole] = 0;
+            size = size - 1;
+            return record;
+        }
+
+    }
+
+    private static final class Table {
+
+        final long[] keys;
+        final int[] records;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.records = new int[capacity];
+        }
+
+    }
+
+}
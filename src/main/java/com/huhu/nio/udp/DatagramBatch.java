@@ -0,0 +1,67 @@
+package com.huhu.nio.udp;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 一次交付给处理器的一批数据报
+ *
+ * 缓冲区由接收线程复用,回调返回后内容即失效,需要保留时必须自行拷贝
+ */
+public final class DatagramBatch {
+
+    private final ByteBuffer[] buffers;
+    private final SocketAddress[] senders;
+    private int size;
+
+    DatagramBatch(ByteBuffer[] buffers) {
+        this.buffers = buffers;
+        this.senders = new SocketAddress[buffers.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** 第i个数据报的内容,处于读取模式 */
+    public ByteBuffer datagram(int i) {
+        checkIndex(i);
+        return buffers[i];
+    }
+
+    public SocketAddress sender(int i) {
+        checkIndex(i);
+        return senders[i];
+    }
+
+    int capacity() {
+        return buffers.length;
+    }
+
+    /** 准备接收第size个数据报的缓冲区 */
+    ByteBuffer next() {
+        ByteBuffer buffer = buffers[size];
+        buffer.clear();
+        return buffer;
+    }
+
+    void commit(SocketAddress sender) {
+        buffers[size].flip();
+        senders[size] = sender;
+        size++;
+    }
+
+    void reset() {
+        for (int i = 0; i < size; i++) {
+            senders[i] = null;
+        }
+        size = 0;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+package com.huhu.nio.udp;
+
+/**
+ * 数据报批量回调,在接收线程中执行
+ *
+ * 多个接收线程时会并发回调,实现需要线程安全
+ */
+public interface DatagramBatchHandler {
+
+    void onBatch(DatagramBatch batch) throws Exception;
+
+}
@@ -0,0 +1,282 @@
+package com.huhu.nio.udp;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 高吞吐UDP接收器
+ *
+ * 每个接收线程各自打开一个DatagramChannel,开启SO_REUSEPORT后绑定到同一端口,由内核在线程间分流;
+ * 平台不支持SO_REUSEPORT时只使用一个线程
+ * 每次可读事件把socket中积压的数据报全部收完(每次唤醒最多maxBatchesPerWakeup批),
+ * 数据报收进池化的直接缓冲区,凑满一批或socket读空时整批交给处理器,缓冲区在批次之间复用
+ *
+ * 统计
+ * received: 收到的数据报数
+ * truncated: 数据报超过datagramSize,超出部分已被内核丢弃
+ * dropped: 处理器抛出异常而丢失的数据报数
+ * overruns: 唤醒后达到单次处理上限时socket仍有数据,说明接收速度跟不上
+ */
+public class UdpReceiver implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final int DEFAULT_DATAGRAM_SIZE = 2048;
+    private static final int MAX_BATCHES_PER_WAKEUP = 16;
+
+    private final InetSocketAddress address;
+    private final int threads;
+    private final int batchSize;
+    private final int datagramSize;
+    private final int receiveBufferSize;
+    private final DatagramBatchHandler handler;
+    private final BufferPool bufferPool;
+    private final List<ReceiveLoop> loops = new ArrayList<>();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+
+    private volatile boolean running;
+
+    public UdpReceiver(InetSocketAddress address, DatagramBatchHandler handler) {
+        this(address, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE, DEFAULT_DATAGRAM_SIZE, 0,
+                handler, BufferPool.shared());
+    }
+
+    /**
+     * @param receiveBufferSize SO_RCVBUF,0表示使用系统默认值
+     */
+    public UdpReceiver(InetSocketAddress address, int threads, int batchSize, int datagramSize, int receiveBufferSize,
+                       DatagramBatchHandler handler, BufferPool bufferPool) {
+        if (threads <= 0 || batchSize <= 0 || datagramSize <= 0 || datagramSize > 65536) {
+            throw new IllegalArgumentException("threads: " + threads + ", batchSize: " + batchSize
+                    + ", datagramSize: " + datagramSize);
+        }
+        this.address = address;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.datagramSize = datagramSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.handler = handler;
+        this.bufferPool = bufferPool;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("receiver already started");
+        }
+        running = true;
+        try {
+            DatagramChannel first = open(address, threads > 1);
+            loops.add(new ReceiveLoop(first, 0));
+            boolean reusePort = first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            //端口为0时其余通道绑定到第一个通道实际分配的端口
+            InetSocketAddress bound = (InetSocketAddress) first.getLocalAddress();
+            for (int i = 1; i < threads && reusePort; i++) {
+                loops.add(new ReceiveLoop(open(bound, true), i));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (ReceiveLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    private DatagramChannel open(InetSocketAddress bindAddress, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            if (reusePort && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            channel.bind(bindAddress);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) loops.get(0).channel.getLocalAddress();
+    }
+
+    /** 实际运行的接收线程数 */
+    public int threads() {
+        return loops.size();
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    public long truncated() {
+        return truncated.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long overruns() {
+        return overruns.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        for (ReceiveLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (ReceiveLoop loop : loops) {
+            if (loop.thread.isAlive()) {
+                try {
+                    loop.thread.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            //线程未启动或已退出时由这里释放,否则由接收线程退出时释放
+            if (!loop.thread.isAlive()) {
+                loop.release();
+            }
+        }
+        loops.clear();
+    }
+
+    /** 一个接收线程 */
+    private final class ReceiveLoop implements Runnable {
+
+        final DatagramChannel channel;
+        final Selector selector;
+        final Thread thread;
+        final ByteBuffer[] buffers;
+        final DatagramBatch batch;
+        private boolean released;
+
+        ReceiveLoop(DatagramChannel channel, int index) throws IOException {
+            this.channel = channel;
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            this.buffers = new ByteBuffer[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                //多留一个字节,恰好datagramSize的数据报不会被当作截断
+                buffers[i] = bufferPool.acquire(datagramSize + 1);
+            }
+            this.batch = new DatagramBatch(buffers);
+            this.thread = new Thread(this, "udp-receiver-" + index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            drain();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            } finally {
+                release();
+            }
+        }
+
+        private void drain() throws IOException {
+            for (int n = 0; n < MAX_BATCHES_PER_WAKEUP; n++) {
+                boolean empty = fill();
+                deliver();
+                if (empty) {
+                    return;
+                }
+            }
+            overruns.increment();
+        }
+
+        /** 收满一批,socket读空时返回true */
+        private boolean fill() throws IOException {
+            while (batch.size() < batch.capacity()) {
+                ByteBuffer buffer = batch.next();
+                buffer.limit(datagramSize + 1);
+                SocketAddress sender = channel.receive(buffer);
+                if (sender == null) {
+                    return true;
+                }
+                if (!buffer.hasRemaining()) {
+                    //只交给处理器datagramSize个字节
+                    truncated.increment();
+                    buffer.position(datagramSize);
+                }
+                batch.commit(sender);
+            }
+            return false;
+        }
+
+        private void deliver() {
+            int size = batch.size();
+            if (size == 0) {
+                return;
+            }
+            received.add(size);
+            batches.increment();
+            try {
+                handler.onBatch(batch);
+            } catch (Exception e) {
+                dropped.add(size);
+                e.printStackTrace();
+            } finally {
+                batch.reset();
+            }
+        }
+
+        synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (ByteBuffer buffer : buffers) {
+                bufferPool.release(buffer);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.huhu.nio.upload;
+
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * 分块续传协议的客户端
+ *
+ * 每次上传先询问服务端已接收的区间,只发送缺失的部分;缺失部分切成块后由streams个连接并行发送
+ * 单个块校验失败时立即重发,连接断开时整轮失败,重新握手后从服务端记录的进度继续,最多重试retries轮
+ */
+public class ChunkedUploadClient {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    /** 同一个块连续校验失败的最大次数 */
+    private static final int MAX_CHECKSUM_RETRIES = 3;
+
+    private final InetSocketAddress address;
+    private final int streams;
+    private final int chunkSize;
+    private final int retries;
+    private final BufferPool bufferPool;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public ChunkedUploadClient(InetSocketAddress address) {
+        this(address, 1, DEFAULT_CHUNK_SIZE, 3, BufferPool.shared());
+    }
+
+    public ChunkedUploadClient(InetSocketAddress address, int streams, int chunkSize, int retries,
+                               BufferPool bufferPool) {
+        if (streams <= 0 || chunkSize <= 0 || chunkSize > UploadProtocol.MAX_CHUNK_SIZE || retries < 0) {
+            throw new IllegalArgumentException("streams: " + streams + ", chunkSize: " + chunkSize
+                    + ", retries: " + retries);
+        }
+        this.address = address;
+        this.streams = streams;
+        this.chunkSize = chunkSize;
+        this.retries = retries;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 上传文件,name为服务端保存的文件名,同名的未完成上传会被续传
+     *
+     * 返回服务端确认完整接收前本次实际发送的数据字节数
+     */
+    public long upload(Path file, String name) throws IOException {
+        if (!UploadProtocol.isValidName(name)) {
+            throw new IllegalArgumentException("invalid upload name: " + name);
+        }
+        long start = bytesSent.get();
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = fileChannel.size();
+            int fileChecksum = UploadProtocol.checksum(fileChannel, length, ByteBuffer.allocate(64 * 1024));
+            IOException failure = null;
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                try {
+                    if (uploadOnce(fileChannel, name, length, fileChecksum)) {
+                        return bytesSent.get() - start;
+                    }
+                    failure = new IOException("server did not confirm completion of " + name);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        }
+    }
+
+    /** 累计发送的数据字节数,不含协议头 */
+    public long bytesSent() {
+        return bytesSent.get();
+    }
+
+    /** 一轮上传:握手拿到缺失区间,并行发送,返回服务端是否确认完整 */
+    private boolean uploadOnce(FileChannel fileChannel, String name, long length, int fileChecksum)
+            throws IOException {
+        ConcurrentLinkedQueue<long[]> chunks = new ConcurrentLinkedQueue<>();
+        SocketChannel first = SocketChannel.open(address);
+        try {
+            UploadProtocol.writeHello(first, name, length, fileChecksum);
+            for (long[] range : RangeSet.missing(UploadProtocol.readStatus(first), length)) {
+                for (long position = range[0]; position < range[1]; position += chunkSize) {
+                    chunks.add(new long[]{position, Math.min(range[1], position + chunkSize)});
+                }
+            }
+            if (chunks.isEmpty() || streams == 1 || chunks.size() == 1) {
+                sendChunks(first, fileChannel, chunks);
+                return finish(first);
+            }
+            //其余连接各自握手后从共享队列中取块
+            int extra = Math.min(streams, chunks.size()) - 1;
+            ExecutorService executor = Executors.newFixedThreadPool(extra);
+            try {
+                List<Future<Boolean>> futures = new ArrayList<>();
+                for (int i = 0; i < extra; i++) {
+                    futures.add(executor.submit(() -> {
+                        try (SocketChannel channel = SocketChannel.open(address)) {
+                            UploadProtocol.writeHello(channel, name, length, fileChecksum);
+                            UploadProtocol.readStatus(channel);
+                            sendChunks(channel, fileChannel, chunks);
+                            return finish(channel);
+                        }
+                    }));
+                }
+                sendChunks(first, fileChannel, chunks);
+                IOException failure = null;
+                for (Future<Boolean> future : futures) {
+                    try {
+                        future.get();
+                    } catch (Exception e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                //所有连接都发完后,由第一个连接询问最终状态
+                return finish(first);
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    /** 在一个连接上发送队列中的块直到队列为空 */
+    private void sendChunks(SocketChannel channel, FileChannel fileChannel, ConcurrentLinkedQueue<long[]> chunks)
+            throws IOException {
+        ByteBuffer buffer = bufferPool.acquire(Math.min(chunkSize, bufferPool.maxPooledSize()));
+        try {
+            long[] chunk;
+            while ((chunk = chunks.poll()) != null) {
+                sendChunk(channel, fileChannel, chunk[0], (int) (chunk[1] - chunk[0]), buffer);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private boolean finish(SocketChannel channel) throws IOException {
+        ByteBuffer end = ByteBuffer.allocate(8);
+        end.putLong(UploadProtocol.END).flip();
+        UploadProtocol.writeFully(channel, end);
+        return UploadProtocol.readByte(channel) == 1;
+    }
+
+    private void sendChunk(SocketChannel channel, FileChannel fileChannel, long offset, int length, ByteBuffer buffer)
+            throws IOException {
+        int checksum = checksum(fileChannel, offset, length, buffer);
+        for (int attempt = 0; ; attempt++) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putLong(offset).putInt(length).putInt(checksum).flip();
+            UploadProtocol.writeFully(channel, header);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                readFully(fileChannel, buffer, position);
+                position += buffer.remaining();
+                UploadProtocol.writeFully(channel, buffer);
+            }
+            bytesSent.addAndGet(length);
+            byte status = UploadProtocol.readByte(channel);
+            if (status == UploadProtocol.OK) {
+                return;
+            }
+            if (status != UploadProtocol.BAD_CHECKSUM || attempt + 1 >= MAX_CHECKSUM_RETRIES) {
+                throw new IOException("chunk at " + offset + " rejected, status " + status);
+            }
+        }
+    }
+
+    private static int checksum(FileChannel fileChannel, long offset, int length, ByteBuffer buffer)
+            throws IOException {
+        CRC32C crc = new CRC32C();
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(fileChannel, buffer, position);
+            position += buffer.remaining();
+            crc.update(buffer);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            int n = fileChannel.read(buffer, p);
+            if (n < 0) {
+                throw new IOException("file shrank during upload");
+            }
+            p += n;
+        }
+        buffer.flip();
+    }
+
+}
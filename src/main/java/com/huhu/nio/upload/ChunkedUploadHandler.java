@@ -0,0 +1,242 @@
+package com.huhu.nio.upload;
+
+import com.huhu.nio.blocking.BlockingHandler;
+import com.huhu.nio.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * 分块续传协议的服务端,配合BlockingServer使用,协议见UploadProtocol
+ *
+ * 每个数据块边读边按位置写入文件,同时计算CRC32C,校验通过后才记入索引;
+ * 校验失败的块虽然已经写入,但没有记录,会被客户端重传的数据覆盖
+ * 已经接收过的块只读取不写入,重复发送不会出错
+ */
+public class ChunkedUploadHandler implements BlockingHandler {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final boolean durable;
+    private final BufferPool bufferPool;
+    /** 上传名 -> session,session在锁外创建,创建完成前是未完成的future */
+    private final Map<String, CompletableFuture<UploadSession>> sessions = new HashMap<>();
+
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder badChecksums = new LongAdder();
+
+    public ChunkedUploadHandler(Path directory) {
+        this(directory, true, BufferPool.shared());
+    }
+
+    /**
+     * @param durable 为true时每个块先刷盘再记入索引,服务端掉电也不会把没落盘的数据当作已接收
+     */
+    public ChunkedUploadHandler(Path directory, boolean durable, BufferPool bufferPool) {
+        this.directory = directory;
+        this.durable = durable;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void handle(SocketChannel channel) throws IOException {
+        ByteBuffer hello = UploadProtocol.readFully(channel, ByteBuffer.allocate(6));
+        if (hello.getInt() != UploadProtocol.MAGIC) {
+            throw new IOException("bad magic");
+        }
+        int nameLength = hello.getShort() & 0xFFFF;
+        if (nameLength > UploadProtocol.MAX_NAME_LENGTH * 4) {
+            throw new IOException("name too long: " + nameLength);
+        }
+        ByteBuffer rest = UploadProtocol.readFully(channel, ByteBuffer.allocate(nameLength + 8 + 4));
+        byte[] nameBytes = new byte[nameLength];
+        rest.get(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+        long length = rest.getLong();
+        int fileChecksum = rest.getInt();
+        if (!UploadProtocol.isValidName(name) || length < 0) {
+            UploadProtocol.writeStatus(channel, UploadProtocol.ERROR, Collections.emptyList());
+            return;
+        }
+
+        UploadSession session = acquire(name, length, fileChecksum);
+        if (session == null) {
+            //同名的另一个文件正在上传
+            UploadProtocol.writeStatus(channel, UploadProtocol.ERROR, Collections.emptyList());
+            return;
+        }
+        ByteBuffer buffer = bufferPool.acquire(BUFFER_SIZE);
+        try {
+            UploadProtocol.writeStatus(channel, UploadProtocol.OK, session.ranges());
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (true) {
+                header.clear().limit(8);
+                long offset = UploadProtocol.readFully(channel, header).getLong();
+                if (offset == UploadProtocol.END) {
+                    UploadProtocol.writeByte(channel, (byte) (session.isComplete() ? 1 : 0));
+                    return;
+                }
+                header.clear();
+                UploadProtocol.readFully(channel, header.limit(8));
+                int chunkLength = header.getInt();
+                int checksum = header.getInt();
+                if (offset < 0 || chunkLength < 0 || chunkLength > UploadProtocol.MAX_CHUNK_SIZE
+                        || offset > length - chunkLength) {
+                    UploadProtocol.writeByte(channel, UploadProtocol.ERROR);
+                    return;
+                }
+                if (chunkLength > buffer.capacity()) {
+                    bufferPool.release(buffer);
+                    buffer = null;
+                    buffer = bufferPool.acquire(chunkLength);
+                }
+                byte status = receiveChunk(channel, session, offset, chunkLength, checksum, buffer);
+                UploadProtocol.writeByte(channel, status);
+            }
+        } finally {
+            if (buffer != null) {
+                bufferPool.release(buffer);
+            }
+            release(session);
+        }
+    }
+
+    /**
+     * 整块读入buffer,校验通过后只写入还没有被提交的部分
+     *
+     * 已提交的区间可能已经被其他连接写完,不再改写,校验失败的块不写入文件
+     */
+    private byte receiveChunk(SocketChannel channel, UploadSession session, long offset, int chunkLength,
+                              int checksum, ByteBuffer buffer) throws IOException {
+        buffer.clear().limit(chunkLength);
+        UploadProtocol.readFully(channel, buffer);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        chunks.increment();
+        if ((int) crc.getValue() != checksum) {
+            badChecksums.increment();
+            return UploadProtocol.BAD_CHECKSUM;
+        }
+        FileChannel data = session.data();
+        for (long[] range : session.missing(offset, offset + chunkLength)) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit((int) (range[1] - offset)).position((int) (range[0] - offset));
+            long position = range[0];
+            try {
+                while (slice.hasRemaining()) {
+                    position += data.write(slice, position);
+                }
+            } catch (ClosedChannelException e) {
+                //其他连接刚好补齐了文件,session已经完成
+                if (!session.isComplete()) {
+                    throw e;
+                }
+                return UploadProtocol.OK;
+            }
+            session.commit(range[0], range[1]);
+        }
+        return UploadProtocol.OK;
+    }
+
+    /**
+     * 取得name对应的session,同名的另一个文件正在上传时返回null
+     *
+     * 创建session可能要读完已有的同名文件计算CRC32C,在锁外进行,只在发布时加锁;
+     * 同名的其他连接等待这次创建完成,不影响其他上传的握手和释放
+     */
+    private UploadSession acquire(String name, long length, int checksum) throws IOException {
+        while (true) {
+            CompletableFuture<UploadSession> future;
+            boolean create = false;
+            synchronized (sessions) {
+                future = sessions.get(name);
+                if (future != null && future.isDone()) {
+                    UploadSession session = future.join();
+                    if (session.length() == length && session.checksum() == checksum) {
+                        session.references++;
+                        return session;
+                    }
+                    if (!session.isComplete()) {
+                        return null;
+                    }
+                    //已完成的旧session可能还有连接没有离开,新内容使用新的session
+                    future = null;
+                }
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    sessions.put(name, future);
+                    create = true;
+                }
+            }
+            if (create) {
+                return create(future, name, length, checksum);
+            }
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                //创建失败的future已经移除,重新开始
+            }
+        }
+    }
+
+    private UploadSession create(CompletableFuture<UploadSession> future, String name, long length, int checksum)
+            throws IOException {
+        UploadSession session;
+        try {
+            session = new UploadSession(directory, name, length, checksum, durable);
+        } catch (IOException | RuntimeException e) {
+            synchronized (sessions) {
+                sessions.remove(name, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (sessions) {
+            session.references++;
+            future.complete(session);
+        }
+        return session;
+    }
+
+    private void release(UploadSession session) throws IOException {
+        synchronized (sessions) {
+            if (--session.references == 0) {
+                CompletableFuture<UploadSession> future = sessions.get(session.name());
+                if (future != null && future.getNow(null) == session) {
+                    sessions.remove(session.name());
+                }
+                session.close();
+            }
+        }
+    }
+
+    /** 收到的数据块总数,包括校验失败的 */
+    public long chunks() {
+        return chunks.sum();
+    }
+
+    public long badChecksums() {
+        return badChecksums.sum();
+    }
+
+    /** 还有连接在使用的上传数 */
+    public int sessions() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+}
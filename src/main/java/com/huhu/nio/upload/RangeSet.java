@@ -0,0 +1,99 @@
+package com.huhu.nio.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 已接收的字节区间集合,区间为左闭右开[start, end),相邻或重叠的区间自动合并
+ *
+ * 非线程安全,由UploadSession加锁访问
+ */
+final class RangeSet {
+
+    /** start -> end */
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    private long covered;
+
+    void add(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        //向左合并
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            if (floor.getValue() >= end) {
+                return;
+            }
+            start = floor.getKey();
+            covered -= floor.getValue() - floor.getKey();
+            ranges.remove(floor.getKey());
+        }
+        //吞掉右侧所有相交的区间
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            covered -= next.getValue() - next.getKey();
+            ranges.remove(next.getKey());
+        }
+        ranges.put(start, end);
+        covered += end - start;
+    }
+
+    /** 已覆盖的字节数 */
+    long covered() {
+        return covered;
+    }
+
+    boolean covers(long start, long end) {
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        return floor != null && floor.getValue() >= end;
+    }
+
+    /** [start, end)中尚未覆盖的区间 */
+    List<long[]> missing(long start, long end) {
+        List<long[]> missing = new ArrayList<>();
+        long position = start;
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() > position) {
+            position = floor.getValue();
+        }
+        for (Map.Entry<Long, Long> entry : ranges.subMap(start, false, end, false).entrySet()) {
+            if (entry.getKey() > position) {
+                missing.add(new long[]{position, entry.getKey()});
+            }
+            position = Math.max(position, entry.getValue());
+        }
+        if (position < end) {
+            missing.add(new long[]{position, end});
+        }
+        return missing;
+    }
+
+    /** 按顺序排列的已接收区间,每个元素为{start, end} */
+    List<long[]> ranges() {
+        List<long[]> list = new ArrayList<>(ranges.size());
+        for (Map.Entry<Long, Long> entry : ranges.entrySet()) {
+            list.add(new long[]{entry.getKey(), entry.getValue()});
+        }
+        return list;
+    }
+
+    /** [0, length)中尚未接收的区间 */
+    static List<long[]> missing(List<long[]> received, long length) {
+        List<long[]> missing = new ArrayList<>();
+        long position = 0;
+        for (long[] range : received) {
+            if (range[0] > position) {
+                missing.add(new long[]{position, Math.min(range[0], length)});
+            }
+            position = Math.max(position, range[1]);
+        }
+        if (position < length) {
+            missing.add(new long[]{position, length});
+        }
+        return missing;
+    }
+
+}
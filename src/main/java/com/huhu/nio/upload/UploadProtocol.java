@@ -0,0 +1,132 @@
+package com.huhu.nio.upload;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * 分块续传协议,所有整数均为大端
+ *
+ * 握手 客户端 -> 服务端: int MAGIC, short 名字长度, 名字(UTF-8), long 文件总长度, int 整个文件的CRC32C
+ *      服务端 -> 客户端: byte 状态, int 区间数, 每个区间 long start, long end (已接收的字节区间)
+ * 数据块 客户端 -> 服务端: long offset, int length, int crc32c, length个字节
+ *      服务端 -> 客户端: byte 状态(OK / BAD_CHECKSUM / ERROR)
+ * 结束 客户端 -> 服务端: long -1
+ *      服务端 -> 客户端: byte 文件是否已完整接收(1/0)
+ *
+ * 一个文件可以同时通过多个连接上传不同的区间,服务端按offset写入同一个文件
+ * 名字、长度和整个文件的CRC32C一起标识一次上传,内容不同的同名文件不会被当作已完成或续传到一起
+ */
+final class UploadProtocol {
+
+    static final int MAGIC = 0x48555031;
+    static final long END = -1;
+
+    static final byte OK = 0;
+    static final byte BAD_CHECKSUM = 1;
+    static final byte ERROR = 2;
+
+    /** 服务端接受的最大块大小 */
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    static final int MAX_NAME_LENGTH = 255;
+
+    private UploadProtocol() {
+    }
+
+    /**
+     * 上传名只能是一个普通文件名,不能包含路径
+     *
+     * 也不能以.part或.part.idx结尾,否则会覆盖另一个上传正在使用的数据文件或索引
+     */
+    static boolean isValidName(String name) {
+        return !name.isEmpty() && name.length() <= MAX_NAME_LENGTH && name.indexOf('/') < 0
+                && name.indexOf('\\') < 0 && !name.equals(".") && !name.equals("..") && name.indexOf('\0') < 0
+                && !name.endsWith(".part") && !name.endsWith(".part.idx");
+    }
+
+    static void writeHello(WritableByteChannel channel, String name, long length, int checksum) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + bytes.length + 8 + 4);
+        buffer.putInt(MAGIC).putShort((short) bytes.length).put(bytes).putLong(length).putInt(checksum).flip();
+        writeFully(channel, buffer);
+    }
+
+    /** 文件前length个字节的CRC32C,作为上传内容的标识 */
+    static int checksum(FileChannel channel, long length, ByteBuffer buffer) throws IOException {
+        CRC32C crc = new CRC32C();
+        long position = 0;
+        while (position < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("file shorter than " + length);
+            }
+            position += n;
+            buffer.flip();
+            crc.update(buffer);
+        }
+        return (int) crc.getValue();
+    }
+
+    static void writeStatus(WritableByteChannel channel, byte status, List<long[]> ranges) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + ranges.size() * 16);
+        buffer.put(status).putInt(ranges.size());
+        for (long[] range : ranges) {
+            buffer.putLong(range[0]).putLong(range[1]);
+        }
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    /** 读取握手的响应,状态不是OK时抛出IOException */
+    static List<long[]> readStatus(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, ByteBuffer.allocate(5));
+        byte status = header.get();
+        int count = header.getInt();
+        if (status != OK) {
+            throw new IOException("upload rejected by server, status " + status);
+        }
+        if (count < 0 || count > 1 << 20) {
+            throw new IOException("bad range count: " + count);
+        }
+        ByteBuffer body = readFully(channel, ByteBuffer.allocate(count * 16));
+        List<long[]> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ranges.add(new long[]{body.getLong(), body.getLong()});
+        }
+        return ranges;
+    }
+
+    static void writeByte(WritableByteChannel channel, byte value) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(new byte[]{value}));
+    }
+
+    static byte readByte(ReadableByteChannel channel) throws IOException {
+        return readFully(channel, ByteBuffer.allocate(1)).get();
+    }
+
+    /** 读满buffer的剩余空间并切换为读取模式,中途遇到EOF抛出EOFException */
+    static ByteBuffer readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("connection closed, " + buffer.remaining() + " bytes missing");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.huhu.nio.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 服务端一个正在上传的文件
+ *
+ * 数据写入name.part,已接收的区间追加记录到旁路索引name.part.idx:
+ * 开头是long 文件总长度, int 文件内容的CRC32C,之后每条记录为long start, long end
+ * 已有的同名文件或索引只有长度和CRC32C都一致时才被当作同一次上传,否则从头开始并在完成时替换旧文件
+ * 连接断开或服务端重启后从索引恢复已接收的区间,全部接收后把.part改名为最终文件并删除索引
+ *
+ * 多个连接共享同一个session,FileChannel的按位置写入可以并发,区间和索引的更新加锁
+ */
+final class UploadSession {
+
+    private static final int INDEX_HEADER = 12;
+    private static final int INDEX_RECORD = 16;
+
+    private final String name;
+    private final long length;
+    private final int checksum;
+    private final Path target;
+    private final Path part;
+    private final Path index;
+    private final boolean durable;
+    private final RangeSet received = new RangeSet();
+    private final ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD);
+
+    private FileChannel data;
+    private FileChannel indexChannel;
+    private boolean complete;
+    /** 正在使用该session的连接数,由ChunkedUploadHandler维护 */
+    int references;
+
+    UploadSession(Path directory, String name, long length, int checksum, boolean durable) throws IOException {
+        this.name = name;
+        this.length = length;
+        this.checksum = checksum;
+        this.target = directory.resolve(name);
+        this.part = directory.resolve(name + ".part");
+        this.index = directory.resolve(name + ".part.idx");
+        this.durable = durable;
+        open();
+    }
+
+    private void open() throws IOException {
+        if (!Files.exists(part) && Files.exists(target) && Files.size(target) == length
+                && checksum(target) == checksum) {
+            //已经上传完成
+            complete = true;
+            received.add(0, length);
+            return;
+        }
+        data = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (!loadIndex()) {
+            //索引不存在或属于另一个内容的文件,从头开始
+            data.truncate(0);
+            indexChannel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+            header.putLong(length).putInt(checksum).flip();
+            UploadProtocol.writeFully(indexChannel, header);
+        }
+        if (received.covered() == length) {
+            finish();
+        }
+    }
+
+    private boolean loadIndex() throws IOException {
+        long size = indexChannel.size();
+        if (size < INDEX_HEADER) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE - 8));
+        indexChannel.read(buffer, 0);
+        buffer.flip();
+        if (buffer.getLong() != length || buffer.getInt() != checksum) {
+            return false;
+        }
+        //最后一条记录可能只写了一半,忽略
+        while (buffer.remaining() >= INDEX_RECORD) {
+            long start = buffer.getLong();
+            long end = buffer.getLong();
+            if (start >= 0 && start < end && end <= length) {
+                received.add(start, end);
+            }
+        }
+        indexChannel.truncate(buffer.position());
+        indexChannel.position(buffer.position());
+        return true;
+    }
+
+    private int checksum(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return UploadProtocol.checksum(channel, length, ByteBuffer.allocate(64 * 1024));
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    long length() {
+        return length;
+    }
+
+    int checksum() {
+        return checksum;
+    }
+
+    /** 数据文件,连接线程直接按位置写入 */
+    FileChannel data() {
+        return data;
+    }
+
+    synchronized List<long[]> ranges() {
+        return received.ranges();
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /** [start, end)中还没有提交的区间 */
+    synchronized List<long[]> missing(long start, long end) {
+        return received.missing(start, end);
+    }
+
+    /**
+     * 数据块已写入并通过校验,记录到索引
+     *
+     * durable时先把数据刷到磁盘再写索引,保证索引中的区间在掉电后也是完整的
+     */
+    synchronized void commit(long start, long end) throws IOException {
+        if (complete) {
+            return;
+        }
+        if (durable) {
+            data.force(false);
+        }
+        record.clear();
+        record.putLong(start).putLong(end).flip();
+        UploadProtocol.writeFully(indexChannel, record);
+        received.add(start, end);
+        if (received.covered() == length) {
+            finish();
+        }
+    }
+
+    private void finish() throws IOException {
+        complete = true;
+        data.force(true);
+        data.close();
+        indexChannel.close();
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(index);
+    }
+
+    /** 最后一个连接离开时关闭文件,未完成的上传保留.part和索引用于续传 */
+    synchronized void close() throws IOException {
+        if (complete) {
+            return;
+        }
+        try {
+            data.close();
+        } finally {
+            indexChannel.close();
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.huhu.nio.aio;
+
+import com.huhu.nio.blocking.UploadHandler;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AioServerTest {
+
+    private final BufferPool pool = new BufferPool(512, 64 * 1024, 1024 * 1024, true);
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("aio-server");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void acknowledgesConcurrentUploads() throws Exception {
+        byte[] payload = new byte[256 * 1024];
+        new Random(7).nextBytes(payload);
+        //服务端重启前留下的上传不能被覆盖
+        byte[] earlier = {1, 2, 3};
+        Path earlierUpload = Files.write(directory.resolve("upload-1"), earlier);
+        AioServer server = new AioServer(new InetSocketAddress("127.0.0.1", 0), 4, 128,
+                new AioUploadHandler(directory), pool);
+        server.start();
+        InetSocketAddress address = server.localAddress();
+
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<byte[]>> acks = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                acks.add(clients.submit(() -> upload(address, payload)));
+            }
+            for (Future<byte[]> ack : acks) {
+                assertArrayEquals(UploadHandler.ACK, ack.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            clients.shutdown();
+            server.close();
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> uploads = new ArrayList<>();
+            files.forEach(uploads::add);
+            assertTrue(uploads.remove(earlierUpload));
+            assertArrayEquals(earlier, Files.readAllBytes(earlierUpload));
+            assertEquals(64, uploads.size());
+            for (Path upload : uploads) {
+                assertTrue(Arrays.equals(payload, Files.readAllBytes(upload)));
+            }
+        }
+        assertTrue(pool.leaks().isEmpty());
+    }
+
+    @Test
+    public void closeForcesConnectionsLeftOpen() throws Exception {
+        CountDownLatch accepted = new CountDownLatch(1);
+        AioServer server = new AioServer(new InetSocketAddress("127.0.0.1", 0), 2, 16, (aioServer, channel) -> {
+            //不读不关,只能靠关闭时强制断开
+            accepted.countDown();
+        }, pool);
+        server.setShutdownTimeout(200);
+        server.start();
+
+        try (SocketChannel client = SocketChannel.open(server.localAddress())) {
+            assertTrue(accepted.await(5, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            server.close();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+            assertEquals(-1, client.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void abortedUploadReleasesBuffer() throws Exception {
+        AioServer server = new AioServer(new InetSocketAddress("127.0.0.1", 0), 2, 16,
+                new AioUploadHandler(directory), pool);
+        server.start();
+        try (SocketChannel client = SocketChannel.open(server.localAddress())) {
+            client.write(ByteBuffer.wrap(new byte[1024]));
+            client.setOption(StandardSocketOptions.SO_LINGER, 0);
+        }
+        //连接被重置后上传失败,缓冲区归还
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.outstanding() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        server.close();
+        assertTrue(pool.leaks().isEmpty());
+    }
+
+    private static byte[] upload(InetSocketAddress address, byte[] payload) throws IOException {
+        try (SocketChannel socketChannel = SocketChannel.open(address)) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                socketChannel.write(buffer);
+            }
+            socketChannel.shutdownOutput();
+            ByteBuffer ack = ByteBuffer.allocate(64);
+            while (socketChannel.read(ack) != -1) {
+            }
+            ack.flip();
+            byte[] bytes = new byte[ack.remaining()];
+            ack.get(bytes);
+            return bytes;
+        }
+    }
+
+}
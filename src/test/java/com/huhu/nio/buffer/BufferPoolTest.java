@@ -0,0 +1,114 @@
+package com.huhu.nio.buffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BufferPoolTest {
+
+    @Test
+    public void roundsUpToSizeClassAndReusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(512, 64 * 1024, 1024 * 1024, false);
+
+        ByteBuffer first = pool.acquire(1000);
+        assertTrue(first.isDirect());
+        assertEquals(1024, first.capacity());
+        assertEquals(1, pool.misses());
+        assertEquals(1, pool.outstanding());
+
+        first.put((byte) 1);
+        pool.release(first);
+        assertEquals(0, pool.outstanding());
+
+        ByteBuffer second = pool.acquire(1024);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(1, pool.hits());
+        pool.release(second);
+    }
+
+    @Test
+    public void oversizedRequestsBypassThePool() {
+        BufferPool pool = new BufferPool(512, 4096, 64 * 1024, false);
+        ByteBuffer huge = pool.acquire(10000);
+        assertEquals(10000, huge.capacity());
+        pool.release(huge);
+        assertEquals(0, pool.outstanding());
+        assertEquals(0, pool.slabBytes());
+    }
+
+    @Test
+    public void buffersFromOneSlabDoNotOverlap() {
+        BufferPool pool = new BufferPool(512, 4096, 64 * 1024, false);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 128; i++) {
+            ByteBuffer buffer = pool.acquire(512);
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) i);
+            }
+            buffers.add(buffer);
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            ByteBuffer buffer = buffers.get(i);
+            for (int j = 0; j < buffer.capacity(); j++) {
+                assertEquals((byte) i, buffer.get(j));
+            }
+            pool.release(buffer);
+        }
+        assertEquals(64 * 1024, pool.slabBytes());
+    }
+
+    @Test
+    public void debugModeReportsLeaksAndDoubleRelease() {
+        BufferPool pool = new BufferPool(512, 4096, 64 * 1024, true);
+        ByteBuffer leaked = pool.acquire(100);
+        ByteBuffer released = pool.acquire(100);
+        pool.release(released);
+
+        assertEquals(1, pool.leaks().size());
+        try {
+            pool.release(released);
+            fail("double release should be detected");
+        } catch (IllegalStateException expected) {
+        }
+        pool.release(leaked);
+        assertTrue(pool.leaks().isEmpty());
+    }
+
+    @Test
+    public void buffersMoveBetweenThreads() throws Exception {
+        final BufferPool pool = new BufferPool(512, 4096, 64 * 1024, false);
+        final List<ByteBuffer> handoff = new ArrayList<>();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                handoff.add(pool.acquire(2048));
+            }
+        });
+        producer.start();
+        producer.join();
+
+        Thread consumer = new Thread(() -> {
+            for (ByteBuffer buffer : handoff) {
+                pool.release(buffer);
+            }
+            pool.trimThreadCache();
+        });
+        consumer.start();
+        consumer.join();
+
+        assertEquals(0, pool.outstanding());
+        long misses = pool.misses();
+        for (int i = 0; i < 1000; i++) {
+            pool.release(pool.acquire(2048));
+        }
+        assertEquals(misses, pool.misses());
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.huhu.nio.charset;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TranscodingChannelTest {
+
+    private static final Charset GBK = Charset.forName("GBK");
+
+    private static final String TEXT = "2024-01-01 INFO 我们保护地球环境 user=huhu\n"
+            + "plain ascii line without any multi-byte characters at all\n"
+            + "混合 mixed 文本 text 😀 end\n";
+
+    @Test
+    public void multiByteCharactersSplitAcrossReads() throws Exception {
+        String text = repeat(TEXT, 50).replace("😀", "");
+        byte[] gbk = text.getBytes(GBK);
+        for (int chunk : new int[]{1, 2, 3, 7, 1000}) {
+            TranscodingChannel channel = new TranscodingChannel(new ChunkedChannel(gbk, chunk), GBK,
+                    StandardCharsets.UTF_8, 64);
+            assertEquals(text, new String(readAll(channel, 5), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void transcodesUtf8ToNonAsciiCompatibleCharset() throws Exception {
+        String text = repeat(TEXT, 20);
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TranscodingChannel.transcode(new ChunkedChannel(utf8, 3), StandardCharsets.UTF_8,
+                Channels.newChannel(out), StandardCharsets.UTF_16BE);
+        assertEquals(text, new String(out.toByteArray(), StandardCharsets.UTF_16BE));
+    }
+
+    @Test
+    public void transcodeKeepsReadingAfterEmptyReads() throws Exception {
+        String text = repeat(TEXT, 20);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TranscodingChannel.transcode(new ChunkedChannel(text.getBytes(GBK), 5, true), GBK,
+                Channels.newChannel(out), StandardCharsets.UTF_8);
+        assertEquals(text.replace("😀", "?"), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transcodeRejectsNonBlockingSource() throws Exception {
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.source().configureBlocking(false);
+            TranscodingChannel.transcode(pipe.source(), GBK, Channels.newChannel(new ByteArrayOutputStream()),
+                    StandardCharsets.UTF_8);
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void readReturnsAvailableOutputWithoutBlocking() throws Exception {
+        Pipe pipe = Pipe.open();
+        try {
+            byte[] gbk = "我们保护地球环境".getBytes(GBK);
+            pipe.sink().write(ByteBuffer.wrap(gbk));
+            TranscodingChannel channel = new TranscodingChannel(pipe.source(), GBK, StandardCharsets.UTF_8);
+            ByteBuffer dst = ByteBuffer.allocate(1024);
+            //sink未关闭,再次读取source会一直阻塞
+            int n = channel.read(dst);
+            assertEquals("我们保护地球环境", new String(dst.array(), 0, n, StandardCharsets.UTF_8));
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    @Test
+    public void truncatedSequenceAtEndIsReplaced() throws Exception {
+        byte[] gbk = "环境".getBytes(GBK);
+        byte[] truncated = new byte[gbk.length - 1];
+        System.arraycopy(gbk, 0, truncated, 0, truncated.length);
+        TranscodingChannel channel = new TranscodingChannel(new ChunkedChannel(truncated, 1), GBK,
+                StandardCharsets.UTF_8);
+        assertEquals("环�", new String(readAll(channel, 1024), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void codecsAreReusedPerThread() {
+        CharsetDecoder decoder = CharsetCodecs.acquireDecoder(GBK);
+        CharsetCodecs.releaseDecoder(decoder);
+        assertSame(decoder, CharsetCodecs.acquireDecoder(GBK));
+    }
+
+    private static byte[] readAll(ReadableByteChannel channel, int readSize) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(readSize);
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            out.write(buffer.array(), 0, buffer.limit());
+            buffer.clear();
+        }
+        channel.close();
+        return out.toByteArray();
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    /** 每次最多返回chunk个字节的通道,模拟网络分段 */
+    private static class ChunkedChannel implements ReadableByteChannel {
+
+        private final byte[] data;
+        private final int chunk;
+        /** 为true时每隔一次读取返回0 */
+        private final boolean stalls;
+        private boolean stalled;
+        private int position;
+
+        ChunkedChannel(byte[] data, int chunk) {
+            this(data, chunk, false);
+        }
+
+        ChunkedChannel(byte[] data, int chunk, boolean stalls) {
+            this.data = data;
+            this.chunk = chunk;
+            this.stalls = stalls;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == data.length) {
+                return -1;
+            }
+            if (stalls && (stalled = !stalled)) {
+                return 0;
+            }
+            int n = Math.min(Math.min(chunk, dst.remaining()), data.length - position);
+            dst.put(data, position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,244 @@
+package com.huhu.nio.codec;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameCodecTest {
+
+    private final BufferPool pool = new BufferPool(512, 64 * 1024, 256 * 1024, true);
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameHandler collector = frame -> {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        frames.add(bytes);
+    };
+
+    @Test
+    public void lengthFieldFramesSurviveArbitrarySplits() throws IOException {
+        for (int lengthField : new int[]{LengthFieldFrameDecoder.VARINT, 2, 4}) {
+            List<byte[]> sent = randomFrames(200, 3000);
+            byte[] wire = encode(lengthField, sent, 7);
+
+            frames.clear();
+            LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(lengthField, 10000, pool);
+            feedInRandomChunks(decoder, wire);
+            assertFrames(sent);
+            assertEquals(0, decoder.buffered());
+            decoder.release();
+        }
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void cumulationGrowsForFramesLargerThanInitialCapacity() throws IOException {
+        List<byte[]> sent = randomFrames(3, 100000);
+        sent.add(new byte[100000]);
+        byte[] wire = encode(4, sent, Integer.MAX_VALUE);
+
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(4, 100000, pool);
+        feedInRandomChunks(decoder, wire);
+        assertFrames(sent);
+        decoder.release();
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void rejectsOversizedLength() throws IOException {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(4, 1024, pool);
+        ByteBuffer in = ByteBuffer.allocate(4);
+        in.putInt(1025).flip();
+        try {
+            decoder.decode(in, collector);
+            fail();
+        } catch (TooLongFrameException expected) {
+        }
+        decoder.release();
+    }
+
+    @Test
+    public void peekIntRejectsValuesBeyondInt() {
+        ByteBuffer buffer = ByteBuffer.allocate(Varints.MAX_INT_LENGTH);
+        Varints.writeInt(buffer, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, Varints.peekInt(buffer.flip(), 0));
+        //第5个字节设置了符号位或32位以上的位
+        for (byte last : new byte[]{0x08, 0x10, 0x70}) {
+            buffer.clear();
+            buffer.put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF).put(last).flip();
+            try {
+                Varints.peekInt(buffer, 0);
+                fail("overflow not detected: " + last);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void nonMinimalVarintLengthKeepsFramesAligned() throws IOException {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(LengthFieldFrameDecoder.VARINT, 1024, pool);
+        //0x80 0x00是长度0的两字节编码,0x83 0x00是长度3的两字节编码
+        byte[] wire = {(byte) 0x80, 0x00, (byte) 0x83, 0x00, 'a', 'b', 'c', 0x01, 'd'};
+        for (int i = 0; i < wire.length; i++) {
+            decoder.decode(ByteBuffer.wrap(wire, i, 1), collector);
+        }
+        assertEquals(3, frames.size());
+        assertArrayEquals(new byte[0], frames.get(0));
+        assertArrayEquals("abc".getBytes(StandardCharsets.US_ASCII), frames.get(1));
+        assertArrayEquals("d".getBytes(StandardCharsets.US_ASCII), frames.get(2));
+        assertEquals(0, decoder.buffered());
+        decoder.release();
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void delimiterSplitAcrossReads() throws IOException {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder("\r\n".getBytes(), 64, pool);
+        String[] reads = {"hel", "lo\r", "\nwor", "ld\r\n\r", "\n", "tail"};
+        for (String read : reads) {
+            decoder.decode(ByteBuffer.wrap(read.getBytes(StandardCharsets.UTF_8)), collector);
+        }
+        assertEquals(3, frames.size());
+        assertEquals("hello", new String(frames.get(0), StandardCharsets.UTF_8));
+        assertEquals("world", new String(frames.get(1), StandardCharsets.UTF_8));
+        assertEquals("", new String(frames.get(2), StandardCharsets.UTF_8));
+        assertEquals(4, decoder.buffered());
+        decoder.release();
+    }
+
+    @Test
+    public void delimiterFrameTooLong() throws IOException {
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(new byte[]{'\n'}, 8, pool);
+        decoder.decode(ByteBuffer.wrap("12345".getBytes()), collector);
+        try {
+            decoder.decode(ByteBuffer.wrap("67890".getBytes()), collector);
+            fail();
+        } catch (TooLongFrameException expected) {
+        }
+        decoder.release();
+    }
+
+    @Test
+    public void encoderResumesPartialGatheringWrites() throws IOException {
+        LengthFieldFrameEncoder encoder = new LengthFieldFrameEncoder(LengthFieldFrameDecoder.VARINT);
+        List<byte[]> sent = randomFrames(40, 500);
+        for (byte[] frame : sent) {
+            encoder.add(ByteBuffer.wrap(frame));
+        }
+        assertEquals(40, encoder.pendingFrames());
+
+        LimitedChannel channel = new LimitedChannel(100);
+        int flushes = 1;
+        while (!encoder.flush(channel)) {
+            channel.allowance = 100;
+            flushes++;
+        }
+        assertTrue(flushes > 1);
+        assertEquals(0, encoder.pendingBytes());
+        assertFalse(encoder.pendingFrames() > 0);
+
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(LengthFieldFrameDecoder.VARINT, 1000, pool);
+        decoder.decode(ByteBuffer.wrap(channel.out.toByteArray()), collector);
+        assertFrames(sent);
+        decoder.release();
+    }
+
+    private List<byte[]> randomFrames(int count, int maxLength) {
+        Random random = new Random(count);
+        List<byte[]> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[random.nextInt(maxLength)];
+            random.nextBytes(frame);
+            list.add(frame);
+        }
+        return list;
+    }
+
+    private byte[] encode(int lengthField, List<byte[]> sent, int perWrite) throws IOException {
+        LengthFieldFrameEncoder encoder = new LengthFieldFrameEncoder(lengthField);
+        for (byte[] frame : sent) {
+            encoder.add(ByteBuffer.wrap(frame));
+        }
+        LimitedChannel channel = new LimitedChannel(perWrite);
+        while (!encoder.flush(channel)) {
+            channel.allowance = perWrite;
+        }
+        return channel.out.toByteArray();
+    }
+
+    private void feedInRandomChunks(FrameDecoder decoder, byte[] wire) throws IOException {
+        Random random = new Random(wire.length);
+        int position = 0;
+        while (position < wire.length) {
+            int n = Math.min(wire.length - position, 1 + random.nextInt(5000));
+            decoder.decode(ByteBuffer.wrap(wire, position, n), collector);
+            position += n;
+        }
+    }
+
+    private void assertFrames(List<byte[]> sent) {
+        assertEquals(sent.size(), frames.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertArrayEquals(sent.get(i), frames.get(i));
+        }
+    }
+
+    /** 每次只接受有限字节的内存通道,用来模拟socket写满 */
+    private static class LimitedChannel implements GatheringByteChannel {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int allowance;
+
+        LimitedChannel(int allowance) {
+            this.allowance = allowance;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = Math.min(allowance, src.remaining());
+            for (int i = 0; i < n; i++) {
+                out.write(src.get());
+            }
+            allowance -= n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
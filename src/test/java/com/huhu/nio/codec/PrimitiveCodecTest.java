@@ -0,0 +1,136 @@
+package com.huhu.nio.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveCodecTest {
+
+    private static final ByteOrder[] ORDERS = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+
+    @Test
+    public void varintLongsAndZigZagRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        long[] values = {0, 1, 127, 128, Long.MAX_VALUE, Long.MIN_VALUE, -1};
+        for (long value : values) {
+            buffer.clear();
+            Varints.writeLong(buffer, value);
+            assertEquals(Varints.longLength(value), buffer.position());
+            buffer.flip();
+            assertEquals(value, Varints.readLong(buffer));
+            assertEquals(value, Varints.unZigZag(Varints.zigZag(value)));
+        }
+        assertEquals(1, Varints.longLength(Varints.zigZag(-1L)));
+        assertEquals(-64, Varints.unZigZag(Varints.zigZag(-64)));
+        assertEquals(Integer.MIN_VALUE, Varints.unZigZag(Varints.zigZag(Integer.MIN_VALUE)));
+    }
+
+    @Test
+    public void allEncodingsRoundTrip() {
+        Random random = new Random(11);
+        int[] ints = new int[1000];
+        long[] longs = new long[1000];
+        double[] doubles = new double[1000];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = random.nextInt();
+            longs[i] = random.nextLong() >> random.nextInt(64);
+            doubles[i] = random.nextGaussian() * 1000;
+        }
+        ints[0] = Integer.MIN_VALUE;
+        longs[0] = Long.MIN_VALUE;
+        longs[1] = Long.MAX_VALUE;
+        doubles[0] = Double.NaN;
+        doubles[1] = -0.0;
+        for (ByteOrder order : ORDERS) {
+            for (PrimitiveCodec.Encoding encoding : PrimitiveCodec.Encoding.values()) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(
+                        PrimitiveCodec.maxEncodedLength(PrimitiveCodec.Type.DOUBLE, encoding, 1000));
+                PrimitiveCodec.encode(ints, encoding, order, buffer);
+                buffer.flip();
+                assertTrue(Arrays.equals(ints, PrimitiveCodec.decodeInts(buffer)));
+                assertFalse(buffer.hasRemaining());
+
+                buffer.clear();
+                PrimitiveCodec.encode(longs, encoding, order, buffer);
+                buffer.flip();
+                assertTrue(Arrays.equals(longs, PrimitiveCodec.decodeLongs(buffer)));
+
+                if (encoding != PrimitiveCodec.Encoding.ZIGZAG) {
+                    buffer.clear();
+                    PrimitiveCodec.encode(doubles, encoding, order, buffer);
+                    buffer.flip();
+                    double[] decoded = PrimitiveCodec.decodeDoubles(buffer);
+                    for (int i = 0; i < doubles.length; i++) {
+                        assertEquals(Double.doubleToRawLongBits(doubles[i]), Double.doubleToRawLongBits(decoded[i]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deltaShrinksTimeSeries() {
+        int n = 10000;
+        long[] timestamps = new long[n];
+        double[] prices = new double[n];
+        long t = 1700000000000L;
+        for (int i = 0; i < n; i++) {
+            t += 1000 + (i % 7);
+            timestamps[i] = t;
+            prices[i] = 100 + (i % 50) * 0.25;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PrimitiveCodec.maxEncodedLength(
+                PrimitiveCodec.Type.DOUBLE, PrimitiveCodec.Encoding.DELTA, n));
+        PrimitiveCodec.encode(timestamps, PrimitiveCodec.Encoding.DELTA, ByteOrder.nativeOrder(), buffer);
+        int timestampBytes = buffer.position();
+        //每个差值只需2个字节,原始数据8个字节
+        assertTrue("delta bytes " + timestampBytes, timestampBytes < n * 8 / 3);
+
+        buffer.clear();
+        PrimitiveCodec.encode(prices, PrimitiveCodec.Encoding.DELTA, ByteOrder.nativeOrder(), buffer);
+        assertTrue("price bytes " + buffer.position(), buffer.position() < n * 8 / 2);
+    }
+
+    @Test
+    public void readerDecodesInPlaceAndExposesViews() {
+        long[] values = {5, 6, 7, 8};
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        PrimitiveCodec.encode(values, PrimitiveCodec.Encoding.RAW, ByteOrder.LITTLE_ENDIAN, buffer);
+        PrimitiveCodec.encode(values, PrimitiveCodec.Encoding.DELTA, ByteOrder.LITTLE_ENDIAN, buffer);
+        buffer.flip();
+
+        //两个数组首尾相接,RAW构造时跳过数据区,视图共享内存
+        PrimitiveReader raw = new PrimitiveReader(buffer);
+        LongBuffer view = raw.longView();
+        assertEquals(4, view.remaining());
+        assertEquals(7, view.get(2));
+        assertEquals(ByteOrder.LITTLE_ENDIAN, view.order());
+
+        PrimitiveReader delta = new PrimitiveReader(buffer);
+        assertEquals(PrimitiveCodec.Encoding.DELTA, delta.encoding());
+        long sum = 0;
+        while (delta.hasNext()) {
+            sum += delta.nextLong();
+        }
+        assertEquals(26, sum);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(26, raw.nextLong() + raw.nextLong() + raw.nextLong() + raw.nextLong());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeMismatchIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        PrimitiveCodec.encode(new int[]{1, 2}, PrimitiveCodec.Encoding.ZIGZAG, ByteOrder.BIG_ENDIAN, buffer);
+        buffer.flip();
+        PrimitiveCodec.decodeLongs(buffer);
+    }
+
+}
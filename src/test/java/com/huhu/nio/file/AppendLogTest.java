@@ -0,0 +1,191 @@
+package com.huhu.nio.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AppendLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer payload(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void concurrentAppendsGetDistinctSequencesAcrossSegments() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("log");
+        int threads = 4;
+        int perThread = 2000;
+        try (AppendLog log = AppendLog.open(directory, 64 * 1024, 1024, 5)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                writers.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            //长度不同的记录,段尾留下的空间大小不一
+                            StringBuilder text = new StringBuilder(id + ":" + i + ":");
+                            for (int k = 0; k < i % 13; k++) {
+                                text.append('x');
+                            }
+                            log.append(payload(text.toString()));
+                        }
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }));
+            }
+            for (Thread writer : writers) {
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            int total = threads * perThread;
+            assertEquals(total, log.nextSequence());
+            assertEquals(total, log.flush());
+            assertTrue(log.segmentCount() > 1);
+
+            Set<String> seen = new HashSet<>();
+            for (long sequence = 0; sequence < total; sequence++) {
+                String text = text(log.read(sequence));
+                String[] parts = text.split(":");
+                assertEquals(Integer.parseInt(parts[1]) % 13, parts.length > 2 ? parts[2].length() : 0);
+                assertTrue(seen.add(parts[0] + ":" + parts[1]));
+            }
+            assertEquals(total, seen.size());
+            assertNull(log.read(total));
+
+            LogReader reader = log.reader(0);
+            int count = 0;
+            while (reader.next() != null) {
+                count++;
+            }
+            assertEquals(total, count);
+            assertEquals(total, reader.sequence());
+        }
+    }
+
+    @Test
+    public void syncCommitsPendingRecordsInOneBatch() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("log");
+        //只在sync时刷盘
+        try (AppendLog log = AppendLog.open(directory, 1024 * 1024, 4096, 0)) {
+            for (int i = 0; i < 100; i++) {
+                log.append(payload("record-" + i));
+            }
+            assertEquals(0, log.durableSequence());
+            log.sync(99);
+            assertEquals(100, log.durableSequence());
+            assertEquals(1, log.flushes());
+
+            long sequence = log.appendAndSync(payload("last"));
+            assertEquals(100, sequence);
+            assertEquals(101, log.durableSequence());
+            assertEquals(2, log.flushes());
+        }
+    }
+
+    @Test
+    public void reopenDiscardsTornRecordAndKeepsIndex() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("log");
+        int total = 5000;
+        try (AppendLog log = AppendLog.open(directory, 64 * 1024, 512, 0)) {
+            for (int i = 0; i < total; i++) {
+                log.append(payload(String.format("%04d-abcdefghijklmnopqrs", i)));
+            }
+        }
+        //每条记录24字节载荷,加8字节头正好32字节;在最后一段的末尾伪造一条CRC错误的记录
+        int perSegment = 64 * 1024 / 32;
+        long lastBase = (long) (total / perSegment) * perSegment;
+        Path last = directory.resolve(LogSegment.fileName(lastBase, ".log"));
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(32);
+            torn.putInt(0x80000000 | 24).putInt(12345).put(new byte[24]).flip();
+            channel.write(torn, (total - lastBase) * 32);
+        }
+
+        try (AppendLog log = AppendLog.open(directory, 64 * 1024, 512, 0)) {
+            assertEquals(total, log.nextSequence());
+            assertEquals(total, log.durableSequence());
+            assertNull(log.read(total));
+            assertEquals("0000-abcdefghijklmnopqrs", text(log.read(0)));
+            assertEquals("3333-abcdefghijklmnopqrs", text(log.read(3333)));
+            assertEquals("4999-abcdefghijklmnopqrs", text(log.read(4999)));
+
+            assertEquals(total, log.append(payload("after-reopen")));
+            assertEquals("after-reopen", text(log.read(total)));
+        }
+    }
+
+    @Test
+    public void readerTransfersRawRecordsZeroCopy() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("log");
+        Path out = folder.getRoot().toPath().resolve("out.bin");
+        int total = 3000;
+        try (AppendLog log = AppendLog.open(directory, 16 * 1024, 1024, 5);
+             FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.READ)) {
+            for (int i = 0; i < total; i++) {
+                log.append(payload("message-" + i));
+            }
+            LogReader reader = log.reader(10);
+            long bytes = 0;
+            long n;
+            while ((n = reader.transferTo(target, 4096)) > 0) {
+                assertTrue(n <= 4096);
+                bytes += n;
+            }
+            assertEquals(total, reader.sequence());
+            assertNull(reader.region(4096));
+
+            //对端按记录格式解析
+            ByteBuffer data = ByteBuffer.allocate((int) bytes);
+            target.read(data, 0);
+            data.flip();
+            CRC32C crc = new CRC32C();
+            for (int i = 10; i < total; i++) {
+                int length = data.getInt() & 0x7FFFFFFF;
+                int checksum = data.getInt();
+                ByteBuffer record = data.slice();
+                record.limit(length);
+                crc.reset();
+                crc.update(record.duplicate());
+                assertEquals(checksum, (int) crc.getValue());
+                assertEquals("message-" + i, text(record));
+                data.position(data.position() + LogSegment.recordSize(length) - LogSegment.HEADER);
+            }
+            assertEquals(0, data.remaining());
+
+            log.append(payload("late"));
+            FileRegion region = reader.region(4096);
+            assertNotNull(region);
+            assertEquals(LogSegment.recordSize(4), region.count());
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.huhu.nio.file;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final BufferPool bufferPool = new BufferPool(512, 1024 * 1024, 4 * 1024 * 1024, false);
+    private final DirectoryScanner scanner = new DirectoryScanner(pool, bufferPool, "SHA-256");
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private Path write(Path root, String path, int size, long seed) throws Exception {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, data);
+        return file;
+    }
+
+    @Test
+    public void scansTreeInParallelAndHashesContent() throws Exception {
+        Path root = folder.newFolder("tree").toPath();
+        for (int d = 0; d < 5; d++) {
+            for (int f = 0; f < 20; f++) {
+                write(root, "d" + d + "/sub/f" + f + ".bin", 100 + f * 37, d * 100 + f);
+            }
+        }
+        Path large = write(root, "large.bin", 9 * 1024 * 1024 + 3, 1);
+        write(root, "medium.bin", 2 * 1024 * 1024, 2);
+        //与medium.bin内容相同
+        write(root, "d0/copy-of-medium.bin", 2 * 1024 * 1024, 2);
+
+        DirectoryScanner.ScanResult result = scanner.scan(root, (FileIndex) null);
+        assertEquals(103, result.files());
+        assertEquals(11, result.directories());
+        assertEquals(103, result.hashedFiles());
+        assertTrue(result.errors().isEmpty());
+        assertEquals(103, result.index().size());
+
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(large));
+        assertArrayEquals(expected, result.index().get("large.bin").hash());
+        Path small = root.resolve("d3/sub/f7.bin");
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(small)),
+                result.index().get("d3/sub/f7.bin").hash());
+
+        List<List<FileIndex.Entry>> duplicates = result.index().duplicates();
+        assertEquals(1, duplicates.size());
+        assertEquals(2, duplicates.get(0).size());
+        assertEquals(0, bufferPool.outstanding());
+    }
+
+    @Test
+    public void rescanReusesUnchangedEntriesFromPersistedIndex() throws Exception {
+        Path root = folder.newFolder("tree").toPath();
+        Path indexFile = folder.getRoot().toPath().resolve("tree.idx");
+        for (int f = 0; f < 30; f++) {
+            write(root, "a/b/f" + f, 1000 + f, f);
+        }
+        DirectoryScanner.ScanResult first = scanner.scan(root, indexFile);
+        assertEquals(30, first.hashedFiles());
+        assertEquals(30, first.changed().size());
+
+        FileIndex loaded = FileIndex.load(indexFile, "SHA-256");
+        assertEquals(30, loaded.size());
+        FileIndex.Entry entry = loaded.get("a/b/f3");
+        assertEquals(1003, entry.size());
+        assertArrayEquals(first.index().get("a/b/f3").hash(), entry.hash());
+
+        //修改一个、新增一个、删除一个
+        Path modified = write(root, "a/b/f5", 2000, 99);
+        Files.setLastModifiedTime(modified, FileTime.fromMillis(entry.lastModified() / 1000000 + 5000));
+        write(root, "a/new", 10, 7);
+        Files.delete(root.resolve("a/b/f9"));
+
+        DirectoryScanner.ScanResult second = scanner.scan(root, indexFile);
+        assertEquals(30, second.files());
+        assertEquals(28, second.reusedFiles());
+        assertEquals(2, second.hashedFiles());
+        List<String> changed = second.changed();
+        Collections.sort(changed);
+        assertEquals(Arrays.asList("a/b/f5", "a/new"), changed);
+        assertEquals(Collections.singletonList("a/b/f9"), second.removed());
+        assertEquals(30, FileIndex.load(indexFile, "SHA-256").size());
+
+        //算法不同时索引作废
+        assertEquals(0, FileIndex.load(indexFile, "MD5").size());
+    }
+
+}
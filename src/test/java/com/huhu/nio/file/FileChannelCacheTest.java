@@ -0,0 +1,97 @@
+package com.huhu.nio.file;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FileChannelCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileChannelCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new FileChannelCache(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    private Path createFile(String name, String content) throws Exception {
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.write(path, content.getBytes("UTF-8"));
+        return path;
+    }
+
+    @Test
+    public void sharesChannelAndClosesEvictedOnlyAfterLastRelease() throws Exception {
+        Path a = createFile("a.txt", "aaa");
+        Path b = createFile("b.txt", "bb");
+        Path c = createFile("c.txt", "c");
+
+        FileChannelCache.Handle first = cache.acquire(a);
+        FileChannelCache.Handle second = cache.acquire(a);
+        assertSame(first, second);
+        assertEquals(3, first.size());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        cache.acquire(b).close();
+        //a仍被引用,被淘汰后通道保持打开
+        cache.acquire(c).close();
+        assertEquals(2, cache.size());
+        first.close();
+        assertTrue(first.channel().isOpen());
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        first.channel().read(buffer, 0);
+        assertEquals("aaa", new String(buffer.array(), "UTF-8"));
+        second.close();
+        assertFalse(first.channel().isOpen());
+
+        FileChannelCache.Handle reopened = cache.acquire(a);
+        assertNotSame(first, reopened);
+        reopened.close();
+    }
+
+    @Test
+    public void watchServiceInvalidatesModifiedFiles() throws Exception {
+        Path a = createFile("a.txt", "old");
+        FileChannelCache.Handle handle = cache.acquire(a);
+        handle.close();
+        assertTrue(handle.channel().isOpen());
+
+        Files.write(a, "newer".getBytes("UTF-8"));
+        long deadline = System.currentTimeMillis() + 15000;
+        while (handle.channel().isOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(handle.channel().isOpen());
+        FileChannelCache.Handle fresh = cache.acquire(a);
+        assertEquals(5, fresh.size());
+        fresh.close();
+        assertTrue(cache.invalidations() >= 1);
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void directoriesAreNotFiles() throws Exception {
+        cache.acquire(folder.newFolder("dir").toPath());
+    }
+
+}
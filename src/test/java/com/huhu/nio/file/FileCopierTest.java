@@ -0,0 +1,131 @@
+package com.huhu.nio.file;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileCopierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final BufferPool bufferPool = new BufferPool(512, 1024 * 1024, 4 * 1024 * 1024, false);
+    private final FileCopier copier = new FileCopier(pool, bufferPool, 1024 * 1024);
+
+    private long waitForBuffers() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferPool.outstanding() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return bufferPool.outstanding();
+    }
+
+    private Path createFile(int size) throws Exception {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        Path path = folder.newFile().toPath();
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test
+    public void copiesInParallelChunksWithEveryStrategy() throws Exception {
+        Path source = createFile(20 * 1024 * 1024 + 123);
+        for (FileCopier.Strategy strategy : FileCopier.Strategy.values()) {
+            Path target = folder.getRoot().toPath().resolve("copy-" + strategy);
+            AtomicLong progress = new AtomicLong();
+            FileCopier.CopyTask task = copier.copyAsync(source, target, strategy,
+                    (copied, total) -> progress.accumulateAndGet(copied, Math::max));
+            assertEquals(Files.size(source), (long) task.get());
+            assertEquals(Files.size(source), progress.get());
+            assertTrue(Arrays.equals(Files.readAllBytes(source), Files.readAllBytes(target)));
+        }
+        assertEquals(0, bufferPool.outstanding());
+    }
+
+    @Test
+    public void copiesSmallAndEmptyFilesInline() throws Exception {
+        for (int size : new int[]{0, 1, 4096}) {
+            Path source = createFile(size);
+            Path target = folder.getRoot().toPath().resolve("small-" + size);
+            assertEquals(size, copier.copy(source, target));
+            assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+        }
+    }
+
+    @Test
+    public void cancellationStopsCopyAndRemovesTarget() throws Exception {
+        Path source = createFile(32 * 1024 * 1024);
+        Path target = folder.getRoot().toPath().resolve("cancelled");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        FileCopier.CopyTask task = copier.copyAsync(source, target, FileCopier.Strategy.POSITIONAL, (copied, total) -> {
+            started.countDown();
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        //分块还停在listener中,任务也应立即完成
+        assertTrue(task.cancel(true));
+        assertTrue(task.isDone());
+        assertTrue(task.isCancelled());
+        try {
+            task.get(1, TimeUnit.SECONDS);
+            fail("copy should be cancelled");
+        } catch (CancellationException expected) {
+        }
+        resume.countDown();
+        //各分块在下一个切片处停下后删除目标文件
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Files.exists(target) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(Files.exists(target));
+        assertEquals(0, waitForBuffers());
+    }
+
+    @Test
+    public void failedChunkWaitsForOtherChunksBeforeRemovingTarget() throws Exception {
+        Path source = createFile(32 * 1024 * 1024);
+        Path target = folder.getRoot().toPath().resolve("failed");
+        FileCopier.CopyTask task = copier.copyAsync(source, target, FileCopier.Strategy.POSITIONAL,
+                (copied, total) -> {
+                    if (copied > 4 * 1024 * 1024) {
+                        throw new IllegalStateException("listener failure");
+                    }
+                });
+        try {
+            task.get();
+            fail("copy should fail");
+        } catch (ExecutionException expected) {
+        }
+        //get返回时所有分块都已结束,缓冲区已归还,目标文件已删除
+        assertEquals(0, bufferPool.outstanding());
+        assertFalse(Files.exists(target));
+        assertFalse(task.isCancelled());
+        assertTrue(task.copied() < Files.size(source));
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.huhu.nio.file;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.reactor.ChannelHandler;
+import com.huhu.nio.reactor.Connection;
+import com.huhu.nio.reactor.ReactorServer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileRegionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path createFile(int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        Path path = folder.newFile().toPath();
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test
+    public void sendsRegionToBlockingSocketWithTransferTo() throws Exception {
+        Path path = createFile(3 * 1024 * 1024);
+        byte[] expected = Arrays.copyOfRange(Files.readAllBytes(path), 100, 100 + 2 * 1024 * 1024);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel accepted = server.accept();
+             FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            FileRegion region = new FileRegion(file, 100, expected.length);
+            Thread sender = new Thread(() -> {
+                try {
+                    region.transferFully(client);
+                    client.shutdownOutput();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            sender.start();
+
+            ByteBuffer received = ByteBuffer.allocate(expected.length);
+            while (received.hasRemaining() && accepted.read(received) >= 0) {
+            }
+            sender.join();
+            assertArrayEquals(expected, received.array());
+            assertFalse(region.isCopyMode());
+            assertTrue(region.isDone());
+        }
+    }
+
+    @Test
+    public void fallsBackToPooledCopyForOtherChannels() throws Exception {
+        Path path = createFile(200 * 1024);
+        BufferPool pool = new BufferPool(512, 64 * 1024, 256 * 1024, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+             FileRegion region = new FileRegion(file, 0, file.size(), false, pool)) {
+            region.transferFully(Channels.newChannel(out));
+            assertTrue(region.isCopyMode());
+        }
+        assertArrayEquals(Files.readAllBytes(path), out.toByteArray());
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void reactorResumesPartialTransfersOnWritable() throws Exception {
+        Path path = createFile(8 * 1024 * 1024);
+        ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 1, new ChannelHandler() {
+            @Override
+            public void onOpen(Connection connection) throws IOException {
+                connection.sendFile(FileRegion.open(path));
+                connection.write(ByteBuffer.wrap("EOF".getBytes()));
+            }
+
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) {
+            }
+        });
+        server.start();
+        try (SocketChannel client = SocketChannel.open(server.localAddress())) {
+            byte[] file = Files.readAllBytes(path);
+            ByteBuffer received = ByteBuffer.allocate(file.length + 3);
+            ByteBuffer chunk = ByteBuffer.allocate(4096);
+            while (received.hasRemaining()) {
+                chunk.clear();
+                if (client.read(chunk) < 0) {
+                    break;
+                }
+                chunk.flip();
+                received.put(chunk);
+            }
+            assertArrayEquals(file, Arrays.copyOf(received.array(), file.length));
+            assertEquals("EOF", new String(received.array(), file.length, 3));
+        } finally {
+            server.close();
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.huhu.nio.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addressesBeyondTwoGigabytes() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("huge");
+        long size = 3L * 1024 * 1024 * 1024;
+        try (MappedFile file = MappedFile.openReadWrite(path, size, 1024 * 1024, 2)) {
+            file.putLong(size - 8, 0x1122334455667788L);
+            file.putInt(2L * 1024 * 1024 * 1024 + 5, 42);
+            file.putByte(0, (byte) 7);
+            assertEquals(2, file.mappedWindows());
+            assertEquals(0x1122334455667788L, file.getLong(size - 8));
+            assertEquals(42, file.getInt(2L * 1024 * 1024 * 1024 + 5));
+            assertEquals(7, file.getByte(0));
+            assertTrue(file.mappedWindows() <= 2);
+        }
+        assertEquals(size, Files.size(path));
+        try (MappedFile file = MappedFile.openReadOnly(path, 1024 * 1024, 1)) {
+            assertEquals(0x1122334455667788L, file.getLong(size - 8));
+        }
+    }
+
+    @Test
+    public void valuesStraddlingWindowBoundaries() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("straddle");
+        try (MappedFile file = MappedFile.openReadWrite(path, 3 * 4096, 4096, 1)) {
+            file.putLong(4096 - 3, -2L);
+            file.putInt(2 * 4096 - 1, 0x01020304);
+            assertEquals(-2L, file.getLong(4096 - 3));
+            assertEquals(0x01020304, file.getInt(2 * 4096 - 1));
+            assertEquals(1, file.mappedWindows());
+        }
+        ByteBuffer expected = ByteBuffer.allocate(8);
+        expected.putLong(-2L);
+        byte[] bytes = Files.readAllBytes(path);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(expected.get(i), bytes[4096 - 3 + i]);
+        }
+    }
+
+    @Test
+    public void bulkCopyBetweenMappedFiles() throws Exception {
+        byte[] data = new byte[5 * 4096 + 17];
+        new Random(3).nextBytes(data);
+        Path sourcePath = folder.getRoot().toPath().resolve("source");
+        Files.write(sourcePath, data);
+        Path targetPath = folder.getRoot().toPath().resolve("target");
+
+        try (MappedFile source = MappedFile.openReadOnly(sourcePath, 4096, 2);
+             MappedFile target = MappedFile.openReadWrite(targetPath, data.length + 1000, 4096, 2)) {
+            source.copyTo(0, target, 1000, data.length);
+            target.force();
+
+            ByteBuffer read = ByteBuffer.allocate(data.length);
+            target.read(1000, read);
+            assertArrayEquals(data, read.array());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            source.transferTo(100, 9000, Channels.newChannel(out));
+            byte[] expected = new byte[9000];
+            System.arraycopy(data, 100, expected, 0, expected.length);
+            assertArrayEquals(expected, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void copyWithinOneFile() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("self");
+        try (MappedFile file = MappedFile.openReadWrite(path, 4 * 4096, 4096, 2)) {
+            file.write(10, ByteBuffer.wrap("window-crossing".getBytes()));
+            file.copyTo(10, file, 3 * 4096 - 5, 15);
+            ByteBuffer read = ByteBuffer.allocate(15);
+            file.read(3 * 4096 - 5, read);
+            assertEquals("window-crossing", new String(read.array()));
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.huhu.nio.http;
+
+import com.huhu.nio.file.FileChannelCache;
+import com.huhu.nio.reactor.ReactorServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StaticFileHandlerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] data;
+    private FileChannelCache cache;
+    private StaticFileHandler handler;
+    private ReactorServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        Path root = folder.newFolder("www").toPath();
+        data = new byte[3 * 1024 * 1024 + 17];
+        new Random(19).nextBytes(data);
+        Files.write(root.resolve("artifact.jar"), data);
+        Files.write(root.resolve("index.html"), "<html></html>".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.getRoot().toPath().resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+
+        cache = new FileChannelCache(16);
+        handler = new StaticFileHandler(root, cache);
+        server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 2, handler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        cache.close();
+    }
+
+    @Test
+    public void servesPipelinedRequestsOnKeepAliveConnection() throws Exception {
+        try (SocketChannel channel = SocketChannel.open(server.localAddress())) {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            send(channel, "GET /artifact.jar HTTP/1.1\r\nHost: x\r\n\r\n"
+                    + "HEAD /artifact.jar HTTP/1.1\r\nHost: x\r\n\r\n"
+                    + "GET / HTTP/1.1\r\nHost: x\r\n\r\n");
+
+            Response full = Response.read(in, true);
+            assertEquals(200, full.status);
+            assertEquals("application/java-archive", full.headers.get("content-type"));
+            assertTrue(Arrays.equals(data, full.body));
+
+            Response head = Response.read(in, false);
+            assertEquals(200, head.status);
+            assertEquals(String.valueOf(data.length), head.headers.get("content-length"));
+
+            Response index = Response.read(in, true);
+            assertEquals("<html></html>", new String(index.body, StandardCharsets.UTF_8));
+
+            //同一个连接上继续请求,文件通道来自缓存
+            send(channel, "GET /artifact.jar HTTP/1.1\r\nRange: bytes=100-199\r\n\r\n");
+            Response range = Response.read(in, true);
+            assertEquals(206, range.status);
+            assertEquals("bytes 100-199/" + data.length, range.headers.get("content-range"));
+            assertArrayEquals(Arrays.copyOfRange(data, 100, 200), range.body);
+        }
+        assertTrue(cache.hits() >= 2);
+        assertEquals(4, handler.requests());
+    }
+
+    @Test
+    public void handlesRangesErrorsAndConnectionClose() throws Exception {
+        try (SocketChannel channel = SocketChannel.open(server.localAddress())) {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            send(channel, "GET /artifact.jar HTTP/1.1\r\nRange: bytes=-10\r\n\r\n"
+                    + "GET /artifact.jar HTTP/1.1\r\nRange: bytes=" + data.length + "-\r\n\r\n"
+                    + "GET /missing HTTP/1.1\r\n\r\n"
+                    + "GET /../secret.txt HTTP/1.1\r\n\r\n"
+                    + "GET /%2e%2e/secret.txt HTTP/1.1\r\n\r\n"
+                    + "DELETE /artifact.jar HTTP/1.1\r\n\r\n"
+                    + "GET /index.html HTTP/1.1\r\nConnection: close\r\n\r\n"
+                    + "GET /index.html HTTP/1.1\r\n\r\n");
+
+            Response suffix = Response.read(in, true);
+            assertEquals(206, suffix.status);
+            assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), suffix.body);
+            Response unsatisfiable = Response.read(in, true);
+            assertEquals(416, unsatisfiable.status);
+            assertEquals("bytes */" + data.length, unsatisfiable.headers.get("content-range"));
+            assertEquals(404, Response.read(in, true).status);
+            assertEquals(404, Response.read(in, true).status);
+            assertEquals(404, Response.read(in, true).status);
+            assertEquals(405, Response.read(in, true).status);
+            Response last = Response.read(in, true);
+            assertEquals(200, last.status);
+            assertEquals("close", last.headers.get("connection"));
+            //Connection: close之后的请求不再处理,服务端写完响应后关闭
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void parsesSingleRanges() {
+        assertArrayEquals(new long[]{0, 10}, StaticFileHandler.parseRange("bytes=0-9", 100));
+        assertArrayEquals(new long[]{90, 100}, StaticFileHandler.parseRange("bytes=90-", 100));
+        assertArrayEquals(new long[]{50, 100}, StaticFileHandler.parseRange("bytes=50-1000", 100));
+        assertArrayEquals(new long[]{0, 100}, StaticFileHandler.parseRange("bytes=-1000", 100));
+        assertEquals(0, StaticFileHandler.parseRange("bytes=100-", 100).length);
+        assertEquals(0, StaticFileHandler.parseRange("bytes=-0", 100).length);
+        assertNull(StaticFileHandler.parseRange("bytes=0-1,5-6", 100));
+        assertNull(StaticFileHandler.parseRange("bytes=9-1", 100));
+        assertNull(StaticFileHandler.parseRange("items=0-1", 100));
+    }
+
+    private static void send(SocketChannel channel, String request) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static final class Response {
+
+        int status;
+        final Map<String, String> headers = new HashMap<>();
+        byte[] body;
+
+        static Response read(InputStream in, boolean hasBody) throws IOException {
+            Response response = new Response();
+            String statusLine = readLine(in);
+            response.status = Integer.parseInt(statusLine.split(" ")[1]);
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                response.headers.put(line.substring(0, colon).toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+            int length = hasBody ? Integer.parseInt(response.headers.get("content-length")) : 0;
+            response.body = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(response.body, read, length - read);
+                if (n < 0) {
+                    throw new IOException("truncated body");
+                }
+                read += n;
+            }
+            return response;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("connection closed");
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.huhu.nio.metrics;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IoMetricsTest {
+
+    @Test
+    public void bucketsCoverTheWholeRangeWithBoundedError() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.lowerBound(index) <= value);
+            assertTrue(LatencyHistogram.upperBound(index) >= value);
+            long lower = LatencyHistogram.lowerBound(index);
+            assertTrue(value - lower <= Math.max(0, lower / 32));
+        }
+        assertEquals(0, LatencyHistogram.index(0));
+        LatencyHistogram.index(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void percentilesAreApproximatelyCorrect() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(10000, histogram.count());
+        assertEquals(10000000, histogram.max());
+        long p50 = histogram.percentile(0.5);
+        long p99 = histogram.percentile(0.99);
+        assertTrue("p50 " + p50, Math.abs(p50 - 5000000) <= 5000000 / 32 + 1000);
+        assertTrue("p99 " + p99, Math.abs(p99 - 9900000) <= 9900000 / 32 + 1000);
+        assertEquals(10000000, histogram.percentile(1));
+        histogram.reset();
+        assertEquals(0, histogram.percentile(0.5));
+    }
+
+    @Test
+    public void recordsFromManyThreadsAreMergedOnRead() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            long value = (t + 1) * 100L;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(value);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, histogram.count());
+        assertEquals(800, histogram.max());
+        assertTrue(histogram.percentile(0.1) < 200);
+        assertEquals(800, histogram.percentile(1));
+    }
+
+    @Test
+    public void countersAndFillRatio() {
+        IoMetrics metrics = new IoMetrics();
+        metrics.recordRead(512, 1024);
+        metrics.recordRead(1024, 1024);
+        metrics.recordRead(0, 1024);
+        metrics.recordSelect(0);
+        metrics.recordSelect(3);
+        metrics.recordWrite(100);
+        assertEquals(3, metrics.getReads());
+        assertEquals(1, metrics.getEmptyReads());
+        assertEquals(1536, metrics.getBytesRead());
+        assertEquals(0.75, metrics.getReadFillRatio(), 1e-9);
+        assertEquals(2, metrics.getSelects());
+        assertEquals(1, metrics.getEmptySelects());
+        assertEquals(3, metrics.getSelectedKeys());
+        assertEquals(100, metrics.getBytesWritten());
+        metrics.reset();
+        assertEquals(0, metrics.getReads());
+    }
+
+    @Test
+    public void exposedThroughJmxAndReporter() throws Exception {
+        IoMetrics metrics = new IoMetrics();
+        metrics.recordRead(100, 1024);
+        BufferPool pool = new BufferPool(512, 4096, 64 * 1024, false);
+        pool.release(pool.acquire(512));
+        pool.release(pool.acquire(512));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName ioName = IoMetrics.register("IoMetrics", "test", metrics);
+        ObjectName poolName = IoMetrics.register("BufferPool", "test", new BufferPoolStats(pool));
+        try {
+            assertEquals(100L, server.getAttribute(ioName, "BytesRead"));
+            assertEquals(1L, server.getAttribute(poolName, "Hits"));
+            assertEquals(0.5, (Double) server.getAttribute(poolName, "HitRatio"), 1e-9);
+        } finally {
+            IoMetrics.unregister(ioName);
+            IoMetrics.unregister(poolName);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MetricsReporter reporter = new MetricsReporter(new PrintStream(out, true, "UTF-8"))
+                .add("io", metrics)
+                .add("pool", pool);
+        reporter.report();
+        reporter.close();
+        String report = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(report, report.contains("io: reads=1"));
+        assertTrue(report, report.contains("pool: BufferPool[hits=1"));
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.huhu.nio.pipe;
+
+import org.junit.Test;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipeMailboxTest {
+
+    @Test
+    public void selectorConsumerReceivesEveryMessageWithCoalescedSignals() throws Exception {
+        final int producers = 4;
+        final int perProducer = 50000;
+        PipeMailbox<Long> mailbox = new PipeMailbox<>(1024);
+        AtomicLong sum = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+
+        Thread consumer = new Thread(() -> {
+            try (Selector selector = Selector.open()) {
+                mailbox.register(selector, null);
+                while (received.get() < (long) producers * perProducer) {
+                    selector.select(1000);
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                        iterator.remove();
+                        received.addAndGet(mailbox.drain(sum::addAndGet));
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        consumer.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread producer = new Thread(() -> {
+                for (long i = 1; i <= perProducer; i++) {
+                    while (!mailbox.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(producer);
+            producer.start();
+        }
+        for (Thread producer : threads) {
+            producer.join();
+        }
+        consumer.join(10000);
+
+        assertEquals((long) producers * perProducer, received.get());
+        assertEquals(producers * ((long) perProducer * (perProducer + 1) / 2), sum.get());
+        assertTrue("signals should be coalesced: " + mailbox.signals(),
+                mailbox.signals() < (long) producers * perProducer);
+        mailbox.close();
+    }
+
+    @Test
+    public void boundedDrainKeepsSignalForRemainingMessages() throws Exception {
+        PipeMailbox<Integer> mailbox = new PipeMailbox<>(8);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(mailbox.offer(i));
+        }
+        assertFalse(mailbox.offer(8));
+        assertEquals(1, mailbox.signals());
+
+        try (Selector selector = Selector.open()) {
+            mailbox.register(selector, null);
+            List<Integer> drained = new ArrayList<>();
+            assertEquals(1, selector.selectNow());
+            selector.selectedKeys().clear();
+            assertEquals(5, mailbox.drain(drained::add, 5));
+            assertEquals(1, selector.selectNow());
+            selector.selectedKeys().clear();
+            assertEquals(3, mailbox.drain(drained::add));
+            assertEquals(0, selector.selectNow());
+            assertEquals(8, drained.size());
+            assertEquals(Integer.valueOf(7), drained.get(7));
+        }
+        mailbox.close();
+    }
+
+}
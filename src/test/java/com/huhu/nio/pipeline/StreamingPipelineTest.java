@@ -0,0 +1,226 @@
+package com.huhu.nio.pipeline;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.reactor.ReactorServer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BufferPool pool = new BufferPool(512, 64 * 1024, 4 * 1024 * 1024, false);
+    private final ExecutorService writer = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() throws Exception {
+        writer.shutdown();
+        writer.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /** 把data切成随机大小的池化缓冲区依次放入流水线 */
+    private void feed(StreamingPipeline pipeline, byte[] data, Random random) {
+        int position = 0;
+        while (position < data.length) {
+            int n = Math.min(data.length - position, 1 + random.nextInt(20000));
+            ByteBuffer buffer = pool.acquire(n);
+            buffer.put(data, position, n).flip();
+            pipeline.offer(buffer);
+            position += n;
+        }
+        pipeline.finish();
+    }
+
+    @Test
+    public void checksumsAndCompressesIntoFile() throws Exception {
+        byte[] data = new byte[5 * 1024 * 1024];
+        Random random = new Random(3);
+        for (int i = 0; i < data.length; i++) {
+            //可压缩的数据
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        Path target = folder.getRoot().toPath().resolve("out.z");
+        ChecksumTransform checksum = new ChecksumTransform();
+        DeflateTransform deflate = new DeflateTransform(Deflater.BEST_SPEED, pool);
+        StreamingPipeline pipeline = new StreamingPipeline(writer, pool, Arrays.asList(checksum, deflate),
+                Sink.of(FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)));
+        feed(pipeline, data, random);
+
+        assertEquals(data.length, (long) pipeline.completion().get(10, TimeUnit.SECONDS));
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        assertEquals(crc.getValue(), checksum.value());
+        assertEquals(Files.size(target), deflate.bytesOut());
+        assertTrue(deflate.bytesOut() < data.length / 2);
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(target))) {
+            assertTrue(Arrays.equals(data, readAll(in)));
+        }
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void transcodesCharactersSplitAcrossBuffers() throws Exception {
+        Charset gbk = Charset.forName("GBK");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append("line ").append(i).append(" 中文日志,混合ASCII\n");
+        }
+        byte[] data = text.toString().getBytes(gbk);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingPipeline pipeline = new StreamingPipeline(writer, pool,
+                Collections.singletonList(new TranscodeTransform(gbk, StandardCharsets.UTF_8)), buffer -> {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    out.write(bytes, 0, bytes.length);
+                });
+        feed(pipeline, data, new Random(5));
+        pipeline.completion().get(10, TimeUnit.SECONDS);
+        assertEquals(text.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void failingSinkCompletesExceptionallyAndReleasesBuffers() throws Exception {
+        StreamingPipeline pipeline = new StreamingPipeline(writer, pool, Collections.emptyList(), buffer -> {
+            throw new IOException("disk full");
+        });
+        feed(pipeline, new byte[100000], new Random(7));
+        CompletableFuture<Long> completion = pipeline.completion();
+        try {
+            completion.get(10, TimeUnit.SECONDS);
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        assertTrue(completion.isCompletedExceptionally());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.outstanding() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void failureAfterDeflateReleasesItsOutputBuffer() throws Exception {
+        DeflateTransform deflate = new DeflateTransform(Deflater.BEST_SPEED, pool);
+        StreamingPipeline pipeline = new StreamingPipeline(writer, pool, Collections.singletonList(deflate),
+                buffer -> {
+                    throw new IOException("disk full");
+                });
+        byte[] data = new byte[1024 * 1024];
+        Random random = new Random(11);
+        //不可压缩的数据,Deflater很快写满输出缓冲区并交给sink
+        random.nextBytes(data);
+        feed(pipeline, data, random);
+        try {
+            pipeline.completion().get(10, TimeUnit.SECONDS);
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        assertTrue(pipeline.completion().isCompletedExceptionally());
+        assertTrue(deflate.bytesOut() > 0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.outstanding() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        //输入缓冲区和Deflate的输出缓冲区都已归还
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void slowDiskPausesSocketReads() throws Exception {
+        byte[] payload = new byte[8 * 1024 * 1024];
+        new Random(11).nextBytes(payload);
+        Path target = folder.getRoot().toPath().resolve("upload.bin");
+        AtomicReference<StreamingPipeline> created = new AtomicReference<>();
+        AtomicLong maxQueued = new AtomicLong();
+
+        ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 1,
+                new PipelineHandler(connection -> {
+                    FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    Sink disk = Sink.of(file);
+                    StreamingPipeline pipeline = new StreamingPipeline(writer, connection.alloc(),
+                            Collections.emptyList(), new Sink() {
+                        @Override
+                        public void write(ByteBuffer buffer) throws IOException {
+                            maxQueued.accumulateAndGet(created.get().queuedBytes(), Math::max);
+                            //模拟慢速磁盘
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            disk.write(buffer);
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            disk.close();
+                        }
+                    });
+                    pipeline.setWatermarks(64 * 1024, 256 * 1024);
+                    created.set(pipeline);
+                    return pipeline;
+                }), pool);
+        server.start();
+        try (SocketChannel channel = SocketChannel.open(server.localAddress())) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        StreamingPipeline pipeline;
+        long deadline = System.currentTimeMillis() + 30000;
+        while ((pipeline = created.get()) == null || !pipeline.completion().isDone()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        server.close();
+
+        assertEquals(payload.length, (long) pipeline.completion().get());
+        assertTrue("pauses " + pipeline.pauses(), pipeline.pauses() > 0);
+        //队列最多超出高水位一次读取的大小
+        assertTrue("max queued " + maxQueued.get(), maxQueued.get() <= 256 * 1024 + 4 * 1024 * 1024);
+        assertTrue(Arrays.equals(payload, Files.readAllBytes(target)));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,270 @@
+package com.huhu.nio.pubsub;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.reactor.ReactorServer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PubSubHandlerTest {
+
+    private static final int MESSAGES = 4000;
+    private static final int PAYLOAD = 4096;
+    private static final int WINDOW = 64;
+
+    private final List<Socket> sockets = new ArrayList<>();
+    private final ExecutorService readers = Executors.newCachedThreadPool();
+    private ReactorServer server;
+
+    @After
+    public void tearDown() throws IOException {
+        readers.shutdownNow();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private PubSubHandler startServer(SlowSubscriberPolicy policy, int workers, BufferPool pool,
+                                      int lowWatermark, int highWatermark) throws IOException {
+        PubSubHandler handler = new PubSubHandler(new Broadcaster(policy));
+        if (highWatermark > 0) {
+            handler.setWatermarks(lowWatermark, highWatermark);
+        }
+        server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), workers, handler, pool);
+        server.start();
+        return handler;
+    }
+
+    private Socket connect(int receiveBufferSize) throws IOException {
+        Socket socket = new Socket();
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.connect(server.localAddress());
+        sockets.add(socket);
+        return socket;
+    }
+
+    private static void send(DataOutputStream out, byte type, String topic, String payload) throws IOException {
+        byte[] name = PubSubProtocol.topic(topic);
+        ByteBuffer body = payload == null ? null : ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer frame = ByteBuffer.allocate(PubSubProtocol.frameLength(name, body == null ? 0 : body.remaining()));
+        PubSubProtocol.encode(frame, type, name, body);
+        out.write(frame.array(), 0, frame.position());
+    }
+
+    private static DataOutputStream output(Socket socket) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    private void subscribe(Socket socket, String topic) throws IOException {
+        DataOutputStream out = output(socket);
+        send(out, PubSubProtocol.SUBSCRIBE, topic, null);
+        out.flush();
+    }
+
+    /** 读一条MESSAGE,返回载荷 */
+    private static String receive(DataInputStream in, String topic) throws IOException {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        assertEquals(PubSubProtocol.MESSAGE, buffer.get());
+        assertEquals(topic, PubSubProtocol.readTopic(buffer));
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static void awaitSubscribers(Broadcaster broadcaster, String topic, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (broadcaster.subscribers(topic) != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, broadcaster.subscribers(topic));
+    }
+
+    @Test
+    public void fansOutEachMessageOncePerWorker() throws Exception {
+        BufferPool pool = new BufferPool(512, 64 * 1024, 1024 * 1024, false);
+        PubSubHandler handler = startServer(SlowSubscriberPolicy.DROP, 2, pool, 0, 0);
+        Broadcaster broadcaster = handler.broadcaster();
+        List<Socket> quotes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Socket socket = connect(0);
+            subscribe(socket, "quotes");
+            quotes.add(socket);
+        }
+        Socket news = connect(0);
+        subscribe(news, "news");
+        awaitSubscribers(broadcaster, "quotes", 20);
+        awaitSubscribers(broadcaster, "news", 1);
+        assertEquals(21, broadcaster.sessions());
+
+        DataOutputStream publisher = output(connect(0));
+        for (int i = 0; i < 200; i++) {
+            send(publisher, PubSubProtocol.PUBLISH, "quotes", "q-" + i);
+        }
+        send(publisher, PubSubProtocol.PUBLISH, "news", "hello");
+        publisher.flush();
+
+        for (Socket socket : quotes) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 200; i++) {
+                assertEquals("q-" + i, receive(in, "quotes"));
+            }
+        }
+        DataInputStream in = new DataInputStream(news.getInputStream());
+        assertEquals("hello", receive(in, "news"));
+        assertEquals(1, handler.publish("news", ByteBuffer.wrap("from server".getBytes(StandardCharsets.UTF_8))));
+        assertEquals("from server", receive(in, "news"));
+
+        //20个订阅者分布在2个worker上,每条消息最多提交2个任务
+        assertEquals(202, broadcaster.published());
+        assertTrue("batches: " + broadcaster.batches(), broadcaster.batches() <= 200 * 2 + 2);
+        assertEquals(0, broadcaster.dropped());
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (broadcaster.sessions() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, broadcaster.sessions());
+        assertEquals(0, broadcaster.subscribers("quotes"));
+        server.close();
+        server = null;
+        //所有共享消息都已被最后一个持有者归还
+        assertEquals(0, pool.outstanding());
+    }
+
+    /**
+     * 一个快订阅者和一个不读取的慢订阅者,发布MESSAGES条消息
+     *
+     * 单worker下快订阅者收到最后一条时,所有投递任务都已执行完
+     */
+    private Socket publishWithSlowSubscriber(Broadcaster broadcaster) throws Exception {
+        Socket fast = connect(0);
+        subscribe(fast, "t");
+        Socket slow = connect(4096);
+        subscribe(slow, "t");
+        awaitSubscribers(broadcaster, "t", 2);
+
+        AtomicInteger fastReceived = new AtomicInteger();
+        Future<?> fastReader = readers.submit(() -> {
+            DataInputStream in = new DataInputStream(fast.getInputStream());
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals(i, sequence(receive(in, "t")));
+                fastReceived.incrementAndGet();
+            }
+            return null;
+        });
+        DataOutputStream publisher = output(connect(0));
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < PAYLOAD - 6) {
+            padding.append('x');
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            send(publisher, PubSubProtocol.PUBLISH, "t", String.format("%06d", i) + padding);
+            //按窗口发布,窗口小于高水位,快订阅者不会被当作慢订阅者
+            if ((i + 1) % WINDOW == 0) {
+                publisher.flush();
+                long deadline = System.currentTimeMillis() + 10000;
+                while (fastReceived.get() < i + 1 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+        publisher.flush();
+        fastReader.get(30, TimeUnit.SECONDS);
+        assertEquals(MESSAGES, fastReceived.get());
+        return slow;
+    }
+
+    private static int sequence(String payload) {
+        return Integer.parseInt(payload.substring(0, 6));
+    }
+
+    /** 读到没有新数据为止,返回收到的序号,检查严格递增 */
+    private static List<Integer> drain(Socket socket) throws IOException {
+        socket.setSoTimeout(500);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        List<Integer> received = new ArrayList<>();
+        try {
+            while (true) {
+                int sequence = sequence(receive(in, "t"));
+                assertTrue(received.isEmpty() || sequence > received.get(received.size() - 1));
+                received.add(sequence);
+            }
+        } catch (SocketTimeoutException e) {
+            return received;
+        }
+    }
+
+    @Test
+    public void dropsMessagesForSlowSubscriber() throws Exception {
+        Broadcaster broadcaster = startServer(SlowSubscriberPolicy.DROP, 1, BufferPool.shared(),
+                256 * 1024, 1024 * 1024).broadcaster();
+        Socket slow = publishWithSlowSubscriber(broadcaster);
+
+        List<Integer> received = drain(slow);
+        assertTrue("received: " + received.size(), received.size() < MESSAGES);
+        assertEquals(MESSAGES - received.size(), broadcaster.dropped());
+        assertEquals(0, broadcaster.coalesced());
+    }
+
+    @Test
+    public void coalescesToLatestMessageForSlowSubscriber() throws Exception {
+        Broadcaster broadcaster = startServer(SlowSubscriberPolicy.COALESCE, 1, BufferPool.shared(),
+                256 * 1024, 1024 * 1024).broadcaster();
+        Socket slow = publishWithSlowSubscriber(broadcaster);
+
+        List<Integer> received = drain(slow);
+        assertTrue("received: " + received.size(), received.size() < MESSAGES);
+        //积压期间只保留最新的一条,恢复可写后补发,所以最终一定能收到最后一条
+        assertEquals(MESSAGES - 1, (int) received.get(received.size() - 1));
+        assertEquals(MESSAGES - received.size(), broadcaster.coalesced());
+        assertEquals(0, broadcaster.dropped());
+    }
+
+    @Test
+    public void disconnectsSlowSubscriber() throws Exception {
+        Broadcaster broadcaster = startServer(SlowSubscriberPolicy.DISCONNECT, 1, BufferPool.shared(),
+                256 * 1024, 1024 * 1024).broadcaster();
+        Socket slow = publishWithSlowSubscriber(broadcaster);
+
+        assertEquals(1, broadcaster.disconnected());
+        awaitSubscribers(broadcaster, "t", 1);
+        slow.setSoTimeout(5000);
+        DataInputStream in = new DataInputStream(slow.getInputStream());
+        try {
+            while (true) {
+                receive(in, "t");
+            }
+        } catch (EOFException e) {
+            //连接关闭前已在内核缓冲区中的消息读完后到达流末尾
+        }
+    }
+
+}
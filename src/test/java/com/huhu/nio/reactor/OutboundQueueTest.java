@@ -0,0 +1,187 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import com.huhu.nio.buffer.SharedBuffer;
+import com.huhu.nio.file.FileRegion;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BufferPool pool = new BufferPool(512, 4096, 64 * 1024, true);
+
+    @Test
+    public void coalescesBuffersIntoOneGatheringWrite() throws Exception {
+        OutboundQueue queue = new OutboundQueue(pool);
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer buffer = pool.acquire(8);
+            buffer.put(("msg-" + (i % 10) + "\n").getBytes());
+            buffer.flip();
+            queue.add(buffer, true);
+        }
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+        assertTrue(queue.flush(channel));
+        assertEquals(1, channel.writes);
+        assertEquals(600, channel.out.size());
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void watermarksToggleWritability() throws Exception {
+        OutboundQueue queue = new OutboundQueue(pool);
+        queue.setWatermarks(100, 200);
+        assertFalse(queue.add(ByteBuffer.allocate(150), false));
+        assertTrue(queue.add(ByteBuffer.allocate(100), false));
+        assertFalse(queue.isWritable());
+
+        RecordingChannel channel = new RecordingChannel(100);
+        assertFalse(queue.flush(channel));
+        assertEquals(150, queue.pendingBytes());
+        assertFalse(queue.updateWritability());
+
+        channel.allowance = 60;
+        assertFalse(queue.flush(channel));
+        assertTrue(queue.updateWritability());
+        assertTrue(queue.isWritable());
+
+        channel.allowance = Integer.MAX_VALUE;
+        assertTrue(queue.flush(channel));
+        assertEquals(0, queue.pendingBytes());
+        assertEquals(250, channel.out.size());
+    }
+
+    @Test
+    public void keepsOrderBetweenBuffersAndFileRegions() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, "file".getBytes());
+        OutboundQueue queue = new OutboundQueue(pool);
+        queue.add(ByteBuffer.wrap("head-".getBytes()), false);
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        FileRegion region = new FileRegion(file, 0, file.size(), true, pool);
+        queue.add(region);
+        queue.add(ByteBuffer.wrap("-tail".getBytes()), false);
+
+        RecordingChannel channel = new RecordingChannel(3);
+        while (!queue.flush(channel)) {
+            channel.allowance = 3;
+        }
+        assertEquals("head-file-tail", channel.out.toString());
+        assertFalse(file.isOpen());
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void clearReleasesPendingBuffers() {
+        OutboundQueue queue = new OutboundQueue(pool);
+        for (int i = 0; i < 40; i++) {
+            queue.add(pool.acquire(100), true);
+        }
+        assertEquals(40, queue.size());
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void sharedMessageIsWrittenThroughViewsAndReleasedOnce() throws Exception {
+        ByteBuffer buffer = pool.acquire(16);
+        buffer.put("shared".getBytes()).flip();
+        SharedBuffer message = new SharedBuffer(pool, buffer);
+        OutboundQueue first = new OutboundQueue(pool);
+        OutboundQueue second = new OutboundQueue(pool);
+        first.add(message.retain());
+        second.add(message.retain());
+        assertEquals(3, message.refCnt());
+        message.release();
+
+        //两个视图各自推进position,底层缓冲区不动
+        RecordingChannel slow = new RecordingChannel(2);
+        assertFalse(first.flush(slow));
+        RecordingChannel fast = new RecordingChannel(Integer.MAX_VALUE);
+        assertTrue(second.flush(fast));
+        assertEquals("shared", fast.out.toString());
+        assertEquals(1, message.refCnt());
+        assertEquals(1, pool.outstanding());
+
+        //未写完的视图在连接关闭时释放,最后一个引用归还缓冲区
+        first.clear();
+        assertEquals(0, message.refCnt());
+        assertEquals(0, pool.outstanding());
+        try {
+            message.retain();
+            fail();
+        } catch (IllegalStateException e) {
+            //已经归还
+        }
+    }
+
+    /** 记录写入次数、每次只接受有限字节的内存通道 */
+    private static class RecordingChannel implements GatheringByteChannel {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int allowance;
+        int writes;
+
+        RecordingChannel(int allowance) {
+            this.allowance = allowance;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writes++;
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += copy(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            writes++;
+            return copy(src);
+        }
+
+        private int copy(ByteBuffer src) {
+            int n = Math.min(allowance, src.remaining());
+            for (int i = 0; i < n; i++) {
+                out.write(src.get());
+            }
+            allowance -= n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReactorServerTest {
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private final CountDownLatch closed = new CountDownLatch(4);
+    private final BufferPool pool = new BufferPool(512, 64 * 1024, 1024 * 1024, true);
+    private ReactorServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 2, new ChannelHandler() {
+            @Override
+            public void onOpen(Connection connection) {
+                opened.incrementAndGet();
+            }
+
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) {
+                //回显,缓冲区会被复用所以需要拷贝
+                ByteBuffer copy = connection.alloc().acquire(buffer.remaining());
+                copy.put(buffer);
+                copy.flip();
+                connection.writeAndRelease(copy);
+            }
+
+            @Override
+            public void onClose(Connection connection) {
+                closed.countDown();
+            }
+        }, pool);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void echoesLargePayloadsOnSeveralConnections() throws Exception {
+        byte[] payload = new byte[4 * 1024 * 1024];
+        new Random(1).nextBytes(payload);
+
+        for (int i = 0; i < 4; i++) {
+            try (SocketChannel channel = SocketChannel.open(server.localAddress())) {
+                Thread writer = new Thread(() -> {
+                    try {
+                        channel.write(ByteBuffer.wrap(payload));
+                        channel.shutdownOutput();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                writer.start();
+
+                ByteBuffer received = ByteBuffer.allocate(payload.length);
+                while (received.hasRemaining() && channel.read(received) >= 0) {
+                }
+                writer.join();
+                assertArrayEquals(payload, received.array());
+            }
+        }
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(4, opened.get());
+        assertTrue(server.metrics().getBytesRead() >= 4L * payload.length);
+        assertTrue(server.metrics().getBytesWritten() >= 4L * payload.length);
+        assertTrue(server.metrics().getSelects() > 0);
+
+        server.close();
+        assertTrue(pool.leaks().isEmpty());
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void handlerExceptionClosesOnlyTheFailingConnection() throws Exception {
+        ChannelHandler handler = new ChannelHandler() {
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) {
+                if (buffer.get(buffer.position()) == '!') {
+                    throw new IllegalStateException("handler failure");
+                }
+                ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+                copy.put(buffer).flip();
+                connection.write(copy);
+            }
+        };
+        server.close();
+        server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 1, handler, pool);
+        server.start();
+
+        try (SocketChannel healthy = SocketChannel.open(server.localAddress());
+             SocketChannel failing = SocketChannel.open(server.localAddress())) {
+            assertEquals("ping", echo(healthy, "ping"));
+            failing.write(ByteBuffer.wrap("!boom".getBytes(StandardCharsets.US_ASCII)));
+            //出错的连接被关闭
+            assertEquals(-1, failing.read(ByteBuffer.allocate(16)));
+            //同一个worker上的其他连接不受影响
+            assertEquals("pong", echo(healthy, "pong"));
+        }
+
+        //onOpen抛出异常时connect的future以异常完成,worker继续工作
+        ReactorClient client = new ReactorClient(1, new ChannelHandler() {
+            @Override
+            public void onOpen(Connection connection) {
+                throw new IllegalStateException("open failure");
+            }
+
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) {
+            }
+        }, pool);
+        client.start();
+        try {
+            CompletableFuture<Connection> future = client.connect(server.localAddress());
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            try (SocketChannel healthy = SocketChannel.open(server.localAddress())) {
+                assertEquals("again", echo(healthy, "again"));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void tasksSubmittedAfterShutdownAreRejected() throws Exception {
+        ReactorClient client = new ReactorClient(1, new ChannelHandler() {
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) {
+            }
+        }, pool);
+        client.start();
+        Connection connection;
+        try {
+            connection = client.connect(server.localAddress()).get(5, TimeUnit.SECONDS);
+        } finally {
+            client.close();
+        }
+        try {
+            connection.execute(() -> fail("worker already terminated"));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        //写入被拒绝时缓冲区直接归还,关闭不抛出异常
+        long outstanding = pool.outstanding();
+        connection.writeAndRelease(connection.alloc().acquire(64));
+        assertEquals(outstanding, pool.outstanding());
+        connection.close();
+    }
+
+    private static String echo(SocketChannel channel, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        channel.write(ByteBuffer.wrap(bytes));
+        ByteBuffer received = ByteBuffer.allocate(bytes.length);
+        while (received.hasRemaining() && channel.read(received) >= 0) {
+        }
+        return new String(received.array(), StandardCharsets.US_ASCII);
+    }
+
+}
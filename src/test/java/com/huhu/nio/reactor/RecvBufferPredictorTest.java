@@ -0,0 +1,101 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecvBufferPredictorTest {
+
+    private final BufferPool pool = new BufferPool(512, 64 * 1024, 1024 * 1024, true);
+
+    @Test
+    public void growsOnFullReadsUpToMaximum() {
+        RecvBufferPredictor predictor = new RecvBufferPredictor(pool, 512, 2048, 16 * 1024);
+        assertEquals(2048, predictor.nextReadSize());
+        predictor.record(2048);
+        assertEquals(4096, predictor.nextReadSize());
+        for (int i = 0; i < 10; i++) {
+            predictor.record(predictor.nextReadSize());
+        }
+        assertEquals(16 * 1024, predictor.nextReadSize());
+    }
+
+    @Test
+    public void shrinksOnlyAfterTwoSparseReads() {
+        RecvBufferPredictor predictor = new RecvBufferPredictor(pool, 512, 8192, 16 * 1024);
+        predictor.record(100);
+        assertEquals(8192, predictor.nextReadSize());
+        //中间出现一次正常读取会打断缩小
+        predictor.record(5000);
+        predictor.record(100);
+        assertEquals(8192, predictor.nextReadSize());
+        predictor.record(100);
+        assertEquals(4096, predictor.nextReadSize());
+        for (int i = 0; i < 20; i++) {
+            predictor.record(1);
+        }
+        assertEquals(512, predictor.nextReadSize());
+    }
+
+    @Test
+    public void sizesFollowPoolSizeClasses() {
+        RecvBufferPredictor predictor = new RecvBufferPredictor(pool, 300, 1500, 1024 * 1024);
+        assertEquals(512, predictor.minimum());
+        assertEquals(2048, predictor.nextReadSize());
+        //不超过池的最大等级
+        assertEquals(64 * 1024, predictor.maximum());
+    }
+
+    @Test
+    public void bulkUploadGrowsReadSizeAndReceiveBuffer() throws Exception {
+        AtomicInteger largestRead = new AtomicInteger();
+        AtomicLong received = new AtomicLong();
+        AtomicInteger receiveBuffer = new AtomicInteger();
+        CountDownLatch closed = new CountDownLatch(1);
+        ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 1, new ChannelHandler() {
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) throws IOException {
+                largestRead.accumulateAndGet(buffer.remaining(), Math::max);
+                received.addAndGet(buffer.remaining());
+                receiveBuffer.set(connection.channel().getOption(StandardSocketOptions.SO_RCVBUF));
+            }
+
+            @Override
+            public void onClose(Connection connection) {
+                closed.countDown();
+            }
+        }, pool);
+        server.setReceiveBufferSizes(512, 1024, 64 * 1024, true);
+        server.start();
+        int initialReceiveBuffer;
+        try {
+            try (SocketChannel client = SocketChannel.open(server.localAddress())) {
+                initialReceiveBuffer = client.getOption(StandardSocketOptions.SO_RCVBUF);
+                ByteBuffer payload = ByteBuffer.allocate(8 * 1024 * 1024);
+                while (payload.hasRemaining()) {
+                    client.write(payload);
+                }
+            }
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+        } finally {
+            server.close();
+        }
+        assertEquals(8 * 1024 * 1024, received.get());
+        assertTrue("largest read " + largestRead.get(), largestRead.get() > 1024);
+        assertTrue(receiveBuffer.get() >= Math.min(initialReceiveBuffer, 128 * 1024));
+        assertTrue(pool.leaks().isEmpty());
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.huhu.nio.reactor;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void expiresAfterDelayIncludingMultipleRounds() {
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.schedule(new TimingWheel.Timeout(() -> fired.add("short")), 25, 0);
+        //超过一圈(80ms)
+        wheel.schedule(new TimingWheel.Timeout(() -> fired.add("long")), 205, 0);
+        assertEquals(2, wheel.size());
+
+        assertEquals(0, wheel.advance(20));
+        assertEquals(1, wheel.advance(30));
+        assertEquals("short", fired.get(0));
+        assertEquals(0, wheel.advance(200));
+        assertEquals(1, wheel.advance(210));
+        assertEquals("long", fired.get(1));
+        assertEquals(0, wheel.size());
+        assertEquals(-1, wheel.millisToNextTick(210));
+    }
+
+    @Test
+    public void cancelAndRescheduleAreConstantTimeAndReuseTheNode() {
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        int[] count = new int[1];
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(() -> count[0]++);
+        TimingWheel.Timeout other = new TimingWheel.Timeout(() -> count[0] += 100);
+        wheel.schedule(timeout, 50, 0);
+        wheel.schedule(other, 50, 0);
+        wheel.cancel(other);
+        assertFalse(other.isScheduled());
+
+        //重新调度会先从原来的槽里摘下
+        wheel.schedule(timeout, 100, 40);
+        assertEquals(1, wheel.size());
+        wheel.advance(100);
+        assertEquals(0, count[0]);
+        wheel.advance(140);
+        assertEquals(1, count[0]);
+        assertFalse(timeout.isScheduled());
+    }
+
+    @Test
+    public void taskMayRescheduleItself() {
+        TimingWheel wheel = new TimingWheel(10, 4, 0);
+        long[] now = {0};
+        int[] count = new int[1];
+        TimingWheel.Timeout[] holder = new TimingWheel.Timeout[1];
+        holder[0] = new TimingWheel.Timeout(() -> {
+            if (++count[0] < 3) {
+                wheel.schedule(holder[0], 30, now[0]);
+            }
+        });
+        wheel.schedule(holder[0], 30, 0);
+        for (now[0] = 0; now[0] <= 200; now[0] += 10) {
+            wheel.advance(now[0]);
+        }
+        assertEquals(3, count[0]);
+    }
+
+    @Test
+    public void reactorClosesIdleConnections() throws Exception {
+        BufferPool pool = new BufferPool(512, 64 * 1024, 1024 * 1024, true);
+        List<TimeoutType> timeouts = new CopyOnWriteArrayList<>();
+        CountDownLatch closed = new CountDownLatch(1);
+        ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 1, new ChannelHandler() {
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) {
+            }
+
+            @Override
+            public void onTimeout(Connection connection, TimeoutType type) {
+                timeouts.add(type);
+                connection.close();
+            }
+
+            @Override
+            public void onClose(Connection connection) {
+                closed.countDown();
+            }
+        }, pool);
+        server.setTimeouts(0, 0, 300);
+        server.start();
+        try (SocketChannel client = SocketChannel.open(server.localAddress())) {
+            long start = System.nanoTime();
+            //期间的读写会推迟超时
+            Thread.sleep(200);
+            client.write(ByteBuffer.wrap(new byte[]{1}));
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("closed after " + elapsed + "ms", elapsed >= 450);
+            assertEquals(-1, client.read(ByteBuffer.allocate(1)));
+            assertEquals(1, timeouts.size());
+            assertEquals(TimeoutType.IDLE, timeouts.get(0));
+        } finally {
+            server.close();
+        }
+        assertTrue(pool.leaks().isEmpty());
+    }
+
+}
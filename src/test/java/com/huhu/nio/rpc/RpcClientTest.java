@@ -0,0 +1,163 @@
+package com.huhu.nio.rpc;
+
+import com.huhu.nio.reactor.ReactorServer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RpcClientTest {
+
+    private final List<ReactorServer> servers = new ArrayList<>();
+    private RpcClient client;
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        for (ReactorServer server : servers) {
+            server.close();
+        }
+    }
+
+    private static ByteBuffer text(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private InetSocketAddress startServer(RpcServerHandler.Service service) throws IOException {
+        ReactorServer server = new ReactorServer(new InetSocketAddress("127.0.0.1", 0), 1,
+                new RpcServerHandler(service));
+        server.start();
+        servers.add(server);
+        return server.localAddress();
+    }
+
+    /** 回显请求,前面加上name */
+    private InetSocketAddress startEcho(String name) throws IOException {
+        return startServer(request -> {
+            ByteBuffer response = ByteBuffer.allocate(name.length() + 1 + request.remaining());
+            response.put(name.getBytes(StandardCharsets.UTF_8)).put((byte) ':').put(request).flip();
+            return response;
+        });
+    }
+
+    /** 从不响应 */
+    private InetSocketAddress startBlackHole() throws IOException {
+        return startServer(request -> null);
+    }
+
+    @Test
+    public void pipelinesConcurrentRequestsOverPooledConnections() throws Exception {
+        InetSocketAddress address = startEcho("a");
+        client = new RpcClient(Collections.singletonList(address));
+        client.setPoolSize(2, 8);
+        client.start();
+
+        List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            futures.add(client.call(text("request-" + i)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("a:request-" + i, text(futures.get(i).get(10, TimeUnit.SECONDS)));
+        }
+        int connections = client.connections(address);
+        assertTrue("connections: " + connections, connections >= 1 && connections <= 2);
+        assertEquals(0, client.outstanding(address));
+
+        //之后的请求复用已有连接
+        assertEquals("a:again", text(client.call(text("again")).get(5, TimeUnit.SECONDS)));
+        assertEquals(connections, client.connections(address));
+    }
+
+    @Test
+    public void routesToEndpointWithFewestOutstandingRequests() throws Exception {
+        InetSocketAddress slow = startBlackHole();
+        InetSocketAddress fast = startEcho("fast");
+        client = new RpcClient(Arrays.asList(slow, fast));
+        client.setTimeouts(3000, 0);
+        client.start();
+
+        int completed = 0;
+        for (int i = 0; i < 20; i++) {
+            CompletableFuture<ByteBuffer> future = client.call(text("x" + i));
+            try {
+                assertEquals("fast:x" + i, text(future.get(500, TimeUnit.MILLISECONDS)));
+                completed++;
+            } catch (TimeoutException e) {
+                //落在不响应的端点上
+            }
+        }
+        //不响应的端点有了一个在途请求后,之后的请求全部选择另一个端点
+        assertEquals(1, client.outstanding(slow));
+        assertEquals(19, completed);
+        assertEquals(0, client.outstanding(fast));
+    }
+
+    @Test
+    public void failsOnRequestTimeoutConnectFailureAndClose() throws Exception {
+        InetSocketAddress blackHole = startBlackHole();
+        client = new RpcClient(Collections.singletonList(blackHole));
+        client.setTimeouts(1000, 200);
+        client.start();
+        try {
+            client.call(text("lost")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, client.outstanding(blackHole));
+
+        //关闭客户端时在途请求失败
+        client.close();
+        client = new RpcClient(Collections.singletonList(blackHole));
+        client.setTimeouts(1000, 0);
+        client.start();
+        CompletableFuture<ByteBuffer> pending = client.call(text("pending"));
+        Thread.sleep(100);
+        client.close();
+        try {
+            pending.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        client = new RpcClient(Collections.singletonList(new InetSocketAddress("127.0.0.1", port)));
+        client.start();
+        try {
+            client.call(text("nobody")).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.huhu.nio.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRegistryTest {
+
+    private static final int BYTES_IN = 0;
+    private static final int BYTES_OUT = 8;
+    private static final int FLAGS = 16;
+
+    @Test
+    public void registersLooksUpAndRemovesAcrossResizes() {
+        SessionRegistry registry = new SessionRegistry(20, 4, 256);
+        assertEquals(24, registry.fieldBytes());
+        int count = 100000;
+        for (long id = 1; id <= count; id++) {
+            int record = registry.register(id);
+            registry.putLong(record, BYTES_IN, id * 10);
+            registry.putInt(record, FLAGS, (int) id);
+        }
+        assertEquals(count, registry.size());
+        assertEquals(registry.get(42), registry.register(42));
+        for (long id = 1; id <= count; id++) {
+            int record = registry.get(id);
+            assertEquals(id, registry.id(record));
+            assertEquals(id * 10, registry.getLong(record, BYTES_IN));
+            assertEquals((int) id, registry.getInt(record, FLAGS));
+        }
+        assertEquals(-1, registry.get(count + 1));
+
+        //删除一半后剩下的键仍然都能找到,后移删除不能打断探测链
+        for (long id = 1; id <= count; id += 2) {
+            assertTrue(registry.remove(id));
+        }
+        assertFalse(registry.remove(1));
+        assertEquals(count / 2, registry.size());
+        for (long id = 1; id <= count; id++) {
+            assertEquals(id % 2 == 0, registry.contains(id));
+        }
+
+        //回收的记录被复用,并且重新清零
+        long offHeap = registry.offHeapBytes();
+        for (long id = count + 1; id <= count + count / 2; id++) {
+            int record = registry.register(id);
+            assertEquals(0, registry.getLong(record, BYTES_IN));
+            assertEquals(0, registry.getInt(record, FLAGS));
+        }
+        assertEquals(offHeap, registry.offHeapBytes());
+    }
+
+    @Test
+    public void forEachVisitsLiveSessionsWithAttachments() {
+        SessionRegistry registry = new SessionRegistry(16);
+        List<Object> connections = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            Object connection = new Object();
+            connections.add(connection);
+            registry.attach(registry.register(id), connection);
+        }
+        for (long id = 1; id <= 1000; id += 3) {
+            registry.remove(id);
+        }
+        Set<Long> visited = new HashSet<>();
+        registry.forEach((id, record) -> {
+            assertTrue(visited.add(id));
+            assertSame(connections.get((int) id - 1), registry.attachment(record));
+        });
+        assertEquals(registry.size(), visited.size());
+        for (long id = 1; id <= 1000; id++) {
+            assertEquals((id - 1) % 3 != 0, visited.contains(id));
+        }
+        int reused = registry.register(5000);
+        assertNull(registry.attachment(reused));
+    }
+
+    @Test
+    public void concurrentUpdatesFromManyThreads() throws Exception {
+        SessionRegistry registry = new SessionRegistry(16, 8, 1024);
+        int threads = 4;
+        int perThread = 50000;
+        ConcurrentHashMap<Long, Boolean> expected = new ConcurrentHashMap<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long base = (long) t * perThread;
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (long i = 1; i <= perThread; i++) {
+                    long id = base + i;
+                    int record = registry.register(id);
+                    registry.addLong(record, BYTES_OUT, 1);
+                    //随机删掉一部分,另一个线程同时在查找
+                    if (random.nextInt(4) == 0) {
+                        assertTrue(registry.remove(id));
+                    } else {
+                        expected.put(id, Boolean.TRUE);
+                    }
+                    assertTrue(registry.get(base + 1) >= 0 || !expected.containsKey(base + 1));
+                }
+            }));
+        }
+        //所有线程共享的计数记录
+        int shared = registry.register(Long.MAX_VALUE);
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    registry.addLong(shared, BYTES_IN, 1);
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * 10000L, registry.getLong(shared, BYTES_IN));
+        assertEquals(expected.size() + 1, registry.size());
+        for (Long id : expected.keySet()) {
+            int record = registry.get(id);
+            assertEquals((long) id, registry.id(record));
+            assertEquals(1, registry.getLong(record, BYTES_OUT));
+        }
+        int[] visited = new int[1];
+        registry.forEach((id, record) -> visited[0]++);
+        assertEquals(expected.size() + 1, visited[0]);
+    }
+
+}
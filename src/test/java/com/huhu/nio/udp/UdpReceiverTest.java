@@ -0,0 +1,79 @@
+package com.huhu.nio.udp;
+
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UdpReceiverTest {
+
+    @Test
+    public void receivesEveryDatagramInBatches() throws Exception {
+        BufferPool pool = new BufferPool(512, 4096, 64 * 1024, true);
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger largestBatch = new AtomicInteger();
+        UdpReceiver receiver = new UdpReceiver(new InetSocketAddress("127.0.0.1", 0), 2, 32, 1024,
+                4 * 1024 * 1024, batch -> {
+            largestBatch.accumulateAndGet(batch.size(), Math::max);
+            for (int i = 0; i < batch.size(); i++) {
+                seen.add(batch.datagram(i).getInt());
+            }
+        }, pool);
+        receiver.start();
+
+        int count = 500;
+        try (DatagramChannel sender = DatagramChannel.open()) {
+            sender.connect(receiver.localAddress());
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                buffer.putInt(i);
+                buffer.position(100);
+                buffer.flip();
+                sender.write(buffer);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (seen.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        receiver.close();
+
+        assertEquals(count, seen.size());
+        assertEquals(count, receiver.received());
+        assertTrue(receiver.batches() <= count);
+        assertEquals(0, receiver.truncated());
+        assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void countsTruncatedAndDroppedDatagrams() throws Exception {
+        UdpReceiver receiver = new UdpReceiver(new InetSocketAddress("127.0.0.1", 0), 1, 8, 16, 0, batch -> {
+            throw new IllegalStateException("handler failure");
+        }, new BufferPool(512, 4096, 64 * 1024, false));
+        receiver.start();
+        try (DatagramChannel sender = DatagramChannel.open()) {
+            sender.connect(receiver.localAddress());
+            //恰好datagramSize的数据报是完整的
+            sender.write(ByteBuffer.allocate(16));
+            sender.write(ByteBuffer.allocate(64));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (receiver.dropped() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        receiver.close();
+        assertEquals(1, receiver.truncated());
+        assertEquals(2, receiver.dropped());
+    }
+
+}
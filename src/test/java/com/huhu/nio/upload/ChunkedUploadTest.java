@@ -0,0 +1,226 @@
+package com.huhu.nio.upload;
+
+import com.huhu.nio.blocking.BlockingServer;
+import com.huhu.nio.buffer.BufferPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedUploadTest {
+
+    private static final int CHUNK = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BufferPool pool = new BufferPool(512, 1024 * 1024, 4 * 1024 * 1024, true);
+
+    @Test
+    public void rangeSetMergesAndReportsGaps() {
+        RangeSet set = new RangeSet();
+        set.add(10, 20);
+        set.add(30, 40);
+        set.add(18, 32);
+        set.add(50, 60);
+        set.add(60, 70);
+        assertEquals(50, set.covered());
+        assertTrue(set.covers(12, 40));
+        assertFalse(set.covers(5, 15));
+        List<long[]> ranges = set.ranges();
+        assertEquals(2, ranges.size());
+        assertTrue(Arrays.equals(new long[]{10, 40}, ranges.get(0)));
+        assertTrue(Arrays.equals(new long[]{50, 70}, ranges.get(1)));
+        List<long[]> missing = RangeSet.missing(ranges, 80);
+        assertEquals(3, missing.size());
+        assertTrue(Arrays.equals(new long[]{0, 10}, missing.get(0)));
+        assertTrue(Arrays.equals(new long[]{40, 50}, missing.get(1)));
+        assertTrue(Arrays.equals(new long[]{70, 80}, missing.get(2)));
+        missing = set.missing(0, 55);
+        assertEquals(2, missing.size());
+        assertTrue(Arrays.equals(new long[]{0, 10}, missing.get(0)));
+        assertTrue(Arrays.equals(new long[]{40, 50}, missing.get(1)));
+        assertTrue(set.missing(12, 38).isEmpty());
+    }
+
+    @Test
+    public void parallelStreamsReassembleOneFile() throws Exception {
+        Path source = randomFile(5 * 1024 * 1024 + 123);
+        Path directory = folder.newFolder("server").toPath();
+        ChunkedUploadHandler handler = new ChunkedUploadHandler(directory, false, pool);
+        try (BlockingServer server = start(handler)) {
+            ChunkedUploadClient client = new ChunkedUploadClient(server.localAddress(), 4, CHUNK, 0, pool);
+            assertEquals(Files.size(source), client.upload(source, "data.bin"));
+            //再次上传时服务端已有完整文件,不需要发送数据
+            assertEquals(0, client.upload(source, "data.bin"));
+        }
+        assertTrue(Arrays.equals(Files.readAllBytes(source), Files.readAllBytes(directory.resolve("data.bin"))));
+        assertFalse(Files.exists(directory.resolve("data.bin.part")));
+        assertFalse(Files.exists(directory.resolve("data.bin.part.idx")));
+        assertTrue(pool.leaks().isEmpty());
+    }
+
+    @Test
+    public void resumesFromSidecarIndexAfterServerRestart() throws Exception {
+        Path source = randomFile(2 * 1024 * 1024);
+        byte[] bytes = Files.readAllBytes(source);
+        Path directory = folder.newFolder("server").toPath();
+
+        //第一次只发送两个块就断开
+        try (BlockingServer server = start(new ChunkedUploadHandler(directory, true, pool));
+             SocketChannel channel = SocketChannel.open(server.localAddress())) {
+            UploadProtocol.writeHello(channel, "resume.bin", bytes.length, crc(bytes, 0, bytes.length));
+            assertTrue(UploadProtocol.readStatus(channel).isEmpty());
+            assertEquals(UploadProtocol.OK, sendRawChunk(channel, bytes, 0, CHUNK, crc(bytes, 0, CHUNK)));
+            assertEquals(UploadProtocol.OK, sendRawChunk(channel, bytes, 3 * CHUNK, CHUNK, crc(bytes, 3 * CHUNK, CHUNK)));
+        }
+        assertTrue(Files.exists(directory.resolve("resume.bin.part.idx")));
+
+        try (BlockingServer server = start(new ChunkedUploadHandler(directory, true, pool))) {
+            ChunkedUploadClient client = new ChunkedUploadClient(server.localAddress(), 2, CHUNK, 0, pool);
+            assertEquals(bytes.length - 2 * CHUNK, client.upload(source, "resume.bin"));
+        }
+        assertTrue(Arrays.equals(bytes, Files.readAllBytes(directory.resolve("resume.bin"))));
+        assertTrue(pool.leaks().isEmpty());
+    }
+
+    @Test
+    public void differentContentWithSameNameAndLengthIsUploadedAgain() throws Exception {
+        Path first = randomFile(CHUNK * 4);
+        Path second = randomFile(CHUNK * 4 + 1);
+        byte[] secondBytes = Arrays.copyOf(Files.readAllBytes(second), CHUNK * 4);
+        Files.write(second, secondBytes);
+        Path third = randomFile(CHUNK * 4 + 2);
+        byte[] thirdBytes = Arrays.copyOf(Files.readAllBytes(third), CHUNK * 4);
+        Files.write(third, thirdBytes);
+        Path directory = folder.newFolder("server").toPath();
+        ChunkedUploadHandler handler = new ChunkedUploadHandler(directory, false, pool);
+        try (BlockingServer server = start(handler)) {
+            ChunkedUploadClient client = new ChunkedUploadClient(server.localAddress(), 2, CHUNK, 0, pool);
+            client.upload(first, "same.bin");
+            //已完成的同名同长度文件内容不同,不能当作已上传
+            assertEquals(secondBytes.length, client.upload(second, "same.bin"));
+            assertTrue(Arrays.equals(secondBytes, Files.readAllBytes(directory.resolve("same.bin"))));
+
+            //另一个文件留下的索引不能续传到这次上传中
+            try (SocketChannel channel = SocketChannel.open(server.localAddress())) {
+                UploadProtocol.writeHello(channel, "same.bin", secondBytes.length, crc(secondBytes, 0, CHUNK * 4) ^ 1);
+                UploadProtocol.readStatus(channel);
+                assertEquals(UploadProtocol.OK, sendRawChunk(channel, secondBytes, 0, CHUNK, crc(secondBytes, 0, CHUNK)));
+            }
+            //服务端在连接关闭后才释放这次未完成的上传
+            long deadline = System.currentTimeMillis() + 5000;
+            while (handler.sessions() != 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(thirdBytes.length, client.upload(third, "same.bin"));
+        }
+        assertTrue(Arrays.equals(thirdBytes, Files.readAllBytes(directory.resolve("same.bin"))));
+    }
+
+    @Test
+    public void corruptChunkIsRejectedAndNotRecorded() throws Exception {
+        Path source = randomFile(CHUNK * 2);
+        byte[] bytes = Files.readAllBytes(source);
+        Path directory = folder.newFolder("server").toPath();
+        ChunkedUploadHandler handler = new ChunkedUploadHandler(directory, false, pool);
+        try (BlockingServer server = start(handler)) {
+            try (SocketChannel channel = SocketChannel.open(server.localAddress())) {
+                UploadProtocol.writeHello(channel, "corrupt.bin", bytes.length, crc(bytes, 0, bytes.length));
+                UploadProtocol.readStatus(channel);
+                int wrong = crc(bytes, 0, CHUNK) ^ 1;
+                assertEquals(UploadProtocol.BAD_CHECKSUM, sendRawChunk(channel, bytes, 0, CHUNK, wrong));
+                //越界的块直接拒绝
+                assertEquals(UploadProtocol.ERROR, sendRawChunk(channel, bytes, CHUNK + 1, CHUNK, 0));
+            }
+            ChunkedUploadClient client = new ChunkedUploadClient(server.localAddress(), 1, CHUNK, 0, pool);
+            assertEquals(bytes.length, client.upload(source, "corrupt.bin"));
+        }
+        assertEquals(1, handler.badChecksums());
+        assertTrue(Arrays.equals(bytes, Files.readAllBytes(directory.resolve("corrupt.bin"))));
+    }
+
+    @Test
+    public void overlappingChunkWritesOnlyMissingPart() throws Exception {
+        byte[] bytes = Files.readAllBytes(randomFile(CHUNK * 2));
+        int half = CHUNK / 2;
+        Path directory = folder.newFolder("server").toPath();
+        ChunkedUploadHandler handler = new ChunkedUploadHandler(directory, false, pool);
+        try (BlockingServer server = start(handler)) {
+            try (SocketChannel channel = SocketChannel.open(server.localAddress())) {
+                UploadProtocol.writeHello(channel, "overlap.bin", bytes.length, crc(bytes, 0, bytes.length));
+                UploadProtocol.readStatus(channel);
+                assertEquals(UploadProtocol.OK, sendRawChunk(channel, bytes, 0, CHUNK, crc(bytes, 0, CHUNK)));
+                //前一半已经提交,只补写后一半
+                assertEquals(UploadProtocol.OK, sendRawChunk(channel, bytes, half, CHUNK, crc(bytes, half, CHUNK)));
+                assertEquals(UploadProtocol.OK,
+                        sendRawChunk(channel, bytes, half + CHUNK, half, crc(bytes, half + CHUNK, half)));
+                //offset + chunkLength溢出的块直接拒绝
+                ByteBuffer header = ByteBuffer.allocate(16);
+                header.putLong(Long.MAX_VALUE - 1).putInt(CHUNK).putInt(0).flip();
+                UploadProtocol.writeFully(channel, header);
+                assertEquals(UploadProtocol.ERROR, UploadProtocol.readByte(channel));
+            }
+        }
+        assertEquals(0, handler.badChecksums());
+        assertTrue(Arrays.equals(bytes, Files.readAllBytes(directory.resolve("overlap.bin"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPathsAsNames() throws Exception {
+        new ChunkedUploadClient(new InetSocketAddress("127.0.0.1", 1)).upload(randomFile(1), "../escape");
+    }
+
+    @Test
+    public void rejectsNamesOfWorkingFiles() {
+        assertFalse(UploadProtocol.isValidName("x.part"));
+        assertFalse(UploadProtocol.isValidName("x.part.idx"));
+        assertTrue(UploadProtocol.isValidName("x.partial"));
+    }
+
+    private BlockingServer start(ChunkedUploadHandler handler) throws IOException {
+        BlockingServer server = new BlockingServer(new InetSocketAddress("127.0.0.1", 0), handler);
+        server.start();
+        return server;
+    }
+
+    private Path randomFile(int size) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        return file;
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte sendRawChunk(SocketChannel channel, byte[] bytes, int offset, int length, int checksum)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putLong(offset).putInt(length).putInt(checksum).flip();
+        UploadProtocol.writeFully(channel, header);
+        if (offset + length <= bytes.length) {
+            UploadProtocol.writeFully(channel, ByteBuffer.wrap(bytes, offset, length));
+        }
+        return UploadProtocol.readByte(channel);
+    }
+
+}